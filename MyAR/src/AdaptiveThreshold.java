@@ -0,0 +1,218 @@
+import java.util.Arrays;
+
+import jp.nyatla.nyartoolkit.jogl.utils.GLNyARRoiThreshold;
+
+/**
+ * カメラ画像の輝度ヒストグラムから二値化しきい値を決めるクラス。
+ * 画像は一定間隔の格子点だけを見て、前回から輝度が変わった点の分だけ
+ * ヒストグラムを差分更新する。しきい値は大津の方法で求める。
+ * 画面をタイルに分けたヒストグラムも持つので、マーカー周辺の領域だけのしきい値も得られる。
+ */
+public class AdaptiveThreshold implements GLNyARRoiThreshold {
+
+	// しきい値を決められない時に返す値
+	public static final int DEFAULT_THRESHOLD = 150;
+
+	private final int _width;
+	private final int _height;
+	private final int _step;
+	private final int _grid_w;
+	private final int _grid_h;
+	private final int _tile_cols;
+	private final int _tile_rows;
+
+	// 格子点ごとの所属タイル
+	private final int[] _tile_of_gx;
+	private final int[] _tile_of_gy;
+
+	// 格子点ごとの前回の輝度
+	private final byte[] _samples;
+	private boolean _has_samples = false;
+
+	private final int[] _histogram = new int[256];
+	private final int[][] _tile_histogram;
+	private final int[] _work = new int[256];
+
+	private int _threshold = DEFAULT_THRESHOLD;
+	private boolean _dirty = false;
+
+	/**
+	 * @param i_width 画像の幅
+	 * @param i_height 画像の高さ
+	 * @param i_step 格子の間隔(ピクセル)
+	 * @param i_tile_cols 横方向のタイル数
+	 * @param i_tile_rows 縦方向のタイル数
+	 */
+	public AdaptiveThreshold(int i_width, int i_height, int i_step, int i_tile_cols, int i_tile_rows) {
+
+		if (i_step < 1 || i_tile_cols < 1 || i_tile_rows < 1) {
+			throw new IllegalArgumentException();
+		}
+
+		_width = i_width;
+		_height = i_height;
+		_step = i_step;
+		_grid_w = Math.max(1, i_width / i_step);
+		_grid_h = Math.max(1, i_height / i_step);
+		_tile_cols = Math.min(i_tile_cols, _grid_w);
+		_tile_rows = Math.min(i_tile_rows, _grid_h);
+
+		_tile_of_gx = new int[_grid_w];
+		for (int gx = 0; gx < _grid_w; gx++) {
+			_tile_of_gx[gx] = gx * _tile_cols / _grid_w;
+		}
+		_tile_of_gy = new int[_grid_h];
+		for (int gy = 0; gy < _grid_h; gy++) {
+			_tile_of_gy[gy] = gy * _tile_rows / _grid_h;
+		}
+
+		_samples = new byte[_grid_w * _grid_h];
+		_tile_histogram = new int[_tile_cols * _tile_rows][256];
+	}
+
+	/**
+	 * 8bitRGBの画像を取り込み、ヒストグラムを更新する。
+	 * キャプチャスレッドから呼ばれる。
+	 * 格子点の輝度が一つも変わっていなければ、しきい値は再計算しない。
+	 * @param i_rgb RGB順に並んだ画素配列
+	 */
+	public synchronized void update(byte[] i_rgb) {
+
+		final int stride = _width * 3;
+		final int offset = _step / 2;
+		final byte[] samples = _samples;
+		final int[] histogram = _histogram;
+		boolean changed = !_has_samples;
+
+		for (int gy = 0; gy < _grid_h; gy++) {
+
+			final int row = (gy * _step + offset) * stride;
+			final int tile_row = _tile_of_gy[gy] * _tile_cols;
+
+			for (int gx = 0; gx < _grid_w; gx++) {
+
+				final int i = row + (gx * _step + offset) * 3;
+				final int lum = ((i_rgb[i] & 0xff) + (i_rgb[i + 1] & 0xff) + (i_rgb[i + 2] & 0xff)) / 3;
+				final int s = gy * _grid_w + gx;
+				final int old = samples[s] & 0xff;
+
+				if (_has_samples && old == lum) {
+					continue;
+				}
+
+				final int[] tile = _tile_histogram[tile_row + _tile_of_gx[gx]];
+				if (_has_samples) {
+					histogram[old]--;
+					tile[old]--;
+				}
+				histogram[lum]++;
+				tile[lum]++;
+				samples[s] = (byte) lum;
+				changed = true;
+			}
+		}
+
+		_has_samples = true;
+		if (changed) {
+			_dirty = true;
+		}
+	}
+
+	/**
+	 * 画面全体のしきい値を返す。
+	 * 前回の問い合わせから画像が更新されていなければ再計算しない。
+	 */
+	public synchronized int getThreshold() {
+
+		if (_dirty) {
+			_threshold = otsu(_histogram, _threshold);
+			_dirty = false;
+		}
+
+		return _threshold;
+	}
+
+	/**
+	 * 画像上の矩形に重なるタイルのヒストグラムを合わせてしきい値を返す。
+	 * GLNyARTrackingDetectMarkerが予測領域を探索する時に使う。
+	 */
+	public synchronized int getThreshold(int i_x, int i_y, int i_w, int i_h) {
+
+		final int col0 = tileColumnOf(i_x);
+		final int col1 = tileColumnOf(i_x + i_w - 1);
+		final int row0 = tileRowOf(i_y);
+		final int row1 = tileRowOf(i_y + i_h - 1);
+
+		final int[] work = _work;
+		Arrays.fill(work, 0);
+		for (int row = row0; row <= row1; row++) {
+			for (int col = col0; col <= col1; col++) {
+				final int[] tile = _tile_histogram[row * _tile_cols + col];
+				for (int i = 0; i < 256; i++) {
+					work[i] += tile[i];
+				}
+			}
+		}
+
+		return otsu(work, getThreshold());
+	}
+
+	private int tileColumnOf(int i_x) {
+
+		int gx = Math.min(Math.max(i_x, 0), _width - 1) / _step;
+		return _tile_of_gx[Math.min(gx, _grid_w - 1)];
+	}
+
+	private int tileRowOf(int i_y) {
+
+		int gy = Math.min(Math.max(i_y, 0), _height - 1) / _step;
+		return _tile_of_gy[Math.min(gy, _grid_h - 1)];
+	}
+
+	/**
+	 * 大津の方法でヒストグラムをクラス間分散最大の位置で二分する。
+	 * 返す値以下の輝度が黒として扱われる。
+	 * @param i_hist 256段階のヒストグラム
+	 * @param i_fallback 画素が無い、または単一輝度の場合に返す値
+	 */
+	static int otsu(int[] i_hist, int i_fallback) {
+
+		long total = 0;
+		double sum_all = 0;
+		for (int i = 0; i < 256; i++) {
+			total += i_hist[i];
+			sum_all += (double) i * i_hist[i];
+		}
+		if (total == 0) {
+			return i_fallback;
+		}
+
+		long weight_b = 0;
+		double sum_b = 0;
+		double best = 0;
+		int result = -1;
+		for (int t = 0; t < 255; t++) {
+
+			weight_b += i_hist[t];
+			if (weight_b == 0) {
+				continue;
+			}
+			final long weight_f = total - weight_b;
+			if (weight_f == 0) {
+				break;
+			}
+			sum_b += (double) t * i_hist[t];
+
+			final double mean_b = sum_b / weight_b;
+			final double mean_f = (sum_all - sum_b) / weight_f;
+			final double diff = mean_b - mean_f;
+			final double between = (double) weight_b * (double) weight_f * diff * diff;
+			if (between > best) {
+				best = between;
+				result = t;
+			}
+		}
+
+		return result < 0 ? i_fallback : result;
+	}
+}
@@ -1,8 +1,7 @@
+import java.awt.Graphics;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
-import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GLAutoDrawable;
@@ -11,15 +10,15 @@ import javax.media.opengl.GLEventListener;
 
 import jp.nyatla.nyartoolkit.NyARException;
 import jp.nyatla.nyartoolkit.core.NyARCode;
-import jp.nyatla.nyartoolkit.core.types.NyARIntSize;
+import jp.nyatla.nyartoolkit.jogl.utils.GLNyARBackgroundRenderer;
 import jp.nyatla.nyartoolkit.jogl.utils.GLNyARParam;
-import jp.nyatla.nyartoolkit.jogl.utils.GLNyARSingleDetectMarker;
+import jp.nyatla.nyartoolkit.jogl.utils.GLNyARPoseFilter;
+import jp.nyatla.nyartoolkit.jogl.utils.GLNyARSmoothingPoseFilter;
+import jp.nyatla.nyartoolkit.jogl.utils.GLNyARTrackingDetectMarker;
 import jp.nyatla.nyartoolkit.qt.utils.QtNyARRaster_RGB;
 
 import JautOGL.GLModel;
 
-import com.sun.opengl.util.Animator;
-
 @SuppressWarnings("serial")
 public class MyGLCanvas extends GLCanvas implements GLEventListener {
 	
@@ -27,9 +26,29 @@ public class MyGLCanvas extends GLCanvas implements GLEventListener {
 	private final String PARAM_FILE = "./Data/camera_para.dat";
 
 	private GL _gl;
+	private MyQtCameraCapture _qtCapture;
 	private QtNyARRaster_RGB _raster;
-	private GLNyARSingleDetectMarker _nya;
+	private RenderScheduler _scheduler;
+	
+	// 最後に処理したカメラ画像の番号
+	private long _last_frame = -1;
+	// 最後に背景へ転送した、前の画像から画素が変わったカメラ画像の番号
+	private long _last_changed_frame = -1;
+	// ウィンドウの再表示やリサイズで描き直しが必要
+	private volatile boolean _force_redraw = true;
+	private boolean _is_pose_valid = false;
+	private GLNyARTrackingDetectMarker _nya;
 	private GLNyARParam _ar_param;
+	private GLNyARBackgroundRenderer _background;
+	
+	// 検出器とレンダラの間で姿勢を平滑化・外挿する
+	private GLNyARPoseFilter _pose_filter = new GLNyARSmoothingPoseFilter();
+	private final double[] _view = new double[16];
+	private AdaptiveThreshold _threshold;
+	
+	// trueならフレーム毎に輝度ヒストグラムからしきい値を決める。
+	// 予測領域の探索には、その領域の輝度ヒストグラムから決めたしきい値を使う
+	private boolean _adaptive_threshold = true;
 	
 	/// protected TextureManager texture_manager;
 	protected GLModel model1;
@@ -39,13 +58,38 @@ public class MyGLCanvas extends GLCanvas implements GLEventListener {
 		
 		addGLEventListener(this);
 		setSize(MyAR.SCREEN_X, MyAR.SCREEN_Y);
+		// 描き直さなかったフレームは前の画像を表示したままにする
+		setAutoSwapBufferMode(false);
+
+		// カメラ画像が届いた時だけ描画する
+		_scheduler = new RenderScheduler(this);
 
-		MyQtCameraCapture _qtCapture = new MyQtCameraCapture();
+		_qtCapture = new MyQtCameraCapture();
 		_raster = _qtCapture.get_raster();
+		_threshold = _qtCapture.get_threshold();
+		_qtCapture.set_render_scheduler(_scheduler);
 		_qtCapture.start();
 		
 	}
 	
+	// 描画の最大フレームレートを設定する。0以下なら制限しない
+	public void setMaxFps(float i_fps) {
+		_scheduler.setMaxFps(i_fps);
+	}
+	
+	// 姿勢フィルタを差し替える
+	public void setPoseFilter(GLNyARPoseFilter i_filter) {
+		_pose_filter = i_filter;
+	}
+	
+	// しきい値の自動調整を切り替える
+	public void setAdaptiveThreshold(boolean i_enable) {
+		_adaptive_threshold = i_enable;
+		if (_nya != null) {
+			_nya.setRoiThreshold(i_enable ? _threshold : null);
+		}
+	}
+	
 	// キューブを表示する
 	public void drawCube() {
 		
@@ -161,6 +205,12 @@ public class MyGLCanvas extends GLCanvas implements GLEventListener {
 		//         model2.opengldraw(gl);
 	}
 	
+	// ウィンドウの再表示時は必ず描き直す
+	public void paint(Graphics g) {
+		_force_redraw = true;
+		super.paint(g);
+	}
+	
 	// 画面描画時に呼ばれる処理
 	public void display(GLAutoDrawable drawable) {
 		
@@ -171,39 +221,77 @@ public class MyGLCanvas extends GLCanvas implements GLEventListener {
 				return;
 			
 			}
-		
-			_gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
-			boolean is_marker_exist;
 			
-			// スレッドの排他制御
-			synchronized (_raster) {
-				
-				// 8bitRGBを表現できるラスタとしきい値を渡す
-				is_marker_exist = _nya.detectMarkerLite(_raster, 150);
+			boolean is_dirty = _force_redraw;
+			_force_redraw = false;
 			
-				{
-					NyARIntSize rsize = _raster.getSize();
-					IntBuffer params = IntBuffer.allocate(4);
-					_gl.glDisable(GL.GL_TEXTURE_2D);
-					_gl.glGetIntegerv(GL.GL_VIEWPORT, params);
-					_gl.glPixelZoom(
-						1f * ((float) (params.get(2)) / (float) rsize.w),
-						-1f * ((float) (params.get(3)) / (float) rsize.h)
-					);
-					_gl.glWindowPos2f(0.0f, (float) rsize.h);
-					ByteBuffer buf = ByteBuffer.wrap(_raster.get_Ref_buf());
-					_gl.glDrawPixels(rsize.w, rsize.h, GL.GL_RGB, GL.GL_UNSIGNED_BYTE, buf);
+			// 新しいカメラ画像が届いている時だけ転送と検出を行う。
+			// ウィンドウの再表示などで呼ばれた場合は前回の結果で描き直す
+			long frame = _qtCapture.get_frame_count();
+			if (frame != _last_frame) {
+				
+				_last_frame = frame;
+				boolean is_marker_exist;
+				
+				// 前の画像と画素が全て同じ場合だけ背景の転送を省く
+				long changed_frame = _qtCapture.get_changed_frame_count();
+				boolean is_image_changed = changed_frame != _last_changed_frame;
+				_last_changed_frame = changed_frame;
+				
+				// スレッドの排他制御
+				synchronized (_raster) {
+					
+					// 背景画像の転送を先に要求しておき、転送中にマーカーを検出する
+					if (is_image_changed) {
+						_background.upload(_gl, _raster.get_Ref_buf());
+					}
+					
+					// 8bitRGBを表現できるラスタとしきい値を渡す
+					int threshold = _adaptive_threshold ? _threshold.getThreshold() : AdaptiveThreshold.DEFAULT_THRESHOLD;
+					is_marker_exist = _nya.detectMarkerLite(_raster, threshold);
 				}
+				
+				// 検出した姿勢をフィルタに通す。見失った直後は外挿した姿勢を使う
+				boolean was_pose_valid = _is_pose_valid;
+				long now = System.nanoTime();
+				if (is_marker_exist) {
+					_nya.getCameraViewRH(_view);
+					_pose_filter.update(_view, now);
+					_is_pose_valid = true;
+				} else {
+					_is_pose_valid = _pose_filter.predict(now);
+					if (!_is_pose_valid) {
+						_pose_filter.reset();
+					}
+				}
+				
+				// 背景も姿勢も変わっていなければ描き直さない
+				if (is_image_changed || _is_pose_valid != was_pose_valid
+						|| (_is_pose_valid && _pose_filter.isPoseChanged())) {
+					is_dirty = true;
+				}
+			} else {
+				is_dirty = true;
 			}
 			
+			if (!is_dirty) {
+				return;
+			}
+			
+			_gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+			
+			// 背景を描画
+			_background.draw(_gl);
+			
 			// マーカーを検出したら
-			if (is_marker_exist) {
+			if (_is_pose_valid) {
 			
+				_pose_filter.getCameraViewRH(_view);
 				_gl.glMatrixMode(GL.GL_PROJECTION);
 				_gl.glLoadMatrixd(_ar_param.getCameraFrustumRH(), 0);
 				_gl.glMatrixMode(GL.GL_MODELVIEW);
 				_gl.glLoadIdentity();
-				_gl.glLoadMatrixd(_nya.getCameraViewRH(), 0);
+				_gl.glLoadMatrixd(_view, 0);
 
 				// キューブを描画
 				//drawCube();
@@ -211,8 +299,8 @@ public class MyGLCanvas extends GLCanvas implements GLEventListener {
 				// オブジェクトを描画
 				draw(_gl);
 			}
-		
-			Thread.sleep(1);
+			
+			drawable.swapBuffers();
 		
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -229,13 +317,19 @@ public class MyGLCanvas extends GLCanvas implements GLEventListener {
 			// GLオブジェクトの作成
 			_gl = drawable.getGL();
 			_gl.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+			
+			// カメラ画像はテクスチャとして毎フレーム更新する
+			_background = new GLNyARBackgroundRenderer(MyAR.SCREEN_X, MyAR.SCREEN_Y, true);
+			_background.init(_gl);
 
 			_ar_param = new GLNyARParam();
 			NyARCode ar_code = new NyARCode(16, 16);
 			_ar_param.loadARParamFromFile(PARAM_FILE);
 			_ar_param.changeScreenSize(320, 240);
-			_nya = new GLNyARSingleDetectMarker(_ar_param, ar_code, 80.0);
+			// 前フレームのマーカー周辺を優先して探索する
+			_nya = new GLNyARTrackingDetectMarker(_ar_param, ar_code, 80.0);
 			_nya.setContinueMode(false);
+			_nya.setRoiThreshold(_adaptive_threshold ? _threshold : null);
 			
 			// pattファイルの読み込み
 			ar_code.loadARPattFromFile(CARCODE_FILE);
@@ -286,8 +380,7 @@ public class MyGLCanvas extends GLCanvas implements GLEventListener {
    
 			// ModelLoaderOBJ ここまで
    
-			Animator _animator = new Animator(drawable);
-			_animator.start();
+			_scheduler.start();
 			
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -298,6 +391,7 @@ public class MyGLCanvas extends GLCanvas implements GLEventListener {
 	public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
 		
 		System.out.println("x: " + x + " y: " + y + " width: " + width + " height: " + height);
+		_force_redraw = true;
 		_gl.glViewport(0, 0, width, height);
 		_gl.glMatrixMode(GL.GL_PROJECTION);
 		_gl.glLoadIdentity();
@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 import jp.nyatla.nyartoolkit.NyARException;
 import jp.nyatla.nyartoolkit.qt.utils.QtCameraCapture;
 import jp.nyatla.nyartoolkit.qt.utils.QtCaptureListener;
@@ -6,17 +8,42 @@ import jp.nyatla.nyartoolkit.qt.utils.QtNyARRaster_RGB;
 public class MyQtCameraCapture extends QtCameraCapture implements
   QtCaptureListener {
  private QtNyARRaster_RGB _raster;
+ private AdaptiveThreshold _threshold;
+ private RenderScheduler _scheduler;
+ private volatile long _frame_count = 0;
+ // 最後に前の画像から画素が変わった画像の番号
+ private volatile long _changed_frame_count = 0;
+ // 前の画像の写し
+ private byte[] _last_pixels = null;
 
  public MyQtCameraCapture() throws NyARException {
   super(MyAR.SCREEN_X, MyAR.SCREEN_Y, 30f);
   setCaptureListener(this);
 
   _raster = new QtNyARRaster_RGB(MyAR.SCREEN_X, MyAR.SCREEN_Y);
+  _threshold = new AdaptiveThreshold(MyAR.SCREEN_X, MyAR.SCREEN_Y, 4, 4, 3);
  }
 
  public void onUpdateBuffer(byte[] pixels) {
   try {
+   // 取り込みのついでに輝度ヒストグラムを更新しておく
+   _threshold.update(pixels);
    _raster.setBuffer(pixels);
+   long frame = _frame_count + 1;
+   // 画素を全て比べ、前の画像と同じなら描画側は背景を転送し直さない
+   if (!Arrays.equals(_last_pixels, pixels)) {
+    if (_last_pixels == null || _last_pixels.length != pixels.length) {
+     _last_pixels = new byte[pixels.length];
+    }
+    System.arraycopy(pixels, 0, _last_pixels, 0, pixels.length);
+    _changed_frame_count = frame;
+   }
+   _frame_count = frame;
+   // 新しい画像が来たことを描画側へ知らせる
+   RenderScheduler scheduler = _scheduler;
+   if (scheduler != null) {
+    scheduler.requestRender();
+   }
   } catch (Exception e) {
    e.printStackTrace();
   }
@@ -25,4 +52,20 @@ public class MyQtCameraCapture extends QtCameraCapture implements
  public QtNyARRaster_RGB get_raster() {
   return _raster;
  }
+
+ public AdaptiveThreshold get_threshold() {
+  return _threshold;
+ }
+
+ public long get_frame_count() {
+  return _frame_count;
+ }
+
+ public long get_changed_frame_count() {
+  return _changed_frame_count;
+ }
+
+ public void set_render_scheduler(RenderScheduler scheduler) {
+  _scheduler = scheduler;
+ }
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+import javax.media.opengl.GLAutoDrawable;
+
+/**
+ * 描画要求があった時だけ描画するスケジューラ。
+ * Animatorのように描画し続けるのではなく、カメラ画像の取り込みなどから
+ * requestRender()で起こされるまで待機する。
+ * 描画中や待機中に届いた要求はまとめて一回の描画にする。
+ */
+public class RenderScheduler implements Runnable {
+
+	private final GLAutoDrawable _drawable;
+
+	// 描画の最小間隔(ナノ秒)。0なら制限しない
+	private volatile long _min_interval = 0;
+
+	private boolean _pending = false;
+	private boolean _running = false;
+	private Thread _thread = null;
+
+	private long _last_render = 0;
+
+	public RenderScheduler(GLAutoDrawable i_drawable) {
+		_drawable = i_drawable;
+	}
+
+	/**
+	 * 最大フレームレートを設定する。
+	 * @param i_fps 0以下なら制限しない
+	 */
+	public void setMaxFps(float i_fps) {
+		_min_interval = i_fps > 0 ? (long) (1000000000L / i_fps) : 0;
+	}
+
+	/**
+	 * 描画を要求する。どのスレッドから呼んでもよい。
+	 */
+	public synchronized void requestRender() {
+		_pending = true;
+		notifyAll();
+	}
+
+	public synchronized void start() {
+		if (_running) {
+			return;
+		}
+		_running = true;
+		_thread = new Thread(this, "RenderScheduler");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			_running = false;
+			notifyAll();
+			thread = _thread;
+			_thread = null;
+		}
+		if (thread != null && thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public void run() {
+
+		try {
+			while (true) {
+
+				// 要求が来るまで眠る
+				synchronized (this) {
+					while (!_pending && _running) {
+						wait();
+					}
+					if (!_running) {
+						return;
+					}
+				}
+
+				// フレームレートの上限を超えないように待つ。この間の要求は次の描画にまとめる
+				long wait = _last_render + _min_interval - System.nanoTime();
+				if (_min_interval > 0 && wait > 0) {
+					Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+				}
+
+				synchronized (this) {
+					_pending = false;
+				}
+
+				try {
+					_drawable.display();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				_last_render = System.nanoTime();
+			}
+		} catch (InterruptedException e) {
+			// 停止
+		}
+	}
+}
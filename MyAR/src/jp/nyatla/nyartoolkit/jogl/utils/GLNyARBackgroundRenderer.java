@@ -0,0 +1,245 @@
+/* 
+ * PROJECT: NyARToolkit JOGL utilities.
+ * --------------------------------------------------------------------------------
+ * This work is based on the original ARToolKit developed by
+ *   Hirokazu Kato
+ *   Mark Billinghurst
+ *   HITLab, University of Washington, Seattle
+ * http://www.hitl.washington.edu/artoolkit/
+ *
+ * The NyARToolkit is Java version ARToolkit class library.
+ * Copyright (C)2008 R.Iizuka
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this framework; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ * For further information please contact.
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp>
+ * 
+ */
+package jp.nyatla.nyartoolkit.jogl.utils;
+
+import java.nio.ByteBuffer;
+
+import javax.media.opengl.GL;
+
+/**
+ * カメラ画像をテクスチャとして保持し、画面全体を覆う四角形として描画する背景レンダラ。
+ * glDrawPixelsの代わりに使う。テクスチャは最初に一度だけ確保し、以降は
+ * glTexSubImage2Dで中身だけを更新する。
+ * ピクセルバッファオブジェクトが使える場合は2枚のバッファを交互に使って転送するので、
+ * upload()はドライバへの転送要求を出した時点で戻り、以降の検出処理と転送が重なる。
+ */
+public class GLNyARBackgroundRenderer
+{
+	private final int width;
+	private final int height;
+	private final boolean use_pbo;
+
+	private int tex_width;
+	private int tex_height;
+	private float tex_max_s;
+	private float tex_max_t;
+
+	private final int[] texture = new int[1];
+	private final int[] pbo = new int[2];
+	private int pbo_index = 0;
+	private boolean is_pbo_active = false;
+	private boolean is_initialized = false;
+
+	// PBOを使わない場合の転送用バッファ
+	private byte[] wrapped_array = null;
+	private ByteBuffer wrapped_buf = null;
+
+	/**
+	 * @param i_width
+	 * カメラ画像の幅
+	 * @param i_height
+	 * カメラ画像の高さ
+	 * @param i_use_pbo
+	 * 使用可能であればピクセルバッファオブジェクト経由で転送する
+	 */
+	public GLNyARBackgroundRenderer(int i_width, int i_height, boolean i_use_pbo)
+	{
+		this.width = i_width;
+		this.height = i_height;
+		this.use_pbo = i_use_pbo;
+	}
+
+	/**
+	 * テクスチャとピクセルバッファを確保する。初回のupload()で自動的に呼ばれる。
+	 * @param i_gl
+	 */
+	public void init(GL i_gl)
+	{
+		if (this.is_initialized) {
+			return;
+		}
+
+		// 2のべき乗でないテクスチャが使えない環境に合わせて切り上げる
+		if (i_gl.isExtensionAvailable("GL_ARB_texture_non_power_of_two")) {
+			this.tex_width = this.width;
+			this.tex_height = this.height;
+		} else {
+			this.tex_width = ceilPowerOf2(this.width);
+			this.tex_height = ceilPowerOf2(this.height);
+		}
+		this.tex_max_s = (float) this.width / (float) this.tex_width;
+		this.tex_max_t = (float) this.height / (float) this.tex_height;
+
+		i_gl.glGenTextures(1, this.texture, 0);
+		i_gl.glBindTexture(GL.GL_TEXTURE_2D, this.texture[0]);
+		i_gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+		i_gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+		i_gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+		i_gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+		i_gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGB, this.tex_width, this.tex_height, 0, GL.GL_RGB, GL.GL_UNSIGNED_BYTE, null);
+		i_gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+
+		this.is_pbo_active = this.use_pbo
+			&& i_gl.isExtensionAvailable("GL_ARB_pixel_buffer_object")
+			&& i_gl.isFunctionAvailable("glMapBuffer");
+		if (this.is_pbo_active) {
+			final int size = this.width * this.height * 3;
+			i_gl.glGenBuffers(2, this.pbo, 0);
+			for (int i = 0; i < 2; i++) {
+				i_gl.glBindBuffer(GL.GL_PIXEL_UNPACK_BUFFER, this.pbo[i]);
+				i_gl.glBufferData(GL.GL_PIXEL_UNPACK_BUFFER, size, null, GL.GL_STREAM_DRAW);
+			}
+			i_gl.glBindBuffer(GL.GL_PIXEL_UNPACK_BUFFER, 0);
+		}
+		this.is_initialized = true;
+	}
+
+	/**
+	 * 8bitRGBのカメラ画像をテクスチャへ転送する。
+	 * @param i_gl
+	 * @param i_rgb
+	 * RGB順に並んだ画素配列。大きさはコンストラクタで指定した画像サイズと一致すること。
+	 */
+	public void upload(GL i_gl, byte[] i_rgb)
+	{
+		init(i_gl);
+
+		i_gl.glPushClientAttrib(GL.GL_CLIENT_PIXEL_STORE_BIT);
+		i_gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 1);
+		i_gl.glBindTexture(GL.GL_TEXTURE_2D, this.texture[0]);
+
+		if (this.is_pbo_active) {
+			// 前のフレームで転送中かもしれないバッファを避けて、もう一方へ書き込む
+			this.pbo_index = (this.pbo_index + 1) % 2;
+			final int size = this.width * this.height * 3;
+			i_gl.glBindBuffer(GL.GL_PIXEL_UNPACK_BUFFER, this.pbo[this.pbo_index]);
+			i_gl.glBufferData(GL.GL_PIXEL_UNPACK_BUFFER, size, null, GL.GL_STREAM_DRAW);
+			ByteBuffer mapped = i_gl.glMapBuffer(GL.GL_PIXEL_UNPACK_BUFFER, GL.GL_WRITE_ONLY);
+			if (mapped != null) {
+				mapped.put(i_rgb, 0, size);
+				i_gl.glUnmapBuffer(GL.GL_PIXEL_UNPACK_BUFFER);
+				i_gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, this.width, this.height, GL.GL_RGB, GL.GL_UNSIGNED_BYTE, 0L);
+				i_gl.glBindBuffer(GL.GL_PIXEL_UNPACK_BUFFER, 0);
+			} else {
+				// マップに失敗した場合はこのフレームだけ直接転送する
+				i_gl.glBindBuffer(GL.GL_PIXEL_UNPACK_BUFFER, 0);
+				uploadDirect(i_gl, i_rgb);
+			}
+		} else {
+			uploadDirect(i_gl, i_rgb);
+		}
+
+		i_gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		i_gl.glPopClientAttrib();
+	}
+
+	private void uploadDirect(GL i_gl, byte[] i_rgb)
+	{
+		if (this.wrapped_array != i_rgb) {
+			this.wrapped_array = i_rgb;
+			this.wrapped_buf = ByteBuffer.wrap(i_rgb);
+		}
+		this.wrapped_buf.rewind();
+		i_gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, this.width, this.height, GL.GL_RGB, GL.GL_UNSIGNED_BYTE, this.wrapped_buf);
+	}
+
+	/**
+	 * 最後に転送した画像を画面全体へ描画する。深度バッファには書き込まない。
+	 * @param i_gl
+	 */
+	public void draw(GL i_gl)
+	{
+		if (!this.is_initialized) {
+			return;
+		}
+
+		i_gl.glPushAttrib(GL.GL_ENABLE_BIT | GL.GL_TEXTURE_BIT | GL.GL_DEPTH_BUFFER_BIT | GL.GL_CURRENT_BIT);
+		i_gl.glDisable(GL.GL_LIGHTING);
+		i_gl.glDisable(GL.GL_DEPTH_TEST);
+		i_gl.glDepthMask(false);
+		i_gl.glEnable(GL.GL_TEXTURE_2D);
+		i_gl.glTexEnvi(GL.GL_TEXTURE_ENV, GL.GL_TEXTURE_ENV_MODE, GL.GL_REPLACE);
+		i_gl.glBindTexture(GL.GL_TEXTURE_2D, this.texture[0]);
+
+		i_gl.glMatrixMode(GL.GL_PROJECTION);
+		i_gl.glPushMatrix();
+		i_gl.glLoadIdentity();
+		i_gl.glMatrixMode(GL.GL_MODELVIEW);
+		i_gl.glPushMatrix();
+		i_gl.glLoadIdentity();
+
+		// 画像の1行目が画面の上端になるように貼る
+		i_gl.glBegin(GL.GL_QUADS);
+		i_gl.glTexCoord2f(0.0f, this.tex_max_t);
+		i_gl.glVertex2f(-1.0f, -1.0f);
+		i_gl.glTexCoord2f(this.tex_max_s, this.tex_max_t);
+		i_gl.glVertex2f(1.0f, -1.0f);
+		i_gl.glTexCoord2f(this.tex_max_s, 0.0f);
+		i_gl.glVertex2f(1.0f, 1.0f);
+		i_gl.glTexCoord2f(0.0f, 0.0f);
+		i_gl.glVertex2f(-1.0f, 1.0f);
+		i_gl.glEnd();
+
+		i_gl.glPopMatrix();
+		i_gl.glMatrixMode(GL.GL_PROJECTION);
+		i_gl.glPopMatrix();
+		i_gl.glMatrixMode(GL.GL_MODELVIEW);
+
+		i_gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		i_gl.glPopAttrib();
+	}
+
+	/**
+	 * テクスチャとピクセルバッファを解放する。
+	 * @param i_gl
+	 */
+	public void dispose(GL i_gl)
+	{
+		if (!this.is_initialized) {
+			return;
+		}
+		i_gl.glDeleteTextures(1, this.texture, 0);
+		if (this.is_pbo_active) {
+			i_gl.glDeleteBuffers(2, this.pbo, 0);
+		}
+		this.is_initialized = false;
+	}
+
+	private static int ceilPowerOf2(int i_value)
+	{
+		int result = 1;
+		while (result < i_value) {
+			result <<= 1;
+		}
+		return result;
+	}
+}
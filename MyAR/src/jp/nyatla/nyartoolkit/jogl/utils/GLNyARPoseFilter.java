@@ -0,0 +1,74 @@
+/* 
+ * PROJECT: NyARToolkit JOGL utilities.
+ * --------------------------------------------------------------------------------
+ * This work is based on the original ARToolKit developed by
+ *   Hirokazu Kato
+ *   Mark Billinghurst
+ *   HITLab, University of Washington, Seattle
+ * http://www.hitl.washington.edu/artoolkit/
+ *
+ * The NyARToolkit is Java version ARToolkit class library.
+ * Copyright (C)2008 R.Iizuka
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this framework; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ * For further information please contact.
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp>
+ * 
+ */
+package jp.nyatla.nyartoolkit.jogl.utils;
+
+/**
+ * 検出器とレンダラの間に置く姿勢フィルタのインタフェイス。
+ * getCameraViewRHの結果を入力し、平滑化・外挿したモデルビュー行列を出力する。
+ */
+public interface GLNyARPoseFilter
+{
+	/**
+	 * 検出した姿勢を入力する。
+	 * @param i_view
+	 * getCameraViewRHで得たdouble[16]の行列
+	 * @param i_time
+	 * 画像を取得した時刻(ナノ秒)
+	 */
+	public void update(double[] i_view, long i_time);
+
+	/**
+	 * 検出を行わなかった、または見失ったフレームの姿勢を外挿する。
+	 * @param i_time
+	 * 時刻(ナノ秒)
+	 * @return 外挿できない場合はfalse
+	 */
+	public boolean predict(long i_time);
+
+	/**
+	 * 直前のupdate/predictで、出力姿勢が前回通知した姿勢から閾値を超えて変化したかを返す。
+	 * falseであれば再描画を省略できる。
+	 */
+	public boolean isPoseChanged();
+
+	/**
+	 * 出力姿勢を返す。
+	 * @param o_result
+	 * 結果値を格納する配列を指定してください。double[16]以上が必要です。
+	 */
+	public void getCameraViewRH(double[] o_result);
+
+	/**
+	 * 内部状態を破棄する。
+	 */
+	public void reset();
+}
@@ -0,0 +1,48 @@
+/* 
+ * PROJECT: NyARToolkit JOGL utilities.
+ * --------------------------------------------------------------------------------
+ * This work is based on the original ARToolKit developed by
+ *   Hirokazu Kato
+ *   Mark Billinghurst
+ *   HITLab, University of Washington, Seattle
+ * http://www.hitl.washington.edu/artoolkit/
+ *
+ * The NyARToolkit is Java version ARToolkit class library.
+ * Copyright (C)2008 R.Iizuka
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this framework; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ * For further information please contact.
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp>
+ * 
+ */
+package jp.nyatla.nyartoolkit.jogl.utils;
+
+/**
+ * GLNyARTrackingDetectMarkerが予測領域を探索する時に、その領域用の二値化しきい値を決めるインタフェイス。
+ */
+public interface GLNyARRoiThreshold
+{
+	/**
+	 * 画像上の矩形に対するしきい値を返す。このしきい値以下の輝度が黒として扱われる。
+	 * @param i_x
+	 * @param i_y
+	 * @param i_w
+	 * @param i_h
+	 * 探索する矩形(ピクセル)
+	 */
+	public int getThreshold(int i_x, int i_y, int i_w, int i_h);
+}
@@ -0,0 +1,372 @@
+/* 
+ * PROJECT: NyARToolkit JOGL utilities.
+ * --------------------------------------------------------------------------------
+ * This work is based on the original ARToolKit developed by
+ *   Hirokazu Kato
+ *   Mark Billinghurst
+ *   HITLab, University of Washington, Seattle
+ * http://www.hitl.washington.edu/artoolkit/
+ *
+ * The NyARToolkit is Java version ARToolkit class library.
+ * Copyright (C)2008 R.Iizuka
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this framework; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ * For further information please contact.
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp>
+ * 
+ */
+package jp.nyatla.nyartoolkit.jogl.utils;
+
+/**
+ * 回転をクォータニオン、平行移動をベクトルとして指数平滑化する姿勢フィルタ。
+ * 速度(並進速度と角速度)も平滑化して保持し、等速運動を仮定して姿勢を予測する。
+ * 入力時は予測姿勢と検出姿勢を混合するため、平滑化による遅れが少ない(α-βフィルタ)。
+ */
+public class GLNyARSmoothingPoseFilter implements GLNyARPoseFilter
+{
+	// 検出姿勢を取り込む割合(1.0で平滑化しない)
+	private double alpha_pos = 0.5;
+	private double alpha_rot = 0.5;
+
+	// 速度を取り込む割合(0.0で予測しない)
+	private double beta = 0.3;
+
+	// これ以下の変化は「変化なし」とみなす
+	private double epsilon_pos = 0.001;
+	private double epsilon_rot = 0.001;
+
+	// 外挿を許す最大時間(ナノ秒)
+	private long max_extrapolation = 200000000L;
+
+	// 最後に検出姿勢を取り込んだ状態
+	private final double[] q = new double[4];
+	private final double[] t = new double[3];
+	private final double[] vel = new double[3];
+	private final double[] omega = new double[3];
+	private long last_time;
+	private boolean has_state = false;
+
+	// 出力姿勢と、最後に変化を通知した姿勢
+	private final double[] out_q = new double[4];
+	private final double[] out_t = new double[3];
+	private final double[] emit_q = new double[4];
+	private final double[] emit_t = new double[3];
+	private boolean has_emitted = false;
+	private boolean is_changed = false;
+
+	// 作業用
+	private final double[] w_q = new double[4];
+	private final double[] w_q2 = new double[4];
+	private final double[] w_t = new double[3];
+	private final double[] w_v = new double[3];
+
+	public GLNyARSmoothingPoseFilter()
+	{
+		reset();
+	}
+
+	/**
+	 * 平滑化の強さを設定する。
+	 * @param i_alpha_pos
+	 * 平行移動について検出値を取り込む割合(0より大きく1以下)
+	 * @param i_alpha_rot
+	 * 回転について検出値を取り込む割合(0より大きく1以下)
+	 * @param i_beta
+	 * 速度の更新割合(0以上1以下)。0で予測を行わない。
+	 */
+	public void setSmoothing(double i_alpha_pos, double i_alpha_rot, double i_beta)
+	{
+		this.alpha_pos = i_alpha_pos;
+		this.alpha_rot = i_alpha_rot;
+		this.beta = i_beta;
+	}
+
+	/**
+	 * 変化ありとみなす閾値を設定する。
+	 * @param i_pos
+	 * 平行移動量(OpenGL単位)
+	 * @param i_rot
+	 * 回転角(ラジアン)
+	 */
+	public void setEpsilon(double i_pos, double i_rot)
+	{
+		this.epsilon_pos = i_pos;
+		this.epsilon_rot = i_rot;
+	}
+
+	/**
+	 * 外挿を許す最大時間を設定する。
+	 * @param i_nanos
+	 * 最後の検出からの経過時間(ナノ秒)
+	 */
+	public void setMaxExtrapolation(long i_nanos)
+	{
+		this.max_extrapolation = i_nanos;
+	}
+
+	public void reset()
+	{
+		this.has_state = false;
+		this.has_emitted = false;
+		this.is_changed = false;
+		this.q[0] = this.q[1] = this.q[2] = 0; this.q[3] = 1;
+		this.t[0] = this.t[1] = this.t[2] = 0;
+		this.vel[0] = this.vel[1] = this.vel[2] = 0;
+		this.omega[0] = this.omega[1] = this.omega[2] = 0;
+		System.arraycopy(this.q, 0, this.out_q, 0, 4);
+		System.arraycopy(this.t, 0, this.out_t, 0, 3);
+	}
+
+	public void update(double[] i_view, long i_time)
+	{
+		final double[] mq = this.w_q2;
+		toQuaternion(i_view, mq);
+
+		if (!this.has_state) {
+			System.arraycopy(mq, 0, this.q, 0, 4);
+			this.t[0] = i_view[12];
+			this.t[1] = i_view[13];
+			this.t[2] = i_view[14];
+			this.vel[0] = this.vel[1] = this.vel[2] = 0;
+			this.omega[0] = this.omega[1] = this.omega[2] = 0;
+			this.last_time = i_time;
+			this.has_state = true;
+			System.arraycopy(this.q, 0, this.out_q, 0, 4);
+			System.arraycopy(this.t, 0, this.out_t, 0, 3);
+			checkChanged();
+			return;
+		}
+
+		final double dt = Math.max(0, i_time - this.last_time) * 1e-9;
+
+		// 予測姿勢へ検出姿勢を混合する
+		extrapolate(dt, this.out_q, this.out_t);
+		if (dot(this.out_q, mq) < 0) {
+			mq[0] = -mq[0]; mq[1] = -mq[1]; mq[2] = -mq[2]; mq[3] = -mq[3];
+		}
+		for (int i = 0; i < 4; i++) {
+			this.out_q[i] += (mq[i] - this.out_q[i]) * this.alpha_rot;
+		}
+		normalize(this.out_q);
+		for (int i = 0; i < 3; i++) {
+			this.out_t[i] += (i_view[12 + i] - this.out_t[i]) * this.alpha_pos;
+		}
+
+		// 速度を更新する
+		if (dt > 0) {
+			for (int i = 0; i < 3; i++) {
+				this.vel[i] += ((this.out_t[i] - this.t[i]) / dt - this.vel[i]) * this.beta;
+			}
+			final double[] dq = this.w_q;
+			conjugate(this.q, dq);
+			multiply(this.out_q, dq, dq);
+			toRotationVector(dq, this.w_v);
+			for (int i = 0; i < 3; i++) {
+				this.omega[i] += (this.w_v[i] / dt - this.omega[i]) * this.beta;
+			}
+		}
+
+		System.arraycopy(this.out_q, 0, this.q, 0, 4);
+		System.arraycopy(this.out_t, 0, this.t, 0, 3);
+		this.last_time = i_time;
+		checkChanged();
+	}
+
+	public boolean predict(long i_time)
+	{
+		if (!this.has_state) {
+			this.is_changed = false;
+			return false;
+		}
+		final long elapsed = i_time - this.last_time;
+		if (elapsed > this.max_extrapolation) {
+			this.is_changed = false;
+			return false;
+		}
+		extrapolate(Math.max(0, elapsed) * 1e-9, this.out_q, this.out_t);
+		checkChanged();
+		return true;
+	}
+
+	public boolean isPoseChanged()
+	{
+		return this.is_changed;
+	}
+
+	public void getCameraViewRH(double[] o_result)
+	{
+		final double x = this.out_q[0], y = this.out_q[1], z = this.out_q[2], w = this.out_q[3];
+		o_result[0 + 0 * 4] = 1 - 2 * (y * y + z * z);
+		o_result[1 + 0 * 4] = 2 * (x * y + w * z);
+		o_result[2 + 0 * 4] = 2 * (x * z - w * y);
+		o_result[0 + 1 * 4] = 2 * (x * y - w * z);
+		o_result[1 + 1 * 4] = 1 - 2 * (x * x + z * z);
+		o_result[2 + 1 * 4] = 2 * (y * z + w * x);
+		o_result[0 + 2 * 4] = 2 * (x * z + w * y);
+		o_result[1 + 2 * 4] = 2 * (y * z - w * x);
+		o_result[2 + 2 * 4] = 1 - 2 * (x * x + y * y);
+		o_result[12] = this.out_t[0];
+		o_result[13] = this.out_t[1];
+		o_result[14] = this.out_t[2];
+		o_result[3 + 0 * 4] = 0.0;
+		o_result[3 + 1 * 4] = 0.0;
+		o_result[3 + 2 * 4] = 0.0;
+		o_result[3 + 3 * 4] = 1.0;
+	}
+
+	/**
+	 * 最後に取り込んだ姿勢からi_dt秒後の姿勢を求める。
+	 */
+	private void extrapolate(double i_dt, double[] o_q, double[] o_t)
+	{
+		for (int i = 0; i < 3; i++) {
+			o_t[i] = this.t[i] + this.vel[i] * i_dt;
+			this.w_v[i] = this.omega[i] * i_dt;
+		}
+		final double[] dq = this.w_q;
+		fromRotationVector(this.w_v, dq);
+		multiply(dq, this.q, o_q);
+		normalize(o_q);
+	}
+
+	/**
+	 * 出力姿勢が前回通知した姿勢から閾値を超えて変化したかを判定する。
+	 * 閾値以下の変化は通知しないまま蓄積させる。
+	 */
+	private void checkChanged()
+	{
+		if (this.has_emitted) {
+			final double dx = this.out_t[0] - this.emit_t[0];
+			final double dy = this.out_t[1] - this.emit_t[1];
+			final double dz = this.out_t[2] - this.emit_t[2];
+			final double d = Math.min(1.0, Math.abs(dot(this.out_q, this.emit_q)));
+			final double angle = 2 * Math.acos(d);
+			if (dx * dx + dy * dy + dz * dz <= this.epsilon_pos * this.epsilon_pos && angle <= this.epsilon_rot) {
+				this.is_changed = false;
+				return;
+			}
+		}
+		System.arraycopy(this.out_q, 0, this.emit_q, 0, 4);
+		System.arraycopy(this.out_t, 0, this.emit_t, 0, 3);
+		this.has_emitted = true;
+		this.is_changed = true;
+	}
+
+	/**
+	 * 列優先4x4行列の回転部分をクォータニオン(x,y,z,w)へ変換する。
+	 */
+	private static void toQuaternion(double[] m, double[] o_q)
+	{
+		final double m00 = m[0], m01 = m[4], m02 = m[8];
+		final double m10 = m[1], m11 = m[5], m12 = m[9];
+		final double m20 = m[2], m21 = m[6], m22 = m[10];
+		final double trace = m00 + m11 + m22;
+		if (trace > 0) {
+			final double s = Math.sqrt(trace + 1.0) * 2;
+			o_q[3] = 0.25 * s;
+			o_q[0] = (m21 - m12) / s;
+			o_q[1] = (m02 - m20) / s;
+			o_q[2] = (m10 - m01) / s;
+		} else if (m00 > m11 && m00 > m22) {
+			final double s = Math.sqrt(1.0 + m00 - m11 - m22) * 2;
+			o_q[3] = (m21 - m12) / s;
+			o_q[0] = 0.25 * s;
+			o_q[1] = (m01 + m10) / s;
+			o_q[2] = (m02 + m20) / s;
+		} else if (m11 > m22) {
+			final double s = Math.sqrt(1.0 + m11 - m00 - m22) * 2;
+			o_q[3] = (m02 - m20) / s;
+			o_q[0] = (m01 + m10) / s;
+			o_q[1] = 0.25 * s;
+			o_q[2] = (m12 + m21) / s;
+		} else {
+			final double s = Math.sqrt(1.0 + m22 - m00 - m11) * 2;
+			o_q[3] = (m10 - m01) / s;
+			o_q[0] = (m02 + m20) / s;
+			o_q[1] = (m12 + m21) / s;
+			o_q[2] = 0.25 * s;
+		}
+		normalize(o_q);
+	}
+
+	private static void toRotationVector(double[] i_q, double[] o_v)
+	{
+		double w = i_q[3];
+		double sign = 1;
+		if (w < 0) {
+			// 短い方の回転を採る
+			w = -w;
+			sign = -1;
+		}
+		final double s = Math.sqrt(i_q[0] * i_q[0] + i_q[1] * i_q[1] + i_q[2] * i_q[2]);
+		final double k = s < 1e-12 ? 2.0 : 2.0 * Math.atan2(s, w) / s;
+		o_v[0] = i_q[0] * k * sign;
+		o_v[1] = i_q[1] * k * sign;
+		o_v[2] = i_q[2] * k * sign;
+	}
+
+	private static void fromRotationVector(double[] i_v, double[] o_q)
+	{
+		final double angle = Math.sqrt(i_v[0] * i_v[0] + i_v[1] * i_v[1] + i_v[2] * i_v[2]);
+		final double k = angle < 1e-12 ? 0.5 : Math.sin(angle / 2) / angle;
+		o_q[0] = i_v[0] * k;
+		o_q[1] = i_v[1] * k;
+		o_q[2] = i_v[2] * k;
+		o_q[3] = Math.cos(angle / 2);
+	}
+
+	/**
+	 * o_q = a * b。o_qはa,bと同じ配列でもよい。
+	 */
+	private static void multiply(double[] a, double[] b, double[] o_q)
+	{
+		final double x = a[3] * b[0] + a[0] * b[3] + a[1] * b[2] - a[2] * b[1];
+		final double y = a[3] * b[1] - a[0] * b[2] + a[1] * b[3] + a[2] * b[0];
+		final double z = a[3] * b[2] + a[0] * b[1] - a[1] * b[0] + a[2] * b[3];
+		final double w = a[3] * b[3] - a[0] * b[0] - a[1] * b[1] - a[2] * b[2];
+		o_q[0] = x;
+		o_q[1] = y;
+		o_q[2] = z;
+		o_q[3] = w;
+	}
+
+	private static void conjugate(double[] i_q, double[] o_q)
+	{
+		o_q[0] = -i_q[0];
+		o_q[1] = -i_q[1];
+		o_q[2] = -i_q[2];
+		o_q[3] = i_q[3];
+	}
+
+	private static double dot(double[] a, double[] b)
+	{
+		return a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3];
+	}
+
+	private static void normalize(double[] io_q)
+	{
+		final double n = Math.sqrt(dot(io_q, io_q));
+		if (n == 0) {
+			io_q[3] = 1;
+			return;
+		}
+		io_q[0] /= n;
+		io_q[1] /= n;
+		io_q[2] /= n;
+		io_q[3] /= n;
+	}
+}
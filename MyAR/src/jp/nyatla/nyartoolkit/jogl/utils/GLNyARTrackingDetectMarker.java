@@ -0,0 +1,477 @@
+/* 
+ * PROJECT: NyARToolkit JOGL utilities.
+ * --------------------------------------------------------------------------------
+ * This work is based on the original ARToolKit developed by
+ *   Hirokazu Kato
+ *   Mark Billinghurst
+ *   HITLab, University of Washington, Seattle
+ * http://www.hitl.washington.edu/artoolkit/
+ *
+ * The NyARToolkit is Java version ARToolkit class library.
+ * Copyright (C)2008 R.Iizuka
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this framework; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ * For further information please contact.
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp>
+ * 
+ */
+package jp.nyatla.nyartoolkit.jogl.utils;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.NyARCode;
+import jp.nyatla.nyartoolkit.core.NyARSquare;
+import jp.nyatla.nyartoolkit.core.NyARSquareDetector;
+import jp.nyatla.nyartoolkit.core.NyARSquareStack;
+import jp.nyatla.nyartoolkit.core.match.NyARMatchPatt_Color_WITHOUT_PCA;
+import jp.nyatla.nyartoolkit.core.param.NyARCameraDistortionFactor;
+import jp.nyatla.nyartoolkit.core.param.NyARParam;
+import jp.nyatla.nyartoolkit.core.param.NyARPerspectiveProjectionMatrix;
+import jp.nyatla.nyartoolkit.core.pickup.NyARColorPatt_O3;
+import jp.nyatla.nyartoolkit.core.raster.NyARBinRaster;
+import jp.nyatla.nyartoolkit.core.raster.rgb.INyARRgbRaster;
+import jp.nyatla.nyartoolkit.core.rasterfilter.rgb2bin.NyARRasterFilter_ARToolkitThreshold;
+import jp.nyatla.nyartoolkit.core.transmat.NyARTransMat;
+import jp.nyatla.nyartoolkit.core.transmat.NyARTransMatResult;
+import jp.nyatla.nyartoolkit.core.types.NyARDoublePoint2d;
+import jp.nyatla.nyartoolkit.core.types.NyARIntPoint;
+import jp.nyatla.nyartoolkit.core.types.NyARIntSize;
+import jp.nyatla.nyartoolkit.core.types.NyARLinear;
+import jp.nyatla.nyartoolkit.qt.utils.QtNyARRaster_RGB;
+
+/**
+ * 前フレームの姿勢からマーカーの画面上の位置を予測し、その周辺だけを探索する
+ * GLNyARSingleDetectMarker。
+ * 予測領域を切り出した小さなラスタで二値化・ラベリング・パターン照合を行い、
+ * 見つけた四角形を画面座標へ戻してから姿勢を計算する。
+ * 予測領域で見つからなかった場合のみ画面全体を探索する。
+ */
+public class GLNyARTrackingDetectMarker extends GLNyARSingleDetectMarker
+{
+	private static final int AR_SQUARE_MAX = 100;
+
+	// 予測領域の大きさをこの単位で切り上げ、同じ大きさの探索用ラスタを使い回す
+	private static final int ROI_SIZE_STEP = 64;
+
+	// 保持しておく探索用ラスタの数。これを超えたら最も長く使っていないものを捨てる
+	private static final int ROI_DETECTOR_MAX = 4;
+
+	// 予測領域の余白(マーカーの外接矩形の大きさに対する比率)
+	private double roi_margin_ratio = 0.5;
+
+	// 予測領域の余白の最小値(ピクセル)
+	private int roi_margin_min = 16;
+
+	private boolean is_tracking_enabled = true;
+	private boolean is_continue = false;
+
+	// 予測領域のしきい値。nullならdetectMarkerLiteに渡されたしきい値を使う
+	private GLNyARRoiThreshold roi_threshold = null;
+
+	private final NyARPerspectiveProjectionMatrix projection;
+	private final double marker_width;
+	private final double marker_half_width;
+	private final NyARCode code;
+
+	// 前回検出した姿勢
+	private final NyARTransMatResult last_result = new NyARTransMatResult();
+	private boolean has_last_result = false;
+	private boolean is_last_result_fresh = false;
+
+	// 前回予測時のマーカー外接矩形の中心(速度予測用)
+	private double last_center_x, last_center_y;
+	private boolean has_last_center = false;
+
+	// 予測領域の探索に使う検出器。ラスタの大きさ毎に作り、最近使った順に並べる
+	private final RoiDetector[] roi_detectors = new RoiDetector[ROI_DETECTOR_MAX];
+	private final double[] dist_value = new double[4];
+	private final double[] roi_dist_value = new double[4];
+	private final NyARRasterFilter_ARToolkitThreshold roi_tobin = new NyARRasterFilter_ARToolkitThreshold(100);
+	private final NyARSquareStack roi_square_list = new NyARSquareStack(AR_SQUARE_MAX);
+	private final NyARColorPatt_O3 roi_patt;
+	private final NyARMatchPatt_Color_WITHOUT_PCA roi_match_patt = new NyARMatchPatt_Color_WITHOUT_PCA();
+	private final NyARTransMat roi_transmat;
+	private final int[] roi_rect = new int[4];
+	private boolean has_roi_rect = false;
+	private int roi_direction;
+	private double roi_confidence;
+
+	private final double[] quad_x = new double[4];
+	private final double[] quad_y = new double[4];
+
+	private boolean was_roi_hit = false;
+
+	public GLNyARTrackingDetectMarker(NyARParam i_param, NyARCode i_code, double i_marker_width) throws NyARException
+	{
+		super(i_param, i_code, i_marker_width);
+		this.projection = i_param.getPerspectiveProjectionMatrix();
+		this.marker_width = i_marker_width;
+		this.marker_half_width = i_marker_width / 2;
+		this.code = i_code;
+		i_param.getDistortionFactor().getValue(this.dist_value);
+		this.roi_patt = new NyARColorPatt_O3(i_code.getWidth(), i_code.getHeight());
+		this.roi_transmat = new NyARTransMat(i_param);
+	}
+
+	/**
+	 * 追跡モードを切り替える。無効にすると毎フレーム画面全体を探索する。
+	 * @param i_enable
+	 */
+	public void setTrackingEnabled(boolean i_enable)
+	{
+		this.is_tracking_enabled = i_enable;
+		if (!i_enable) {
+			resetTracking();
+		}
+	}
+
+	/**
+	 * 予測領域の余白を設定する。
+	 * @param i_ratio
+	 * マーカーの外接矩形の幅・高さに対する比率
+	 * @param i_min
+	 * 最小値(ピクセル)
+	 */
+	public void setRoiMargin(double i_ratio, int i_min)
+	{
+		this.roi_margin_ratio = i_ratio;
+		this.roi_margin_min = i_min;
+	}
+
+	/**
+	 * 予測領域を探索する時のしきい値の決め方を設定する。
+	 * 画面全体を探索し直す時はdetectMarkerLiteに渡されたしきい値を使う。
+	 * @param i_threshold
+	 * nullならdetectMarkerLiteに渡されたしきい値を使う
+	 */
+	public void setRoiThreshold(GLNyARRoiThreshold i_threshold)
+	{
+		this.roi_threshold = i_threshold;
+	}
+
+	@Override
+	public void setContinueMode(boolean i_is_continue)
+	{
+		super.setContinueMode(i_is_continue);
+		this.is_continue = i_is_continue;
+	}
+
+	/**
+	 * 追跡中の姿勢を破棄する。次のフレームは画面全体を探索する。
+	 */
+	public void resetTracking()
+	{
+		this.has_last_result = false;
+		this.is_last_result_fresh = false;
+		this.has_last_center = false;
+	}
+
+	/**
+	 * 直前のdetectMarkerLiteが予測領域内でマーカーを見つけたかを返す。
+	 */
+	public boolean isRoiHit()
+	{
+		return this.was_roi_hit;
+	}
+
+	/**
+	 * 直前のdetectMarkerLiteで探索した予測領域を返す。
+	 * @param o_rect
+	 * x,y,w,hの順に格納する。int[4]以上が必要です。
+	 * @return 予測領域で探索しなかった場合はfalse
+	 */
+	public boolean getRoi(int[] o_rect)
+	{
+		if (!this.has_roi_rect) {
+			return false;
+		}
+		System.arraycopy(this.roi_rect, 0, o_rect, 0, 4);
+		return true;
+	}
+
+	/**
+	 * 前フレームの姿勢から予測した領域を先に探索し、見つからなければ画面全体を探索する。
+	 * 予測領域での探索はQtNyARRaster_RGBを渡した場合のみ行う。
+	 */
+	@Override
+	public boolean detectMarkerLite(INyARRgbRaster i_raster, int i_threshold) throws NyARException
+	{
+		this.was_roi_hit = false;
+		this.is_last_result_fresh = false;
+		this.has_roi_rect = false;
+
+		if (this.is_tracking_enabled && this.has_last_result && i_raster instanceof QtNyARRaster_RGB) {
+			QtNyARRaster_RGB src = (QtNyARRaster_RGB) i_raster;
+			if (predictRoi(src.getSize())) {
+				final int[] rect = this.roi_rect;
+				final int roi_threshold = this.roi_threshold != null
+					? this.roi_threshold.getThreshold(rect[0], rect[1], rect[2], rect[3])
+					: i_threshold;
+				if (detectRoi(src, roi_threshold)) {
+					this.was_roi_hit = true;
+					this.is_last_result_fresh = true;
+					return true;
+				}
+			}
+		}
+
+		// 見失ったので画面全体から探し直す
+		if (super.detectMarkerLite(i_raster, i_threshold)) {
+			super.getTransmationMatrix(this.last_result);
+			this.has_last_result = true;
+			this.is_last_result_fresh = true;
+			return true;
+		}
+		resetTracking();
+		return false;
+	}
+
+	/**
+	 * 今回のフレームで既に計算した姿勢があればそれを返す。
+	 */
+	@Override
+	public void getTransmationMatrix(NyARTransMatResult o_result) throws NyARException
+	{
+		if (!this.is_last_result_fresh) {
+			super.getTransmationMatrix(o_result);
+			return;
+		}
+		final NyARTransMatResult src = this.last_result;
+		o_result.m00 = src.m00; o_result.m01 = src.m01; o_result.m02 = src.m02; o_result.m03 = src.m03;
+		o_result.m10 = src.m10; o_result.m11 = src.m11; o_result.m12 = src.m12; o_result.m13 = src.m13;
+		o_result.m20 = src.m20; o_result.m21 = src.m21; o_result.m22 = src.m22; o_result.m23 = src.m23;
+	}
+
+	@Override
+	public double getConfidence()
+	{
+		return this.was_roi_hit ? this.roi_confidence : super.getConfidence();
+	}
+
+	@Override
+	public int getDirection()
+	{
+		return this.was_roi_hit ? this.roi_direction : super.getDirection();
+	}
+
+	/**
+	 * 前回の姿勢でマーカーの四隅を画面へ投影し、移動量と余白を加えた矩形をroi_rectに求める。
+	 * 矩形の大きさはROI_SIZE_STEP単位で切り上げ、画面からはみ出さないようにずらす。
+	 * @return 予測領域が画面内に無い場合はfalse
+	 */
+	private boolean predictRoi(NyARIntSize i_size)
+	{
+		final NyARTransMatResult t = this.last_result;
+		final NyARPerspectiveProjectionMatrix p = this.projection;
+		final double hw = this.marker_half_width;
+
+		double min_x = Double.MAX_VALUE, min_y = Double.MAX_VALUE;
+		double max_x = -Double.MAX_VALUE, max_y = -Double.MAX_VALUE;
+		for (int i = 0; i < 4; i++) {
+			// マーカー座標系の四隅 (-hw,-hw) (hw,-hw) (hw,hw) (-hw,hw)
+			final double mx = (i == 1 || i == 2) ? hw : -hw;
+			final double my = (i >= 2) ? hw : -hw;
+			final double cx = t.m00 * mx + t.m01 * my + t.m03;
+			final double cy = t.m10 * mx + t.m11 * my + t.m13;
+			final double cz = t.m20 * mx + t.m21 * my + t.m23;
+			final double w = p.m20 * cx + p.m21 * cy + p.m22 * cz + p.m23;
+			if (w <= 0) {
+				return false;
+			}
+			this.quad_x[i] = (p.m00 * cx + p.m01 * cy + p.m02 * cz + p.m03) / w;
+			this.quad_y[i] = (p.m10 * cx + p.m11 * cy + p.m12 * cz + p.m13) / w;
+			min_x = Math.min(min_x, this.quad_x[i]);
+			max_x = Math.max(max_x, this.quad_x[i]);
+			min_y = Math.min(min_y, this.quad_y[i]);
+			max_y = Math.max(max_y, this.quad_y[i]);
+		}
+
+		// 前回からの移動量だけ先へずらす(等速運動を仮定)
+		final double center_x = (min_x + max_x) / 2;
+		final double center_y = (min_y + max_y) / 2;
+		double dx = 0, dy = 0;
+		if (this.has_last_center) {
+			dx = center_x - this.last_center_x;
+			dy = center_y - this.last_center_y;
+		}
+		this.last_center_x = center_x;
+		this.last_center_y = center_y;
+		this.has_last_center = true;
+
+		final double margin_x = Math.max(this.roi_margin_min, (max_x - min_x) * this.roi_margin_ratio) + Math.abs(dx);
+		final double margin_y = Math.max(this.roi_margin_min, (max_y - min_y) * this.roi_margin_ratio) + Math.abs(dy);
+
+		int l = (int) Math.floor(min_x + dx - margin_x);
+		int r = (int) Math.ceil(max_x + dx + margin_x);
+		int top = (int) Math.floor(min_y + dy - margin_y);
+		int b = (int) Math.ceil(max_y + dy + margin_y);
+		l = Math.max(l, 0);
+		top = Math.max(top, 0);
+		r = Math.min(r, i_size.w);
+		b = Math.min(b, i_size.h);
+		if (r <= l || b <= top) {
+			return false;
+		}
+
+		final int w = Math.min((r - l + ROI_SIZE_STEP - 1) / ROI_SIZE_STEP * ROI_SIZE_STEP, i_size.w);
+		final int h = Math.min((b - top + ROI_SIZE_STEP - 1) / ROI_SIZE_STEP * ROI_SIZE_STEP, i_size.h);
+		this.roi_rect[0] = Math.min(l, i_size.w - w);
+		this.roi_rect[1] = Math.min(top, i_size.h - h);
+		this.roi_rect[2] = w;
+		this.roi_rect[3] = h;
+		this.has_roi_rect = true;
+		return true;
+	}
+
+	/**
+	 * 予測領域を切り出したラスタからマーカーを探し、見つけた四角形を画面座標へ戻して姿勢を計算する。
+	 * 歪み補正の中心を予測領域の原点分ずらしておくので、切り出したラスタ上の理想座標は
+	 * 画面上の理想座標を平行移動しただけのものになる。
+	 * @return 予測領域内でマーカーが見つからない場合はfalse
+	 */
+	private boolean detectRoi(QtNyARRaster_RGB i_src, int i_threshold) throws NyARException
+	{
+		final byte[] src = i_src.get_Ref_buf();
+		if (src == null) {
+			return false;
+		}
+		final int[] rect = this.roi_rect;
+		final RoiDetector detector = getRoiDetector(rect[2], rect[3]);
+
+		// 予測領域を切り出す
+		final int src_stride = i_src.getSize().w * 3;
+		final int dst_stride = rect[2] * 3;
+		final byte[] dst = detector.buf;
+		for (int y = 0; y < rect[3]; y++) {
+			System.arraycopy(src, (rect[1] + y) * src_stride + rect[0] * 3, dst, y * dst_stride, dst_stride);
+		}
+		detector.raster.setBuffer(dst);
+
+		this.roi_dist_value[0] = this.dist_value[0] - rect[0];
+		this.roi_dist_value[1] = this.dist_value[1] - rect[1];
+		this.roi_dist_value[2] = this.dist_value[2];
+		this.roi_dist_value[3] = this.dist_value[3];
+		detector.dist.setValue(this.roi_dist_value);
+
+		// 二値化して四角形を探す
+		this.roi_tobin.setThreshold(i_threshold);
+		this.roi_tobin.doFilter(detector.raster, detector.bin_raster);
+		final NyARSquareStack square_list = this.roi_square_list;
+		detector.square_detect.detectMarker(detector.bin_raster, square_list);
+
+		// 一番一致する四角形を選ぶ
+		NyARSquare detected = null;
+		int direction = 0;
+		double confidence = 0;
+		final int number_of_square = square_list.getLength();
+		for (int i = 0; i < number_of_square; i++) {
+			final NyARSquare square = (NyARSquare) square_list.getItem(i);
+			if (!this.roi_patt.pickFromRaster(detector.raster, square)) {
+				continue;
+			}
+			if (!this.roi_match_patt.setPatt(this.roi_patt)) {
+				throw new NyARException();
+			}
+			this.roi_match_patt.evaluate(this.code);
+			final double c = this.roi_match_patt.getConfidence();
+			if (c <= confidence) {
+				continue;
+			}
+			confidence = c;
+			direction = this.roi_match_patt.getDirection();
+			detected = square;
+		}
+		if (detected == null) {
+			return false;
+		}
+
+		// 画面座標へ戻してから姿勢を計算する
+		offsetSquare(detected, rect[0], rect[1]);
+		if (this.is_continue) {
+			this.roi_transmat.transMatContinue(detected, direction, this.marker_width, this.last_result);
+		} else {
+			this.roi_transmat.transMat(detected, direction, this.marker_width, this.last_result);
+		}
+		this.roi_direction = direction;
+		this.roi_confidence = confidence;
+		return true;
+	}
+
+	/**
+	 * 四角形の頂点と辺の直線を(i_x,i_y)だけ平行移動する。
+	 * 辺の直線はrun*x+rise*y+intercept=0の形。
+	 */
+	private static void offsetSquare(NyARSquare io_square, int i_x, int i_y)
+	{
+		for (int i = 0; i < 4; i++) {
+			final NyARDoublePoint2d sv = io_square.sqvertex[i];
+			sv.x += i_x;
+			sv.y += i_y;
+			final NyARIntPoint iv = io_square.imvertex[i];
+			iv.x += i_x;
+			iv.y += i_y;
+			final NyARLinear l = io_square.line[i];
+			l.intercept -= l.run * i_x + l.rise * i_y;
+		}
+	}
+
+	/**
+	 * 指定した大きさの検出器を返す。無ければ作り、最も長く使っていない検出器と入れ替える。
+	 * 使った検出器は先頭へ移す。
+	 */
+	private RoiDetector getRoiDetector(int i_width, int i_height) throws NyARException
+	{
+		final RoiDetector[] list = this.roi_detectors;
+		int i;
+		for (i = 0; i < list.length - 1; i++) {
+			if (list[i] == null || (list[i].width == i_width && list[i].height == i_height)) {
+				break;
+			}
+		}
+		RoiDetector detector = list[i];
+		if (detector == null || detector.width != i_width || detector.height != i_height) {
+			detector = new RoiDetector(i_width, i_height);
+		}
+		System.arraycopy(list, 0, list, 1, i);
+		list[0] = detector;
+		return detector;
+	}
+
+	/**
+	 * 予測領域の大きさ毎の探索用ラスタと四角形検出器。
+	 * 歪み補正パラメータは検出器毎に持ち、探索の度に予測領域の原点分ずらして設定する。
+	 */
+	private static final class RoiDetector
+	{
+		final int width;
+		final int height;
+		final byte[] buf;
+		final QtNyARRaster_RGB raster;
+		final NyARBinRaster bin_raster;
+		final NyARCameraDistortionFactor dist = new NyARCameraDistortionFactor();
+		final NyARSquareDetector square_detect;
+
+		RoiDetector(int i_width, int i_height) throws NyARException
+		{
+			this.width = i_width;
+			this.height = i_height;
+			this.buf = new byte[i_width * i_height * 3];
+			this.raster = new QtNyARRaster_RGB(i_width, i_height);
+			this.bin_raster = new NyARBinRaster(i_width, i_height);
+			this.square_detect = new NyARSquareDetector(this.dist, this.bin_raster.getSize());
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * VMD basic information handler
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.parser.vmd;
+
+import jp.sourceforge.mikutoga.parser.MmdFormatException;
+
+/**
+ * VMDモーションファイルの基本情報の通知用ハンドラ。
+ */
+public interface VmdBasicHandler {
+
+    /**
+     * VMDファイルのパース処理開始の通知を受け取る。
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdParseStart()
+            throws MmdFormatException;
+
+    /**
+     * VMDファイルのパース処理終了の通知を受け取る。
+     * @param hasMoreData 入力ソースに
+     * まだ読み込まれていないデータがあればtrue
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdParseEnd(boolean hasMoreData)
+            throws MmdFormatException;
+
+    /**
+     * VMDファイルのヘッダ情報の通知を受け取る。
+     * @param header ヘッダ識別文字列
+     * @param modelName モーションの対象モデル名
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdHeaderInfo(String header, String modelName)
+            throws MmdFormatException;
+
+}
@@ -0,0 +1,79 @@
+/*
+ * VMD bone motion handler
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.parser.vmd;
+
+import jp.sourceforge.mikutoga.parser.LoopHandler;
+import jp.sourceforge.mikutoga.parser.MmdFormatException;
+import jp.sourceforge.mikutoga.parser.ParseStage;
+
+/**
+ * VMDモーションファイルのボーンモーション情報の通知用ハンドラ。
+ * 一つのキーフレームにつき、各メソッドが宣言順に一度ずつ呼ばれる。
+ */
+public interface VmdBoneHandler extends LoopHandler {
+
+    /**
+     * ボーンモーション情報パースステージ。
+     */
+    class VmdBoneStage extends ParseStage{
+        /** コンストラクタ。 */
+        VmdBoneStage(){ super(); return; }
+    }
+
+    /** ボーンモーション抽出ループ。 */
+    VmdBoneStage BONEMOTION_LIST = new VmdBoneStage();
+
+    /**
+     * ボーンモーションのキーフレーム情報の通知を受け取る。
+     * {@link #BONEMOTION_LIST}ループの構成要素
+     * @param boneName ボーン名
+     * @param keyFrameNo キーフレーム番号
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdBoneMotion(String boneName, int keyFrameNo)
+            throws MmdFormatException;
+
+    /**
+     * ボーン位置の通知を受け取る。
+     * {@link #BONEMOTION_LIST}ループの構成要素
+     * @param xPos 初期位置からのX軸変位
+     * @param yPos 初期位置からのY軸変位
+     * @param zPos 初期位置からのZ軸変位
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdBonePosition(float xPos, float yPos, float zPos)
+            throws MmdFormatException;
+
+    /**
+     * ボーン回転の通知を受け取る。
+     * {@link #BONEMOTION_LIST}ループの構成要素
+     * @param qx クォータニオンX成分
+     * @param qy クォータニオンY成分
+     * @param qz クォータニオンZ成分
+     * @param qw クォータニオンW成分
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdBoneRotationQt(float qx, float qy, float qz, float qw)
+            throws MmdFormatException;
+
+    /**
+     * 補間パラメータの通知を受け取る。
+     * {@link #BONEMOTION_LIST}ループの構成要素
+     * @param interpolation 補間パラメータ。
+     * {@link VmdLimits#BONE_INTERPOLATION_SZ}要素が格納される。
+     * 配列はパーサが再利用するので、必要な内容は通知中に複写すること。
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdBoneInterpolation(byte[] interpolation)
+            throws MmdFormatException;
+
+}
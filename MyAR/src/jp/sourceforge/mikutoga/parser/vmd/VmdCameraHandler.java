@@ -0,0 +1,98 @@
+/*
+ * VMD camera motion handler
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.parser.vmd;
+
+import jp.sourceforge.mikutoga.parser.LoopHandler;
+import jp.sourceforge.mikutoga.parser.MmdFormatException;
+import jp.sourceforge.mikutoga.parser.ParseStage;
+
+/**
+ * VMDモーションファイルのカメラモーション情報の通知用ハンドラ。
+ * 一つのキーフレームにつき、各メソッドが宣言順に一度ずつ呼ばれる。
+ */
+public interface VmdCameraHandler extends LoopHandler {
+
+    /**
+     * カメラモーション情報パースステージ。
+     */
+    class VmdCameraStage extends ParseStage{
+        /** コンストラクタ。 */
+        VmdCameraStage(){ super(); return; }
+    }
+
+    /** カメラモーション抽出ループ。 */
+    VmdCameraStage CAMERA_LIST = new VmdCameraStage();
+
+    /**
+     * カメラモーションのキーフレーム番号の通知を受け取る。
+     * {@link #CAMERA_LIST}ループの構成要素
+     * @param keyFrameNo キーフレーム番号
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdCameraMotion(int keyFrameNo)
+            throws MmdFormatException;
+
+    /**
+     * 注視点からカメラまでの距離の通知を受け取る。
+     * {@link #CAMERA_LIST}ループの構成要素
+     * @param range 距離。カメラが注視点の手前にある場合は負の値。
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdCameraRange(float range)
+            throws MmdFormatException;
+
+    /**
+     * 注視点位置の通知を受け取る。
+     * {@link #CAMERA_LIST}ループの構成要素
+     * @param xPos X座標
+     * @param yPos Y座標
+     * @param zPos Z座標
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdCameraPosition(float xPos, float yPos, float zPos)
+            throws MmdFormatException;
+
+    /**
+     * カメラ回転の通知を受け取る。
+     * {@link #CAMERA_LIST}ループの構成要素
+     * @param latitude X軸回転量(ラジアン)
+     * @param longitude Y軸回転量(ラジアン)
+     * @param roll Z軸回転量(ラジアン)
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdCameraRotation(float latitude, float longitude, float roll)
+            throws MmdFormatException;
+
+    /**
+     * 補間パラメータの通知を受け取る。
+     * {@link #CAMERA_LIST}ループの構成要素
+     * @param interpolation 補間パラメータ。
+     * {@link VmdLimits#CAMERA_INTERPOLATION_SZ}要素が格納される。
+     * 配列はパーサが再利用するので、必要な内容は通知中に複写すること。
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdCameraInterpolation(byte[] interpolation)
+            throws MmdFormatException;
+
+    /**
+     * 投影情報の通知を受け取る。
+     * {@link #CAMERA_LIST}ループの構成要素
+     * @param angle 視野角(度)
+     * @param hasPerspective 透視投影ならtrue
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdCameraProjection(int angle, boolean hasPerspective)
+            throws MmdFormatException;
+
+}
@@ -0,0 +1,68 @@
+/*
+ * VMD lighting motion handler
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.parser.vmd;
+
+import jp.sourceforge.mikutoga.parser.LoopHandler;
+import jp.sourceforge.mikutoga.parser.MmdFormatException;
+import jp.sourceforge.mikutoga.parser.ParseStage;
+
+/**
+ * VMDモーションファイルの照明およびセルフシャドウ情報の通知用ハンドラ。
+ */
+public interface VmdLightHandler extends LoopHandler {
+
+    /**
+     * 照明情報パースステージ。
+     */
+    class VmdLightStage extends ParseStage{
+        /** コンストラクタ。 */
+        VmdLightStage(){ super(); return; }
+    }
+
+    /** 照明モーション抽出ループ。 */
+    VmdLightStage LIGHT_LIST = new VmdLightStage();
+
+    /** セルフシャドウモーション抽出ループ。 */
+    VmdLightStage SHADOW_LIST = new VmdLightStage();
+
+    /**
+     * 照明モーションの通知を受け取る。
+     * {@link #LIGHT_LIST}ループの構成要素
+     * @param keyFrameNo キーフレーム番号
+     * @param red 光源色の赤成分。0.0から1.0。
+     * @param green 光源色の緑成分。0.0から1.0。
+     * @param blue 光源色の青成分。0.0から1.0。
+     * @param xVec 光源方向X成分
+     * @param yVec 光源方向Y成分
+     * @param zVec 光源方向Z成分
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdLightMotion(int keyFrameNo,
+                        float red, float green, float blue,
+                        float xVec, float yVec, float zVec)
+            throws MmdFormatException;
+
+    /**
+     * セルフシャドウモーションの通知を受け取る。
+     * {@link #SHADOW_LIST}ループの構成要素
+     * @param keyFrameNo キーフレーム番号
+     * @param shadowMode シャドウモード。
+     * <ul>
+     * <li>0:影なし
+     * <li>1:モード1
+     * <li>2:モード2
+     * </ul>
+     * @param shadowScope シャドウ距離
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdShadowMotion(int keyFrameNo, byte shadowMode, float shadowScope)
+            throws MmdFormatException;
+
+}
@@ -0,0 +1,64 @@
+/*
+ * vmd limit numbers
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.parser.vmd;
+
+import jp.sourceforge.mikutoga.parser.CommonParser;
+
+/**
+ * VMDファイルフォーマットの各種リミット値その他定数。
+ */
+public final class VmdLimits {
+
+    /** ヘッダ識別文字列最大長。バイト単位。 */
+    public static final int MAXBYTES_HEADER = 30;
+
+    /** モデル名最大長。バイト単位。 */
+    public static final int MAXBYTES_MODELNAME = 20;
+
+    /** 旧形式でのモデル名最大長。バイト単位。 */
+    public static final int MAXBYTES_MODELNAME_OLD = 10;
+
+    /** ボーン名最大長。バイト単位。 */
+    public static final int MAXBYTES_BONENAME = 15;
+
+    /** モーフ名最大長。バイト単位。 */
+    public static final int MAXBYTES_MORPHNAME = 15;
+
+    /**
+     * ボーンモーションの補間パラメータ数。
+     * X軸移動、Y軸移動、Z軸移動、回転の4曲線それぞれにつき
+     * P1x, P1y, P2x, P2y の順で格納される。
+     */
+    public static final int BONE_INTERPOLATION_SZ = 16;
+
+    /**
+     * カメラモーションの補間パラメータ数。
+     * X軸移動、Y軸移動、Z軸移動、回転、距離、視野角の6曲線それぞれにつき
+     * P1x, P1y, P2x, P2y の順で格納される。
+     */
+    public static final int CAMERA_INTERPOLATION_SZ = 24;
+
+
+    static{
+        assert CommonParser.TEXTBUF_SZ >= MAXBYTES_HEADER;
+        assert CommonParser.TEXTBUF_SZ >= MAXBYTES_MODELNAME;
+        assert CommonParser.TEXTBUF_SZ >= MAXBYTES_BONENAME;
+        assert CommonParser.TEXTBUF_SZ >= MAXBYTES_MORPHNAME;
+    }
+
+
+    /**
+     * 隠しコンストラクタ。
+     */
+    private VmdLimits(){
+        super();
+        assert false;
+        throw new AssertionError();
+    }
+
+}
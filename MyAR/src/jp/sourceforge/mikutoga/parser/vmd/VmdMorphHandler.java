@@ -0,0 +1,42 @@
+/*
+ * VMD morph motion handler
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.parser.vmd;
+
+import jp.sourceforge.mikutoga.parser.LoopHandler;
+import jp.sourceforge.mikutoga.parser.MmdFormatException;
+import jp.sourceforge.mikutoga.parser.ParseStage;
+
+/**
+ * VMDモーションファイルのモーフモーション情報の通知用ハンドラ。
+ */
+public interface VmdMorphHandler extends LoopHandler {
+
+    /**
+     * モーフモーション情報パースステージ。
+     */
+    class VmdMorphStage extends ParseStage{
+        /** コンストラクタ。 */
+        VmdMorphStage(){ super(); return; }
+    }
+
+    /** モーフモーション抽出ループ。 */
+    VmdMorphStage MORPH_LIST = new VmdMorphStage();
+
+    /**
+     * モーフモーションのキーフレーム情報の通知を受け取る。
+     * {@link #MORPH_LIST}ループの構成要素
+     * @param morphName モーフ名
+     * @param keyFrameNo キーフレーム番号
+     * @param flex モーフの適用度合い。通常0.0から1.0。
+     * @throws MmdFormatException 不正フォーマットによる
+     * パース処理の中断をパーサに指示
+     */
+    void vmdMorphMotion(String morphName, int keyFrameNo, float flex)
+            throws MmdFormatException;
+
+}
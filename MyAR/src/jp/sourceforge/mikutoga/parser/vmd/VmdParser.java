@@ -0,0 +1,392 @@
+/*
+ * vmd file parser
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.parser.vmd;
+
+import java.io.IOException;
+import jp.sourceforge.mikutoga.parser.CommonParser;
+import jp.sourceforge.mikutoga.parser.MmdFormatException;
+import jp.sourceforge.mikutoga.parser.MmdSource;
+
+/**
+ * VMDモーションファイルのパーサ。
+ * <p>
+ * カメラ・照明・セルフシャドウ情報を持たない古いVMDファイルの場合、
+ * それらのループ通知は行われない。
+ */
+public class VmdParser extends CommonParser {
+
+    /** 現行形式のヘッダ識別文字列。 */
+    public static final String MAGIC = "Vocaloid Motion Data 0002";
+    /** 旧形式のヘッダ識別文字列。 */
+    public static final String MAGIC_OLD = "Vocaloid Motion Data file";
+
+    private static final int BONEMOTION_DATA_SZ = 111;
+    private static final int MORPH_DATA_SZ      =  23;
+    private static final int CAMERA_DATA_SZ     =  61;
+    private static final int LIGHT_DATA_SZ      =  28;
+    private static final int SHADOW_DATA_SZ     =   9;
+
+    private static final int BONE_RAWINTERPOLATION_SZ = 64;
+    private static final int BONE_CURVES = 4;
+    private static final int CAMERA_CURVES = 6;
+    private static final int CURVE_PARAMS = 4;
+
+
+    private VmdBasicHandler basicHandler = null;
+    private VmdBoneHandler boneHandler = null;
+    private VmdMorphHandler morphHandler = null;
+    private VmdCameraHandler cameraHandler = null;
+    private VmdLightHandler lightHandler = null;
+
+    private final byte[] rawInterpolation =
+            new byte[BONE_RAWINTERPOLATION_SZ];
+    private final byte[] boneInterpolation =
+            new byte[VmdLimits.BONE_INTERPOLATION_SZ];
+    private final byte[] cameraInterpolation =
+            new byte[VmdLimits.CAMERA_INTERPOLATION_SZ];
+
+
+    /**
+     * コンストラクタ。
+     * @param source 入力ソース
+     */
+    public VmdParser(MmdSource source){
+        super(source);
+        return;
+    }
+
+    /**
+     * 基本情報通知ハンドラを登録する。
+     * @param handler ハンドラ
+     */
+    public void setBasicHandler(VmdBasicHandler handler){
+        this.basicHandler = handler;
+        return;
+    }
+
+    /**
+     * ボーンモーション情報通知ハンドラを登録する。
+     * @param handler ハンドラ
+     */
+    public void setBoneHandler(VmdBoneHandler handler){
+        this.boneHandler = handler;
+        return;
+    }
+
+    /**
+     * モーフモーション情報通知ハンドラを登録する。
+     * @param handler ハンドラ
+     */
+    public void setMorphHandler(VmdMorphHandler handler){
+        this.morphHandler = handler;
+        return;
+    }
+
+    /**
+     * カメラモーション情報通知ハンドラを登録する。
+     * @param handler ハンドラ
+     */
+    public void setCameraHandler(VmdCameraHandler handler){
+        this.cameraHandler = handler;
+        return;
+    }
+
+    /**
+     * 照明モーション情報通知ハンドラを登録する。
+     * @param handler ハンドラ
+     */
+    public void setLightHandler(VmdLightHandler handler){
+        this.lightHandler = handler;
+        return;
+    }
+
+    /**
+     * VMDファイルのパースを開始する。
+     * @throws IOException IOエラー
+     * @throws MmdFormatException フォーマットエラー
+     */
+    public void parseVmd()
+            throws IOException, MmdFormatException {
+        if(this.basicHandler != null){
+            this.basicHandler.vmdParseStart();
+        }
+
+        parseBody();
+
+        boolean hasMoreData = hasMore();
+        if(this.basicHandler != null){
+            this.basicHandler.vmdParseEnd(hasMoreData);
+        }
+
+        return;
+    }
+
+    /**
+     * VMDファイル本体のパースを開始する。
+     * パーサを拡張する場合はこのメソッドをオーバーライドする。
+     * @throws IOException IOエラー
+     * @throws MmdFormatException フォーマットエラー
+     */
+    protected void parseBody() throws IOException, MmdFormatException{
+        parseVmdHeader();
+
+        parseBoneMotionList();
+        parseMorphList();
+
+        if( ! hasMore() ) return;
+        parseCameraList();
+
+        if( ! hasMore() ) return;
+        parseLightList();
+
+        if( ! hasMore() ) return;
+        parseShadowList();
+
+        return;
+    }
+
+    /**
+     * VMDファイルヘッダ部のパースと通知。
+     * @throws IOException IOエラー
+     * @throws MmdFormatException フォーマットエラー
+     */
+    private void parseVmdHeader() throws IOException, MmdFormatException{
+        String header = parseZeroTermString(VmdLimits.MAXBYTES_HEADER);
+
+        String modelName;
+        if(header.equals(MAGIC)){
+            modelName = parseZeroTermString(VmdLimits.MAXBYTES_MODELNAME);
+        }else if(header.equals(MAGIC_OLD)){
+            modelName =
+                    parseZeroTermString(VmdLimits.MAXBYTES_MODELNAME_OLD);
+        }else{
+            throw new MmdFormatException("unrecognized magic data");
+        }
+
+        if(this.basicHandler != null){
+            this.basicHandler.vmdHeaderInfo(header, modelName);
+        }
+
+        return;
+    }
+
+    /**
+     * ボーンモーション情報のパースと通知。
+     * @throws IOException IOエラー
+     * @throws MmdFormatException フォーマットエラー
+     */
+    private void parseBoneMotionList()
+            throws IOException, MmdFormatException{
+        int motionNum = parseInteger();
+
+        if(this.boneHandler == null){
+            skip(BONEMOTION_DATA_SZ * (long) motionNum);
+            return;
+        }
+
+        this.boneHandler.loopStart(VmdBoneHandler.BONEMOTION_LIST,
+                                   motionNum );
+
+        byte[] raw = this.rawInterpolation;
+        byte[] packed = this.boneInterpolation;
+
+        for(int ct = 0; ct < motionNum; ct++){
+            String boneName =
+                    parseZeroTermString(VmdLimits.MAXBYTES_BONENAME);
+            int keyFrameNo = parseInteger();
+            this.boneHandler.vmdBoneMotion(boneName, keyFrameNo);
+
+            float xPos = parseFloat();
+            float yPos = parseFloat();
+            float zPos = parseFloat();
+            this.boneHandler.vmdBonePosition(xPos, yPos, zPos);
+
+            float qx = parseFloat();
+            float qy = parseFloat();
+            float qz = parseFloat();
+            float qw = parseFloat();
+            this.boneHandler.vmdBoneRotationQt(qx, qy, qz, qw);
+
+            // 64byte中、先頭16byteの[param][curve]並びだけが有効
+            parseByteArray(raw);
+            for(int curve = 0; curve < BONE_CURVES; curve++){
+                for(int param = 0; param < CURVE_PARAMS; param++){
+                    packed[curve * CURVE_PARAMS + param] =
+                            raw[param * BONE_CURVES + curve];
+                }
+            }
+            this.boneHandler.vmdBoneInterpolation(packed);
+
+            this.boneHandler.loopNext(VmdBoneHandler.BONEMOTION_LIST);
+        }
+
+        this.boneHandler.loopEnd(VmdBoneHandler.BONEMOTION_LIST);
+
+        return;
+    }
+
+    /**
+     * モーフモーション情報のパースと通知。
+     * @throws IOException IOエラー
+     * @throws MmdFormatException フォーマットエラー
+     */
+    private void parseMorphList() throws IOException, MmdFormatException{
+        int morphNum = parseInteger();
+
+        if(this.morphHandler == null){
+            skip(MORPH_DATA_SZ * (long) morphNum);
+            return;
+        }
+
+        this.morphHandler.loopStart(VmdMorphHandler.MORPH_LIST, morphNum);
+
+        for(int ct = 0; ct < morphNum; ct++){
+            String morphName =
+                    parseZeroTermString(VmdLimits.MAXBYTES_MORPHNAME);
+            int keyFrameNo = parseInteger();
+            float flex = parseFloat();
+            this.morphHandler.vmdMorphMotion(morphName, keyFrameNo, flex);
+
+            this.morphHandler.loopNext(VmdMorphHandler.MORPH_LIST);
+        }
+
+        this.morphHandler.loopEnd(VmdMorphHandler.MORPH_LIST);
+
+        return;
+    }
+
+    /**
+     * カメラモーション情報のパースと通知。
+     * @throws IOException IOエラー
+     * @throws MmdFormatException フォーマットエラー
+     */
+    private void parseCameraList() throws IOException, MmdFormatException{
+        int cameraNum = parseInteger();
+
+        if(this.cameraHandler == null){
+            skip(CAMERA_DATA_SZ * (long) cameraNum);
+            return;
+        }
+
+        this.cameraHandler.loopStart(VmdCameraHandler.CAMERA_LIST,
+                                     cameraNum );
+
+        byte[] raw = this.rawInterpolation;
+        byte[] packed = this.cameraInterpolation;
+
+        for(int ct = 0; ct < cameraNum; ct++){
+            int keyFrameNo = parseInteger();
+            this.cameraHandler.vmdCameraMotion(keyFrameNo);
+
+            float range = parseFloat();
+            this.cameraHandler.vmdCameraRange(range);
+
+            float xPos = parseFloat();
+            float yPos = parseFloat();
+            float zPos = parseFloat();
+            this.cameraHandler.vmdCameraPosition(xPos, yPos, zPos);
+
+            float latitude  = parseFloat();
+            float longitude = parseFloat();
+            float roll      = parseFloat();
+            this.cameraHandler.vmdCameraRotation(latitude, longitude, roll);
+
+            // 各曲線ごとに P1x, P2x, P1y, P2y の順で格納されている
+            parseByteArray(raw, 0, VmdLimits.CAMERA_INTERPOLATION_SZ);
+            for(int curve = 0; curve < CAMERA_CURVES; curve++){
+                int base = curve * CURVE_PARAMS;
+                packed[base    ] = raw[base    ];
+                packed[base + 1] = raw[base + 2];
+                packed[base + 2] = raw[base + 1];
+                packed[base + 3] = raw[base + 3];
+            }
+            this.cameraHandler.vmdCameraInterpolation(packed);
+
+            int angle = parseInteger();
+            // 0x00で透視投影
+            boolean hasPerspective = ! parseBoolean();
+            this.cameraHandler.vmdCameraProjection(angle, hasPerspective);
+
+            this.cameraHandler.loopNext(VmdCameraHandler.CAMERA_LIST);
+        }
+
+        this.cameraHandler.loopEnd(VmdCameraHandler.CAMERA_LIST);
+
+        return;
+    }
+
+    /**
+     * 照明モーション情報のパースと通知。
+     * @throws IOException IOエラー
+     * @throws MmdFormatException フォーマットエラー
+     */
+    private void parseLightList() throws IOException, MmdFormatException{
+        int lightNum = parseInteger();
+
+        if(this.lightHandler == null){
+            skip(LIGHT_DATA_SZ * (long) lightNum);
+            return;
+        }
+
+        this.lightHandler.loopStart(VmdLightHandler.LIGHT_LIST, lightNum);
+
+        for(int ct = 0; ct < lightNum; ct++){
+            int keyFrameNo = parseInteger();
+
+            float red   = parseFloat();
+            float green = parseFloat();
+            float blue  = parseFloat();
+
+            float xVec = parseFloat();
+            float yVec = parseFloat();
+            float zVec = parseFloat();
+
+            this.lightHandler.vmdLightMotion(keyFrameNo,
+                                             red, green, blue,
+                                             xVec, yVec, zVec );
+
+            this.lightHandler.loopNext(VmdLightHandler.LIGHT_LIST);
+        }
+
+        this.lightHandler.loopEnd(VmdLightHandler.LIGHT_LIST);
+
+        return;
+    }
+
+    /**
+     * セルフシャドウモーション情報のパースと通知。
+     * @throws IOException IOエラー
+     * @throws MmdFormatException フォーマットエラー
+     */
+    private void parseShadowList() throws IOException, MmdFormatException{
+        int shadowNum = parseInteger();
+
+        if(this.lightHandler == null){
+            skip(SHADOW_DATA_SZ * (long) shadowNum);
+            return;
+        }
+
+        this.lightHandler.loopStart(VmdLightHandler.SHADOW_LIST, shadowNum);
+
+        for(int ct = 0; ct < shadowNum; ct++){
+            int keyFrameNo = parseInteger();
+            byte shadowMode = parseByte();
+            float shadowScope = parseFloat();
+
+            this.lightHandler.vmdShadowMotion(keyFrameNo,
+                                              shadowMode, shadowScope );
+
+            this.lightHandler.loopNext(VmdLightHandler.SHADOW_LIST);
+        }
+
+        this.lightHandler.loopEnd(VmdLightHandler.SHADOW_LIST);
+
+        return;
+    }
+
+}
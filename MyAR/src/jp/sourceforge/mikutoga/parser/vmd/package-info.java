@@ -0,0 +1,14 @@
+/*
+ * package information for Javadoc
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+/**
+ * VMDモーションファイル用パーサライブラリ。
+ */
+
+package jp.sourceforge.mikutoga.parser.vmd;
+
+/* EOF */
@@ -0,0 +1,216 @@
+/*
+ * compiled mesh
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.pmd.mesh;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * 描画用に変換されたPMDモデルの形状。
+ * <p>
+ * 頂点配列は位置・法線・UVを{@link #STRIDE}個のfloatに並べたインターリーブ形式で、
+ * 頂点番号は{@link jp.sourceforge.mikutoga.pmd.PmdModel#getVertexList()}の
+ * 添え字番号に等しい。
+ * インデックス配列は三角形の頂点番号を材質順に並べたもので、
+ * 材質毎の範囲は{@link #getIndexStart(int)}と{@link #getIndexCount(int)}で得られる。
+ * <p>
+ * 頂点数が65536以下ならインデックスはshort(符号無しとして扱う)、
+ * それを超えればintで格納される。
+ */
+public class PmdMesh {
+
+    /** 頂点あたりのfloat数。 */
+    public static final int STRIDE = 8;
+    /** 頂点内での位置の格納位置。 */
+    public static final int POSITION_OFFSET = 0;
+    /** 頂点内での法線の格納位置。 */
+    public static final int NORMAL_OFFSET = 3;
+    /** 頂点内でのUVの格納位置。 */
+    public static final int UV_OFFSET = 6;
+
+    /** short型インデックスで表せる最大頂点数。 */
+    public static final int MAX_SHORT_VERTEX = 0x10000;
+
+    private static final int FLOAT_BYTES = 4;
+    private static final int SHORT_BYTES = 2;
+    private static final int INT_BYTES = 4;
+
+    private final int vertexCount;
+    private final float[] vertexArray;
+    private final int[] indexArray;
+    private final int[] indexStart;
+    private final int[] indexCount;
+
+    private FloatBuffer vertexBuffer = null;
+    private Buffer indexBuffer = null;
+
+    /**
+     * コンストラクタ。
+     * @param vertexArray インターリーブ形式の頂点配列
+     * @param indexArray インデックス配列
+     * @param indexStart 材質毎のインデックス開始位置
+     * @param indexCount 材質毎のインデックス数
+     */
+    PmdMesh(float[] vertexArray, int[] indexArray,
+            int[] indexStart, int[] indexCount ){
+        super();
+
+        this.vertexCount = vertexArray.length / STRIDE;
+        this.vertexArray = vertexArray;
+        this.indexArray = indexArray;
+        this.indexStart = indexStart;
+        this.indexCount = indexCount;
+
+        return;
+    }
+
+    /**
+     * 頂点数を返す。
+     * @return 頂点数
+     */
+    public int getVertexCount(){
+        return this.vertexCount;
+    }
+
+    /**
+     * インデックス総数を返す。
+     * @return インデックス総数
+     */
+    public int getIndexCount(){
+        return this.indexArray.length;
+    }
+
+    /**
+     * 材質数を返す。
+     * @return 材質数
+     */
+    public int getMaterialCount(){
+        return this.indexStart.length;
+    }
+
+    /**
+     * 材質のインデックス開始位置を返す。
+     * @param material 材質番号
+     * @return インデックス配列上の開始位置
+     */
+    public int getIndexStart(int material){
+        return this.indexStart[material];
+    }
+
+    /**
+     * 材質のインデックス数を返す。
+     * @param material 材質番号
+     * @return インデックス数。三角形数の3倍
+     */
+    public int getIndexCount(int material){
+        return this.indexCount[material];
+    }
+
+    /**
+     * インデックスがshort型で格納されているか判定する。
+     * @return short型ならtrue、int型ならfalse
+     */
+    public boolean isShortIndex(){
+        return this.vertexCount <= MAX_SHORT_VERTEX;
+    }
+
+    /**
+     * インデックス1個あたりのバイト数を返す。
+     * @return バイト数
+     */
+    public int getIndexBytes(){
+        return isShortIndex() ? SHORT_BYTES : INT_BYTES;
+    }
+
+    /**
+     * 頂点1個あたりのバイト数を返す。
+     * @return バイト数
+     */
+    public int getVertexBytes(){
+        return STRIDE * FLOAT_BYTES;
+    }
+
+    /**
+     * 頂点配列を返す。
+     * スキニングなどで位置・法線を書き換えてよいが、
+     * その後{@link #getVertexBuffer()}を使うなら
+     * {@link #updateVertexBuffer()}を呼ばなければならない。
+     * @return インターリーブ形式の頂点配列
+     */
+    public float[] getVertexArray(){
+        return this.vertexArray;
+    }
+
+    /**
+     * インデックス配列を返す。
+     * @return インデックス配列
+     */
+    public int[] getIndexArray(){
+        return this.indexArray;
+    }
+
+    /**
+     * ネイティブバイトオーダーのダイレクトバッファに格納された頂点配列を返す。
+     * 初回呼び出し時に生成される。
+     * @return 位置0、リミット末尾の頂点バッファ
+     */
+    public FloatBuffer getVertexBuffer(){
+        if(this.vertexBuffer == null){
+            this.vertexBuffer = ByteBuffer
+                    .allocateDirect(this.vertexArray.length * FLOAT_BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            updateVertexBuffer();
+        }
+        this.vertexBuffer.rewind();
+        return this.vertexBuffer;
+    }
+
+    /**
+     * 頂点配列の内容を頂点バッファへ反映する。
+     */
+    public void updateVertexBuffer(){
+        if(this.vertexBuffer == null) return;
+        this.vertexBuffer.clear();
+        this.vertexBuffer.put(this.vertexArray);
+        this.vertexBuffer.rewind();
+        return;
+    }
+
+    /**
+     * ネイティブバイトオーダーのダイレクトバッファに格納されたインデックス配列を返す。
+     * {@link #isShortIndex()}に応じて{@link ShortBuffer}か{@link IntBuffer}になる。
+     * 初回呼び出し時に生成される。
+     * @return 位置0、リミット末尾のインデックスバッファ
+     */
+    public Buffer getIndexBuffer(){
+        if(this.indexBuffer == null){
+            ByteBuffer bytes = ByteBuffer
+                    .allocateDirect(this.indexArray.length * getIndexBytes())
+                    .order(ByteOrder.nativeOrder());
+            if(isShortIndex()){
+                ShortBuffer buffer = bytes.asShortBuffer();
+                for(int index : this.indexArray){
+                    buffer.put((short) index);
+                }
+                this.indexBuffer = buffer;
+            }else{
+                IntBuffer buffer = bytes.asIntBuffer();
+                buffer.put(this.indexArray);
+                this.indexBuffer = buffer;
+            }
+        }
+        this.indexBuffer.rewind();
+        return this.indexBuffer;
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * mesh compiler
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.pmd.mesh;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import jp.sourceforge.mikutoga.pmd.Material;
+import jp.sourceforge.mikutoga.pmd.PmdModel;
+import jp.sourceforge.mikutoga.pmd.Pos2d;
+import jp.sourceforge.mikutoga.pmd.Pos3d;
+import jp.sourceforge.mikutoga.pmd.Surface;
+import jp.sourceforge.mikutoga.pmd.Vec3d;
+import jp.sourceforge.mikutoga.pmd.Vertex;
+
+/**
+ * PMDモデルを描画用の{@link PmdMesh}へ変換する。
+ * <p>
+ * 全材質で一つの頂点配列を共有し、材質毎に連続したインデックス範囲を割り当てるので、
+ * 描画は材質あたり一回の呼び出しで済む。
+ */
+public final class PmdMeshCompiler {
+
+    /**
+     * 隠しコンストラクタ。
+     */
+    private PmdMeshCompiler(){
+        assert false;
+        throw new AssertionError();
+    }
+
+    /**
+     * モデルを変換する。
+     * 頂点位置と法線は初期姿勢のものになる。
+     * @param model モデル
+     * @return 変換結果
+     * @throws IllegalArgumentException 材質の面がモデルに無い頂点を参照している
+     */
+    public static PmdMesh compile(PmdModel model)
+            throws IllegalArgumentException{
+        List<Vertex> vertexList = model.getVertexList();
+        int vertexCount = vertexList.size();
+
+        Map<Vertex, Integer> vertexMap =
+                new IdentityHashMap<Vertex, Integer>(vertexCount);
+        float[] vertexArray = new float[vertexCount * PmdMesh.STRIDE];
+        for(int idx = 0; idx < vertexCount; idx++){
+            Vertex vertex = vertexList.get(idx);
+            vertexMap.put(vertex, idx);
+            putVertex(vertex, vertexArray, idx * PmdMesh.STRIDE);
+        }
+
+        List<Material> materialList = model.getMaterialList();
+        int materialCount = materialList.size();
+
+        int total = 0;
+        for(Material material : materialList){
+            total += material.getSurfaceList().size() * 3;
+        }
+
+        int[] indexArray = new int[total];
+        int[] indexStart = new int[materialCount];
+        int[] indexCount = new int[materialCount];
+
+        int pos = 0;
+        for(int mat = 0; mat < materialCount; mat++){
+            indexStart[mat] = pos;
+            for(Surface surface : materialList.get(mat).getSurfaceList()){
+                indexArray[pos++] = indexOf(vertexMap, surface.getVertex1());
+                indexArray[pos++] = indexOf(vertexMap, surface.getVertex2());
+                indexArray[pos++] = indexOf(vertexMap, surface.getVertex3());
+            }
+            indexCount[mat] = pos - indexStart[mat];
+        }
+
+        PmdMesh result =
+                new PmdMesh(vertexArray, indexArray, indexStart, indexCount);
+
+        return result;
+    }
+
+    /**
+     * 頂点一つ分を頂点配列へ書き込む。
+     * @param vertex 頂点
+     * @param array 頂点配列
+     * @param offset 書き込み位置
+     */
+    private static void putVertex(Vertex vertex, float[] array, int offset){
+        Pos3d pos = vertex.getPosition();
+        int po = offset + PmdMesh.POSITION_OFFSET;
+        array[po    ] = pos.getXPos();
+        array[po + 1] = pos.getYPos();
+        array[po + 2] = pos.getZPos();
+
+        Vec3d normal = vertex.getNormal();
+        int no = offset + PmdMesh.NORMAL_OFFSET;
+        array[no    ] = normal.getXVal();
+        array[no + 1] = normal.getYVal();
+        array[no + 2] = normal.getZVal();
+
+        Pos2d uv = vertex.getUVPosition();
+        int uo = offset + PmdMesh.UV_OFFSET;
+        array[uo    ] = uv.getXPos();
+        array[uo + 1] = uv.getYPos();
+
+        return;
+    }
+
+    /**
+     * 頂点番号を引く。
+     * @param vertexMap 頂点から頂点番号へのマップ
+     * @param vertex 頂点
+     * @return 頂点番号
+     * @throws IllegalArgumentException モデルに無い頂点
+     */
+    private static int indexOf(Map<Vertex, Integer> vertexMap, Vertex vertex)
+            throws IllegalArgumentException{
+        Integer idx = vertexMap.get(vertex);
+        if(idx == null) throw new IllegalArgumentException();
+        return idx.intValue();
+    }
+
+}
@@ -0,0 +1,17 @@
+/*
+ * package information for Javadoc
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+/**
+ * PMDモデルを描画用の頂点配列・インデックス配列へ変換するライブラリ。
+ * <p>
+ * 生成される配列はNIOバッファとしても得られ、
+ * そのままバッファオブジェクトへ転送できる。
+ */
+
+package jp.sourceforge.mikutoga.pmd.mesh;
+
+/* EOF */
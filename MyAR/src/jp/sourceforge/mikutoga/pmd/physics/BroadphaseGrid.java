@@ -0,0 +1,206 @@
+/*
+ * broadphase grid
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.pmd.physics;
+
+import java.util.Arrays;
+
+/**
+ * 一様格子による衝突候補対の絞り込み。
+ * <p>
+ * 各剛体を外接球の中心が属するセルに登録し、
+ * 隣接する27セルの剛体とだけ外接球の重なりを調べる。
+ * セル幅は外接球の直径の最大値以上でなければならない。
+ * セルはハッシュ値で識別し、(ハッシュ値,剛体番号)を整列した配列で引く。
+ */
+class BroadphaseGrid {
+
+    private static final int NEIGHBOR = 27;
+    private static final int HASH_X = 73856093;
+    private static final int HASH_Y = 19349663;
+    private static final int HASH_Z = 83492791;
+    private static final int SHIFT = 32;
+    private static final long LOW_MASK = 0xffffffffL;
+
+    private final int bodyCount;
+    private final long[] cellEntry;
+    private final int[] cellX;
+    private final int[] cellY;
+    private final int[] cellZ;
+    private final int[] neighborKey = new int[NEIGHBOR];
+
+    private float cellSize = 1.0f;
+
+    private int[] pairA;
+    private int[] pairB;
+    private int pairCount = 0;
+
+    /**
+     * コンストラクタ。
+     * @param bodyCount 剛体数
+     */
+    BroadphaseGrid(int bodyCount){
+        super();
+
+        this.bodyCount = bodyCount;
+        this.cellEntry = new long[bodyCount];
+        this.cellX = new int[bodyCount];
+        this.cellY = new int[bodyCount];
+        this.cellZ = new int[bodyCount];
+
+        int initPair = Math.max(16, bodyCount * 4);
+        this.pairA = new int[initPair];
+        this.pairB = new int[initPair];
+
+        return;
+    }
+
+    /**
+     * セル幅を設定する。
+     * @param size セル幅
+     */
+    void setCellSize(float size){
+        this.cellSize = size;
+        return;
+    }
+
+    /**
+     * セル座標のハッシュ値を求める。
+     * @param ix X方向セル番号
+     * @param iy Y方向セル番号
+     * @param iz Z方向セル番号
+     * @return ハッシュ値
+     */
+    private static int hash(int ix, int iy, int iz){
+        return (ix * HASH_X) ^ (iy * HASH_Y) ^ (iz * HASH_Z);
+    }
+
+    /**
+     * 外接球の重なる剛体対を求める。
+     * 結果は{@link #getPairA()}と{@link #getPairB()}の先頭
+     * {@link #getPairCount()}要素に、番号の小さい順の対として格納される。
+     * @param position 剛体位置配列
+     * @param bound 外接球半径配列
+     */
+    void collect(float[] position, float[] bound){
+        int num = this.bodyCount;
+        float inv = 1.0f / this.cellSize;
+
+        for(int body = 0; body < num; body++){
+            int po = body * 3;
+            int ix = (int) Math.floor(position[po    ] * inv);
+            int iy = (int) Math.floor(position[po + 1] * inv);
+            int iz = (int) Math.floor(position[po + 2] * inv);
+            this.cellX[body] = ix;
+            this.cellY[body] = iy;
+            this.cellZ[body] = iz;
+            long key = hash(ix, iy, iz);
+            this.cellEntry[body] = (key << SHIFT) | body;
+        }
+        Arrays.sort(this.cellEntry);
+
+        this.pairCount = 0;
+        int[] keys = this.neighborKey;
+
+        for(int body = 0; body < num; body++){
+            int count = 0;
+            for(int dx = -1; dx <= 1; dx++){
+                for(int dy = -1; dy <= 1; dy++){
+                    for(int dz = -1; dz <= 1; dz++){
+                        keys[count++] = hash(this.cellX[body] + dx,
+                                             this.cellY[body] + dy,
+                                             this.cellZ[body] + dz );
+                    }
+                }
+            }
+            // ハッシュ衝突で同じキーを二度引かないよう整列して重複を飛ばす
+            Arrays.sort(keys);
+
+            for(int pt = 0; pt < NEIGHBOR; pt++){
+                if(pt > 0 && keys[pt] == keys[pt - 1]) continue;
+                scanCell(keys[pt], body, position, bound);
+            }
+        }
+
+        return;
+    }
+
+    /**
+     * 一つのセルの剛体のうち、指定剛体より番号が大きく外接球が重なるものを対にする。
+     * @param key セルのハッシュ値
+     * @param body 剛体番号
+     * @param position 剛体位置配列
+     * @param bound 外接球半径配列
+     */
+    private void scanCell(int key, int body, float[] position, float[] bound){
+        long first = (long) key << SHIFT;
+        int pos = Arrays.binarySearch(this.cellEntry, first);
+        if(pos < 0) pos = -pos - 1;
+
+        int bo = body * 3;
+        for(; pos < this.bodyCount; pos++){
+            long entry = this.cellEntry[pos];
+            if((int)(entry >> SHIFT) != key) break;
+
+            int other = (int)(entry & LOW_MASK);
+            if(other <= body) continue;
+
+            int oo = other * 3;
+            float dx = position[oo    ] - position[bo    ];
+            float dy = position[oo + 1] - position[bo + 1];
+            float dz = position[oo + 2] - position[bo + 2];
+            float reach = bound[body] + bound[other];
+            if(dx * dx + dy * dy + dz * dz > reach * reach) continue;
+
+            addPair(body, other);
+        }
+
+        return;
+    }
+
+    /**
+     * 候補対を追加する。
+     * @param a 剛体番号
+     * @param b 剛体番号
+     */
+    private void addPair(int a, int b){
+        if(this.pairCount >= this.pairA.length){
+            int newSize = this.pairA.length * 2;
+            this.pairA = Arrays.copyOf(this.pairA, newSize);
+            this.pairB = Arrays.copyOf(this.pairB, newSize);
+        }
+        this.pairA[this.pairCount] = a;
+        this.pairB[this.pairCount] = b;
+        this.pairCount++;
+        return;
+    }
+
+    /**
+     * 候補対の数を返す。
+     * @return 候補対の数
+     */
+    int getPairCount(){
+        return this.pairCount;
+    }
+
+    /**
+     * 候補対の一方の剛体番号配列を返す。
+     * @return 剛体番号配列
+     */
+    int[] getPairA(){
+        return this.pairA;
+    }
+
+    /**
+     * 候補対の他方の剛体番号配列を返す。
+     * @return 剛体番号配列
+     */
+    int[] getPairB(){
+        return this.pairB;
+    }
+
+}
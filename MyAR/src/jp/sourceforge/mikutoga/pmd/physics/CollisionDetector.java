@@ -0,0 +1,433 @@
+/*
+ * collision detector
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.pmd.physics;
+
+import jp.sourceforge.mikutoga.pmd.pose.PoseMath;
+
+/**
+ * 剛体対の接触判定。
+ * <p>
+ * 球とカプセルは「線分+半径」として統一的に扱い、線分間の最近点から接触を求める。
+ * 箱と線分の組は、線分上の点と箱内への射影を交互に求める反復で最近点を得る。
+ * 箱同士の場合は一方の箱を最長軸に沿ったカプセルに近似する。
+ */
+class CollisionDetector {
+
+    /** 球。 */
+    static final int SHAPE_SPHERE = 0;
+    /** 箱。 */
+    static final int SHAPE_BOX = 1;
+    /** カプセル。 */
+    static final int SHAPE_CAPSULE = 2;
+
+    /** 接触情報の要素数。 */
+    static final int CONTACT_SIZE = 10;
+    /** 接触法線の格納位置。剛体Aから剛体Bへ向かう。 */
+    static final int CONTACT_NORMAL = 0;
+    /** 侵入深さの格納位置。 */
+    static final int CONTACT_DEPTH = 3;
+    /** 剛体A側の接触点の格納位置。 */
+    static final int CONTACT_POINT_A = 4;
+    /** 剛体B側の接触点の格納位置。 */
+    static final int CONTACT_POINT_B = 7;
+
+    private static final int CLOSEST_LOOP = 3;
+    private static final float EPSILON = 1.0e-6f;
+
+    private final int[] shape;
+    private final float[] size;
+    private final float[] position;
+    private final float[] rotation;
+
+    // 作業領域
+    private final float[] segA = new float[6];
+    private final float[] segB = new float[6];
+    private final float[] closest = new float[6];
+    private final float[] vec = new float[3];
+
+    /**
+     * コンストラクタ。
+     * 配列は剛体の状態として共有され、判定時の値が用いられる。
+     * @param shape 形状種別配列
+     * @param size 形状寸法配列
+     * @param position 位置配列
+     * @param rotation 回転配列
+     */
+    CollisionDetector(int[] shape, float[] size,
+                      float[] position, float[] rotation ){
+        super();
+        this.shape = shape;
+        this.size = size;
+        this.position = position;
+        this.rotation = rotation;
+        return;
+    }
+
+    /**
+     * 剛体対の接触を判定する。
+     * @param a 剛体番号
+     * @param b 剛体番号
+     * @param result 接触情報の格納先
+     * @param ro 格納位置
+     * @return 接触していればtrue
+     */
+    boolean detect(int a, int b, float[] result, int ro){
+        int shapeA = this.shape[a];
+        int shapeB = this.shape[b];
+
+        if(shapeA != SHAPE_BOX && shapeB != SHAPE_BOX){
+            float ra = segment(a, this.segA);
+            float rb = segment(b, this.segB);
+            return segmentSegment(this.segA, ra, this.segB, rb, result, ro);
+        }
+
+        if(shapeA == SHAPE_BOX){
+            float rb;
+            if(shapeB == SHAPE_BOX) rb = boxAsCapsule(b, this.segB);
+            else                    rb = segment(b, this.segB);
+            return boxSegment(a, this.segB, rb, result, ro);
+        }
+
+        float ra = segment(a, this.segA);
+        if( ! boxSegment(b, this.segA, ra, result, ro) ) return false;
+
+        // 箱側をAとして求めたので入れ替える
+        for(int idx = 0; idx < 3; idx++){
+            result[ro + CONTACT_NORMAL + idx] = -result[ro + CONTACT_NORMAL + idx];
+            float tmp = result[ro + CONTACT_POINT_A + idx];
+            result[ro + CONTACT_POINT_A + idx] = result[ro + CONTACT_POINT_B + idx];
+            result[ro + CONTACT_POINT_B + idx] = tmp;
+        }
+
+        return true;
+    }
+
+    /**
+     * 球またはカプセルの芯となる線分を求める。
+     * @param body 剛体番号
+     * @param seg 線分両端の格納先
+     * @return 半径
+     */
+    private float segment(int body, float[] seg){
+        int po = body * 3;
+        int so = body * 3;
+        float halfLength = 0.0f;
+        if(this.shape[body] == SHAPE_CAPSULE){
+            halfLength = this.size[so + 1];
+        }
+
+        this.vec[0] = 0.0f;
+        this.vec[1] = halfLength;
+        this.vec[2] = 0.0f;
+        PoseMath.rotateVector(this.rotation, body * PoseMath.QUAT_SIZE,
+                              this.vec, 0, this.vec, 0 );
+
+        for(int idx = 0; idx < 3; idx++){
+            seg[idx    ] = this.position[po + idx] - this.vec[idx];
+            seg[idx + 3] = this.position[po + idx] + this.vec[idx];
+        }
+
+        return this.size[so];
+    }
+
+    /**
+     * 箱を最長軸に沿ったカプセルで近似した線分を求める。
+     * @param body 剛体番号
+     * @param seg 線分両端の格納先
+     * @return 半径
+     */
+    private float boxAsCapsule(int body, float[] seg){
+        int so = body * 3;
+        int axis = 0;
+        if(this.size[so + 1] > this.size[so + axis]) axis = 1;
+        if(this.size[so + 2] > this.size[so + axis]) axis = 2;
+
+        float radius = 0.0f;
+        for(int idx = 0; idx < 3; idx++){
+            if(idx != axis) radius = Math.max(radius, this.size[so + idx]);
+        }
+        float halfLength = Math.max(0.0f, this.size[so + axis] - radius);
+
+        this.vec[0] = 0.0f;
+        this.vec[1] = 0.0f;
+        this.vec[2] = 0.0f;
+        this.vec[axis] = halfLength;
+        PoseMath.rotateVector(this.rotation, body * PoseMath.QUAT_SIZE,
+                              this.vec, 0, this.vec, 0 );
+
+        int po = body * 3;
+        for(int idx = 0; idx < 3; idx++){
+            seg[idx    ] = this.position[po + idx] - this.vec[idx];
+            seg[idx + 3] = this.position[po + idx] + this.vec[idx];
+        }
+
+        return radius;
+    }
+
+    /**
+     * 二線分間の最近点を求める。
+     * @param p 線分1の両端
+     * @param q 線分2の両端
+     * @param result [0-2]:線分1上の点 [3-5]:線分2上の点
+     */
+    private static void closestSegment(float[] p, float[] q, float[] result){
+        float d1x = p[3] - p[0], d1y = p[4] - p[1], d1z = p[5] - p[2];
+        float d2x = q[3] - q[0], d2y = q[4] - q[1], d2z = q[5] - q[2];
+        float rx = p[0] - q[0], ry = p[1] - q[1], rz = p[2] - q[2];
+
+        float a = d1x * d1x + d1y * d1y + d1z * d1z;
+        float e = d2x * d2x + d2y * d2y + d2z * d2z;
+        float f = d2x * rx + d2y * ry + d2z * rz;
+
+        float s;
+        float t;
+        if(a <= EPSILON && e <= EPSILON){
+            s = 0.0f;
+            t = 0.0f;
+        }else if(a <= EPSILON){
+            s = 0.0f;
+            t = clamp01(f / e);
+        }else{
+            float c = d1x * rx + d1y * ry + d1z * rz;
+            if(e <= EPSILON){
+                t = 0.0f;
+                s = clamp01(-c / a);
+            }else{
+                float b = d1x * d2x + d1y * d2y + d1z * d2z;
+                float denom = a * e - b * b;
+                if(denom > EPSILON) s = clamp01((b * f - c * e) / denom);
+                else                s = 0.0f;
+                t = (b * s + f) / e;
+                if(t < 0.0f){
+                    t = 0.0f;
+                    s = clamp01(-c / a);
+                }else if(t > 1.0f){
+                    t = 1.0f;
+                    s = clamp01((b - c) / a);
+                }
+            }
+        }
+
+        result[0] = p[0] + d1x * s;
+        result[1] = p[1] + d1y * s;
+        result[2] = p[2] + d1z * s;
+        result[3] = q[0] + d2x * t;
+        result[4] = q[1] + d2y * t;
+        result[5] = q[2] + d2z * t;
+
+        return;
+    }
+
+    /**
+     * 値を0から1の範囲に収める。
+     * @param val 値
+     * @return 収めた値
+     */
+    private static float clamp01(float val){
+        if(val < 0.0f) return 0.0f;
+        if(val > 1.0f) return 1.0f;
+        return val;
+    }
+
+    /**
+     * 線分+半径で表された二形状の接触を判定する。
+     * @param sa 形状Aの線分
+     * @param ra 形状Aの半径
+     * @param sb 形状Bの線分
+     * @param rb 形状Bの半径
+     * @param result 接触情報の格納先
+     * @param ro 格納位置
+     * @return 接触していればtrue
+     */
+    private boolean segmentSegment(float[] sa, float ra,
+                                   float[] sb, float rb,
+                                   float[] result, int ro ){
+        float[] c = this.closest;
+        closestSegment(sa, sb, c);
+
+        float dx = c[3] - c[0];
+        float dy = c[4] - c[1];
+        float dz = c[5] - c[2];
+        float dist2 = dx * dx + dy * dy + dz * dz;
+        float reach = ra + rb;
+        if(dist2 >= reach * reach) return false;
+
+        float dist = (float) Math.sqrt(dist2);
+        float nx, ny, nz;
+        if(dist > EPSILON){
+            nx = dx / dist;
+            ny = dy / dist;
+            nz = dz / dist;
+        }else{
+            // 芯が交差している場合は上向きに押し出す
+            nx = 0.0f;
+            ny = 1.0f;
+            nz = 0.0f;
+        }
+
+        result[ro + CONTACT_NORMAL    ] = nx;
+        result[ro + CONTACT_NORMAL + 1] = ny;
+        result[ro + CONTACT_NORMAL + 2] = nz;
+        result[ro + CONTACT_DEPTH] = reach - dist;
+        result[ro + CONTACT_POINT_A    ] = c[0] + nx * ra;
+        result[ro + CONTACT_POINT_A + 1] = c[1] + ny * ra;
+        result[ro + CONTACT_POINT_A + 2] = c[2] + nz * ra;
+        result[ro + CONTACT_POINT_B    ] = c[3] - nx * rb;
+        result[ro + CONTACT_POINT_B + 1] = c[4] - ny * rb;
+        result[ro + CONTACT_POINT_B + 2] = c[5] - nz * rb;
+
+        return true;
+    }
+
+    /**
+     * 箱と、線分+半径で表された形状の接触を判定する。
+     * @param box 箱の剛体番号
+     * @param seg 相手形状の線分
+     * @param radius 相手形状の半径
+     * @param result 接触情報の格納先。箱側がAとなる
+     * @param ro 格納位置
+     * @return 接触していればtrue
+     */
+    private boolean boxSegment(int box, float[] seg, float radius,
+                               float[] result, int ro ){
+        int po = box * 3;
+        int qo = box * PoseMath.QUAT_SIZE;
+        float[] rot = this.rotation;
+        float hx = this.size[po], hy = this.size[po + 1], hz = this.size[po + 2];
+
+        // 線分を箱のローカル座標へ
+        float[] local = this.closest;
+        for(int end = 0; end < 2; end++){
+            int eo = end * 3;
+            this.vec[0] = seg[eo    ] - this.position[po    ];
+            this.vec[1] = seg[eo + 1] - this.position[po + 1];
+            this.vec[2] = seg[eo + 2] - this.position[po + 2];
+            inverseRotate(rot, qo, this.vec);
+            local[eo    ] = this.vec[0];
+            local[eo + 1] = this.vec[1];
+            local[eo + 2] = this.vec[2];
+        }
+
+        float ax = local[0], ay = local[1], az = local[2];
+        float dx = local[3] - ax, dy = local[4] - ay, dz = local[5] - az;
+        float len2 = dx * dx + dy * dy + dz * dz;
+
+        // 線分上の点と箱内の点を交互に近づける
+        float t = 0.5f;
+        if(len2 > EPSILON) t = clamp01(-(ax * dx + ay * dy + az * dz) / len2);
+        float sx = 0, sy = 0, sz = 0;
+        float qx = 0, qy = 0, qz = 0;
+        for(int loop = 0; loop < CLOSEST_LOOP; loop++){
+            sx = ax + dx * t;
+            sy = ay + dy * t;
+            sz = az + dz * t;
+            qx = clamp(sx, hx);
+            qy = clamp(sy, hy);
+            qz = clamp(sz, hz);
+            if(len2 <= EPSILON) break;
+            t = clamp01(((qx - ax) * dx + (qy - ay) * dy + (qz - az) * dz)
+                        / len2 );
+        }
+        sx = ax + dx * t;
+        sy = ay + dy * t;
+        sz = az + dz * t;
+        qx = clamp(sx, hx);
+        qy = clamp(sy, hy);
+        qz = clamp(sz, hz);
+
+        float ex = sx - qx, ey = sy - qy, ez = sz - qz;
+        float dist2 = ex * ex + ey * ey + ez * ez;
+        if(dist2 >= radius * radius) return false;
+
+        float nx, ny, nz;
+        float depth;
+        if(dist2 > EPSILON * EPSILON){
+            float dist = (float) Math.sqrt(dist2);
+            nx = ex / dist;
+            ny = ey / dist;
+            nz = ez / dist;
+            depth = radius - dist;
+        }else{
+            // 芯が箱の内部にあるので、最も近い面から押し出す
+            float px = hx - Math.abs(sx);
+            float py = hy - Math.abs(sy);
+            float pz = hz - Math.abs(sz);
+            nx = 0.0f;
+            ny = 0.0f;
+            nz = 0.0f;
+            if(px <= py && px <= pz){
+                nx = sx < 0.0f ? -1.0f : 1.0f;
+                qx = nx * hx;
+                depth = px + radius;
+            }else if(py <= pz){
+                ny = sy < 0.0f ? -1.0f : 1.0f;
+                qy = ny * hy;
+                depth = py + radius;
+            }else{
+                nz = sz < 0.0f ? -1.0f : 1.0f;
+                qz = nz * hz;
+                depth = pz + radius;
+            }
+        }
+
+        // ワールド座標へ戻す
+        this.vec[0] = nx;
+        this.vec[1] = ny;
+        this.vec[2] = nz;
+        PoseMath.rotateVector(rot, qo, this.vec, 0, result, ro + CONTACT_NORMAL);
+
+        this.vec[0] = qx;
+        this.vec[1] = qy;
+        this.vec[2] = qz;
+        PoseMath.rotateVector(rot, qo, this.vec, 0, result, ro + CONTACT_POINT_A);
+
+        this.vec[0] = sx - nx * radius;
+        this.vec[1] = sy - ny * radius;
+        this.vec[2] = sz - nz * radius;
+        PoseMath.rotateVector(rot, qo, this.vec, 0, result, ro + CONTACT_POINT_B);
+
+        for(int idx = 0; idx < 3; idx++){
+            result[ro + CONTACT_POINT_A + idx] += this.position[po + idx];
+            result[ro + CONTACT_POINT_B + idx] += this.position[po + idx];
+        }
+        result[ro + CONTACT_DEPTH] = depth;
+
+        return true;
+    }
+
+    /**
+     * 値を±範囲に収める。
+     * @param val 値
+     * @param half 範囲
+     * @return 収めた値
+     */
+    private static float clamp(float val, float half){
+        if(val < -half) return -half;
+        if(val >  half) return  half;
+        return val;
+    }
+
+    /**
+     * 単位クォータニオンの逆回転でベクトルを回転させる。
+     * @param q クォータニオンの配列
+     * @param qo 格納位置
+     * @param v ベクトル。結果で上書きされる
+     */
+    static void inverseRotate(float[] q, int qo, float[] v){
+        float qx = -q[qo], qy = -q[qo + 1], qz = -q[qo + 2], qw = q[qo + 3];
+        float vx = v[0], vy = v[1], vz = v[2];
+        float tx = 2.0f * (qy * vz - qz * vy);
+        float ty = 2.0f * (qz * vx - qx * vz);
+        float tz = 2.0f * (qx * vy - qy * vx);
+        v[0] = vx + qw * tx + (qy * tz - qz * ty);
+        v[1] = vy + qw * ty + (qz * tx - qx * tz);
+        v[2] = vz + qw * tz + (qx * ty - qy * tx);
+        return;
+    }
+
+}
@@ -0,0 +1,1265 @@
+/*
+ * rigid body physics
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.pmd.physics;
+
+import java.util.Arrays;
+import java.util.List;
+import jp.sourceforge.mikutoga.pmd.BoneInfo;
+import jp.sourceforge.mikutoga.pmd.DynamicsInfo;
+import jp.sourceforge.mikutoga.pmd.JointInfo;
+import jp.sourceforge.mikutoga.pmd.PmdModel;
+import jp.sourceforge.mikutoga.pmd.RigidBehaviorType;
+import jp.sourceforge.mikutoga.pmd.RigidGroup;
+import jp.sourceforge.mikutoga.pmd.RigidInfo;
+import jp.sourceforge.mikutoga.pmd.RigidShape;
+import jp.sourceforge.mikutoga.pmd.TripletRange;
+import jp.sourceforge.mikutoga.pmd.pose.BonePose;
+import jp.sourceforge.mikutoga.pmd.pose.PoseMath;
+import jp.sourceforge.mikutoga.pmd.pose.Skeleton;
+
+/**
+ * PMDモデルの剛体とジョイントによる物理演算。
+ * <p>
+ * 位置ベースの拘束解法(XPBD)を固定時間刻みで回す。
+ * ジョイントは移動・回転の可動範囲と各軸のばねを持つ6自由度拘束として扱い、
+ * 剛体の衝突は剛体グループの非衝突指定に従って絞り込まれる。
+ * <p>
+ * ボーン追従剛体はボーンの姿勢に合わせて動かされ、
+ * 物理演算剛体はその結果をボーンの姿勢へ書き戻す。
+ * 物理演算+ボーン位置合わせ剛体は、位置をボーンに合わせ回転だけを書き戻す。
+ */
+public class PhysicsWorld {
+
+    /** デフォルトの時間刻み(秒)。 */
+    public static final float DEF_TIMESTEP = 1.0f / 120.0f;
+    /** デフォルトの1ステップあたり最大分割数。 */
+    public static final int DEF_MAX_SUBSTEP = 8;
+    /** デフォルトの拘束解法反復回数。 */
+    public static final int DEF_ITERATION = 4;
+    /** デフォルトの重力加速度。MMDの長さ単位に合わせてある。 */
+    public static final float DEF_GRAVITY = -98.0f;
+
+    private static final int KINEMATIC = 0;
+    private static final int DYNAMIC = 1;
+    private static final int ALIGNED = 2;
+
+    private static final int ALL_GROUP = 0xffff;
+    private static final float EPSILON = 1.0e-6f;
+
+    private final Skeleton skeleton;
+    private final int bodyCount;
+    private final int jointCount;
+
+    // 剛体
+    private final int[] shape;
+    private final float[] size;
+    private final float[] bound;
+    private final int[] behavior;
+    private final int[] bone;
+    private final float[] offsetPos;
+    private final float[] offsetRot;
+    private final float[] invMass;
+    private final float[] invInertia;
+    private final float[] dampingPos;
+    private final float[] dampingRot;
+    private final float[] friction;
+    private final float[] restitution;
+    private final int[] group;
+    private final int[] mask;
+
+    private final float[] position;
+    private final float[] rotation;
+    private final float[] prevPosition;
+    private final float[] prevRotation;
+    private final float[] velocity;
+    private final float[] angularVelocity;
+
+    // ジョイント
+    private final int[] jointA;
+    private final int[] jointB;
+    private final float[] jointPosA;
+    private final float[] jointRotA;
+    private final float[] jointPosB;
+    private final float[] jointRotB;
+    private final float[] posLimit;
+    private final float[] rotLimit;
+    private final float[] posSpring;
+    private final float[] rotSpring;
+
+    // ボーン毎の、姿勢を書き戻す剛体
+    private final int[] boneBody;
+
+    private final BroadphaseGrid grid;
+    private final CollisionDetector detector;
+
+    private float[] contact;
+    private int[] contactA;
+    private int[] contactB;
+    private int contactCount = 0;
+
+    private final float[] gravity = {0.0f, DEF_GRAVITY, 0.0f};
+    private float timeStep = DEF_TIMESTEP;
+    private int maxSubstep = DEF_MAX_SUBSTEP;
+    private int iteration = DEF_ITERATION;
+    private float accumulator = 0.0f;
+
+    // 作業領域
+    private final float[] frameA = new float[7];
+    private final float[] frameB = new float[7];
+    private final float[] vec = new float[3];
+    private final float[] vecA = new float[3];
+    private final float[] vecB = new float[3];
+    private final float[] quat = new float[PoseMath.QUAT_SIZE];
+    private final float[] mat = new float[PoseMath.MAT_SIZE];
+
+    /**
+     * コンストラクタ。
+     * 剛体とジョイントはモデルの初期姿勢に配置される。
+     * @param model モデル
+     * @param skeleton モデルのボーン階層
+     */
+    public PhysicsWorld(PmdModel model, Skeleton skeleton){
+        super();
+
+        this.skeleton = skeleton;
+
+        List<RigidInfo> rigidList = model.getRigidList();
+        List<JointInfo> jointList = model.getJointList();
+        this.bodyCount = rigidList.size();
+        this.jointCount = jointList.size();
+
+        int num = this.bodyCount;
+        this.shape           = new int[num];
+        this.size            = new float[num * 3];
+        this.bound           = new float[num];
+        this.behavior        = new int[num];
+        this.bone            = new int[num];
+        this.offsetPos       = new float[num * 3];
+        this.offsetRot       = new float[num * PoseMath.QUAT_SIZE];
+        this.invMass         = new float[num];
+        this.invInertia      = new float[num * 3];
+        this.dampingPos      = new float[num];
+        this.dampingRot      = new float[num];
+        this.friction        = new float[num];
+        this.restitution     = new float[num];
+        this.group           = new int[num];
+        this.mask            = new int[num];
+        this.position        = new float[num * 3];
+        this.rotation        = new float[num * PoseMath.QUAT_SIZE];
+        this.prevPosition    = new float[num * 3];
+        this.prevRotation    = new float[num * PoseMath.QUAT_SIZE];
+        this.velocity        = new float[num * 3];
+        this.angularVelocity = new float[num * 3];
+
+        this.boneBody = new int[skeleton.getBoneCount()];
+        Arrays.fill(this.boneBody, Skeleton.NO_BONE);
+
+        float maxBound = 0.0f;
+        for(int body = 0; body < num; body++){
+            setupBody(body, rigidList.get(body));
+            maxBound = Math.max(maxBound, this.bound[body]);
+        }
+
+        int jnum = this.jointCount;
+        this.jointA    = new int[jnum];
+        this.jointB    = new int[jnum];
+        this.jointPosA = new float[jnum * 3];
+        this.jointRotA = new float[jnum * PoseMath.QUAT_SIZE];
+        this.jointPosB = new float[jnum * 3];
+        this.jointRotB = new float[jnum * PoseMath.QUAT_SIZE];
+        this.posLimit  = new float[jnum * 6];
+        this.rotLimit  = new float[jnum * 6];
+        this.posSpring = new float[jnum * 3];
+        this.rotSpring = new float[jnum * 3];
+        for(int joint = 0; joint < jnum; joint++){
+            setupJoint(joint, jointList.get(joint));
+        }
+
+        this.grid = new BroadphaseGrid(num);
+        this.grid.setCellSize(Math.max(maxBound * 2.0f, EPSILON));
+        this.detector = new CollisionDetector(this.shape, this.size,
+                                              this.position, this.rotation );
+
+        int initContact = Math.max(16, num * 2);
+        this.contact = new float[initContact * CollisionDetector.CONTACT_SIZE];
+        this.contactA = new int[initContact];
+        this.contactB = new int[initContact];
+
+        return;
+    }
+
+    /**
+     * 剛体情報を配列へ展開する。
+     * @param body 剛体番号
+     * @param rigid 剛体情報
+     */
+    private void setupBody(int body, RigidInfo rigid){
+        int so = body * 3;
+        int qo = body * PoseMath.QUAT_SIZE;
+
+        RigidShape rigidShape = rigid.getRigidShape();
+        switch(rigidShape.getShapeType()){
+        case SPHERE:
+            this.shape[body] = CollisionDetector.SHAPE_SPHERE;
+            this.size[so] = rigidShape.getRadius();
+            this.bound[body] = rigidShape.getRadius();
+            break;
+        case CAPSULE:
+            this.shape[body] = CollisionDetector.SHAPE_CAPSULE;
+            this.size[so    ] = rigidShape.getRadius();
+            this.size[so + 1] = rigidShape.getHeight() * 0.5f;
+            this.bound[body] = this.size[so] + this.size[so + 1];
+            break;
+        default:
+            this.shape[body] = CollisionDetector.SHAPE_BOX;
+            this.size[so    ] = rigidShape.getWidth();
+            this.size[so + 1] = rigidShape.getHeight();
+            this.size[so + 2] = rigidShape.getDepth();
+            this.bound[body] = (float) Math.sqrt(
+                      this.size[so    ] * this.size[so    ]
+                    + this.size[so + 1] * this.size[so + 1]
+                    + this.size[so + 2] * this.size[so + 2] );
+            break;
+        }
+
+        RigidBehaviorType type = rigid.getBehaviorType();
+        if(type == RigidBehaviorType.ONLYDYNAMICS)       this.behavior[body] = DYNAMIC;
+        else if(type == RigidBehaviorType.BONEDDYNAMICS) this.behavior[body] = ALIGNED;
+        else                                             this.behavior[body] = KINEMATIC;
+
+        // ボーン未指定の剛体は先頭ボーン基準
+        int boneIdx = Skeleton.NO_BONE;
+        BoneInfo linked = rigid.getLinkedBone();
+        if(linked != null) boneIdx = this.skeleton.getBoneIndex(linked);
+        else if(this.skeleton.getBoneCount() > 0) boneIdx = 0;
+        this.bone[body] = boneIdx;
+
+        float[] rest = this.skeleton.getRestPositionArray();
+        float bx = 0.0f, by = 0.0f, bz = 0.0f;
+        if(boneIdx != Skeleton.NO_BONE){
+            bx = rest[boneIdx * 3];
+            by = rest[boneIdx * 3 + 1];
+            bz = rest[boneIdx * 3 + 2];
+        }
+
+        this.offsetPos[so    ] = rigid.getPosition().getXPos();
+        this.offsetPos[so + 1] = rigid.getPosition().getYPos();
+        this.offsetPos[so + 2] = rigid.getPosition().getZPos();
+        eulerToQuat(rigid.getRotation().getXRad(),
+                    rigid.getRotation().getYRad(),
+                    rigid.getRotation().getZRad(),
+                    this.offsetRot, qo );
+
+        // 初期姿勢ではボーンに回転が無いので、オフセットがそのまま姿勢になる
+        this.position[so    ] = bx + this.offsetPos[so    ];
+        this.position[so + 1] = by + this.offsetPos[so + 1];
+        this.position[so + 2] = bz + this.offsetPos[so + 2];
+        System.arraycopy(this.offsetRot, qo, this.rotation, qo,
+                         PoseMath.QUAT_SIZE );
+        System.arraycopy(this.position, so, this.prevPosition, so, 3);
+        System.arraycopy(this.rotation, qo, this.prevRotation, qo,
+                         PoseMath.QUAT_SIZE );
+
+        DynamicsInfo dynamics = rigid.getDynamicsInfo();
+        float mass = dynamics.getMass();
+        if(this.behavior[body] != KINEMATIC && mass > 0.0f){
+            this.invMass[body] = 1.0f / mass;
+            setupInertia(body, mass);
+        }
+        this.dampingPos[body]  = dynamics.getDampingPosition();
+        this.dampingRot[body]  = dynamics.getDampingRotation();
+        this.friction[body]    = dynamics.getFriction();
+        this.restitution[body] = dynamics.getRestitution();
+
+        RigidGroup rigidGroup = rigid.getRigidGroup();
+        int groupNo = rigidGroup == null ? 0 : rigidGroup.getSerialNumber();
+        this.group[body] = 1 << Math.max(0, groupNo);
+        int through = 0;
+        for(RigidGroup throughGroup : rigid.getThroughGroupColl()){
+            through |= 1 << throughGroup.getSerialNumber();
+        }
+        this.mask[body] = ALL_GROUP & ~through;
+
+        if(this.behavior[body] != KINEMATIC
+           && boneIdx != Skeleton.NO_BONE
+           && this.boneBody[boneIdx] == Skeleton.NO_BONE
+           && linked != null ){
+            this.boneBody[boneIdx] = body;
+        }
+
+        return;
+    }
+
+    /**
+     * 形状から慣性テンソルの逆数(主軸成分)を求める。
+     * @param body 剛体番号
+     * @param mass 質量
+     */
+    private void setupInertia(int body, float mass){
+        int so = body * 3;
+        float ix, iy, iz;
+
+        switch(this.shape[body]){
+        case CollisionDetector.SHAPE_SPHERE:{
+            float r = this.size[so];
+            ix = iy = iz = 0.4f * mass * r * r;
+            break;
+        }
+        case CollisionDetector.SHAPE_CAPSULE:{
+            // 円柱で近似
+            float r = this.size[so];
+            float h = this.size[so + 1] * 2.0f + r;
+            ix = iz = mass * (3.0f * r * r + h * h) / 12.0f;
+            iy = 0.5f * mass * r * r;
+            break;
+        }
+        default:{
+            float x2 = this.size[so    ] * this.size[so    ];
+            float y2 = this.size[so + 1] * this.size[so + 1];
+            float z2 = this.size[so + 2] * this.size[so + 2];
+            ix = mass * (y2 + z2) / 3.0f;
+            iy = mass * (x2 + z2) / 3.0f;
+            iz = mass * (x2 + y2) / 3.0f;
+            break;
+        }
+        }
+
+        this.invInertia[so    ] = ix > EPSILON ? 1.0f / ix : 0.0f;
+        this.invInertia[so + 1] = iy > EPSILON ? 1.0f / iy : 0.0f;
+        this.invInertia[so + 2] = iz > EPSILON ? 1.0f / iz : 0.0f;
+
+        return;
+    }
+
+    /**
+     * ジョイント情報を配列へ展開する。
+     * 接続点は各剛体の初期姿勢からの相対位置・回転として保持される。
+     * @param joint ジョイント番号
+     * @param info ジョイント情報
+     */
+    private void setupJoint(int joint, JointInfo info){
+        int a = indexOf(info.getRigidA());
+        int b = indexOf(info.getRigidB());
+        this.jointA[joint] = a;
+        this.jointB[joint] = b;
+
+        float[] q = this.quat;
+        eulerToQuat(info.getRotation().getXRad(),
+                    info.getRotation().getYRad(),
+                    info.getRotation().getZRad(),
+                    q, 0 );
+        float px = info.getPosition().getXPos();
+        float py = info.getPosition().getYPos();
+        float pz = info.getPosition().getZPos();
+
+        int jo = joint * 3;
+        int jq = joint * PoseMath.QUAT_SIZE;
+        if(a >= 0) toBodyFrame(a, px, py, pz, q, this.jointPosA, jo, this.jointRotA, jq);
+        if(b >= 0) toBodyFrame(b, px, py, pz, q, this.jointPosB, jo, this.jointRotB, jq);
+
+        setRange(info.getPositionRange(), this.posLimit, joint * 6);
+        setRange(info.getRotationRange(), this.rotLimit, joint * 6);
+
+        this.posSpring[jo    ] = info.getElasticPosition().getXPos();
+        this.posSpring[jo + 1] = info.getElasticPosition().getYPos();
+        this.posSpring[jo + 2] = info.getElasticPosition().getZPos();
+        this.rotSpring[jo    ] = info.getElasticRotation().getXDeg();
+        this.rotSpring[jo + 1] = info.getElasticRotation().getYDeg();
+        this.rotSpring[jo + 2] = info.getElasticRotation().getZDeg();
+
+        return;
+    }
+
+    /**
+     * 剛体情報の剛体番号を返す。
+     * @param rigid 剛体情報
+     * @return 剛体番号。範囲外ならば-1
+     */
+    private int indexOf(RigidInfo rigid){
+        if(rigid == null) return -1;
+        int idx = rigid.getSerialNumber();
+        if(idx < 0 || this.bodyCount <= idx) return -1;
+        return idx;
+    }
+
+    /**
+     * ワールド座標の位置・回転を剛体ローカルへ変換する。
+     * @param body 剛体番号
+     * @param px X座標
+     * @param py Y座標
+     * @param pz Z座標
+     * @param q 回転
+     * @param posOut 位置の格納先
+     * @param po 位置の格納位置
+     * @param rotOut 回転の格納先
+     * @param ro 回転の格納位置
+     */
+    private void toBodyFrame(int body, float px, float py, float pz, float[] q,
+                             float[] posOut, int po, float[] rotOut, int ro ){
+        int so = body * 3;
+        int qo = body * PoseMath.QUAT_SIZE;
+
+        this.vec[0] = px - this.position[so    ];
+        this.vec[1] = py - this.position[so + 1];
+        this.vec[2] = pz - this.position[so + 2];
+        CollisionDetector.inverseRotate(this.rotation, qo, this.vec);
+        posOut[po    ] = this.vec[0];
+        posOut[po + 1] = this.vec[1];
+        posOut[po + 2] = this.vec[2];
+
+        PoseMath.conjugateQuat(this.rotation, qo, rotOut, ro);
+        PoseMath.mulQuat(rotOut, ro, q, 0, rotOut, ro);
+        PoseMath.normalizeQuat(rotOut, ro);
+
+        return;
+    }
+
+    /**
+     * 可動範囲を配列へ展開する。
+     * @param range 可動範囲
+     * @param limit 格納先
+     * @param lo 格納位置
+     */
+    private static void setRange(TripletRange range, float[] limit, int lo){
+        limit[lo    ] = range.getXFrom();
+        limit[lo + 1] = range.getXTo();
+        limit[lo + 2] = range.getYFrom();
+        limit[lo + 3] = range.getYTo();
+        limit[lo + 4] = range.getZFrom();
+        limit[lo + 5] = range.getZTo();
+        return;
+    }
+
+    /**
+     * X軸、Y軸、Z軸の順に回転するオイラー角をクォータニオンへ変換する。
+     * @param rx X軸回転量(ラジアン)
+     * @param ry Y軸回転量(ラジアン)
+     * @param rz Z軸回転量(ラジアン)
+     * @param q 格納先
+     * @param qo 格納位置
+     */
+    private static void eulerToQuat(float rx, float ry, float rz,
+                                    float[] q, int qo ){
+        double cx = Math.cos(rx * 0.5), sx = Math.sin(rx * 0.5);
+        double cy = Math.cos(ry * 0.5), sy = Math.sin(ry * 0.5);
+        double cz = Math.cos(rz * 0.5), sz = Math.sin(rz * 0.5);
+
+        // q = qz * qy * qx
+        q[qo    ] = (float)(cz * cy * sx - sz * sy * cx);
+        q[qo + 1] = (float)(cz * sy * cx + sz * cy * sx);
+        q[qo + 2] = (float)(sz * cy * cx - cz * sy * sx);
+        q[qo + 3] = (float)(cz * cy * cx + sz * sy * sx);
+
+        return;
+    }
+
+    /**
+     * 重力加速度を設定する。
+     * @param x X成分
+     * @param y Y成分
+     * @param z Z成分
+     */
+    public void setGravity(float x, float y, float z){
+        this.gravity[0] = x;
+        this.gravity[1] = y;
+        this.gravity[2] = z;
+        return;
+    }
+
+    /**
+     * 時間刻みを設定する。
+     * @param step 1回の演算で進める時間(秒)
+     * @param maxStep {@link #step(float, BonePose)}一回あたりの最大演算回数。
+     * 処理落ち時はこれを超える分の時間が捨てられる。
+     * @throws IllegalArgumentException 引数が正でない
+     */
+    public void setTimeStep(float step, int maxStep)
+            throws IllegalArgumentException{
+        if(step <= 0.0f || maxStep <= 0) throw new IllegalArgumentException();
+        this.timeStep = step;
+        this.maxSubstep = maxStep;
+        return;
+    }
+
+    /**
+     * 拘束解法の反復回数を設定する。
+     * @param count 反復回数
+     * @throws IllegalArgumentException 引数が正でない
+     */
+    public void setIteration(int count) throws IllegalArgumentException{
+        if(count <= 0) throw new IllegalArgumentException();
+        this.iteration = count;
+        return;
+    }
+
+    /**
+     * 剛体数を返す。
+     * @return 剛体数
+     */
+    public int getBodyCount(){
+        return this.bodyCount;
+    }
+
+    /**
+     * 剛体位置の配列を返す。
+     * 剛体毎にX,Y,Zの順で並ぶ。
+     * @return 剛体位置の配列
+     */
+    public float[] getPositionArray(){
+        return this.position;
+    }
+
+    /**
+     * 剛体回転の配列を返す。
+     * 剛体毎に(x,y,z,w)のクォータニオンが並ぶ。
+     * @return 剛体回転の配列
+     */
+    public float[] getRotationArray(){
+        return this.rotation;
+    }
+
+    /**
+     * 全剛体を現在のボーン姿勢に合わせて配置し、速度を0にする。
+     * モーションの先頭やシーク後に呼ぶ。
+     * @param pose ワールド行列が更新済みの姿勢
+     */
+    public void reset(BonePose pose){
+        float[] world = pose.getWorldArray();
+        for(int body = 0; body < this.bodyCount; body++){
+            int so = body * 3;
+            int qo = body * PoseMath.QUAT_SIZE;
+            if(this.bone[body] != Skeleton.NO_BONE){
+                boneToBody(body, world, this.position, so, this.rotation, qo);
+            }
+            System.arraycopy(this.position, so, this.prevPosition, so, 3);
+            System.arraycopy(this.rotation, qo, this.prevRotation, qo,
+                             PoseMath.QUAT_SIZE );
+        }
+        Arrays.fill(this.velocity, 0.0f);
+        Arrays.fill(this.angularVelocity, 0.0f);
+        this.accumulator = 0.0f;
+        return;
+    }
+
+    /**
+     * 経過時間分の物理演算を行い、結果をボーン姿勢へ書き戻す。
+     * 経過時間は固定時間刻みに分割され、端数は次回に持ち越される。
+     * @param elapsed 経過時間(秒)
+     * @param pose ワールド行列が更新済みの姿勢。
+     * 終了時には全ボーンのワールド行列が更新されている。
+     */
+    public void step(float elapsed, BonePose pose){
+        followBone(pose, elapsed);
+
+        this.accumulator += elapsed;
+        int count = (int)(this.accumulator / this.timeStep);
+        if(count > this.maxSubstep){
+            count = this.maxSubstep;
+            this.accumulator = 0.0f;
+        }else{
+            this.accumulator -= count * this.timeStep;
+        }
+
+        for(int ct = 0; ct < count; ct++){
+            substep(this.timeStep);
+        }
+
+        writeBack(pose);
+
+        return;
+    }
+
+    /**
+     * ボーンの姿勢から剛体の姿勢を求める。
+     * @param body 剛体番号
+     * @param world ボーンのワールド行列配列
+     * @param posOut 位置の格納先
+     * @param po 位置の格納位置
+     * @param rotOut 回転の格納先
+     * @param ro 回転の格納位置
+     */
+    private void boneToBody(int body, float[] world,
+                            float[] posOut, int po,
+                            float[] rotOut, int ro ){
+        int wo = this.bone[body] * PoseMath.MAT_SIZE;
+        PoseMath.transformPoint(world, wo, this.offsetPos, body * 3,
+                                posOut, po );
+        PoseMath.matrixToQuat(world, wo, this.quat, 0);
+        PoseMath.mulQuat(this.quat, 0,
+                         this.offsetRot, body * PoseMath.QUAT_SIZE,
+                         rotOut, ro );
+        PoseMath.normalizeQuat(rotOut, ro);
+        return;
+    }
+
+    /**
+     * ボーン追従剛体をボーンの姿勢に合わせる。
+     * 位置合わせ付き剛体は位置だけを合わせる。
+     * @param pose 姿勢
+     * @param elapsed 前回からの経過時間(秒)
+     */
+    private void followBone(BonePose pose, float elapsed){
+        float[] world = pose.getWorldArray();
+        float[] target = this.vecA;
+        float invTime = elapsed > 0.0f ? 1.0f / elapsed : 0.0f;
+
+        for(int body = 0; body < this.bodyCount; body++){
+            if(this.bone[body] == Skeleton.NO_BONE) continue;
+            int so = body * 3;
+            int qo = body * PoseMath.QUAT_SIZE;
+
+            switch(this.behavior[body]){
+            case KINEMATIC:
+                boneToBody(body, world, target, 0, this.frameA, 0);
+                for(int idx = 0; idx < 3; idx++){
+                    this.velocity[so + idx] =
+                            (target[idx] - this.position[so + idx]) * invTime;
+                    this.position[so + idx] = target[idx];
+                }
+                System.arraycopy(this.frameA, 0, this.rotation, qo,
+                                 PoseMath.QUAT_SIZE );
+                break;
+            case ALIGNED:
+                PoseMath.transformPoint(world,
+                                        this.bone[body] * PoseMath.MAT_SIZE,
+                                        this.offsetPos, so,
+                                        this.position, so );
+                break;
+            default:
+                break;
+            }
+        }
+
+        return;
+    }
+
+    /**
+     * 剛体が物理演算で動くか判定する。
+     * @param body 剛体番号
+     * @return 動くならtrue
+     */
+    private boolean isDynamic(int body){
+        return this.invMass[body] > 0.0f;
+    }
+
+    /**
+     * 固定時間刻み一回分の演算を行う。
+     * @param dt 時間刻み(秒)
+     */
+    private void substep(float dt){
+        int num = this.bodyCount;
+
+        // 予測位置
+        for(int body = 0; body < num; body++){
+            if( ! isDynamic(body) ) continue;
+            int so = body * 3;
+            int qo = body * PoseMath.QUAT_SIZE;
+
+            System.arraycopy(this.position, so, this.prevPosition, so, 3);
+            System.arraycopy(this.rotation, qo, this.prevRotation, qo,
+                             PoseMath.QUAT_SIZE );
+
+            for(int idx = 0; idx < 3; idx++){
+                this.velocity[so + idx] += this.gravity[idx] * dt;
+                this.position[so + idx] += this.velocity[so + idx] * dt;
+            }
+            rotate(body,
+                   this.angularVelocity[so    ] * dt,
+                   this.angularVelocity[so + 1] * dt,
+                   this.angularVelocity[so + 2] * dt,
+                   1.0f );
+        }
+
+        this.grid.collect(this.position, this.bound);
+
+        for(int iter = 0; iter < this.iteration; iter++){
+            for(int joint = 0; joint < this.jointCount; joint++){
+                solveJoint(joint, dt);
+            }
+            solveContact();
+        }
+
+        // 位置の変化から速度を求める
+        for(int body = 0; body < num; body++){
+            if( ! isDynamic(body) ) continue;
+            int so = body * 3;
+            int qo = body * PoseMath.QUAT_SIZE;
+
+            float linear = (float) Math.pow(1.0 - this.dampingPos[body], dt);
+            for(int idx = 0; idx < 3; idx++){
+                this.velocity[so + idx] = linear
+                        * (this.position[so + idx] - this.prevPosition[so + idx])
+                        / dt;
+            }
+
+            PoseMath.conjugateQuat(this.prevRotation, qo, this.quat, 0);
+            PoseMath.mulQuat(this.rotation, qo, this.quat, 0, this.quat, 0);
+            float sign = this.quat[3] < 0.0f ? -1.0f : 1.0f;
+            float angular = (float) Math.pow(1.0 - this.dampingRot[body], dt);
+            for(int idx = 0; idx < 3; idx++){
+                this.angularVelocity[so + idx] =
+                        angular * sign * 2.0f * this.quat[idx] / dt;
+            }
+        }
+
+        solveContactVelocity();
+
+        return;
+    }
+
+    /**
+     * 剛体を微小回転させる。
+     * @param body 剛体番号
+     * @param wx 回転ベクトルX成分
+     * @param wy 回転ベクトルY成分
+     * @param wz 回転ベクトルZ成分
+     * @param scale 係数
+     */
+    private void rotate(int body, float wx, float wy, float wz, float scale){
+        int qo = body * PoseMath.QUAT_SIZE;
+        float[] q = this.rotation;
+        float qx = q[qo], qy = q[qo + 1], qz = q[qo + 2], qw = q[qo + 3];
+        float hx = 0.5f * scale * wx;
+        float hy = 0.5f * scale * wy;
+        float hz = 0.5f * scale * wz;
+
+        // q += 0.5 * [w, 0] * q
+        q[qo    ] = qx + (hx * qw + hy * qz - hz * qy);
+        q[qo + 1] = qy + (hy * qw + hz * qx - hx * qz);
+        q[qo + 2] = qz + (hz * qw + hx * qy - hy * qx);
+        q[qo + 3] = qw - (hx * qx + hy * qy + hz * qz);
+        PoseMath.normalizeQuat(q, qo);
+
+        return;
+    }
+
+    /**
+     * ワールド座標系で慣性テンソルの逆数をベクトルに掛ける。
+     * @param body 剛体番号
+     * @param v ベクトル。結果で上書きされる
+     */
+    private void applyInvInertia(int body, float[] v){
+        int so = body * 3;
+        int qo = body * PoseMath.QUAT_SIZE;
+        CollisionDetector.inverseRotate(this.rotation, qo, v);
+        v[0] *= this.invInertia[so    ];
+        v[1] *= this.invInertia[so + 1];
+        v[2] *= this.invInertia[so + 2];
+        PoseMath.rotateVector(this.rotation, qo, v, 0, v, 0);
+        return;
+    }
+
+    /**
+     * 接続点の一致を目指す位置拘束を適用する。
+     * 剛体Aは補正方向へ、剛体Bは逆方向へ動かされる。
+     * @param a 剛体番号
+     * @param b 剛体番号
+     * @param dx 補正量X成分
+     * @param dy 補正量Y成分
+     * @param dz 補正量Z成分
+     * @param ra 剛体Aの重心から接続点へのベクトル
+     * @param rb 剛体Bの重心から接続点へのベクトル
+     * @param compliance 柔らかさ。0なら剛な拘束
+     * @param dt 時間刻み
+     */
+    private void applyPositional(int a, int b,
+                                 float dx, float dy, float dz,
+                                 float[] ra, float[] rb,
+                                 float compliance, float dt ){
+        float len = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if(len < EPSILON) return;
+        float nx = dx / len, ny = dy / len, nz = dz / len;
+
+        float wa = generalizedInvMass(a, ra, nx, ny, nz);
+        float wb = generalizedInvMass(b, rb, nx, ny, nz);
+        float denom = wa + wb + compliance / (dt * dt);
+        if(denom < EPSILON) return;
+
+        float lambda = len / denom;
+        float px = nx * lambda, py = ny * lambda, pz = nz * lambda;
+
+        if(a >= 0 && isDynamic(a)) applyImpulse(a, ra, px, py, pz, 1.0f);
+        if(b >= 0 && isDynamic(b)) applyImpulse(b, rb, px, py, pz, -1.0f);
+
+        return;
+    }
+
+    /**
+     * 一般化された逆質量を求める。
+     * @param body 剛体番号
+     * @param r 重心から作用点へのベクトル
+     * @param nx 方向X成分
+     * @param ny 方向Y成分
+     * @param nz 方向Z成分
+     * @return 逆質量。動かない剛体なら0
+     */
+    private float generalizedInvMass(int body, float[] r,
+                                     float nx, float ny, float nz ){
+        if(body < 0 || ! isDynamic(body)) return 0.0f;
+
+        float[] v = this.vec;
+        v[0] = r[1] * nz - r[2] * ny;
+        v[1] = r[2] * nx - r[0] * nz;
+        v[2] = r[0] * ny - r[1] * nx;
+        float cx = v[0], cy = v[1], cz = v[2];
+        applyInvInertia(body, v);
+
+        return this.invMass[body] + cx * v[0] + cy * v[1] + cz * v[2];
+    }
+
+    /**
+     * 位置補正を作用点に加える。
+     * @param body 剛体番号
+     * @param r 重心から作用点へのベクトル
+     * @param px 補正インパルスX成分
+     * @param py 補正インパルスY成分
+     * @param pz 補正インパルスZ成分
+     * @param sign 向き
+     */
+    private void applyImpulse(int body, float[] r,
+                              float px, float py, float pz, float sign ){
+        int so = body * 3;
+        float im = this.invMass[body] * sign;
+        this.position[so    ] += px * im;
+        this.position[so + 1] += py * im;
+        this.position[so + 2] += pz * im;
+
+        float[] v = this.vec;
+        v[0] = r[1] * pz - r[2] * py;
+        v[1] = r[2] * px - r[0] * pz;
+        v[2] = r[0] * py - r[1] * px;
+        applyInvInertia(body, v);
+        rotate(body, v[0], v[1], v[2], sign);
+
+        return;
+    }
+
+    /**
+     * 回転拘束を適用する。
+     * 剛体Aは補正回転の向きへ、剛体Bは逆向きへ回される。
+     * @param a 剛体番号
+     * @param b 剛体番号
+     * @param ex 補正回転ベクトルX成分
+     * @param ey 補正回転ベクトルY成分
+     * @param ez 補正回転ベクトルZ成分
+     * @param compliance 柔らかさ。0なら剛な拘束
+     * @param dt 時間刻み
+     */
+    private void applyAngular(int a, int b,
+                              float ex, float ey, float ez,
+                              float compliance, float dt ){
+        float angle = (float) Math.sqrt(ex * ex + ey * ey + ez * ez);
+        if(angle < EPSILON) return;
+        float nx = ex / angle, ny = ey / angle, nz = ez / angle;
+
+        float wa = angularInvMass(a, nx, ny, nz);
+        float wb = angularInvMass(b, nx, ny, nz);
+        float denom = wa + wb + compliance / (dt * dt);
+        if(denom < EPSILON) return;
+
+        float lambda = angle / denom;
+        float[] v = this.vec;
+
+        if(a >= 0 && isDynamic(a)){
+            v[0] = nx * lambda;
+            v[1] = ny * lambda;
+            v[2] = nz * lambda;
+            applyInvInertia(a, v);
+            rotate(a, v[0], v[1], v[2], 1.0f);
+        }
+        if(b >= 0 && isDynamic(b)){
+            v[0] = nx * lambda;
+            v[1] = ny * lambda;
+            v[2] = nz * lambda;
+            applyInvInertia(b, v);
+            rotate(b, v[0], v[1], v[2], -1.0f);
+        }
+
+        return;
+    }
+
+    /**
+     * 回転に対する逆慣性を求める。
+     * @param body 剛体番号
+     * @param nx 回転軸X成分
+     * @param ny 回転軸Y成分
+     * @param nz 回転軸Z成分
+     * @return 逆慣性。動かない剛体なら0
+     */
+    private float angularInvMass(int body, float nx, float ny, float nz){
+        if(body < 0 || ! isDynamic(body)) return 0.0f;
+        float[] v = this.vec;
+        v[0] = nx;
+        v[1] = ny;
+        v[2] = nz;
+        applyInvInertia(body, v);
+        return nx * v[0] + ny * v[1] + nz * v[2];
+    }
+
+    /**
+     * ジョイントの接続フレームをワールド座標で求める。
+     * @param body 剛体番号
+     * @param pos 接続点の剛体ローカル位置配列
+     * @param rot 接続フレームの剛体ローカル回転配列
+     * @param joint ジョイント番号
+     * @param frame 格納先。[0-2]:位置 [3-6]:回転
+     * @param r 重心から接続点へのベクトルの格納先
+     */
+    private void jointFrame(int body, float[] pos, float[] rot, int joint,
+                            float[] frame, float[] r ){
+        int so = body * 3;
+        int qo = body * PoseMath.QUAT_SIZE;
+        PoseMath.rotateVector(this.rotation, qo, pos, joint * 3, r, 0);
+        frame[0] = this.position[so    ] + r[0];
+        frame[1] = this.position[so + 1] + r[1];
+        frame[2] = this.position[so + 2] + r[2];
+        PoseMath.mulQuat(this.rotation, qo,
+                         rot, joint * PoseMath.QUAT_SIZE,
+                         frame, 3 );
+        return;
+    }
+
+    /**
+     * 可動範囲からのはみ出し量を求める。
+     * @param val 値
+     * @param from 下限
+     * @param to 上限
+     * @return はみ出し量
+     */
+    private static float excess(float val, float from, float to){
+        if(val < from) return val - from;
+        if(val > to) return val - to;
+        return 0.0f;
+    }
+
+    /**
+     * ジョイントの可動範囲とばねを適用する。
+     * @param joint ジョイント番号
+     * @param dt 時間刻み
+     */
+    private void solveJoint(int joint, float dt){
+        int a = this.jointA[joint];
+        int b = this.jointB[joint];
+        if(a < 0 || b < 0) return;
+        if( ! isDynamic(a) && ! isDynamic(b) ) return;
+
+        int jo = joint * 3;
+        int lo = joint * 6;
+        float[] fa = this.frameA;
+        float[] fb = this.frameB;
+        float[] d = this.vecB;
+
+        // 移動
+        jointFrame(a, this.jointPosA, this.jointRotA, joint, fa, this.vecA);
+        jointFrame(b, this.jointPosB, this.jointRotB, joint, fb, d);
+        float[] ra = this.vecA;
+        float rbx = d[0], rby = d[1], rbz = d[2];
+
+        float[] local = this.mat;
+        local[0] = fb[0] - fa[0];
+        local[1] = fb[1] - fa[1];
+        local[2] = fb[2] - fa[2];
+        inverseRotateFrame(fa, local);
+
+        // はみ出し分は剛に、範囲内の変位はばねで引き戻す
+        float[] corr = this.mat;
+        float sx = 0.0f, sy = 0.0f, sz = 0.0f;
+        for(int axis = 0; axis < 3; axis++){
+            float val = local[axis];
+            float over = excess(val, this.posLimit[lo + axis * 2],
+                                     this.posLimit[lo + axis * 2 + 1] );
+            corr[4 + axis] = over;
+            float inside = val - over;
+            if(axis == 0) sx = inside;
+            else if(axis == 1) sy = inside;
+            else sz = inside;
+        }
+        d[0] = rbx;
+        d[1] = rby;
+        d[2] = rbz;
+        corr[0] = corr[4];
+        corr[1] = corr[5];
+        corr[2] = corr[6];
+        rotateFrame(fa, corr);
+        applyPositional(a, b, corr[0], corr[1], corr[2], ra, d, 0.0f, dt);
+
+        for(int axis = 0; axis < 3; axis++){
+            float stiffness = this.posSpring[jo + axis];
+            if(stiffness <= 0.0f) continue;
+            float val = axis == 0 ? sx : (axis == 1 ? sy : sz);
+            corr[0] = 0.0f;
+            corr[1] = 0.0f;
+            corr[2] = 0.0f;
+            corr[axis] = val;
+            rotateFrame(fa, corr);
+            applyPositional(a, b, corr[0], corr[1], corr[2], ra, d,
+                            1.0f / stiffness, dt );
+        }
+
+        // 回転
+        jointFrame(a, this.jointPosA, this.jointRotA, joint, fa, this.vecA);
+        jointFrame(b, this.jointPosB, this.jointRotB, joint, fb, d);
+        float[] q = this.quat;
+        PoseMath.conjugateQuat(fa, 3, q, 0);
+        PoseMath.mulQuat(q, 0, fb, 3, q, 0);
+        if(q[3] < 0.0f){
+            q[0] = -q[0];
+            q[1] = -q[1];
+            q[2] = -q[2];
+            q[3] = -q[3];
+        }
+        float sinHalf = (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2]);
+        float scale = 2.0f;
+        if(sinHalf > EPSILON){
+            scale = (float)(2.0 * Math.atan2(sinHalf, q[3]) / sinHalf);
+        }
+
+        float rx = 0.0f, ry = 0.0f, rz = 0.0f;
+        for(int axis = 0; axis < 3; axis++){
+            float val = q[axis] * scale;
+            float over = excess(val, this.rotLimit[lo + axis * 2],
+                                     this.rotLimit[lo + axis * 2 + 1] );
+            corr[axis] = over;
+            float inside = val - over;
+            if(axis == 0) rx = inside;
+            else if(axis == 1) ry = inside;
+            else rz = inside;
+        }
+        rotateFrame(fa, corr);
+        applyAngular(a, b, corr[0], corr[1], corr[2], 0.0f, dt);
+
+        for(int axis = 0; axis < 3; axis++){
+            float stiffness = this.rotSpring[jo + axis];
+            if(stiffness <= 0.0f) continue;
+            float val = axis == 0 ? rx : (axis == 1 ? ry : rz);
+            corr[0] = 0.0f;
+            corr[1] = 0.0f;
+            corr[2] = 0.0f;
+            corr[axis] = val;
+            rotateFrame(fa, corr);
+            applyAngular(a, b, corr[0], corr[1], corr[2],
+                         1.0f / stiffness, dt );
+        }
+
+        return;
+    }
+
+    /**
+     * 接続フレームの回転でベクトルを回転させる。
+     * @param frame 接続フレーム
+     * @param v ベクトル。先頭3要素が結果で上書きされる
+     */
+    private static void rotateFrame(float[] frame, float[] v){
+        PoseMath.rotateVector(frame, 3, v, 0, v, 0);
+        return;
+    }
+
+    /**
+     * 接続フレームの逆回転でベクトルを回転させる。
+     * @param frame 接続フレーム
+     * @param v ベクトル。先頭3要素が結果で上書きされる
+     */
+    private static void inverseRotateFrame(float[] frame, float[] v){
+        CollisionDetector.inverseRotate(frame, 3, v);
+        return;
+    }
+
+    /**
+     * 剛体対が衝突しうるか判定する。
+     * @param a 剛体番号
+     * @param b 剛体番号
+     * @return 衝突しうるならtrue
+     */
+    private boolean canCollide(int a, int b){
+        if( ! isDynamic(a) && ! isDynamic(b) ) return false;
+        if((this.mask[a] & this.group[b]) == 0) return false;
+        if((this.mask[b] & this.group[a]) == 0) return false;
+        return true;
+    }
+
+    /**
+     * 衝突候補対の接触を判定し、めり込みを解消する。
+     * 最後に見つかった接触は速度の補正に用いられる。
+     */
+    private void solveContact(){
+        int pairCount = this.grid.getPairCount();
+        int[] pairA = this.grid.getPairA();
+        int[] pairB = this.grid.getPairB();
+
+        this.contactCount = 0;
+        for(int pair = 0; pair < pairCount; pair++){
+            int a = pairA[pair];
+            int b = pairB[pair];
+            if( ! canCollide(a, b) ) continue;
+
+            ensureContact();
+            int co = this.contactCount * CollisionDetector.CONTACT_SIZE;
+            if( ! this.detector.detect(a, b, this.contact, co) ) continue;
+            this.contactA[this.contactCount] = a;
+            this.contactB[this.contactCount] = b;
+            this.contactCount++;
+
+            float[] c = this.contact;
+            int pa = co + CollisionDetector.CONTACT_POINT_A;
+            int pb = co + CollisionDetector.CONTACT_POINT_B;
+            for(int idx = 0; idx < 3; idx++){
+                this.vecA[idx] = c[pa + idx] - this.position[a * 3 + idx];
+                this.vecB[idx] = c[pb + idx] - this.position[b * 3 + idx];
+            }
+            applyPositional(a, b,
+                            c[pb    ] - c[pa    ],
+                            c[pb + 1] - c[pa + 1],
+                            c[pb + 2] - c[pa + 2],
+                            this.vecA, this.vecB,
+                            0.0f, this.timeStep );
+        }
+
+        return;
+    }
+
+    /**
+     * 接触情報の格納領域を一つ分確保する。
+     */
+    private void ensureContact(){
+        if(this.contactCount < this.contactA.length) return;
+        int newSize = this.contactA.length * 2;
+        this.contactA = Arrays.copyOf(this.contactA, newSize);
+        this.contactB = Arrays.copyOf(this.contactB, newSize);
+        this.contact = Arrays.copyOf(
+                this.contact, newSize * CollisionDetector.CONTACT_SIZE);
+        return;
+    }
+
+    /**
+     * 接触点での反発と摩擦を速度に反映する。
+     */
+    private void solveContactVelocity(){
+        float[] c = this.contact;
+        for(int pt = 0; pt < this.contactCount; pt++){
+            int a = this.contactA[pt];
+            int b = this.contactB[pt];
+            int co = pt * CollisionDetector.CONTACT_SIZE;
+            float nx = c[co + CollisionDetector.CONTACT_NORMAL    ];
+            float ny = c[co + CollisionDetector.CONTACT_NORMAL + 1];
+            float nz = c[co + CollisionDetector.CONTACT_NORMAL + 2];
+
+            float wa = this.invMass[a];
+            float wb = this.invMass[b];
+            float wsum = wa + wb;
+            if(wsum <= 0.0f) continue;
+
+            int ao = a * 3;
+            int bo = b * 3;
+            float vx = this.velocity[ao    ] - this.velocity[bo    ];
+            float vy = this.velocity[ao + 1] - this.velocity[bo + 1];
+            float vz = this.velocity[ao + 2] - this.velocity[bo + 2];
+            float vn = vx * nx + vy * ny + vz * nz;
+
+            float tx = vx - vn * nx;
+            float ty = vy - vn * ny;
+            float tz = vz - vn * nz;
+            float vt = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+
+            // 接近中なら反発させる
+            float dn = 0.0f;
+            if(vn > 0.0f){
+                float e = this.restitution[a] * this.restitution[b];
+                dn = -(1.0f + e) * vn;
+            }
+
+            // 摩擦は法線方向の速度変化に比例して接線速度を減らす
+            float mu = (float) Math.sqrt(this.friction[a] * this.friction[b]);
+            float dt = 0.0f;
+            if(vt > EPSILON){
+                float depthSpeed =
+                        c[co + CollisionDetector.CONTACT_DEPTH] / this.timeStep;
+                dt = Math.min(mu * (Math.abs(dn) + depthSpeed), vt) / vt;
+            }
+
+            float ix = dn * nx - tx * dt;
+            float iy = dn * ny - ty * dt;
+            float iz = dn * nz - tz * dt;
+
+            float ka = wa / wsum;
+            float kb = wb / wsum;
+            this.velocity[ao    ] += ix * ka;
+            this.velocity[ao + 1] += iy * ka;
+            this.velocity[ao + 2] += iz * ka;
+            this.velocity[bo    ] -= ix * kb;
+            this.velocity[bo + 1] -= iy * kb;
+            this.velocity[bo + 2] -= iz * kb;
+        }
+
+        return;
+    }
+
+    /**
+     * 物理演算の結果をボーンのローカル姿勢へ書き戻し、
+     * 全ボーンのワールド行列を更新する。
+     * @param pose 姿勢
+     */
+    private void writeBack(BonePose pose){
+        int[] order = this.skeleton.getOrderArray();
+        int[] parent = this.skeleton.getParentArray();
+        float[] offset = this.skeleton.getRestOffsetArray();
+        float[] world = pose.getWorldArray();
+        float[] localRot = pose.getRotationArray();
+        float[] localPos = pose.getTranslationArray();
+        float[] q = this.quat;
+        float[] p = this.vecA;
+
+        for(int pos = 0; pos < order.length; pos++){
+            int boneIdx = order[pos];
+            int body = this.boneBody[boneIdx];
+            if(body == Skeleton.NO_BONE){
+                pose.updateBone(boneIdx);
+                continue;
+            }
+
+            int so = body * 3;
+            int qo = body * PoseMath.QUAT_SIZE;
+
+            // ボーンのワールド姿勢 = 剛体姿勢 * オフセットの逆
+            PoseMath.conjugateQuat(this.offsetRot, qo, q, 0);
+            PoseMath.mulQuat(this.rotation, qo, q, 0, q, 0);
+            PoseMath.rotateVector(q, 0, this.offsetPos, so, p, 0);
+            p[0] = this.position[so    ] - p[0];
+            p[1] = this.position[so + 1] - p[1];
+            p[2] = this.position[so + 2] - p[2];
+
+            // 親のワールド姿勢に対するローカル姿勢へ
+            int parentIdx = parent[boneIdx];
+            int bq = boneIdx * PoseMath.QUAT_SIZE;
+            int bo = boneIdx * 3;
+            if(parentIdx == Skeleton.NO_BONE){
+                System.arraycopy(q, 0, localRot, bq, PoseMath.QUAT_SIZE);
+            }else{
+                int wo = parentIdx * PoseMath.MAT_SIZE;
+                PoseMath.matrixToQuat(world, wo, this.frameB, 0);
+                PoseMath.conjugateQuat(this.frameB, 0, this.frameB, 0);
+                PoseMath.mulQuat(this.frameB, 0, q, 0, localRot, bq);
+                p[0] -= world[wo +  3];
+                p[1] -= world[wo +  7];
+                p[2] -= world[wo + 11];
+                PoseMath.rotateVector(this.frameB, 0, p, 0, p, 0);
+            }
+            PoseMath.normalizeQuat(localRot, bq);
+
+            if(this.behavior[body] == DYNAMIC){
+                localPos[bo    ] = p[0] - offset[bo    ];
+                localPos[bo + 1] = p[1] - offset[bo + 1];
+                localPos[bo + 2] = p[2] - offset[bo + 2];
+            }
+
+            pose.updateBone(boneIdx);
+        }
+
+        return;
+    }
+
+}
@@ -0,0 +1,17 @@
+/*
+ * package information for Javadoc
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+/**
+ * PMDモデルの剛体とジョイントを用いた物理演算ライブラリ。
+ * <p>
+ * 剛体の状態は種類毎のプリミティブ型配列に展開され、
+ * 固定時間刻みでの演算中にオブジェクトは生成されない。
+ */
+
+package jp.sourceforge.mikutoga.pmd.physics;
+
+/* EOF */
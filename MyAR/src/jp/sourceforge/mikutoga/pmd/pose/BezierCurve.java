@@ -0,0 +1,173 @@
+/*
+ * bezier easing curve
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.pmd.pose;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MMDのキーフレーム補間に用いられる3次ベジェ曲線。
+ * <p>
+ * 始点(0,0)、終点(1,1)と、0から127で表された2制御点から成る。
+ * 生成時にX座標を等分した位置のY座標を求めて表にしておき、
+ * 評価時は表の線形補間のみを行う。
+ * 同じ制御点の曲線は{@link #getCurve(int, int, int, int)}により共有される。
+ */
+public final class BezierCurve {
+
+    /** 制御点座標の最大値。 */
+    public static final int MAX_PARAM = 127;
+
+    /** 表の分割数。 */
+    private static final int TABLE_DIV = 64;
+    /** 曲線パラメータ探索の反復回数。 */
+    private static final int SOLVE_LOOP = 24;
+
+    private static final Map<Integer, BezierCurve> CACHE =
+            new HashMap<Integer, BezierCurve>();
+
+    /** 線形補間と等価な曲線。 */
+    public static final BezierCurve LINEAR = getCurve(20, 20, 107, 107);
+
+    private final boolean linear;
+    private final float[] table;
+
+    /**
+     * コンストラクタ。
+     * @param p1x 制御点1のX座標
+     * @param p1y 制御点1のY座標
+     * @param p2x 制御点2のX座標
+     * @param p2y 制御点2のY座標
+     */
+    private BezierCurve(int p1x, int p1y, int p2x, int p2y){
+        super();
+
+        this.linear = p1x == p1y && p2x == p2y;
+        if(this.linear){
+            this.table = null;
+            return;
+        }
+
+        float x1 = (float) p1x / MAX_PARAM;
+        float y1 = (float) p1y / MAX_PARAM;
+        float x2 = (float) p2x / MAX_PARAM;
+        float y2 = (float) p2y / MAX_PARAM;
+
+        this.table = new float[TABLE_DIV + 1];
+        for(int idx = 0; idx <= TABLE_DIV; idx++){
+            float x = (float) idx / TABLE_DIV;
+
+            // X(t)は単調増加なので二分法で解く
+            float low = 0.0f;
+            float high = 1.0f;
+            float t = x;
+            for(int loop = 0; loop < SOLVE_LOOP; loop++){
+                t = (low + high) * 0.5f;
+                if(cubic(x1, x2, t) < x) low = t;
+                else                     high = t;
+            }
+
+            this.table[idx] = cubic(y1, y2, t);
+        }
+
+        return;
+    }
+
+    /**
+     * 制御点に対応する曲線を返す。
+     * 同じ制御点に対しては同じインスタンスが返される。
+     * @param p1x 制御点1のX座標(0から127)
+     * @param p1y 制御点1のY座標(0から127)
+     * @param p2x 制御点2のX座標(0から127)
+     * @param p2y 制御点2のY座標(0から127)
+     * @return 曲線
+     */
+    public static BezierCurve getCurve(int p1x, int p1y, int p2x, int p2y){
+        int x1 = clampParam(p1x);
+        int y1 = clampParam(p1y);
+        int x2 = clampParam(p2x);
+        int y2 = clampParam(p2y);
+
+        Integer key = Integer.valueOf(x1 | (y1 << 8) | (x2 << 16) | (y2 << 24));
+
+        BezierCurve result;
+        synchronized(CACHE){
+            result = CACHE.get(key);
+            if(result == null){
+                result = new BezierCurve(x1, y1, x2, y2);
+                CACHE.put(key, result);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * 補間パラメータ配列の4要素(P1x, P1y, P2x, P2y)から曲線を返す。
+     * @param param 補間パラメータ配列
+     * @param offset 格納位置
+     * @return 曲線
+     */
+    public static BezierCurve getCurve(byte[] param, int offset){
+        return getCurve(param[offset    ],
+                        param[offset + 1],
+                        param[offset + 2],
+                        param[offset + 3] );
+    }
+
+    /**
+     * 制御点座標を有効範囲に収める。
+     * @param param 制御点座標
+     * @return 0から127の値
+     */
+    private static int clampParam(int param){
+        if(param < 0) return 0;
+        if(param > MAX_PARAM) return MAX_PARAM;
+        return param;
+    }
+
+    /**
+     * 始点0、終点1の3次ベジェ曲線の一成分を求める。
+     * @param c1 制御点1
+     * @param c2 制御点2
+     * @param t 曲線パラメータ
+     * @return 値
+     */
+    private static float cubic(float c1, float c2, float t){
+        float s = 1.0f - t;
+        return 3.0f * s * s * t * c1 + 3.0f * s * t * t * c2 + t * t * t;
+    }
+
+    /**
+     * 線形補間と等価な曲線か判定する。
+     * @return 線形ならtrue
+     */
+    public boolean isLinear(){
+        return this.linear;
+    }
+
+    /**
+     * 進行度から補間係数を求める。
+     * @param x キーフレーム間の進行度。0から1
+     * @return 補間係数
+     */
+    public float evaluate(float x){
+        if(this.linear) return x;
+        if(x <= 0.0f) return this.table[0];
+        if(x >= 1.0f) return this.table[TABLE_DIV];
+
+        float pos = x * TABLE_DIV;
+        int idx = (int) pos;
+        float frac = pos - idx;
+        float y0 = this.table[idx];
+        float y1 = this.table[idx + 1];
+
+        return y0 + (y1 - y0) * frac;
+    }
+
+}
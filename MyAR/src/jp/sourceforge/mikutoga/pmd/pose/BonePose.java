@@ -0,0 +1,198 @@
+/*
+ * bone pose
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.pmd.pose;
+
+import java.util.Arrays;
+
+/**
+ * ボーン毎のローカル姿勢と、そこから求めたワールド行列を保持する。
+ * <p>
+ * ローカル姿勢は初期位置からの移動量と回転クォータニオンで表す。
+ * 各配列はボーン番号順に並び、毎フレーム再利用される。
+ */
+public class BonePose {
+
+    private final Skeleton skeleton;
+    private final int boneCount;
+
+    private final float[] rotation;
+    private final float[] translation;
+
+    private final float[] world;
+    private final float[] skin;
+
+    private final float[] effectiveRot = new float[PoseMath.QUAT_SIZE];
+    private final float[] localMat = new float[PoseMath.MAT_SIZE];
+    private final float[] identity = new float[PoseMath.QUAT_SIZE];
+
+    /**
+     * コンストラクタ。
+     * 全ボーンが初期姿勢で初期化される。
+     * @param skeleton ボーン階層
+     */
+    public BonePose(Skeleton skeleton){
+        super();
+
+        this.skeleton = skeleton;
+        this.boneCount = skeleton.getBoneCount();
+
+        this.rotation    = new float[this.boneCount * PoseMath.QUAT_SIZE];
+        this.translation = new float[this.boneCount * 3];
+        this.world       = new float[this.boneCount * PoseMath.MAT_SIZE];
+        this.skin        = new float[this.boneCount * PoseMath.MAT_SIZE];
+
+        PoseMath.setIdentityQuat(this.identity, 0);
+
+        reset();
+        updateWorld();
+
+        return;
+    }
+
+    /**
+     * ボーン階層を返す。
+     * @return ボーン階層
+     */
+    public Skeleton getSkeleton(){
+        return this.skeleton;
+    }
+
+    /**
+     * 全ボーンのローカル姿勢を初期姿勢に戻す。
+     * ワールド行列は更新されない。
+     */
+    public void reset(){
+        for(int idx = 0; idx < this.boneCount; idx++){
+            PoseMath.setIdentityQuat(this.rotation, idx * PoseMath.QUAT_SIZE);
+        }
+        Arrays.fill(this.translation, 0.0f);
+        return;
+    }
+
+    /**
+     * ローカル回転の配列を返す。
+     * ボーン毎に(x,y,z,w)のクォータニオンが並ぶ。
+     * @return ローカル回転の配列
+     */
+    public float[] getRotationArray(){
+        return this.rotation;
+    }
+
+    /**
+     * 初期位置からのローカル移動量の配列を返す。
+     * ボーン毎にX,Y,Zの順で並ぶ。
+     * @return ローカル移動量の配列
+     */
+    public float[] getTranslationArray(){
+        return this.translation;
+    }
+
+    /**
+     * モデル座標系でのワールド行列の配列を返す。
+     * ボーン毎に3x4行列が並ぶ。
+     * @return ワールド行列の配列
+     */
+    public float[] getWorldArray(){
+        return this.world;
+    }
+
+    /**
+     * スキニング行列の配列を返す。
+     * 初期姿勢の頂点を現在の姿勢へ移す行列が、ボーン毎に3x4行列で並ぶ。
+     * @return スキニング行列の配列
+     */
+    public float[] getSkinArray(){
+        return this.skin;
+    }
+
+    /**
+     * 全ボーンのワールド行列とスキニング行列を更新する。
+     */
+    public void updateWorld(){
+        updateWorldFrom(0);
+        return;
+    }
+
+    /**
+     * 計算順序上の指定位置以降のボーンについてワールド行列を更新する。
+     * それより前のボーンは更新済みでなければならない。
+     * @param orderPos 計算順序上の開始位置
+     */
+    public void updateWorldFrom(int orderPos){
+        int[] order = this.skeleton.getOrderArray();
+        for(int pos = orderPos; pos < this.boneCount; pos++){
+            updateBone(order[pos]);
+        }
+        return;
+    }
+
+    /**
+     * 一つのボーンのワールド行列とスキニング行列を更新する。
+     * 親ボーンのワールド行列は更新済みでなければならない。
+     * @param bone ボーン番号
+     */
+    public void updateBone(int bone){
+        int parent = this.skeleton.getParentArray()[bone];
+        float[] offset = this.skeleton.getRestOffsetArray();
+        float[] rest = this.skeleton.getRestPositionArray();
+
+        effectiveRotation(bone, this.effectiveRot);
+
+        float[] local = this.localMat;
+        PoseMath.quatToMatrix(this.effectiveRot, 0, local, 0);
+        local[ 3] = offset[bone * 3    ] + this.translation[bone * 3    ];
+        local[ 7] = offset[bone * 3 + 1] + this.translation[bone * 3 + 1];
+        local[11] = offset[bone * 3 + 2] + this.translation[bone * 3 + 2];
+
+        int wo = bone * PoseMath.MAT_SIZE;
+        if(parent == Skeleton.NO_BONE){
+            System.arraycopy(local, 0, this.world, wo, PoseMath.MAT_SIZE);
+        }else{
+            PoseMath.mulMatrix(this.world, parent * PoseMath.MAT_SIZE,
+                               local, 0,
+                               this.world, wo );
+        }
+
+        // 初期姿勢では回転が無いので、逆バインド行列は初期位置の逆移動のみ
+        float[] w = this.world;
+        float[] s = this.skin;
+        float rx = rest[bone * 3], ry = rest[bone * 3 + 1], rz = rest[bone * 3 + 2];
+        for(int row = 0; row < 3; row++){
+            int ro = wo + row * 4;
+            s[ro    ] = w[ro    ];
+            s[ro + 1] = w[ro + 1];
+            s[ro + 2] = w[ro + 2];
+            s[ro + 3] = w[ro + 3]
+                        - (w[ro] * rx + w[ro + 1] * ry + w[ro + 2] * rz);
+        }
+
+        return;
+    }
+
+    /**
+     * 回転連動を反映したローカル回転を求める。
+     * @param bone ボーン番号
+     * @param result 格納先
+     */
+    private void effectiveRotation(int bone, float[] result){
+        int source = this.skeleton.getLinkSourceArray()[bone];
+        int qo = bone * PoseMath.QUAT_SIZE;
+        if(source == Skeleton.NO_BONE){
+            System.arraycopy(this.rotation, qo, result, 0, PoseMath.QUAT_SIZE);
+            return;
+        }
+
+        float ratio = this.skeleton.getLinkRatioArray()[bone];
+        int so = source * PoseMath.QUAT_SIZE;
+        PoseMath.slerp(this.identity, 0, this.rotation, so, ratio, result, 0);
+        PoseMath.mulQuat(result, 0, this.rotation, qo, result, 0);
+
+        return;
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ * CCD inverse kinematics
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.pmd.pose;
+
+import java.util.List;
+import jp.sourceforge.mikutoga.pmd.BoneInfo;
+import jp.sourceforge.mikutoga.pmd.IKChain;
+import jp.sourceforge.mikutoga.pmd.PmdModel;
+
+/**
+ * CCD(Cyclic Coordinate Descent)法によるIKソルバ。
+ * <p>
+ * {@link BonePose}のローカル回転を直接書き換える。
+ * IKチェーンは生成時にボーン番号配列へ展開され、作業領域も生成時に確保されるので、
+ * 解く際にオブジェクトは生成されない。
+ * <p>
+ * 名前に「ひざ」を含むボーンは、MMDと同様にローカルX軸回りの回転のみに制限され、
+ * 回転角は{@link #setKneeLimit(float, float)}の範囲に収められる。
+ */
+public class IKSolver {
+
+    /** 膝ボーンを判定する名前。 */
+    public static final String KNEE_NAME = "ひざ";
+
+    private static final float MIN_ANGLE = 1.0e-5f;
+
+    private final Skeleton skeleton;
+
+    private final int chainCount;
+    private final int[] target;
+    private final int[] effector;
+    private final int[][] link;
+    private final boolean[][] knee;
+    private final int[][][] path;
+    private final int[] iteration;
+    private final float[] angleLimit;
+    private final int[] firstOrder;
+
+    private float tolerance = 1.0e-3f;
+    private float kneeMin = (float)(-Math.PI);
+    private float kneeMax = (float)Math.toRadians(-0.5);
+
+    private final float[] vecEffector = new float[3];
+    private final float[] vecTarget = new float[3];
+    private final float[] axis = new float[3];
+    private final float[] deltaRot = new float[PoseMath.QUAT_SIZE];
+
+    /**
+     * コンストラクタ。
+     * @param model モデル
+     * @param skeleton モデルのボーン階層
+     */
+    public IKSolver(PmdModel model, Skeleton skeleton){
+        super();
+
+        this.skeleton = skeleton;
+
+        List<IKChain> chainList = model.getIKChainList();
+        this.chainCount = chainList.size();
+
+        int num = this.chainCount;
+        this.target     = new int[num];
+        this.effector   = new int[num];
+        this.link       = new int[num][];
+        this.knee       = new boolean[num][];
+        this.path       = new int[num][][];
+        this.iteration  = new int[num];
+        this.angleLimit = new float[num];
+        this.firstOrder = new int[num];
+
+        int[] parent = skeleton.getParentArray();
+        int[] orderIndex = skeleton.getOrderIndexArray();
+
+        for(int chain = 0; chain < num; chain++){
+            IKChain ikChain = chainList.get(chain);
+            List<BoneInfo> chained = ikChain.getChainedBoneList();
+
+            this.target[chain] = skeleton.getBoneIndex(ikChain.getIkBone());
+            this.effector[chain] = chained.isEmpty()
+                    ? Skeleton.NO_BONE
+                    : skeleton.getBoneIndex(chained.get(0));
+            this.iteration[chain] = ikChain.getIKDepth();
+            this.angleLimit[chain] = (float)(ikChain.getIKWeight() * Math.PI);
+
+            int linkNum = Math.max(0, chained.size() - 1);
+            int[] links = new int[linkNum];
+            boolean[] knees = new boolean[linkNum];
+            int[][] paths = new int[linkNum][];
+            int first = Integer.MAX_VALUE;
+            for(int pt = 0; pt < linkNum; pt++){
+                BoneInfo bone = chained.get(pt + 1);
+                int boneIdx = skeleton.getBoneIndex(bone);
+                links[pt] = boneIdx;
+                String name = bone.getBoneName().getPrimaryText();
+                knees[pt] = name != null && name.indexOf(KNEE_NAME) >= 0;
+                paths[pt] = buildPath(parent, boneIdx, this.effector[chain]);
+                if(boneIdx != Skeleton.NO_BONE){
+                    first = Math.min(first, orderIndex[boneIdx]);
+                }
+            }
+            this.link[chain] = links;
+            this.knee[chain] = knees;
+            this.path[chain] = paths;
+            this.firstOrder[chain] = first == Integer.MAX_VALUE ? 0 : first;
+        }
+
+        return;
+    }
+
+    /**
+     * リンクボーンから先端ボーンまでの親子経路を求める。
+     * @param parent 親ボーン番号配列
+     * @param from リンクボーン
+     * @param to 先端ボーン
+     * @return 親から子の順に並んだ経路。toがfromの子孫でなければ空配列
+     */
+    private static int[] buildPath(int[] parent, int from, int to){
+        if(from == Skeleton.NO_BONE || to == Skeleton.NO_BONE){
+            return new int[0];
+        }
+
+        int length = 0;
+        int bone = to;
+        while(bone != Skeleton.NO_BONE){
+            length++;
+            if(bone == from) break;
+            bone = parent[bone];
+        }
+        if(bone != from) return new int[0];
+
+        int[] result = new int[length];
+        bone = to;
+        for(int pt = length - 1; pt >= 0; pt--){
+            result[pt] = bone;
+            bone = parent[bone];
+        }
+
+        return result;
+    }
+
+    /**
+     * 先端ボーンが目標に達したとみなす距離を設定する。
+     * @param distance モデル座標系での距離
+     */
+    public void setTolerance(float distance){
+        this.tolerance = distance;
+        return;
+    }
+
+    /**
+     * 膝ボーンのX軸回転の範囲を設定する。
+     * @param min 最小角(ラジアン)
+     * @param max 最大角(ラジアン)
+     */
+    public void setKneeLimit(float min, float max){
+        this.kneeMin = min;
+        this.kneeMax = max;
+        return;
+    }
+
+    /**
+     * IKチェーン数を返す。
+     * @return IKチェーン数
+     */
+    public int getChainCount(){
+        return this.chainCount;
+    }
+
+    /**
+     * 全てのIKチェーンを解く。
+     * 姿勢のワールド行列は更新済みでなければならない。
+     * 終了時には全ボーンのワールド行列が更新されている。
+     * @param pose 姿勢
+     */
+    public void solve(BonePose pose){
+        for(int chain = 0; chain < this.chainCount; chain++){
+            solveChain(pose, chain);
+            // 後続のチェーンや子ボーンのために、影響を受けた範囲を更新する
+            pose.updateWorldFrom(this.firstOrder[chain]);
+        }
+        return;
+    }
+
+    /**
+     * 一つのIKチェーンを解く。
+     * チェーン上のボーンのワールド行列のみ更新される。
+     * @param pose 姿勢
+     * @param chain IKチェーン番号
+     */
+    public void solveChain(BonePose pose, int chain){
+        int tgt = this.target[chain];
+        int eff = this.effector[chain];
+        if(tgt == Skeleton.NO_BONE || eff == Skeleton.NO_BONE) return;
+
+        float[] world = pose.getWorldArray();
+        float[] rotation = pose.getRotationArray();
+        int[] links = this.link[chain];
+        boolean[] knees = this.knee[chain];
+        int[][] paths = this.path[chain];
+        float limit = this.angleLimit[chain];
+        float tol2 = this.tolerance * this.tolerance;
+
+        int to = tgt * PoseMath.MAT_SIZE;
+        int eo = eff * PoseMath.MAT_SIZE;
+
+        for(int iter = 0; iter < this.iteration[chain]; iter++){
+            if(distance2(world, eo, to) <= tol2) break;
+
+            for(int pt = 0; pt < links.length; pt++){
+                int bone = links[pt];
+                if(paths[pt].length == 0) continue;
+                int lo = bone * PoseMath.MAT_SIZE;
+
+                // リンクボーンのローカル座標系での、先端と目標への方向
+                toLocalDirection(world, lo, eo, this.vecEffector);
+                toLocalDirection(world, lo, to, this.vecTarget);
+                if(!normalize(this.vecEffector)) continue;
+                if(!normalize(this.vecTarget)) continue;
+
+                float dot = this.vecEffector[0] * this.vecTarget[0]
+                          + this.vecEffector[1] * this.vecTarget[1]
+                          + this.vecEffector[2] * this.vecTarget[2];
+                if(dot > 1.0f) dot = 1.0f;
+                if(dot < -1.0f) dot = -1.0f;
+                float angle = (float)Math.acos(dot);
+                if(angle < MIN_ANGLE) continue;
+                if(angle > limit) angle = limit;
+
+                float[] ax = this.axis;
+                ax[0] = this.vecEffector[1] * this.vecTarget[2]
+                      - this.vecEffector[2] * this.vecTarget[1];
+                ax[1] = this.vecEffector[2] * this.vecTarget[0]
+                      - this.vecEffector[0] * this.vecTarget[2];
+                ax[2] = this.vecEffector[0] * this.vecTarget[1]
+                      - this.vecEffector[1] * this.vecTarget[0];
+                if(!normalize(ax)) continue;
+
+                float sin = (float)Math.sin(angle * 0.5);
+                float[] dq = this.deltaRot;
+                dq[0] = ax[0] * sin;
+                dq[1] = ax[1] * sin;
+                dq[2] = ax[2] * sin;
+                dq[3] = (float)Math.cos(angle * 0.5);
+
+                int qo = bone * PoseMath.QUAT_SIZE;
+                PoseMath.mulQuat(rotation, qo, dq, 0, rotation, qo);
+                if(knees[pt]){
+                    limitKnee(rotation, qo);
+                }else{
+                    PoseMath.normalizeQuat(rotation, qo);
+                }
+
+                int[] chainPath = paths[pt];
+                for(int step = 0; step < chainPath.length; step++){
+                    pose.updateBone(chainPath[step]);
+                }
+
+                if(distance2(world, eo, to) <= tol2) return;
+            }
+        }
+
+        return;
+    }
+
+    /**
+     * 回転をX軸回りの成分だけにし、膝の可動範囲へ収める。
+     * @param q クォータニオン配列
+     * @param qo 格納位置
+     */
+    private void limitKnee(float[] q, int qo){
+        float angle = (float)(2.0 * Math.atan2(q[qo], q[qo + 3]));
+        if(angle > Math.PI) angle -= (float)(2.0 * Math.PI);
+        if(angle < -Math.PI) angle += (float)(2.0 * Math.PI);
+        if(angle < this.kneeMin) angle = this.kneeMin;
+        if(angle > this.kneeMax) angle = this.kneeMax;
+
+        q[qo    ] = (float)Math.sin(angle * 0.5);
+        q[qo + 1] = 0.0f;
+        q[qo + 2] = 0.0f;
+        q[qo + 3] = (float)Math.cos(angle * 0.5);
+
+        return;
+    }
+
+    /**
+     * 指定ボーン位置への方向ベクトルを、基準ボーンのローカル座標系で求める。
+     * @param world ワールド行列配列
+     * @param base 基準ボーンの行列位置
+     * @param dest 行き先ボーンの行列位置
+     * @param result 格納先
+     */
+    private static void toLocalDirection(float[] world, int base, int dest,
+                                         float[] result ){
+        float dx = world[dest +  3] - world[base +  3];
+        float dy = world[dest +  7] - world[base +  7];
+        float dz = world[dest + 11] - world[base + 11];
+        // 回転行列の転置で逆回転
+        result[0] = world[base    ] * dx + world[base + 4] * dy + world[base +  8] * dz;
+        result[1] = world[base + 1] * dx + world[base + 5] * dy + world[base +  9] * dz;
+        result[2] = world[base + 2] * dx + world[base + 6] * dy + world[base + 10] * dz;
+        return;
+    }
+
+    /**
+     * 二つのボーン位置の距離の二乗を返す。
+     * @param world ワールド行列配列
+     * @param ao 一方の行列位置
+     * @param bo 他方の行列位置
+     * @return 距離の二乗
+     */
+    private static float distance2(float[] world, int ao, int bo){
+        float dx = world[ao +  3] - world[bo +  3];
+        float dy = world[ao +  7] - world[bo +  7];
+        float dz = world[ao + 11] - world[bo + 11];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * ベクトルを正規化する。
+     * @param vec ベクトル
+     * @return 長さが0に近く正規化できなければfalse
+     */
+    private static boolean normalize(float[] vec){
+        float len2 = vec[0] * vec[0] + vec[1] * vec[1] + vec[2] * vec[2];
+        if(len2 < 1.0e-12f) return false;
+        float inv = (float)(1.0 / Math.sqrt(len2));
+        vec[0] *= inv;
+        vec[1] *= inv;
+        vec[2] *= inv;
+        return true;
+    }
+
+}
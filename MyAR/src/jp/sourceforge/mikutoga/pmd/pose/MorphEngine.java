@@ -0,0 +1,261 @@
+/*
+ * sparse morph blending
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.pmd.pose;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import jp.sourceforge.mikutoga.pmd.MorphPart;
+import jp.sourceforge.mikutoga.pmd.MorphType;
+import jp.sourceforge.mikutoga.pmd.MorphVertex;
+import jp.sourceforge.mikutoga.pmd.PmdModel;
+import jp.sourceforge.mikutoga.pmd.Pos3d;
+import jp.sourceforge.mikutoga.pmd.Vertex;
+
+/**
+ * モーフ(表情)を頂点位置へ適用するエンジン。
+ * <p>
+ * base以外の全モーフを生成時に頂点番号配列と移動量配列の疎な形式へ展開する。
+ * 適用時は前回動かした頂点だけを初期位置に戻し、ウェイトが0でないモーフの
+ * 頂点だけを加算するので、計算量は動かす頂点数に比例する。
+ * <p>
+ * モーフ番号は{@link PmdModel#getMorphMap()}の種別順・リスト順に振られる。
+ */
+public class MorphEngine {
+
+    private final int vertexCount;
+
+    private final List<MorphPart> morphList = new ArrayList<MorphPart>();
+    private final int[][] vertexIndex;
+    private final float[][] delta;
+
+    private final float[] weight;
+    private final int[] activeList;
+    private final int[] activePos;
+    private int activeCount = 0;
+    private boolean weightChanged = true;
+
+    private final int[] touchedList;
+    private int touchedCount = 0;
+    private final int[] touchStamp;
+    private int stamp = 0;
+
+    /**
+     * コンストラクタ。
+     * @param model モデル
+     */
+    public MorphEngine(PmdModel model){
+        super();
+
+        List<Vertex> vertexList = model.getVertexList();
+        this.vertexCount = vertexList.size();
+
+        Map<Vertex, Integer> vertexMap =
+                new IdentityHashMap<Vertex, Integer>(this.vertexCount);
+        for(int idx = 0; idx < this.vertexCount; idx++){
+            vertexMap.put(vertexList.get(idx), idx);
+        }
+
+        Map<MorphType, List<MorphPart>> morphMap = model.getMorphMap();
+        for(MorphType type : MorphType.values()){
+            if(type.isBase()) continue;
+            List<MorphPart> partList = morphMap.get(type);
+            if(partList == null) continue;
+            this.morphList.addAll(partList);
+        }
+
+        int morphCount = this.morphList.size();
+        this.vertexIndex = new int[morphCount][];
+        this.delta = new float[morphCount][];
+
+        for(int morph = 0; morph < morphCount; morph++){
+            List<MorphVertex> morphVertexList =
+                    this.morphList.get(morph).getMorphVertexList();
+
+            int[] indices = new int[morphVertexList.size()];
+            float[] offsets = new float[morphVertexList.size() * 3];
+            int num = 0;
+            for(MorphVertex morphVertex : morphVertexList){
+                Integer vid = vertexMap.get(morphVertex.getBaseVertex());
+                if(vid == null) continue;
+                Pos3d offset = morphVertex.getOffset();
+                indices[num] = vid.intValue();
+                offsets[num * 3    ] = offset.getXPos();
+                offsets[num * 3 + 1] = offset.getYPos();
+                offsets[num * 3 + 2] = offset.getZPos();
+                num++;
+            }
+
+            if(num < indices.length){
+                int[] trimmedIndices = new int[num];
+                float[] trimmedOffsets = new float[num * 3];
+                System.arraycopy(indices, 0, trimmedIndices, 0, num);
+                System.arraycopy(offsets, 0, trimmedOffsets, 0, num * 3);
+                indices = trimmedIndices;
+                offsets = trimmedOffsets;
+            }
+
+            this.vertexIndex[morph] = indices;
+            this.delta[morph] = offsets;
+        }
+
+        this.weight = new float[morphCount];
+        this.activeList = new int[morphCount];
+        this.activePos = new int[morphCount];
+        for(int morph = 0; morph < morphCount; morph++){
+            this.activePos[morph] = -1;
+        }
+
+        this.touchedList = new int[this.vertexCount];
+        this.touchStamp = new int[this.vertexCount];
+
+        return;
+    }
+
+    /**
+     * モーフ数を返す。
+     * @return モーフ数
+     */
+    public int getMorphCount(){
+        return this.morphList.size();
+    }
+
+    /**
+     * モーフ番号に対応するモーフを返す。
+     * @param morph モーフ番号
+     * @return モーフ
+     */
+    public MorphPart getMorphPart(int morph){
+        return this.morphList.get(morph);
+    }
+
+    /**
+     * モーフ名からモーフ番号を引く。
+     * @param name モーフ名(プライマリ)
+     * @return モーフ番号。見つからなければ-1
+     */
+    public int getMorphIndex(String name){
+        int morphCount = this.morphList.size();
+        for(int morph = 0; morph < morphCount; morph++){
+            MorphPart part = this.morphList.get(morph);
+            if(name.equals(part.getMorphName().getPrimaryText())){
+                return morph;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * モーフのウェイトを設定する。
+     * @param morph モーフ番号
+     * @param value ウェイト。0ならそのモーフは計算されない
+     */
+    public void setWeight(int morph, float value){
+        if(this.weight[morph] != value) this.weightChanged = true;
+        this.weight[morph] = value;
+
+        int pos = this.activePos[morph];
+        if(value != 0.0f){
+            if(pos < 0){
+                this.activePos[morph] = this.activeCount;
+                this.activeList[this.activeCount++] = morph;
+            }
+        }else if(pos >= 0){
+            // 末尾の要素で埋める
+            int last = this.activeList[--this.activeCount];
+            this.activeList[pos] = last;
+            this.activePos[last] = pos;
+            this.activePos[morph] = -1;
+        }
+
+        return;
+    }
+
+    /**
+     * モーフのウェイトを返す。
+     * @param morph モーフ番号
+     * @return ウェイト
+     */
+    public float getWeight(int morph){
+        return this.weight[morph];
+    }
+
+    /**
+     * 前回の{@link #apply(float[], float[])}以降にウェイトが変わったか判定する。
+     * 一度も適用していなければtrueを返す。
+     * @return 変わっていればtrue
+     */
+    public boolean isWeightChanged(){
+        return this.weightChanged;
+    }
+
+    /**
+     * 全モーフのウェイトを0にする。
+     */
+    public void clearWeight(){
+        while(this.activeCount > 0){
+            setWeight(this.activeList[this.activeCount - 1], 0.0f);
+        }
+        return;
+    }
+
+    /**
+     * 現在のウェイトでモーフを適用する。
+     * 前回の適用で動かした頂点は初期位置に戻される。
+     * @param restPosition 初期頂点位置の配列
+     * @param target 適用先の頂点位置配列。
+     * 前回の適用以降、モーフ以外で書き換えられていてはならない。
+     * {@link SkinningEngine#getSourcePositionArray()}を想定。
+     */
+    public void apply(float[] restPosition, float[] target){
+        int[] touched = this.touchedList;
+        for(int pt = 0; pt < this.touchedCount; pt++){
+            int vi = touched[pt] * 3;
+            target[vi    ] = restPosition[vi    ];
+            target[vi + 1] = restPosition[vi + 1];
+            target[vi + 2] = restPosition[vi + 2];
+        }
+        this.touchedCount = 0;
+
+        this.stamp++;
+        if(this.stamp == 0){
+            // 一巡したので印を消す
+            Arrays.fill(this.touchStamp, 0);
+            this.stamp = 1;
+        }
+        int current = this.stamp;
+        int[] marks = this.touchStamp;
+
+        for(int act = 0; act < this.activeCount; act++){
+            int morph = this.activeList[act];
+            float w = this.weight[morph];
+            int[] indices = this.vertexIndex[morph];
+            float[] offsets = this.delta[morph];
+
+            int num = indices.length;
+            for(int pt = 0; pt < num; pt++){
+                int vid = indices[pt];
+                if(marks[vid] != current){
+                    marks[vid] = current;
+                    touched[this.touchedCount++] = vid;
+                }
+                int vi = vid * 3;
+                int di = pt * 3;
+                target[vi    ] += offsets[di    ] * w;
+                target[vi + 1] += offsets[di + 1] * w;
+                target[vi + 2] += offsets[di + 2] * w;
+            }
+        }
+        this.weightChanged = false;
+
+        return;
+    }
+
+}
@@ -0,0 +1,274 @@
+/*
+ * motion sampler
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.pmd.pose;
+
+import java.util.Arrays;
+import java.util.List;
+import jp.sourceforge.mikutoga.pmd.BoneInfo;
+import jp.sourceforge.mikutoga.pmd.PmdModel;
+import jp.sourceforge.mikutoga.vmd.BoneTrack;
+import jp.sourceforge.mikutoga.vmd.KeyFrameTrack;
+import jp.sourceforge.mikutoga.vmd.MorphTrack;
+import jp.sourceforge.mikutoga.vmd.VmdMotion;
+
+/**
+ * VMDモーションの各トラックを指定時刻で標本化し、姿勢へ書き込む。
+ * <p>
+ * トラックはモデルのボーンリスト順に並べ替えて保持される。
+ * トラック毎に前回のキー位置を覚えておき、
+ * 時刻が単調に進む通常の再生では二分探索を行わない。
+ * 補間曲線は{@link BezierCurve}の共有インスタンスを区間毎に引いておく。
+ */
+public class MotionSampler {
+
+    /** 二分探索に切り替えるまでにカーソルを進める最大キー数。 */
+    private static final int CURSOR_STEP = 4;
+
+    private static final int CURVES = 4;
+
+    private final int boneCount;
+    private final BoneTrack[] boneTrack;
+    private final BezierCurve[][] boneCurve;
+    private final int[] boneCursor;
+
+    private final MorphTrack[] morphTrack;
+    private final int[] morphIndex;
+    private final int[] morphCursor;
+
+    /**
+     * コンストラクタ。
+     * モーフトラックは標本化されない。
+     * @param model モデル
+     * @param motion モーション
+     */
+    public MotionSampler(PmdModel model, VmdMotion motion){
+        this(model, motion, null);
+        return;
+    }
+
+    /**
+     * コンストラクタ。
+     * @param model モデル
+     * @param motion モーション
+     * @param morph モーフトラックの適用先。nullならモーフは標本化されない。
+     */
+    public MotionSampler(PmdModel model, VmdMotion motion, MorphEngine morph){
+        super();
+
+        List<BoneInfo> boneList = model.getBoneList();
+        this.boneCount = boneList.size();
+        this.boneTrack = new BoneTrack[this.boneCount];
+        this.boneCurve = new BezierCurve[this.boneCount][];
+        this.boneCursor = new int[this.boneCount];
+
+        for(int bone = 0; bone < this.boneCount; bone++){
+            String name = boneList.get(bone).getBoneName().getPrimaryText();
+            BoneTrack track = motion.getBoneTrack(name);
+            if(track == null || track.getKeyCount() <= 0) continue;
+
+            this.boneTrack[bone] = track;
+            this.boneCurve[bone] = buildCurve(track);
+        }
+
+        List<MorphTrack> morphTrackList = motion.getMorphTrackList();
+        int morphNum = morph == null ? 0 : morphTrackList.size();
+        MorphTrack[] tracks = new MorphTrack[morphNum];
+        int[] indexes = new int[morphNum];
+        int count = 0;
+        for(int pt = 0; pt < morphNum; pt++){
+            MorphTrack track = morphTrackList.get(pt);
+            int idx = morph.getMorphIndex(track.getMorphName());
+            if(idx < 0 || track.getKeyCount() <= 0) continue;
+            tracks[count] = track;
+            indexes[count] = idx;
+            count++;
+        }
+        this.morphTrack = new MorphTrack[count];
+        this.morphIndex = new int[count];
+        System.arraycopy(tracks, 0, this.morphTrack, 0, count);
+        System.arraycopy(indexes, 0, this.morphIndex, 0, count);
+        this.morphCursor = new int[count];
+
+        return;
+    }
+
+    /**
+     * キーフレーム毎の補間曲線を引く。
+     * @param track ボーントラック
+     * @return キー番号k、曲線cの曲線が{@code [k * 4 + c]}に並ぶ配列
+     */
+    private static BezierCurve[] buildCurve(BoneTrack track){
+        byte[] param = track.getInterpolationArray();
+        int curveNum = track.getKeyCount() * CURVES;
+
+        BezierCurve[] result = new BezierCurve[curveNum];
+        for(int idx = 0; idx < curveNum; idx++){
+            result[idx] = BezierCurve.getCurve(param, idx * CURVES);
+        }
+
+        return result;
+    }
+
+    /**
+     * モーションの付いたボーン数を返す。
+     * @return ボーン数
+     */
+    public int getBoundBoneCount(){
+        int result = 0;
+        for(BoneTrack track : this.boneTrack){
+            if(track != null) result++;
+        }
+        return result;
+    }
+
+    /**
+     * 全トラックのカーソルを先頭に戻す。
+     * 巻き戻しの際に呼ぶと、次の標本化で二分探索を省ける。
+     */
+    public void rewind(){
+        Arrays.fill(this.boneCursor, 0);
+        Arrays.fill(this.morphCursor, 0);
+        return;
+    }
+
+    /**
+     * 指定時刻以前で最も新しいキー番号を求める。
+     * @param track トラック
+     * @param cursor 前回のキー番号
+     * @param frame フレーム単位の時刻
+     * @return キー番号。最初のキーフレームより前なら-1
+     */
+    private static int seek(KeyFrameTrack track, int cursor, float frame){
+        int[] frames = track.getFrameArray();
+        int last = frames.length - 1;
+
+        if(frames[cursor] > frame) return track.findKey(frame);
+
+        int result = cursor;
+        for(int step = 0; step < CURSOR_STEP; step++){
+            if(result >= last || frames[result + 1] > frame) return result;
+            result++;
+        }
+
+        if(result >= last || frames[result + 1] > frame) return result;
+
+        return track.findKey(frame);
+    }
+
+    /**
+     * 指定時刻のボーン姿勢を標本化し、ローカル姿勢に書き込む。
+     * モーションの無いボーンは初期姿勢になる。
+     * ワールド行列は更新されない。
+     * @param frame フレーム単位の時刻
+     * @param pose 書き込み先の姿勢
+     */
+    public void sample(float frame, BonePose pose){
+        float[] rotation = pose.getRotationArray();
+        float[] translation = pose.getTranslationArray();
+
+        for(int bone = 0; bone < this.boneCount; bone++){
+            int qo = bone * PoseMath.QUAT_SIZE;
+            int to = bone * BoneTrack.TRANSLATION_SIZE;
+
+            BoneTrack track = this.boneTrack[bone];
+            if(track == null){
+                PoseMath.setIdentityQuat(rotation, qo);
+                translation[to    ] = 0.0f;
+                translation[to + 1] = 0.0f;
+                translation[to + 2] = 0.0f;
+                continue;
+            }
+
+            int key = seek(track, this.boneCursor[bone], frame);
+            if(key < 0) key = 0;
+            this.boneCursor[bone] = key;
+
+            int[] frames = track.getFrameArray();
+            float[] trackTrans = track.getTranslationArray();
+            float[] trackRot = track.getRotationArray();
+            int ko = key * BoneTrack.TRANSLATION_SIZE;
+            int kq = key * BoneTrack.ROTATION_SIZE;
+
+            if(key >= frames.length - 1 || frame <= frames[key]){
+                System.arraycopy(trackTrans, ko, translation, to,
+                                 BoneTrack.TRANSLATION_SIZE );
+                System.arraycopy(trackRot, kq, rotation, qo,
+                                 BoneTrack.ROTATION_SIZE );
+                continue;
+            }
+
+            int next = key + 1;
+            float span = frames[next] - frames[key];
+            float ratio = (frame - frames[key]) / span;
+
+            // 区間の補間曲線は終点側のキーフレームが持つ
+            BezierCurve[] curve = this.boneCurve[bone];
+            int co = next * CURVES;
+            float tx = curve[co    ].evaluate(ratio);
+            float ty = curve[co + 1].evaluate(ratio);
+            float tz = curve[co + 2].evaluate(ratio);
+            float tr = curve[co + 3].evaluate(ratio);
+
+            int no = next * BoneTrack.TRANSLATION_SIZE;
+            translation[to    ] = lerp(trackTrans[ko    ], trackTrans[no    ], tx);
+            translation[to + 1] = lerp(trackTrans[ko + 1], trackTrans[no + 1], ty);
+            translation[to + 2] = lerp(trackTrans[ko + 2], trackTrans[no + 2], tz);
+
+            PoseMath.slerp(trackRot, kq,
+                           trackRot, next * BoneTrack.ROTATION_SIZE,
+                           tr,
+                           rotation, qo );
+        }
+
+        return;
+    }
+
+    /**
+     * 指定時刻のモーフ適用度合いを標本化し、モーフのウェイトに設定する。
+     * モーフの適用度合いはキーフレーム間で線形補間される。
+     * @param frame フレーム単位の時刻
+     * @param morph 設定先。生成時に指定したものと同じでなければならない。
+     */
+    public void sampleMorph(float frame, MorphEngine morph){
+        for(int pt = 0; pt < this.morphTrack.length; pt++){
+            MorphTrack track = this.morphTrack[pt];
+
+            int key = seek(track, this.morphCursor[pt], frame);
+            if(key < 0) key = 0;
+            this.morphCursor[pt] = key;
+
+            int[] frames = track.getFrameArray();
+            float[] flex = track.getFlexArray();
+
+            float value;
+            if(key >= frames.length - 1 || frame <= frames[key]){
+                value = flex[key];
+            }else{
+                float ratio = (frame - frames[key])
+                            / (frames[key + 1] - frames[key]);
+                value = lerp(flex[key], flex[key + 1], ratio);
+            }
+
+            morph.setWeight(this.morphIndex[pt], value);
+        }
+
+        return;
+    }
+
+    /**
+     * 線形補間。
+     * @param from 始点
+     * @param to 終点
+     * @param ratio 補間係数
+     * @return 補間値
+     */
+    private static float lerp(float from, float to, float ratio){
+        return from + (to - from) * ratio;
+    }
+
+}
@@ -0,0 +1,294 @@
+/*
+ * pose math utilities
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.pmd.pose;
+
+/**
+ * 姿勢計算用の数値演算ユーティリティ。
+ * <p>
+ * クォータニオンはfloat配列上に(x,y,z,w)の順で、
+ * 3x4行列は行優先で(m00,m01,m02,m03,m10,...,m23)の順で格納される。
+ * 配列と格納位置を引数に取り、オブジェクトを生成しない。
+ */
+public final class PoseMath {
+
+    /** クォータニオンの要素数。 */
+    public static final int QUAT_SIZE = 4;
+    /** 3x4行列の要素数。 */
+    public static final int MAT_SIZE = 12;
+
+    /**
+     * 隠しコンストラクタ。
+     */
+    private PoseMath(){
+        assert false;
+        throw new AssertionError();
+    }
+
+    /**
+     * 単位クォータニオンを設定する。
+     * @param q 格納先配列
+     * @param qo 格納位置
+     */
+    public static void setIdentityQuat(float[] q, int qo){
+        q[qo    ] = 0.0f;
+        q[qo + 1] = 0.0f;
+        q[qo + 2] = 0.0f;
+        q[qo + 3] = 1.0f;
+        return;
+    }
+
+    /**
+     * クォータニオンの積 a*b を求める。
+     * 格納先は引数と同じ配列・位置でもよい。
+     * @param a 左辺の配列
+     * @param ao 左辺の格納位置
+     * @param b 右辺の配列
+     * @param bo 右辺の格納位置
+     * @param r 格納先配列
+     * @param ro 格納位置
+     */
+    public static void mulQuat(float[] a, int ao,
+                               float[] b, int bo,
+                               float[] r, int ro ){
+        float ax = a[ao], ay = a[ao + 1], az = a[ao + 2], aw = a[ao + 3];
+        float bx = b[bo], by = b[bo + 1], bz = b[bo + 2], bw = b[bo + 3];
+        r[ro    ] = aw * bx + ax * bw + ay * bz - az * by;
+        r[ro + 1] = aw * by - ax * bz + ay * bw + az * bx;
+        r[ro + 2] = aw * bz + ax * by - ay * bx + az * bw;
+        r[ro + 3] = aw * bw - ax * bx - ay * by - az * bz;
+        return;
+    }
+
+    /**
+     * 共役クォータニオンを求める。
+     * 単位クォータニオンでは逆回転に等しい。
+     * 格納先は引数と同じ配列・位置でもよい。
+     * @param q 配列
+     * @param qo 格納位置
+     * @param r 格納先配列
+     * @param ro 格納位置
+     */
+    public static void conjugateQuat(float[] q, int qo, float[] r, int ro){
+        r[ro    ] = -q[qo    ];
+        r[ro + 1] = -q[qo + 1];
+        r[ro + 2] = -q[qo + 2];
+        r[ro + 3] =  q[qo + 3];
+        return;
+    }
+
+    /**
+     * 単位クォータニオンでベクトルを回転させる。
+     * @param q クォータニオンの配列
+     * @param qo 格納位置
+     * @param v ベクトルの配列
+     * @param vo ベクトルの格納位置
+     * @param r 格納先配列。vと同じ配列・位置でもよい
+     * @param ro 格納位置
+     */
+    public static void rotateVector(float[] q, int qo,
+                                    float[] v, int vo,
+                                    float[] r, int ro ){
+        float qx = q[qo], qy = q[qo + 1], qz = q[qo + 2], qw = q[qo + 3];
+        float vx = v[vo], vy = v[vo + 1], vz = v[vo + 2];
+
+        // t = 2 * cross(q.xyz, v)
+        float tx = 2.0f * (qy * vz - qz * vy);
+        float ty = 2.0f * (qz * vx - qx * vz);
+        float tz = 2.0f * (qx * vy - qy * vx);
+
+        // v + w * t + cross(q.xyz, t)
+        r[ro    ] = vx + qw * tx + (qy * tz - qz * ty);
+        r[ro + 1] = vy + qw * ty + (qz * tx - qx * tz);
+        r[ro + 2] = vz + qw * tz + (qx * ty - qy * tx);
+
+        return;
+    }
+
+    /**
+     * クォータニオンを正規化する。
+     * 長さ0の場合は単位クォータニオンになる。
+     * @param q 配列
+     * @param qo 格納位置
+     */
+    public static void normalizeQuat(float[] q, int qo){
+        float x = q[qo], y = q[qo + 1], z = q[qo + 2], w = q[qo + 3];
+        float len2 = x * x + y * y + z * z + w * w;
+        if(len2 <= 0.0f){
+            setIdentityQuat(q, qo);
+            return;
+        }
+        float inv = (float)(1.0 / Math.sqrt(len2));
+        q[qo    ] = x * inv;
+        q[qo + 1] = y * inv;
+        q[qo + 2] = z * inv;
+        q[qo + 3] = w * inv;
+        return;
+    }
+
+    /**
+     * 二つのクォータニオンを球面線形補間する。
+     * 格納先は引数と同じ配列・位置でもよい。
+     * @param a 始点の配列
+     * @param ao 始点の格納位置
+     * @param b 終点の配列
+     * @param bo 終点の格納位置
+     * @param t 補間係数。0で始点、1で終点
+     * @param r 格納先配列
+     * @param ro 格納位置
+     */
+    public static void slerp(float[] a, int ao,
+                             float[] b, int bo,
+                             float t,
+                             float[] r, int ro ){
+        float ax = a[ao], ay = a[ao + 1], az = a[ao + 2], aw = a[ao + 3];
+        float bx = b[bo], by = b[bo + 1], bz = b[bo + 2], bw = b[bo + 3];
+
+        float cos = ax * bx + ay * by + az * bz + aw * bw;
+        if(cos < 0.0f){
+            cos = -cos;
+            bx = -bx; by = -by; bz = -bz; bw = -bw;
+        }
+
+        float ka;
+        float kb;
+        if(cos > 0.9995f){
+            // ほぼ同じ向きなら線形補間で足りる
+            ka = 1.0f - t;
+            kb = t;
+        }else{
+            double theta = Math.acos(cos);
+            double sin = Math.sin(theta);
+            ka = (float)(Math.sin((1.0 - t) * theta) / sin);
+            kb = (float)(Math.sin(t * theta) / sin);
+        }
+
+        r[ro    ] = ax * ka + bx * kb;
+        r[ro + 1] = ay * ka + by * kb;
+        r[ro + 2] = az * ka + bz * kb;
+        r[ro + 3] = aw * ka + bw * kb;
+        normalizeQuat(r, ro);
+
+        return;
+    }
+
+    /**
+     * クォータニオンを3x4行列の回転成分へ変換する。
+     * 平行移動成分は変更しない。
+     * @param q クォータニオンの配列
+     * @param qo 格納位置
+     * @param m 行列の配列
+     * @param mo 格納位置
+     */
+    public static void quatToMatrix(float[] q, int qo, float[] m, int mo){
+        float x = q[qo], y = q[qo + 1], z = q[qo + 2], w = q[qo + 3];
+        float xx = x * x, yy = y * y, zz = z * z;
+        float xy = x * y, xz = x * z, yz = y * z;
+        float wx = w * x, wy = w * y, wz = w * z;
+
+        m[mo     ] = 1.0f - 2.0f * (yy + zz);
+        m[mo +  1] = 2.0f * (xy - wz);
+        m[mo +  2] = 2.0f * (xz + wy);
+        m[mo +  4] = 2.0f * (xy + wz);
+        m[mo +  5] = 1.0f - 2.0f * (xx + zz);
+        m[mo +  6] = 2.0f * (yz - wx);
+        m[mo +  8] = 2.0f * (xz - wy);
+        m[mo +  9] = 2.0f * (yz + wx);
+        m[mo + 10] = 1.0f - 2.0f * (xx + yy);
+
+        return;
+    }
+
+    /**
+     * 3x4行列の回転成分をクォータニオンへ変換する。
+     * @param m 行列の配列
+     * @param mo 格納位置
+     * @param q クォータニオンの格納先配列
+     * @param qo 格納位置
+     */
+    public static void matrixToQuat(float[] m, int mo, float[] q, int qo){
+        float m00 = m[mo    ], m01 = m[mo + 1], m02 = m[mo +  2];
+        float m10 = m[mo + 4], m11 = m[mo + 5], m12 = m[mo +  6];
+        float m20 = m[mo + 8], m21 = m[mo + 9], m22 = m[mo + 10];
+
+        float trace = m00 + m11 + m22;
+        if(trace > 0.0f){
+            float s = (float)Math.sqrt(trace + 1.0) * 2.0f;
+            q[qo + 3] = 0.25f * s;
+            q[qo    ] = (m21 - m12) / s;
+            q[qo + 1] = (m02 - m20) / s;
+            q[qo + 2] = (m10 - m01) / s;
+        }else if(m00 > m11 && m00 > m22){
+            float s = (float)Math.sqrt(1.0 + m00 - m11 - m22) * 2.0f;
+            q[qo + 3] = (m21 - m12) / s;
+            q[qo    ] = 0.25f * s;
+            q[qo + 1] = (m01 + m10) / s;
+            q[qo + 2] = (m02 + m20) / s;
+        }else if(m11 > m22){
+            float s = (float)Math.sqrt(1.0 + m11 - m00 - m22) * 2.0f;
+            q[qo + 3] = (m02 - m20) / s;
+            q[qo    ] = (m01 + m10) / s;
+            q[qo + 1] = 0.25f * s;
+            q[qo + 2] = (m12 + m21) / s;
+        }else{
+            float s = (float)Math.sqrt(1.0 + m22 - m00 - m11) * 2.0f;
+            q[qo + 3] = (m10 - m01) / s;
+            q[qo    ] = (m02 + m20) / s;
+            q[qo + 1] = (m12 + m21) / s;
+            q[qo + 2] = 0.25f * s;
+        }
+        normalizeQuat(q, qo);
+
+        return;
+    }
+
+    /**
+     * 3x4行列の積 a*b を求める。
+     * 格納先は引数と異なる配列・位置でなければならない。
+     * @param a 左辺の配列
+     * @param ao 左辺の格納位置
+     * @param b 右辺の配列
+     * @param bo 右辺の格納位置
+     * @param r 格納先配列
+     * @param ro 格納位置
+     */
+    public static void mulMatrix(float[] a, int ao,
+                                 float[] b, int bo,
+                                 float[] r, int ro ){
+        for(int row = 0; row < 3; row++){
+            int ar = ao + row * 4;
+            float a0 = a[ar], a1 = a[ar + 1], a2 = a[ar + 2], a3 = a[ar + 3];
+            int rr = ro + row * 4;
+            r[rr    ] = a0 * b[bo    ] + a1 * b[bo + 4] + a2 * b[bo +  8];
+            r[rr + 1] = a0 * b[bo + 1] + a1 * b[bo + 5] + a2 * b[bo +  9];
+            r[rr + 2] = a0 * b[bo + 2] + a1 * b[bo + 6] + a2 * b[bo + 10];
+            r[rr + 3] = a0 * b[bo + 3] + a1 * b[bo + 7] + a2 * b[bo + 11]
+                      + a3;
+        }
+        return;
+    }
+
+    /**
+     * 3x4行列で点を変換する。
+     * @param m 行列の配列
+     * @param mo 格納位置
+     * @param p 点の配列
+     * @param po 点の格納位置
+     * @param r 格納先配列。pと同じ配列・位置でもよい
+     * @param ro 格納位置
+     */
+    public static void transformPoint(float[] m, int mo,
+                                      float[] p, int po,
+                                      float[] r, int ro ){
+        float x = p[po], y = p[po + 1], z = p[po + 2];
+        r[ro    ] = m[mo    ] * x + m[mo + 1] * y + m[mo +  2] * z + m[mo +  3];
+        r[ro + 1] = m[mo + 4] * x + m[mo + 5] * y + m[mo +  6] * z + m[mo +  7];
+        r[ro + 2] = m[mo + 8] * x + m[mo + 9] * y + m[mo + 10] * z + m[mo + 11];
+        return;
+    }
+
+}
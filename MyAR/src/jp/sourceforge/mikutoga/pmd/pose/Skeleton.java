@@ -0,0 +1,258 @@
+/*
+ * resolved bone hierarchy
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.pmd.pose;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import jp.sourceforge.mikutoga.pmd.BoneInfo;
+import jp.sourceforge.mikutoga.pmd.BoneType;
+import jp.sourceforge.mikutoga.pmd.PmdModel;
+import jp.sourceforge.mikutoga.pmd.Pos3d;
+
+/**
+ * ボーン階層をプリミティブ型の配列へ展開したもの。
+ * <p>
+ * ボーン番号は{@link PmdModel#getBoneList()}での添え字番号。
+ * 親ボーンが必ず子ボーンより先に現れる計算順序を持つ。
+ * 生成後は変更されないので、複数の姿勢計算から共有できる。
+ */
+public class Skeleton {
+
+    /** 親ボーンが無いことを示すボーン番号。 */
+    public static final int NO_BONE = -1;
+
+    private final List<BoneInfo> boneList;
+    private final Map<BoneInfo, Integer> indexMap;
+
+    private final int boneCount;
+    private final int[] parent;
+    private final int[] order;
+    private final int[] orderIndex;
+
+    private final float[] restPosition;
+    private final float[] restOffset;
+
+    private final int[] linkSource;
+    private final float[] linkRatio;
+
+    /**
+     * コンストラクタ。
+     * @param model モデル
+     */
+    public Skeleton(PmdModel model){
+        super();
+
+        this.boneList = model.getBoneList();
+        this.boneCount = this.boneList.size();
+
+        int num = this.boneCount;
+
+        this.indexMap = new IdentityHashMap<BoneInfo, Integer>(num);
+        for(int idx = 0; idx < num; idx++){
+            this.indexMap.put(this.boneList.get(idx), idx);
+        }
+
+        this.parent       = new int[num];
+        this.restPosition = new float[num * 3];
+        this.restOffset   = new float[num * 3];
+        this.linkSource   = new int[num];
+        this.linkRatio    = new float[num];
+
+        for(int idx = 0; idx < num; idx++){
+            BoneInfo bone = this.boneList.get(idx);
+
+            this.parent[idx] = getBoneIndex(bone.getPrevBone());
+
+            Pos3d pos = bone.getPosition();
+            this.restPosition[idx * 3    ] = pos.getXPos();
+            this.restPosition[idx * 3 + 1] = pos.getYPos();
+            this.restPosition[idx * 3 + 2] = pos.getZPos();
+
+            this.linkSource[idx] = NO_BONE;
+            BoneType type = bone.getBoneType();
+            if(type == BoneType.UNDERROT){
+                this.linkSource[idx] = getBoneIndex(bone.getIKBone());
+                this.linkRatio[idx] = 1.0f;
+            }else if(type == BoneType.LINKEDROT){
+                this.linkSource[idx] = getBoneIndex(bone.getNextBone());
+                this.linkRatio[idx] = bone.getRotationRatio() / 100.0f;
+            }
+        }
+
+        this.order = sortTopologically(this.parent);
+        this.orderIndex = new int[num];
+        for(int pos = 0; pos < num; pos++){
+            this.orderIndex[this.order[pos]] = pos;
+        }
+
+        for(int idx = 0; idx < num; idx++){
+            int parentIdx = this.parent[idx];
+            for(int axis = 0; axis < 3; axis++){
+                float offset = this.restPosition[idx * 3 + axis];
+                if(parentIdx != NO_BONE){
+                    offset -= this.restPosition[parentIdx * 3 + axis];
+                }
+                this.restOffset[idx * 3 + axis] = offset;
+            }
+        }
+
+        return;
+    }
+
+    /**
+     * 親ボーンが子ボーンより先に現れる順序を求める。
+     * 循環参照があった場合、循環に含まれるボーンは親無しとして扱う。
+     * @param parent 親ボーン番号配列。循環が見つかれば書き換えられる
+     * @return ボーン番号の計算順序
+     */
+    private static int[] sortTopologically(int[] parent){
+        int num = parent.length;
+
+        int[] childCount = new int[num];
+        for(int idx = 0; idx < num; idx++){
+            if(parent[idx] != NO_BONE) childCount[parent[idx]]++;
+        }
+        int[] childStart = new int[num + 1];
+        for(int idx = 0; idx < num; idx++){
+            childStart[idx + 1] = childStart[idx] + childCount[idx];
+        }
+        int[] children = new int[childStart[num]];
+        int[] fill = new int[num];
+        for(int idx = 0; idx < num; idx++){
+            int parentIdx = parent[idx];
+            if(parentIdx == NO_BONE) continue;
+            children[childStart[parentIdx] + fill[parentIdx]++] = idx;
+        }
+
+        int[] result = new int[num];
+        boolean[] visited = new boolean[num];
+        int head = 0;
+        int tail = 0;
+        for(int idx = 0; idx < num; idx++){
+            if(parent[idx] == NO_BONE){
+                result[tail++] = idx;
+                visited[idx] = true;
+            }
+        }
+
+        while(tail < num){
+            while(head < tail){
+                int bone = result[head++];
+                for(int pt = childStart[bone]; pt < childStart[bone + 1]; pt++){
+                    int child = children[pt];
+                    if(visited[child]) continue;
+                    result[tail++] = child;
+                    visited[child] = true;
+                }
+            }
+            if(tail >= num) break;
+
+            // 根から辿れないボーンは循環の一部なので、親を切り離す
+            for(int idx = 0; idx < num; idx++){
+                if(visited[idx]) continue;
+                parent[idx] = NO_BONE;
+                result[tail++] = idx;
+                visited[idx] = true;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * ボーン数を返す。
+     * @return ボーン数
+     */
+    public int getBoneCount(){
+        return this.boneCount;
+    }
+
+    /**
+     * ボーン番号を返す。
+     * @param bone ボーン
+     * @return ボーン番号。nullもしくはモデルに属さないボーンなら{@link #NO_BONE}
+     */
+    public int getBoneIndex(BoneInfo bone){
+        if(bone == null) return NO_BONE;
+        Integer result = this.indexMap.get(bone);
+        if(result == null) return NO_BONE;
+        return result.intValue();
+    }
+
+    /**
+     * ボーン番号に対応するボーンを返す。
+     * @param index ボーン番号
+     * @return ボーン
+     */
+    public BoneInfo getBone(int index){
+        return this.boneList.get(index);
+    }
+
+    /**
+     * 親ボーン番号の配列を返す。
+     * 親が無い場合は{@link #NO_BONE}。
+     * @return 親ボーン番号の配列。変更してはならない
+     */
+    public int[] getParentArray(){
+        return this.parent;
+    }
+
+    /**
+     * 計算順序に並べたボーン番号の配列を返す。
+     * @return ボーン番号の配列。変更してはならない
+     */
+    public int[] getOrderArray(){
+        return this.order;
+    }
+
+    /**
+     * ボーン番号から計算順序上の位置を引く配列を返す。
+     * @return 計算順序上の位置の配列。変更してはならない
+     */
+    public int[] getOrderIndexArray(){
+        return this.orderIndex;
+    }
+
+    /**
+     * モデル座標系での初期ボーン位置の配列を返す。
+     * ボーン毎にX,Y,Zの順で並ぶ。
+     * @return 初期ボーン位置の配列。変更してはならない
+     */
+    public float[] getRestPositionArray(){
+        return this.restPosition;
+    }
+
+    /**
+     * 親ボーンからの相対的な初期ボーン位置の配列を返す。
+     * ボーン毎にX,Y,Zの順で並ぶ。
+     * @return 相対位置の配列。変更してはならない
+     */
+    public float[] getRestOffsetArray(){
+        return this.restOffset;
+    }
+
+    /**
+     * 回転を連動させる影響元ボーン番号の配列を返す。
+     * 回転影響下ボーン、回転連動ボーン以外は{@link #NO_BONE}。
+     * @return 影響元ボーン番号の配列。変更してはならない
+     */
+    public int[] getLinkSourceArray(){
+        return this.linkSource;
+    }
+
+    /**
+     * 影響元ボーンから受ける回転の割合の配列を返す。
+     * @return 回転の割合(1.0で同じ回転)の配列。変更してはならない
+     */
+    public float[] getLinkRatioArray(){
+        return this.linkRatio;
+    }
+
+}
@@ -0,0 +1,329 @@
+/*
+ * linear blend skinning
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.pmd.pose;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import jp.sourceforge.mikutoga.pmd.PmdModel;
+import jp.sourceforge.mikutoga.pmd.Pos3d;
+import jp.sourceforge.mikutoga.pmd.Vec3d;
+import jp.sourceforge.mikutoga.pmd.Vertex;
+
+/**
+ * 二ボーンの線形ブレンドスキニングを行うエンジン。
+ * <p>
+ * 頂点の初期位置・法線・ボーン番号・ウェイトを生成時にプリミティブ型の配列へ展開し、
+ * {@link BonePose}のスキニング行列で変形した位置と法線を出力配列へ書き込む。
+ * 出力配列はストライドとオフセットを指定したインターリーブ形式で、
+ * 位置と法線以外の要素(UVなど)は書き換えない。
+ * <p>
+ * 頂点範囲ごとに独立して計算するので、範囲を分けて並列に実行できる。
+ */
+public class SkinningEngine {
+
+    private final int vertexCount;
+
+    private final float[] restPosition;
+    private final float[] sourcePosition;
+    private final float[] restNormal;
+    private final int[] boneA;
+    private final int[] boneB;
+    private final float[] weightA;
+
+    private final int stride;
+    private final int positionOffset;
+    private final int normalOffset;
+    private final float[] output;
+
+    private ExecutorService taskPool = null;
+    private final List<RangeTask> taskList = new ArrayList<RangeTask>();
+    private BonePose taskPose = null;
+
+    /**
+     * コンストラクタ。
+     * 出力は位置と法線を交互に並べた形式(ストライド6)になる。
+     * @param model モデル
+     * @param skeleton モデルのボーン階層
+     */
+    public SkinningEngine(PmdModel model, Skeleton skeleton){
+        this(model, skeleton, 6, 0, 3);
+        return;
+    }
+
+    /**
+     * コンストラクタ。
+     * @param model モデル
+     * @param skeleton モデルのボーン階層
+     * @param stride 出力配列での頂点あたりのfloat数
+     * @param positionOffset 頂点内での位置の格納位置
+     * @param normalOffset 頂点内での法線の格納位置
+     * @throws IllegalArgumentException 位置もしくは法線がストライドに収まらない
+     */
+    public SkinningEngine(PmdModel model, Skeleton skeleton,
+                          int stride, int positionOffset, int normalOffset )
+            throws IllegalArgumentException{
+        super();
+
+        if(   positionOffset < 0 || stride < positionOffset + 3
+           || normalOffset   < 0 || stride < normalOffset   + 3 ){
+            throw new IllegalArgumentException();
+        }
+
+        List<Vertex> vertexList = model.getVertexList();
+        this.vertexCount = vertexList.size();
+
+        int num = this.vertexCount;
+        this.restPosition   = new float[num * 3];
+        this.sourcePosition = new float[num * 3];
+        this.restNormal     = new float[num * 3];
+        this.boneA          = new int[num];
+        this.boneB          = new int[num];
+        this.weightA        = new float[num];
+
+        for(int idx = 0; idx < num; idx++){
+            Vertex vertex = vertexList.get(idx);
+
+            Pos3d pos = vertex.getPosition();
+            this.restPosition[idx * 3    ] = pos.getXPos();
+            this.restPosition[idx * 3 + 1] = pos.getYPos();
+            this.restPosition[idx * 3 + 2] = pos.getZPos();
+
+            Vec3d normal = vertex.getNormal();
+            this.restNormal[idx * 3    ] = normal.getXVal();
+            this.restNormal[idx * 3 + 1] = normal.getYVal();
+            this.restNormal[idx * 3 + 2] = normal.getZVal();
+
+            int boneIdxA = skeleton.getBoneIndex(vertex.getBoneA());
+            int boneIdxB = skeleton.getBoneIndex(vertex.getBoneB());
+            if(boneIdxA == Skeleton.NO_BONE) boneIdxA = 0;
+            if(boneIdxB == Skeleton.NO_BONE) boneIdxB = boneIdxA;
+            this.boneA[idx] = boneIdxA;
+            this.boneB[idx] = boneIdxB;
+            this.weightA[idx] = vertex.getWeightRatioA();
+        }
+        System.arraycopy(this.restPosition, 0,
+                         this.sourcePosition, 0, num * 3);
+
+        this.stride = stride;
+        this.positionOffset = positionOffset;
+        this.normalOffset = normalOffset;
+        this.output = new float[num * stride];
+
+        return;
+    }
+
+    /**
+     * 頂点数を返す。
+     * @return 頂点数
+     */
+    public int getVertexCount(){
+        return this.vertexCount;
+    }
+
+    /**
+     * 初期姿勢の頂点位置配列を返す。
+     * 頂点毎にX,Y,Zの順で並ぶ。
+     * @return 頂点位置配列。変更してはならない
+     */
+    public float[] getRestPositionArray(){
+        return this.restPosition;
+    }
+
+    /**
+     * スキニングの入力となる頂点位置配列を返す。
+     * 初期値は初期姿勢の頂点位置。モーフはこの配列へ適用する。
+     * @return 入力頂点位置配列
+     */
+    public float[] getSourcePositionArray(){
+        return this.sourcePosition;
+    }
+
+    /**
+     * 出力配列を返す。
+     * 位置・法線以外の要素は利用者が自由に書き込んでよい。
+     * @return 出力配列
+     */
+    public float[] getOutputArray(){
+        return this.output;
+    }
+
+    /**
+     * 出力配列での頂点あたりのfloat数を返す。
+     * @return ストライド
+     */
+    public int getStride(){
+        return this.stride;
+    }
+
+    /**
+     * 全頂点をスキニングする。
+     * @param pose スキニング行列を更新済みの姿勢
+     */
+    public void skin(BonePose pose){
+        skin(pose, 0, this.vertexCount);
+        return;
+    }
+
+    /**
+     * 指定範囲の頂点をスキニングする。
+     * 範囲が重ならなければ複数スレッドから同時に呼んでよい。
+     * @param pose スキニング行列を更新済みの姿勢
+     * @param from 開始頂点番号
+     * @param to 終了頂点番号(この番号を含まない)
+     */
+    public void skin(BonePose pose, int from, int to){
+        final float[] mat = pose.getSkinArray();
+        final float[] pos = this.sourcePosition;
+        final float[] nor = this.restNormal;
+        final int[] idxA = this.boneA;
+        final int[] idxB = this.boneB;
+        final float[] wA = this.weightA;
+        final float[] out = this.output;
+        final int str = this.stride;
+        final int po = this.positionOffset;
+        final int no = this.normalOffset;
+
+        for(int idx = from; idx < to; idx++){
+            int a = idxA[idx] * PoseMath.MAT_SIZE;
+            int b = idxB[idx] * PoseMath.MAT_SIZE;
+            float wa = wA[idx];
+            float wb = 1.0f - wa;
+
+            float m00 = mat[a     ] * wa + mat[b     ] * wb;
+            float m01 = mat[a +  1] * wa + mat[b +  1] * wb;
+            float m02 = mat[a +  2] * wa + mat[b +  2] * wb;
+            float m03 = mat[a +  3] * wa + mat[b +  3] * wb;
+            float m10 = mat[a +  4] * wa + mat[b +  4] * wb;
+            float m11 = mat[a +  5] * wa + mat[b +  5] * wb;
+            float m12 = mat[a +  6] * wa + mat[b +  6] * wb;
+            float m13 = mat[a +  7] * wa + mat[b +  7] * wb;
+            float m20 = mat[a +  8] * wa + mat[b +  8] * wb;
+            float m21 = mat[a +  9] * wa + mat[b +  9] * wb;
+            float m22 = mat[a + 10] * wa + mat[b + 10] * wb;
+            float m23 = mat[a + 11] * wa + mat[b + 11] * wb;
+
+            int vi = idx * 3;
+            float px = pos[vi], py = pos[vi + 1], pz = pos[vi + 2];
+            float nx = nor[vi], ny = nor[vi + 1], nz = nor[vi + 2];
+
+            int oi = idx * str;
+            out[oi + po    ] = m00 * px + m01 * py + m02 * pz + m03;
+            out[oi + po + 1] = m10 * px + m11 * py + m12 * pz + m13;
+            out[oi + po + 2] = m20 * px + m21 * py + m22 * pz + m23;
+
+            float tx = m00 * nx + m01 * ny + m02 * nz;
+            float ty = m10 * nx + m11 * ny + m12 * nz;
+            float tz = m20 * nx + m21 * ny + m22 * nz;
+            float len2 = tx * tx + ty * ty + tz * tz;
+            float inv = len2 > 0.0f ? (float)(1.0 / Math.sqrt(len2)) : 0.0f;
+            out[oi + no    ] = tx * inv;
+            out[oi + no + 1] = ty * inv;
+            out[oi + no + 2] = tz * inv;
+        }
+
+        return;
+    }
+
+    /**
+     * 頂点範囲を分割し、スレッドプール上で並列にスキニングする。
+     * 全範囲の計算が終わるまで戻らない。
+     * @param pose スキニング行列を更新済みの姿勢
+     * @param pool スレッドプール
+     * @param partitions 分割数
+     * @throws InterruptedException 待機中に割り込まれた
+     * @throws IllegalStateException タスクが例外を投げた
+     */
+    public void skin(BonePose pose, ExecutorService pool, int partitions)
+            throws InterruptedException, IllegalStateException{
+        if(partitions <= 1 || this.vertexCount < partitions){
+            skin(pose);
+            return;
+        }
+
+        if(pool != this.taskPool || this.taskList.size() != partitions){
+            prepareTasks(pool, partitions);
+        }
+        this.taskPose = pose;
+
+        List<Future<Object>> futureList = pool.invokeAll(this.taskList);
+        for(Future<Object> future : futureList){
+            try{
+                future.get();
+            }catch(ExecutionException e){
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        return;
+    }
+
+    /**
+     * 分割範囲ごとのタスクを用意する。
+     * タスクは同じプールと分割数である限り使い回される。
+     * @param pool スレッドプール
+     * @param partitions 分割数
+     */
+    private void prepareTasks(ExecutorService pool, int partitions){
+        this.taskPool = pool;
+        this.taskList.clear();
+        for(int part = 0; part < partitions; part++){
+            int from = (int)((long)this.vertexCount * part / partitions);
+            int to = (int)((long)this.vertexCount * (part + 1) / partitions);
+            this.taskList.add(new RangeTask(from, to));
+        }
+        return;
+    }
+
+    /**
+     * 出力配列をバッファへ転送する。
+     * バッファの位置は転送した分だけ進む。
+     * @param buffer 転送先バッファ
+     */
+    public void writeTo(FloatBuffer buffer){
+        buffer.put(this.output);
+        return;
+    }
+
+    /**
+     * 頂点範囲一つ分のスキニングタスク。
+     */
+    private final class RangeTask implements Callable<Object> {
+
+        private final int from;
+        private final int to;
+
+        /**
+         * コンストラクタ。
+         * @param from 開始頂点番号
+         * @param to 終了頂点番号
+         */
+        RangeTask(int from, int to){
+            super();
+            this.from = from;
+            this.to = to;
+            return;
+        }
+
+        /**
+         * {@inheritDoc}
+         * @return {@inheritDoc}
+         */
+        @Override
+        public Object call(){
+            skin(SkinningEngine.this.taskPose, this.from, this.to);
+            return null;
+        }
+
+    }
+
+}
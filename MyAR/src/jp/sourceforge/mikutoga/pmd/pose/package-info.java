@@ -0,0 +1,17 @@
+/*
+ * package information for Javadoc
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+/**
+ * PMDモデルを実行時に変形させるためのライブラリ。
+ * <p>
+ * ボーン階層やモーフなどをプリミティブ型の配列へ展開し、
+ * フレーム毎の姿勢計算をオブジェクト生成無しに行う。
+ */
+
+package jp.sourceforge.mikutoga.pmd.pose;
+
+/* EOF */
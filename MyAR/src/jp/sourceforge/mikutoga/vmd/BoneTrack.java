@@ -0,0 +1,110 @@
+/*
+ * bone motion track
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd;
+
+/**
+ * 一つのボーンのモーションキーフレーム列。
+ * <p>
+ * キー番号kの値は、移動量が{@code translation[3k]}から3要素、
+ * 回転クォータニオン(x,y,z,w)が{@code rotation[4k]}から4要素、
+ * 補間パラメータが{@code interpolation[16k]}から16要素に格納される。
+ * 補間パラメータはX軸移動、Y軸移動、Z軸移動、回転の4曲線それぞれにつき
+ * P1x, P1y, P2x, P2y(0から127)の順に並ぶ。
+ * キー番号kの補間パラメータは、キー番号k-1からkへの区間に適用される。
+ */
+public class BoneTrack extends KeyFrameTrack {
+
+    /** 移動量のキーフレームあたり要素数。 */
+    public static final int TRANSLATION_SIZE = 3;
+    /** 回転のキーフレームあたり要素数。 */
+    public static final int ROTATION_SIZE = 4;
+    /** 補間パラメータのキーフレームあたり要素数。 */
+    public static final int INTERPOLATION_SIZE = 16;
+
+    /** X軸移動の補間曲線位置。 */
+    public static final int CURVE_X = 0;
+    /** Y軸移動の補間曲線位置。 */
+    public static final int CURVE_Y = 4;
+    /** Z軸移動の補間曲線位置。 */
+    public static final int CURVE_Z = 8;
+    /** 回転の補間曲線位置。 */
+    public static final int CURVE_ROTATION = 12;
+
+    private final String boneName;
+    private final float[] translation;
+    private final float[] rotation;
+    private final byte[] interpolation;
+
+    /**
+     * コンストラクタ。
+     * 配列は複写されずにそのまま保持される。
+     * @param boneName ボーン名
+     * @param frameArray 昇順に並び重複の無いフレーム番号配列
+     * @param translation 移動量配列
+     * @param rotation 回転クォータニオン配列
+     * @param interpolation 補間パラメータ配列
+     * @throws NullPointerException 引数がnull
+     * @throws IllegalArgumentException 配列長がキーフレーム数と矛盾
+     */
+    public BoneTrack(String boneName,
+                     int[] frameArray,
+                     float[] translation,
+                     float[] rotation,
+                     byte[] interpolation )
+            throws NullPointerException, IllegalArgumentException{
+        super(frameArray);
+
+        if(boneName == null) throw new NullPointerException();
+        checkLength(translation.length, TRANSLATION_SIZE);
+        checkLength(rotation.length, ROTATION_SIZE);
+        checkLength(interpolation.length, INTERPOLATION_SIZE);
+
+        this.boneName = boneName;
+        this.translation = translation;
+        this.rotation = rotation;
+        this.interpolation = interpolation;
+
+        return;
+    }
+
+    /**
+     * ボーン名を返す。
+     * @return ボーン名
+     */
+    public String getBoneName(){
+        return this.boneName;
+    }
+
+    /**
+     * 移動量配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return 移動量配列
+     */
+    public float[] getTranslationArray(){
+        return this.translation;
+    }
+
+    /**
+     * 回転クォータニオン配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return 回転クォータニオン配列
+     */
+    public float[] getRotationArray(){
+        return this.rotation;
+    }
+
+    /**
+     * 補間パラメータ配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return 補間パラメータ配列
+     */
+    public byte[] getInterpolationArray(){
+        return this.interpolation;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * camera motion track
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd;
+
+/**
+ * カメラのモーションキーフレーム列。
+ * <p>
+ * キー番号kの値は、注視点位置が{@code position[3k]}から3要素、
+ * 回転(X軸,Y軸,Z軸、ラジアン)が{@code rotation[3k]}から3要素、
+ * 補間パラメータが{@code interpolation[24k]}から24要素に格納される。
+ * 補間パラメータはX軸移動、Y軸移動、Z軸移動、回転、距離、視野角の
+ * 6曲線それぞれにつきP1x, P1y, P2x, P2yの順に並ぶ。
+ */
+public class CameraTrack extends KeyFrameTrack {
+
+    /** 位置・回転のキーフレームあたり要素数。 */
+    public static final int VECTOR_SIZE = 3;
+    /** 補間パラメータのキーフレームあたり要素数。 */
+    public static final int INTERPOLATION_SIZE = 24;
+
+    /** X軸移動の補間曲線位置。 */
+    public static final int CURVE_X = 0;
+    /** Y軸移動の補間曲線位置。 */
+    public static final int CURVE_Y = 4;
+    /** Z軸移動の補間曲線位置。 */
+    public static final int CURVE_Z = 8;
+    /** 回転の補間曲線位置。 */
+    public static final int CURVE_ROTATION = 12;
+    /** 距離の補間曲線位置。 */
+    public static final int CURVE_RANGE = 16;
+    /** 視野角の補間曲線位置。 */
+    public static final int CURVE_ANGLE = 20;
+
+    private final float[] range;
+    private final float[] position;
+    private final float[] rotation;
+    private final byte[] interpolation;
+    private final int[] angle;
+    private final boolean[] perspective;
+
+    /**
+     * コンストラクタ。
+     * 配列は複写されずにそのまま保持される。
+     * @param frameArray 昇順に並び重複の無いフレーム番号配列
+     * @param range 注視点からの距離配列
+     * @param position 注視点位置配列
+     * @param rotation 回転配列
+     * @param interpolation 補間パラメータ配列
+     * @param angle 視野角配列
+     * @param perspective 透視投影フラグ配列
+     * @throws NullPointerException 引数がnull
+     * @throws IllegalArgumentException 配列長がキーフレーム数と矛盾
+     */
+    public CameraTrack(int[] frameArray,
+                       float[] range,
+                       float[] position,
+                       float[] rotation,
+                       byte[] interpolation,
+                       int[] angle,
+                       boolean[] perspective )
+            throws NullPointerException, IllegalArgumentException{
+        super(frameArray);
+
+        checkLength(range.length, 1);
+        checkLength(position.length, VECTOR_SIZE);
+        checkLength(rotation.length, VECTOR_SIZE);
+        checkLength(interpolation.length, INTERPOLATION_SIZE);
+        checkLength(angle.length, 1);
+        checkLength(perspective.length, 1);
+
+        this.range = range;
+        this.position = position;
+        this.rotation = rotation;
+        this.interpolation = interpolation;
+        this.angle = angle;
+        this.perspective = perspective;
+
+        return;
+    }
+
+    /**
+     * 注視点からの距離配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return 距離配列
+     */
+    public float[] getRangeArray(){
+        return this.range;
+    }
+
+    /**
+     * 注視点位置配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return 注視点位置配列
+     */
+    public float[] getPositionArray(){
+        return this.position;
+    }
+
+    /**
+     * 回転配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return 回転配列
+     */
+    public float[] getRotationArray(){
+        return this.rotation;
+    }
+
+    /**
+     * 補間パラメータ配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return 補間パラメータ配列
+     */
+    public byte[] getInterpolationArray(){
+        return this.interpolation;
+    }
+
+    /**
+     * 視野角(度)配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return 視野角配列
+     */
+    public int[] getAngleArray(){
+        return this.angle;
+    }
+
+    /**
+     * 透視投影フラグ配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return 透視投影フラグ配列
+     */
+    public boolean[] getPerspectiveArray(){
+        return this.perspective;
+    }
+
+}
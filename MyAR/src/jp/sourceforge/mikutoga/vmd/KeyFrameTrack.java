@@ -0,0 +1,95 @@
+/*
+ * key frame track
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd;
+
+/**
+ * フレーム番号順に並んだキーフレーム列の共通部。
+ * 各キーフレームの値はサブクラスがキー番号で引ける配列として保持する。
+ */
+public abstract class KeyFrameTrack {
+
+    private final int[] frameArray;
+
+    /**
+     * コンストラクタ。
+     * @param frameArray 昇順に並び重複の無いフレーム番号配列。
+     * 配列は複写されずにそのまま保持される。
+     * @throws NullPointerException 引数がnull
+     */
+    protected KeyFrameTrack(int[] frameArray) throws NullPointerException{
+        super();
+        if(frameArray == null) throw new NullPointerException();
+        this.frameArray = frameArray;
+        return;
+    }
+
+    /**
+     * 値配列の長さを検査する。
+     * @param length 値配列の長さ
+     * @param stride キーフレームあたりの要素数
+     * @throws IllegalArgumentException 長さがキーフレーム数と矛盾
+     */
+    protected final void checkLength(int length, int stride)
+            throws IllegalArgumentException{
+        if(length != this.frameArray.length * stride){
+            throw new IllegalArgumentException();
+        }
+        return;
+    }
+
+    /**
+     * キーフレーム数を返す。
+     * @return キーフレーム数
+     */
+    public int getKeyCount(){
+        return this.frameArray.length;
+    }
+
+    /**
+     * フレーム番号配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return フレーム番号配列
+     */
+    public int[] getFrameArray(){
+        return this.frameArray;
+    }
+
+    /**
+     * 最後のキーフレームのフレーム番号を返す。
+     * @return フレーム番号。キーフレームが無ければ0
+     */
+    public int getLastFrame(){
+        int num = this.frameArray.length;
+        if(num <= 0) return 0;
+        return this.frameArray[num - 1];
+    }
+
+    /**
+     * 指定時刻以前で最も新しいキーフレームを二分探索する。
+     * @param frame フレーム単位の時刻
+     * @return キー番号。最初のキーフレームより前、
+     * またはキーフレームが無い場合は-1
+     */
+    public int findKey(float frame){
+        int[] frames = this.frameArray;
+        int low = 0;
+        int high = frames.length - 1;
+
+        while(low <= high){
+            int mid = (low + high) >>> 1;
+            if(frames[mid] <= frame){
+                low = mid + 1;
+            }else{
+                high = mid - 1;
+            }
+        }
+
+        return high;
+    }
+
+}
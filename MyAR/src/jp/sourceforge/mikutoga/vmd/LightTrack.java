@@ -0,0 +1,63 @@
+/*
+ * lighting motion track
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd;
+
+/**
+ * 照明のモーションキーフレーム列。
+ * キー番号kの値は、光源色(R,G,B)が{@code color[3k]}から3要素、
+ * 光源方向が{@code direction[3k]}から3要素に格納される。
+ */
+public class LightTrack extends KeyFrameTrack {
+
+    /** 色・方向のキーフレームあたり要素数。 */
+    public static final int VECTOR_SIZE = 3;
+
+    private final float[] color;
+    private final float[] direction;
+
+    /**
+     * コンストラクタ。
+     * 配列は複写されずにそのまま保持される。
+     * @param frameArray 昇順に並び重複の無いフレーム番号配列
+     * @param color 光源色配列
+     * @param direction 光源方向配列
+     * @throws NullPointerException 引数がnull
+     * @throws IllegalArgumentException 配列長がキーフレーム数と矛盾
+     */
+    public LightTrack(int[] frameArray, float[] color, float[] direction)
+            throws NullPointerException, IllegalArgumentException{
+        super(frameArray);
+
+        checkLength(color.length, VECTOR_SIZE);
+        checkLength(direction.length, VECTOR_SIZE);
+
+        this.color = color;
+        this.direction = direction;
+
+        return;
+    }
+
+    /**
+     * 光源色配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return 光源色配列
+     */
+    public float[] getColorArray(){
+        return this.color;
+    }
+
+    /**
+     * 光源方向配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return 光源方向配列
+     */
+    public float[] getDirectionArray(){
+        return this.direction;
+    }
+
+}
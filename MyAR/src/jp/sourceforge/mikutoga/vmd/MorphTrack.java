@@ -0,0 +1,58 @@
+/*
+ * morph motion track
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd;
+
+/**
+ * 一つのモーフのモーションキーフレーム列。
+ * モーフの適用度合いはキーフレーム間で線形補間される。
+ */
+public class MorphTrack extends KeyFrameTrack {
+
+    private final String morphName;
+    private final float[] flex;
+
+    /**
+     * コンストラクタ。
+     * 配列は複写されずにそのまま保持される。
+     * @param morphName モーフ名
+     * @param frameArray 昇順に並び重複の無いフレーム番号配列
+     * @param flex 適用度合い配列
+     * @throws NullPointerException 引数がnull
+     * @throws IllegalArgumentException 配列長がキーフレーム数と矛盾
+     */
+    public MorphTrack(String morphName, int[] frameArray, float[] flex)
+            throws NullPointerException, IllegalArgumentException{
+        super(frameArray);
+
+        if(morphName == null) throw new NullPointerException();
+        checkLength(flex.length, 1);
+
+        this.morphName = morphName;
+        this.flex = flex;
+
+        return;
+    }
+
+    /**
+     * モーフ名を返す。
+     * @return モーフ名
+     */
+    public String getMorphName(){
+        return this.morphName;
+    }
+
+    /**
+     * 適用度合い配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return 適用度合い配列
+     */
+    public float[] getFlexArray(){
+        return this.flex;
+    }
+
+}
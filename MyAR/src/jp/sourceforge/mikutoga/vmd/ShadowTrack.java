@@ -0,0 +1,58 @@
+/*
+ * self-shadow motion track
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd;
+
+/**
+ * セルフシャドウのモーションキーフレーム列。
+ */
+public class ShadowTrack extends KeyFrameTrack {
+
+    private final byte[] mode;
+    private final float[] scope;
+
+    /**
+     * コンストラクタ。
+     * 配列は複写されずにそのまま保持される。
+     * @param frameArray 昇順に並び重複の無いフレーム番号配列
+     * @param mode シャドウモード配列
+     * @param scope シャドウ距離配列
+     * @throws NullPointerException 引数がnull
+     * @throws IllegalArgumentException 配列長がキーフレーム数と矛盾
+     */
+    public ShadowTrack(int[] frameArray, byte[] mode, float[] scope)
+            throws NullPointerException, IllegalArgumentException{
+        super(frameArray);
+
+        checkLength(mode.length, 1);
+        checkLength(scope.length, 1);
+
+        this.mode = mode;
+        this.scope = scope;
+
+        return;
+    }
+
+    /**
+     * シャドウモード配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return シャドウモード配列
+     */
+    public byte[] getModeArray(){
+        return this.mode;
+    }
+
+    /**
+     * シャドウ距離配列を返す。
+     * 配列は複写されないので、内容を変更してはならない。
+     * @return シャドウ距離配列
+     */
+    public float[] getScopeArray(){
+        return this.scope;
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * VMD motion
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * VMDモーションファイル一式に相当するもの。
+ * ボーン毎・モーフ毎のキーフレーム列と、
+ * カメラ・照明・セルフシャドウのキーフレーム列から構成される。
+ */
+public class VmdMotion {
+
+    private static final int[] EMPTY_FRAME = new int[0];
+
+    private String modelName = "";
+
+    private final List<BoneTrack> boneTrackList = new ArrayList<BoneTrack>();
+    private final Map<String, BoneTrack> boneTrackMap =
+            new HashMap<String, BoneTrack>();
+
+    private final List<MorphTrack> morphTrackList =
+            new ArrayList<MorphTrack>();
+    private final Map<String, MorphTrack> morphTrackMap =
+            new HashMap<String, MorphTrack>();
+
+    private CameraTrack cameraTrack =
+            new CameraTrack(EMPTY_FRAME,
+                            new float[0], new float[0], new float[0],
+                            new byte[0], new int[0], new boolean[0] );
+    private LightTrack lightTrack =
+            new LightTrack(EMPTY_FRAME, new float[0], new float[0]);
+    private ShadowTrack shadowTrack =
+            new ShadowTrack(EMPTY_FRAME, new byte[0], new float[0]);
+
+    /**
+     * コンストラクタ。
+     */
+    public VmdMotion(){
+        super();
+        return;
+    }
+
+    /**
+     * モーションの対象モデル名を返す。
+     * @return モデル名
+     */
+    public String getModelName(){
+        return this.modelName;
+    }
+
+    /**
+     * モーションの対象モデル名を設定する。
+     * @param modelName モデル名
+     * @throws NullPointerException 引数がnull
+     */
+    public void setModelName(String modelName) throws NullPointerException{
+        if(modelName == null) throw new NullPointerException();
+        this.modelName = modelName;
+        return;
+    }
+
+    /**
+     * ボーンモーションを追加する。
+     * 同名のボーンモーションがすでにあれば置き換える。
+     * @param track ボーンモーション
+     */
+    public void addBoneTrack(BoneTrack track){
+        BoneTrack old = this.boneTrackMap.put(track.getBoneName(), track);
+        if(old != null) this.boneTrackList.remove(old);
+        this.boneTrackList.add(track);
+        return;
+    }
+
+    /**
+     * ボーンモーションの一覧を返す。
+     * @return 変更不可なボーンモーションのリスト
+     */
+    public List<BoneTrack> getBoneTrackList(){
+        return Collections.unmodifiableList(this.boneTrackList);
+    }
+
+    /**
+     * ボーン名からボーンモーションを返す。
+     * @param boneName ボーン名
+     * @return ボーンモーション。無ければnull
+     */
+    public BoneTrack getBoneTrack(String boneName){
+        return this.boneTrackMap.get(boneName);
+    }
+
+    /**
+     * モーフモーションを追加する。
+     * 同名のモーフモーションがすでにあれば置き換える。
+     * @param track モーフモーション
+     */
+    public void addMorphTrack(MorphTrack track){
+        MorphTrack old = this.morphTrackMap.put(track.getMorphName(), track);
+        if(old != null) this.morphTrackList.remove(old);
+        this.morphTrackList.add(track);
+        return;
+    }
+
+    /**
+     * モーフモーションの一覧を返す。
+     * @return 変更不可なモーフモーションのリスト
+     */
+    public List<MorphTrack> getMorphTrackList(){
+        return Collections.unmodifiableList(this.morphTrackList);
+    }
+
+    /**
+     * モーフ名からモーフモーションを返す。
+     * @param morphName モーフ名
+     * @return モーフモーション。無ければnull
+     */
+    public MorphTrack getMorphTrack(String morphName){
+        return this.morphTrackMap.get(morphName);
+    }
+
+    /**
+     * カメラモーションを返す。
+     * @return カメラモーション。キーフレームが無い場合も空の列を返す。
+     */
+    public CameraTrack getCameraTrack(){
+        return this.cameraTrack;
+    }
+
+    /**
+     * カメラモーションを設定する。
+     * @param track カメラモーション
+     * @throws NullPointerException 引数がnull
+     */
+    public void setCameraTrack(CameraTrack track)
+            throws NullPointerException{
+        if(track == null) throw new NullPointerException();
+        this.cameraTrack = track;
+        return;
+    }
+
+    /**
+     * 照明モーションを返す。
+     * @return 照明モーション。キーフレームが無い場合も空の列を返す。
+     */
+    public LightTrack getLightTrack(){
+        return this.lightTrack;
+    }
+
+    /**
+     * 照明モーションを設定する。
+     * @param track 照明モーション
+     * @throws NullPointerException 引数がnull
+     */
+    public void setLightTrack(LightTrack track) throws NullPointerException{
+        if(track == null) throw new NullPointerException();
+        this.lightTrack = track;
+        return;
+    }
+
+    /**
+     * セルフシャドウモーションを返す。
+     * @return セルフシャドウモーション。
+     * キーフレームが無い場合も空の列を返す。
+     */
+    public ShadowTrack getShadowTrack(){
+        return this.shadowTrack;
+    }
+
+    /**
+     * セルフシャドウモーションを設定する。
+     * @param track セルフシャドウモーション
+     * @throws NullPointerException 引数がnull
+     */
+    public void setShadowTrack(ShadowTrack track)
+            throws NullPointerException{
+        if(track == null) throw new NullPointerException();
+        this.shadowTrack = track;
+        return;
+    }
+
+    /**
+     * 全てのキーフレーム列の中で最後のフレーム番号を返す。
+     * @return フレーム番号
+     */
+    public int getLastFrame(){
+        int result = 0;
+
+        for(BoneTrack track : this.boneTrackList){
+            result = Math.max(result, track.getLastFrame());
+        }
+        for(MorphTrack track : this.morphTrackList){
+            result = Math.max(result, track.getLastFrame());
+        }
+        result = Math.max(result, this.cameraTrack.getLastFrame());
+        result = Math.max(result, this.lightTrack.getLastFrame());
+        result = Math.max(result, this.shadowTrack.getLastFrame());
+
+        return result;
+    }
+
+}
@@ -0,0 +1,17 @@
+/*
+ * package information for Javadoc
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+/**
+ * VMDモーションファイルに相当するオブジェクト各種。
+ * <p>
+ * キーフレームはオブジェクト化されず、
+ * トラック毎にフレーム番号順に並んだプリミティブ配列として保持される。
+ */
+
+package jp.sourceforge.mikutoga.vmd;
+
+/* EOF */
@@ -0,0 +1,176 @@
+/*
+ * building bone motion
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd.vmdloader;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jp.sourceforge.mikutoga.parser.ParseStage;
+import jp.sourceforge.mikutoga.parser.vmd.VmdBoneHandler;
+import jp.sourceforge.mikutoga.parser.vmd.VmdLimits;
+import jp.sourceforge.mikutoga.vmd.BoneTrack;
+import jp.sourceforge.mikutoga.vmd.VmdMotion;
+
+/**
+ * ボーンモーション関係の通知をパーサから受け取る。
+ * キーフレームはボーン毎のバッファに溜め込まれ、
+ * パース終了時にフレーム番号順のキーフレーム列となる。
+ */
+class BoneMotionBuilder implements VmdBoneHandler {
+
+    private static final int POS_OFFSET = 0;
+    private static final int ROT_OFFSET = BoneTrack.TRANSLATION_SIZE;
+    private static final int FLOAT_STRIDE =
+            BoneTrack.TRANSLATION_SIZE + BoneTrack.ROTATION_SIZE;
+
+    static{
+        assert VmdLimits.BONE_INTERPOLATION_SZ
+                == BoneTrack.INTERPOLATION_SIZE;
+    }
+
+    private final VmdMotion motion;
+
+    private final Map<String, KeyFrameBuffer> bufferMap =
+            new LinkedHashMap<String, KeyFrameBuffer>();
+
+    private KeyFrameBuffer currentBuffer;
+    private int currentIndex;
+
+    /**
+     * コンストラクタ。
+     * @param motion モーション
+     */
+    BoneMotionBuilder(VmdMotion motion){
+        super();
+        this.motion = motion;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param stage {@inheritDoc}
+     * @param loops {@inheritDoc}
+     */
+    @Override
+    public void loopStart(ParseStage stage, int loops){
+        assert stage instanceof VmdBoneStage;
+        this.bufferMap.clear();
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param stage {@inheritDoc}
+     */
+    @Override
+    public void loopNext(ParseStage stage){
+        assert stage instanceof VmdBoneStage;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * ボーン毎のキーフレーム列をモーションに登録する。
+     * @param stage {@inheritDoc}
+     */
+    @Override
+    public void loopEnd(ParseStage stage){
+        assert stage instanceof VmdBoneStage;
+
+        for(Map.Entry<String, KeyFrameBuffer> entry
+                : this.bufferMap.entrySet()){
+            String boneName = entry.getKey();
+            KeyFrameBuffer buffer = entry.getValue();
+
+            int[] index = buffer.sortedIndex();
+            BoneTrack track = new BoneTrack(
+                    boneName,
+                    buffer.buildFrameArray(index),
+                    buffer.buildFloatArray(index, POS_OFFSET,
+                                           BoneTrack.TRANSLATION_SIZE),
+                    buffer.buildFloatArray(index, ROT_OFFSET,
+                                           BoneTrack.ROTATION_SIZE),
+                    buffer.buildByteArray(index, 0,
+                                          BoneTrack.INTERPOLATION_SIZE) );
+            this.motion.addBoneTrack(track);
+        }
+
+        this.bufferMap.clear();
+        this.currentBuffer = null;
+
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param boneName {@inheritDoc}
+     * @param keyFrameNo {@inheritDoc}
+     */
+    @Override
+    public void vmdBoneMotion(String boneName, int keyFrameNo){
+        KeyFrameBuffer buffer = this.bufferMap.get(boneName);
+        if(buffer == null){
+            buffer = new KeyFrameBuffer(FLOAT_STRIDE,
+                                        BoneTrack.INTERPOLATION_SIZE );
+            this.bufferMap.put(boneName, buffer);
+        }
+
+        this.currentBuffer = buffer;
+        this.currentIndex = buffer.append(keyFrameNo);
+
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param xPos {@inheritDoc}
+     * @param yPos {@inheritDoc}
+     * @param zPos {@inheritDoc}
+     */
+    @Override
+    public void vmdBonePosition(float xPos, float yPos, float zPos){
+        float[] values = this.currentBuffer.getFloatArray();
+        int base = this.currentIndex * FLOAT_STRIDE + POS_OFFSET;
+        values[base    ] = xPos;
+        values[base + 1] = yPos;
+        values[base + 2] = zPos;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param qx {@inheritDoc}
+     * @param qy {@inheritDoc}
+     * @param qz {@inheritDoc}
+     * @param qw {@inheritDoc}
+     */
+    @Override
+    public void vmdBoneRotationQt(float qx, float qy, float qz, float qw){
+        float[] values = this.currentBuffer.getFloatArray();
+        int base = this.currentIndex * FLOAT_STRIDE + ROT_OFFSET;
+        values[base    ] = qx;
+        values[base + 1] = qy;
+        values[base + 2] = qz;
+        values[base + 3] = qw;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param interpolation {@inheritDoc}
+     */
+    @Override
+    public void vmdBoneInterpolation(byte[] interpolation){
+        byte[] values = this.currentBuffer.getByteArray();
+        System.arraycopy(interpolation, 0,
+                         values,
+                         this.currentIndex * BoneTrack.INTERPOLATION_SIZE,
+                         BoneTrack.INTERPOLATION_SIZE );
+        return;
+    }
+
+}
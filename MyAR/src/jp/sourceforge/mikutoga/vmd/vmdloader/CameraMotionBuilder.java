@@ -0,0 +1,197 @@
+/*
+ * building camera motion
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd.vmdloader;
+
+import jp.sourceforge.mikutoga.parser.ParseStage;
+import jp.sourceforge.mikutoga.parser.vmd.VmdCameraHandler;
+import jp.sourceforge.mikutoga.parser.vmd.VmdLimits;
+import jp.sourceforge.mikutoga.vmd.CameraTrack;
+import jp.sourceforge.mikutoga.vmd.VmdMotion;
+
+/**
+ * カメラモーション関係の通知をパーサから受け取る。
+ */
+class CameraMotionBuilder implements VmdCameraHandler {
+
+    private static final int RANGE_OFFSET = 0;
+    private static final int POS_OFFSET   = 1;
+    private static final int ROT_OFFSET   = POS_OFFSET + CameraTrack.VECTOR_SIZE;
+    private static final int ANGLE_OFFSET = ROT_OFFSET + CameraTrack.VECTOR_SIZE;
+    private static final int FLOAT_STRIDE = ANGLE_OFFSET + 1;
+
+    private static final int PERSPECTIVE_OFFSET =
+            CameraTrack.INTERPOLATION_SIZE;
+    private static final int BYTE_STRIDE = PERSPECTIVE_OFFSET + 1;
+
+    static{
+        assert VmdLimits.CAMERA_INTERPOLATION_SZ
+                == CameraTrack.INTERPOLATION_SIZE;
+    }
+
+    private final VmdMotion motion;
+
+    private KeyFrameBuffer buffer;
+    private int currentIndex;
+
+    /**
+     * コンストラクタ。
+     * @param motion モーション
+     */
+    CameraMotionBuilder(VmdMotion motion){
+        super();
+        this.motion = motion;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param stage {@inheritDoc}
+     * @param loops {@inheritDoc}
+     */
+    @Override
+    public void loopStart(ParseStage stage, int loops){
+        assert stage instanceof VmdCameraStage;
+        this.buffer = new KeyFrameBuffer(FLOAT_STRIDE, BYTE_STRIDE, loops);
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param stage {@inheritDoc}
+     */
+    @Override
+    public void loopNext(ParseStage stage){
+        assert stage instanceof VmdCameraStage;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * キーフレーム列をモーションに登録する。
+     * @param stage {@inheritDoc}
+     */
+    @Override
+    public void loopEnd(ParseStage stage){
+        assert stage instanceof VmdCameraStage;
+
+        KeyFrameBuffer buf = this.buffer;
+        int[] index = buf.sortedIndex();
+        int num = index.length;
+
+        float[] angleValue = buf.buildFloatArray(index, ANGLE_OFFSET, 1);
+        byte[] perspectiveValue =
+                buf.buildByteArray(index, PERSPECTIVE_OFFSET, 1);
+        int[] angle = new int[num];
+        boolean[] perspective = new boolean[num];
+        for(int pt = 0; pt < num; pt++){
+            angle[pt] = (int) angleValue[pt];
+            perspective[pt] = perspectiveValue[pt] != 0;
+        }
+
+        CameraTrack track = new CameraTrack(
+                buf.buildFrameArray(index),
+                buf.buildFloatArray(index, RANGE_OFFSET, 1),
+                buf.buildFloatArray(index, POS_OFFSET,
+                                    CameraTrack.VECTOR_SIZE),
+                buf.buildFloatArray(index, ROT_OFFSET,
+                                    CameraTrack.VECTOR_SIZE),
+                buf.buildByteArray(index, 0,
+                                   CameraTrack.INTERPOLATION_SIZE),
+                angle,
+                perspective );
+        this.motion.setCameraTrack(track);
+
+        this.buffer = null;
+
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param keyFrameNo {@inheritDoc}
+     */
+    @Override
+    public void vmdCameraMotion(int keyFrameNo){
+        this.currentIndex = this.buffer.append(keyFrameNo);
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param range {@inheritDoc}
+     */
+    @Override
+    public void vmdCameraRange(float range){
+        float[] values = this.buffer.getFloatArray();
+        values[this.currentIndex * FLOAT_STRIDE + RANGE_OFFSET] = range;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param xPos {@inheritDoc}
+     * @param yPos {@inheritDoc}
+     * @param zPos {@inheritDoc}
+     */
+    @Override
+    public void vmdCameraPosition(float xPos, float yPos, float zPos){
+        float[] values = this.buffer.getFloatArray();
+        int base = this.currentIndex * FLOAT_STRIDE + POS_OFFSET;
+        values[base    ] = xPos;
+        values[base + 1] = yPos;
+        values[base + 2] = zPos;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param latitude {@inheritDoc}
+     * @param longitude {@inheritDoc}
+     * @param roll {@inheritDoc}
+     */
+    @Override
+    public void vmdCameraRotation(float latitude, float longitude, float roll){
+        float[] values = this.buffer.getFloatArray();
+        int base = this.currentIndex * FLOAT_STRIDE + ROT_OFFSET;
+        values[base    ] = latitude;
+        values[base + 1] = longitude;
+        values[base + 2] = roll;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param interpolation {@inheritDoc}
+     */
+    @Override
+    public void vmdCameraInterpolation(byte[] interpolation){
+        byte[] values = this.buffer.getByteArray();
+        System.arraycopy(interpolation, 0,
+                         values, this.currentIndex * BYTE_STRIDE,
+                         CameraTrack.INTERPOLATION_SIZE );
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param angle {@inheritDoc}
+     * @param hasPerspective {@inheritDoc}
+     */
+    @Override
+    public void vmdCameraProjection(int angle, boolean hasPerspective){
+        float[] values = this.buffer.getFloatArray();
+        values[this.currentIndex * FLOAT_STRIDE + ANGLE_OFFSET] = angle;
+
+        byte[] flags = this.buffer.getByteArray();
+        flags[this.currentIndex * BYTE_STRIDE + PERSPECTIVE_OFFSET] =
+                hasPerspective ? (byte) 1 : (byte) 0;
+
+        return;
+    }
+
+}
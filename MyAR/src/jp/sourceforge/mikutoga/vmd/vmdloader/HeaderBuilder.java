@@ -0,0 +1,69 @@
+/*
+ * building header information
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd.vmdloader;
+
+import jp.sourceforge.mikutoga.parser.vmd.VmdBasicHandler;
+import jp.sourceforge.mikutoga.vmd.VmdMotion;
+
+/**
+ * VMDファイルの基本情報の通知をパーサから受け取る。
+ */
+class HeaderBuilder implements VmdBasicHandler {
+
+    private final VmdMotion motion;
+    private boolean hasMoreData = false;
+
+    /**
+     * コンストラクタ。
+     * @param motion モーション
+     */
+    HeaderBuilder(VmdMotion motion){
+        super();
+        this.motion = motion;
+        return;
+    }
+
+    /**
+     * パース終了時に未読み込みのデータが残っていたか判定する。
+     * @return 未読み込みのデータが残っていればtrue
+     */
+    boolean hasMoreData(){
+        return this.hasMoreData;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void vmdParseStart(){
+        // NOTHING
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param hasMoreDataArg {@inheritDoc}
+     */
+    @Override
+    public void vmdParseEnd(boolean hasMoreDataArg){
+        this.hasMoreData = hasMoreDataArg;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param header {@inheritDoc}
+     * @param modelName {@inheritDoc}
+     */
+    @Override
+    public void vmdHeaderInfo(String header, String modelName){
+        this.motion.setModelName(modelName);
+        return;
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * key frame buffer
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd.vmdloader;
+
+import java.util.Arrays;
+
+/**
+ * パース中のキーフレームを出現順に溜め込む可変長バッファ。
+ * キーフレームあたり決まった数のfloat値とbyte値を保持する。
+ * パース終了後、フレーム番号順に並べ替えた配列を切り出す。
+ */
+class KeyFrameBuffer {
+
+    private static final int DEF_CAPACITY = 16;
+    private static final int FRAME_SHIFT = 32;
+    private static final long INDEX_MASK = 0xffffffffL;
+
+    private final int floatStride;
+    private final int byteStride;
+
+    private int[] frameArray;
+    private float[] floatArray;
+    private byte[] byteArray;
+    private int size = 0;
+
+    /**
+     * コンストラクタ。
+     * @param floatStride キーフレームあたりのfloat値の数
+     * @param byteStride キーフレームあたりのbyte値の数
+     */
+    KeyFrameBuffer(int floatStride, int byteStride){
+        this(floatStride, byteStride, DEF_CAPACITY);
+        return;
+    }
+
+    /**
+     * コンストラクタ。
+     * @param floatStride キーフレームあたりのfloat値の数
+     * @param byteStride キーフレームあたりのbyte値の数
+     * @param capacity 初期キーフレーム容量
+     */
+    KeyFrameBuffer(int floatStride, int byteStride, int capacity){
+        super();
+
+        int initSize = Math.max(1, capacity);
+
+        this.floatStride = floatStride;
+        this.byteStride = byteStride;
+        this.frameArray = new int[initSize];
+        this.floatArray = new float[initSize * floatStride];
+        this.byteArray = new byte[initSize * byteStride];
+
+        return;
+    }
+
+    /**
+     * キーフレームを一つ追加する。
+     * @param frameNo フレーム番号
+     * @return 追加されたキーフレームの格納順番号
+     */
+    int append(int frameNo){
+        if(this.size >= this.frameArray.length){
+            int newSize = this.frameArray.length * 2;
+            this.frameArray = Arrays.copyOf(this.frameArray, newSize);
+            this.floatArray =
+                    Arrays.copyOf(this.floatArray, newSize * this.floatStride);
+            this.byteArray =
+                    Arrays.copyOf(this.byteArray, newSize * this.byteStride);
+        }
+
+        int result = this.size++;
+        this.frameArray[result] = frameNo;
+
+        return result;
+    }
+
+    /**
+     * 格納済みキーフレーム数を返す。
+     * @return キーフレーム数
+     */
+    int size(){
+        return this.size;
+    }
+
+    /**
+     * float値の格納配列を返す。
+     * 格納順番号nの値は{@code n * floatStride}から始まる。
+     * 配列は{@link #append(int)}で置き換わることがある。
+     * @return float値の格納配列
+     */
+    float[] getFloatArray(){
+        return this.floatArray;
+    }
+
+    /**
+     * byte値の格納配列を返す。
+     * 格納順番号nの値は{@code n * byteStride}から始まる。
+     * 配列は{@link #append(int)}で置き換わることがある。
+     * @return byte値の格納配列
+     */
+    byte[] getByteArray(){
+        return this.byteArray;
+    }
+
+    /**
+     * フレーム番号順に並べた格納順番号の配列を返す。
+     * 同一フレーム番号のキーフレームが複数ある場合、後に格納されたものだけが残る。
+     * @return 格納順番号の配列
+     */
+    int[] sortedIndex(){
+        int num = this.size;
+
+        // 上位にフレーム番号、下位に格納順を詰めて一度に整列する
+        long[] keys = new long[num];
+        for(int idx = 0; idx < num; idx++){
+            long frame = this.frameArray[idx] & INDEX_MASK;
+            keys[idx] = (frame << FRAME_SHIFT) | idx;
+        }
+        Arrays.sort(keys);
+
+        int[] work = new int[num];
+        int count = 0;
+        for(int pt = 0; pt < num; pt++){
+            if(pt + 1 < num
+               && (keys[pt] >>> FRAME_SHIFT) == (keys[pt + 1] >>> FRAME_SHIFT)){
+                continue;
+            }
+            work[count++] = (int)(keys[pt] & INDEX_MASK);
+        }
+
+        int[] result;
+        if(count == num) result = work;
+        else             result = Arrays.copyOf(work, count);
+
+        return result;
+    }
+
+    /**
+     * 並べ替え済みのフレーム番号配列を切り出す。
+     * @param index {@link #sortedIndex()}の結果
+     * @return フレーム番号配列
+     */
+    int[] buildFrameArray(int[] index){
+        int[] result = new int[index.length];
+        for(int pt = 0; pt < index.length; pt++){
+            result[pt] = this.frameArray[index[pt]];
+        }
+        return result;
+    }
+
+    /**
+     * 並べ替え済みのfloat値配列を切り出す。
+     * @param index {@link #sortedIndex()}の結果
+     * @param from キーフレーム内の開始位置
+     * @param width キーフレームあたりの切り出し要素数
+     * @return float値配列
+     */
+    float[] buildFloatArray(int[] index, int from, int width){
+        float[] result = new float[index.length * width];
+        for(int pt = 0; pt < index.length; pt++){
+            System.arraycopy(this.floatArray,
+                             index[pt] * this.floatStride + from,
+                             result, pt * width, width );
+        }
+        return result;
+    }
+
+    /**
+     * 並べ替え済みのbyte値配列を切り出す。
+     * @param index {@link #sortedIndex()}の結果
+     * @param from キーフレーム内の開始位置
+     * @param width キーフレームあたりの切り出し要素数
+     * @return byte値配列
+     */
+    byte[] buildByteArray(int[] index, int from, int width){
+        byte[] result = new byte[index.length * width];
+        for(int pt = 0; pt < index.length; pt++){
+            System.arraycopy(this.byteArray,
+                             index[pt] * this.byteStride + from,
+                             result, pt * width, width );
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * building lighting motion
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd.vmdloader;
+
+import jp.sourceforge.mikutoga.parser.ParseStage;
+import jp.sourceforge.mikutoga.parser.vmd.VmdLightHandler;
+import jp.sourceforge.mikutoga.vmd.LightTrack;
+import jp.sourceforge.mikutoga.vmd.ShadowTrack;
+import jp.sourceforge.mikutoga.vmd.VmdMotion;
+
+/**
+ * 照明およびセルフシャドウ関係の通知をパーサから受け取る。
+ */
+class LightMotionBuilder implements VmdLightHandler {
+
+    private static final int COLOR_OFFSET = 0;
+    private static final int DIR_OFFSET = LightTrack.VECTOR_SIZE;
+    private static final int LIGHT_STRIDE = DIR_OFFSET + LightTrack.VECTOR_SIZE;
+
+    private final VmdMotion motion;
+
+    private KeyFrameBuffer lightBuffer;
+    private KeyFrameBuffer shadowBuffer;
+
+    /**
+     * コンストラクタ。
+     * @param motion モーション
+     */
+    LightMotionBuilder(VmdMotion motion){
+        super();
+        this.motion = motion;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param stage {@inheritDoc}
+     * @param loops {@inheritDoc}
+     */
+    @Override
+    public void loopStart(ParseStage stage, int loops){
+        assert stage instanceof VmdLightStage;
+
+        if(stage == VmdLightHandler.LIGHT_LIST){
+            this.lightBuffer = new KeyFrameBuffer(LIGHT_STRIDE, 0, loops);
+        }else if(stage == VmdLightHandler.SHADOW_LIST){
+            this.shadowBuffer = new KeyFrameBuffer(1, 1, loops);
+        }
+
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param stage {@inheritDoc}
+     */
+    @Override
+    public void loopNext(ParseStage stage){
+        assert stage instanceof VmdLightStage;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * キーフレーム列をモーションに登録する。
+     * @param stage {@inheritDoc}
+     */
+    @Override
+    public void loopEnd(ParseStage stage){
+        assert stage instanceof VmdLightStage;
+
+        if(stage == VmdLightHandler.LIGHT_LIST){
+            KeyFrameBuffer buf = this.lightBuffer;
+            int[] index = buf.sortedIndex();
+            LightTrack track = new LightTrack(
+                    buf.buildFrameArray(index),
+                    buf.buildFloatArray(index, COLOR_OFFSET,
+                                        LightTrack.VECTOR_SIZE),
+                    buf.buildFloatArray(index, DIR_OFFSET,
+                                        LightTrack.VECTOR_SIZE) );
+            this.motion.setLightTrack(track);
+            this.lightBuffer = null;
+        }else if(stage == VmdLightHandler.SHADOW_LIST){
+            KeyFrameBuffer buf = this.shadowBuffer;
+            int[] index = buf.sortedIndex();
+            ShadowTrack track = new ShadowTrack(
+                    buf.buildFrameArray(index),
+                    buf.buildByteArray(index, 0, 1),
+                    buf.buildFloatArray(index, 0, 1) );
+            this.motion.setShadowTrack(track);
+            this.shadowBuffer = null;
+        }
+
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param keyFrameNo {@inheritDoc}
+     * @param red {@inheritDoc}
+     * @param green {@inheritDoc}
+     * @param blue {@inheritDoc}
+     * @param xVec {@inheritDoc}
+     * @param yVec {@inheritDoc}
+     * @param zVec {@inheritDoc}
+     */
+    @Override
+    public void vmdLightMotion(int keyFrameNo,
+                               float red, float green, float blue,
+                               float xVec, float yVec, float zVec ){
+        int index = this.lightBuffer.append(keyFrameNo);
+
+        float[] values = this.lightBuffer.getFloatArray();
+        int base = index * LIGHT_STRIDE;
+        values[base + COLOR_OFFSET    ] = red;
+        values[base + COLOR_OFFSET + 1] = green;
+        values[base + COLOR_OFFSET + 2] = blue;
+        values[base + DIR_OFFSET      ] = xVec;
+        values[base + DIR_OFFSET   + 1] = yVec;
+        values[base + DIR_OFFSET   + 2] = zVec;
+
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param keyFrameNo {@inheritDoc}
+     * @param shadowMode {@inheritDoc}
+     * @param shadowScope {@inheritDoc}
+     */
+    @Override
+    public void vmdShadowMotion(int keyFrameNo,
+                                byte shadowMode, float shadowScope ){
+        int index = this.shadowBuffer.append(keyFrameNo);
+        this.shadowBuffer.getByteArray()[index] = shadowMode;
+        this.shadowBuffer.getFloatArray()[index] = shadowScope;
+        return;
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * building morph motion
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd.vmdloader;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jp.sourceforge.mikutoga.parser.ParseStage;
+import jp.sourceforge.mikutoga.parser.vmd.VmdMorphHandler;
+import jp.sourceforge.mikutoga.vmd.MorphTrack;
+import jp.sourceforge.mikutoga.vmd.VmdMotion;
+
+/**
+ * モーフモーション関係の通知をパーサから受け取る。
+ */
+class MorphMotionBuilder implements VmdMorphHandler {
+
+    private final VmdMotion motion;
+
+    private final Map<String, KeyFrameBuffer> bufferMap =
+            new LinkedHashMap<String, KeyFrameBuffer>();
+
+    /**
+     * コンストラクタ。
+     * @param motion モーション
+     */
+    MorphMotionBuilder(VmdMotion motion){
+        super();
+        this.motion = motion;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param stage {@inheritDoc}
+     * @param loops {@inheritDoc}
+     */
+    @Override
+    public void loopStart(ParseStage stage, int loops){
+        assert stage instanceof VmdMorphStage;
+        this.bufferMap.clear();
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param stage {@inheritDoc}
+     */
+    @Override
+    public void loopNext(ParseStage stage){
+        assert stage instanceof VmdMorphStage;
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * モーフ毎のキーフレーム列をモーションに登録する。
+     * @param stage {@inheritDoc}
+     */
+    @Override
+    public void loopEnd(ParseStage stage){
+        assert stage instanceof VmdMorphStage;
+
+        for(Map.Entry<String, KeyFrameBuffer> entry
+                : this.bufferMap.entrySet()){
+            String morphName = entry.getKey();
+            KeyFrameBuffer buffer = entry.getValue();
+
+            int[] index = buffer.sortedIndex();
+            MorphTrack track = new MorphTrack(
+                    morphName,
+                    buffer.buildFrameArray(index),
+                    buffer.buildFloatArray(index, 0, 1) );
+            this.motion.addMorphTrack(track);
+        }
+
+        this.bufferMap.clear();
+
+        return;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param morphName {@inheritDoc}
+     * @param keyFrameNo {@inheritDoc}
+     * @param flex {@inheritDoc}
+     */
+    @Override
+    public void vmdMorphMotion(String morphName, int keyFrameNo, float flex){
+        KeyFrameBuffer buffer = this.bufferMap.get(morphName);
+        if(buffer == null){
+            buffer = new KeyFrameBuffer(1, 0);
+            this.bufferMap.put(morphName, buffer);
+        }
+
+        int index = buffer.append(keyFrameNo);
+        buffer.getFloatArray()[index] = flex;
+
+        return;
+    }
+
+}
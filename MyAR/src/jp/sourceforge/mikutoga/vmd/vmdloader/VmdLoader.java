@@ -0,0 +1,105 @@
+/*
+ * VMD file loader
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+package jp.sourceforge.mikutoga.vmd.vmdloader;
+
+import java.io.IOException;
+import jp.sourceforge.mikutoga.parser.MmdFormatException;
+import jp.sourceforge.mikutoga.parser.MmdSource;
+import jp.sourceforge.mikutoga.parser.vmd.VmdParser;
+import jp.sourceforge.mikutoga.vmd.VmdMotion;
+
+/**
+ * VMDモーションファイルを読み込むためのローダ。
+ * キーフレーム毎のオブジェクトは生成せず、
+ * トラック毎のプリミティブ配列を構築する。
+ */
+public class VmdLoader {
+
+    private VmdMotion motion;
+    private VmdParser parser;
+    private HeaderBuilder headerBuilder;
+
+    private boolean loaded = false;
+    private boolean hasMoreData = false;
+
+    /**
+     * コンストラクタ。
+     * @param source VMDファイル入力ソース
+     */
+    public VmdLoader(MmdSource source){
+        super();
+
+        this.motion = new VmdMotion();
+        this.parser = new VmdParser(source);
+        this.headerBuilder = new HeaderBuilder(this.motion);
+
+        setHandler();
+
+        return;
+    }
+
+    /**
+     * パーサに各種ハンドラの設定を行う。
+     */
+    private void setHandler(){
+        BoneMotionBuilder   boneBuilder   = new BoneMotionBuilder(this.motion);
+        MorphMotionBuilder  morphBuilder  = new MorphMotionBuilder(this.motion);
+        CameraMotionBuilder cameraBuilder =
+                new CameraMotionBuilder(this.motion);
+        LightMotionBuilder  lightBuilder  = new LightMotionBuilder(this.motion);
+
+        this.parser.setBasicHandler(this.headerBuilder);
+        this.parser.setBoneHandler(boneBuilder);
+        this.parser.setMorphHandler(morphBuilder);
+        this.parser.setCameraHandler(cameraBuilder);
+        this.parser.setLightHandler(lightBuilder);
+
+        return;
+    }
+
+    /**
+     * VMDファイルの読み込みを行いモーション情報を返す。
+     * 1インスタンスにつき一度しかロードできない。
+     * @return モーション情報
+     * @throws IOException 入力エラー
+     * @throws MmdFormatException VMDファイルフォーマットの異常を検出
+     * @throws IllegalStateException このインスタンスで再度のロードを試みた。
+     */
+    public VmdMotion load()
+            throws IOException,
+                   MmdFormatException,
+                   IllegalStateException {
+        if(this.loaded) throw new IllegalStateException();
+
+        VmdMotion result;
+        try{
+            this.parser.parseVmd();
+        }finally{
+            this.loaded = true;
+
+            result = this.motion;
+            this.hasMoreData = this.headerBuilder.hasMoreData();
+
+            this.motion = null;
+            this.parser = null;
+            this.headerBuilder = null;
+        }
+
+        return result;
+    }
+
+    /**
+     * ロード処理が正常終了したのにまだ読み込んでいない部分が放置されているか判定する。
+     * IK表示情報など、未対応の拡張部分が存在する場合を想定。
+     * @return 読み込んでいない部分があればtrue
+     */
+    public boolean hasMoreData(){
+        return this.hasMoreData;
+    }
+
+}
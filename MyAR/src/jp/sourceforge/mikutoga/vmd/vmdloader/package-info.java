@@ -0,0 +1,15 @@
+/*
+ * package information for Javadoc
+ *
+ * License : The MIT License
+ * Copyright(c) 2010 MikuToga Partners
+ */
+
+/**
+ * VMDモーションファイルをパースし、
+ * 内容を反映したキーフレーム列を構築するためのライブラリ。
+ */
+
+package jp.sourceforge.mikutoga.vmd.vmdloader;
+
+/* EOF */
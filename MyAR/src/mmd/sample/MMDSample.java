@@ -3,15 +3,15 @@ package mmd.sample;
 import java.awt.Frame;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.Arrays;
  
-import javax.imageio.ImageIO;
 import javax.media.opengl.GL;
 import javax.media.opengl.GLAutoDrawable;
 import javax.media.opengl.GLEventListener;
@@ -22,7 +22,17 @@ import jp.sourceforge.mikutoga.pmd.Material;
 import jp.sourceforge.mikutoga.pmd.PmdModel;
 import jp.sourceforge.mikutoga.pmd.Surface;
 import jp.sourceforge.mikutoga.pmd.Vertex;
+import jp.sourceforge.mikutoga.pmd.mesh.PmdMesh;
+import jp.sourceforge.mikutoga.pmd.mesh.PmdMeshCompiler;
+import jp.sourceforge.mikutoga.pmd.physics.PhysicsWorld;
 import jp.sourceforge.mikutoga.pmd.pmdloader.PmdLoader;
+import jp.sourceforge.mikutoga.pmd.pose.BonePose;
+import jp.sourceforge.mikutoga.pmd.pose.IKSolver;
+import jp.sourceforge.mikutoga.pmd.pose.MorphEngine;
+import jp.sourceforge.mikutoga.pmd.pose.Skeleton;
+import jp.sourceforge.mikutoga.pmd.pose.SkinningEngine;
+import mmd.texture.TextureCache;
+import mmd.texture.TextureFileCache;
 
 import com.sun.opengl.util.GLUT;
  
@@ -32,7 +42,25 @@ public class MMDSample implements GLEventListener {
     private GLUT glut;
     
     private PmdModel model;
+    // 姿勢とモーフとスキニング
+    private BonePose pose;
+    private IKSolver ik;
+    private PhysicsWorld physics;
+    private long lastTime = 0;
+    private MorphEngine morph;
+    private SkinningEngine skinning;
+    // 最後にスキニングした時のスキニング行列
+    private float[] lastSkin;
+    private boolean isSkinned = false;
+    // 描画用の頂点・インデックス
+    private PmdMesh mesh;
+    // 変形する位置・法線と、変形しないUVは別のバッファに置く
+    private FloatBuffer vertexBuffer;
+    private int[] hBuffers;
     private int[] hTextures;
+    private TextureCache textureCache = new TextureCache();
+    // 1フレームで転送するテクスチャの最大枚数
+    private static final int UPLOADS_PER_FRAME = 2;
     private String filedir = "/Users/core_aoi/Downloads/imas_miku/imas_miku/";
     private String pmdfile = "imas_miku.pmd";
     
@@ -66,11 +94,23 @@ public class MMDSample implements GLEventListener {
 			PmdLoader loader = new PmdLoader(new MmdSource(is));
 			model = loader.load();
 			System.out.println(model.getSurfaceList().get(0));
+			Skeleton skeleton = new Skeleton(model);
+			pose = new BonePose(skeleton);
+			ik = new IKSolver(model, skeleton);
+			physics = new PhysicsWorld(model, skeleton);
+			physics.reset(pose);
+			mesh = PmdMeshCompiler.compile(model);
+			// 出力は位置と法線だけを交互に並べた形式
+			skinning = new SkinningEngine(model, skeleton);
+			lastSkin = new float[pose.getSkinArray().length];
+			morph = new MorphEngine(model);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		// テクスチャの初期化
 		initTexture();
+		// 頂点バッファの初期化
+		initMesh();
     }
  
     public void reshape(GLAutoDrawable drawable,
@@ -156,105 +196,129 @@ public class MMDSample implements GLEventListener {
     	
     }
     private void drawTexture(){
-        double size = model.getMaterialList().size();
+        // デコードの終わったテクスチャを少しずつ転送
+        textureCache.uploadPending(gl, UPLOADS_PER_FRAME);
+
+        // 姿勢を計算
+        pose.updateWorld();
+        ik.solve(pose);
+        long now = System.nanoTime();
+        float elapsed = lastTime == 0 ? 0.0f : (now - lastTime) / 1.0e9f;
+        lastTime = now;
+        physics.step(elapsed, pose);
+
+        // スキニング行列も表情のウェイトも前回から変わっていなければ、
+        // 表情・スキニング・転送を省いて前回の頂点バッファで描く
+        float[] skin = pose.getSkinArray();
+        boolean isPoseChanged = !isSkinned || !Arrays.equals(skin, lastSkin);
+        boolean isMorphChanged = morph.isWeightChanged();
+        if(isPoseChanged || isMorphChanged){
+            if(isMorphChanged){
+                morph.apply(skinning.getRestPositionArray(),
+                            skinning.getSourcePositionArray());
+            }
+            skinning.skin(pose);
+            System.arraycopy(skin, 0, lastSkin, 0, skin.length);
+            isSkinned = true;
+
+            // 変形後の位置と法線だけを転送し直す。UVは別のバッファに最初に転送したまま
+            vertexBuffer.clear();
+            skinning.writeTo(vertexBuffer);
+            vertexBuffer.rewind();
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, hBuffers[0]);
+            gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0,
+                    vertexBuffer.capacity() * 4, vertexBuffer);
+        }
+
+        int vertexBytes = skinning.getStride() * 4;
+        gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GL.GL_NORMAL_ARRAY);
+        gl.glEnableClientState(GL.GL_TEXTURE_COORD_ARRAY);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, hBuffers[0]);
+        gl.glVertexPointer(3, GL.GL_FLOAT, vertexBytes, 0);
+        gl.glNormalPointer(GL.GL_FLOAT, vertexBytes, 3 * 4);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, hBuffers[2]);
+        gl.glTexCoordPointer(2, GL.GL_FLOAT, 0, 0);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, hBuffers[1]);
+
+        int indexType = mesh.isShortIndex() ? GL.GL_UNSIGNED_SHORT
+                                            : GL.GL_UNSIGNED_INT;
+        int indexBytes = mesh.getIndexBytes();
+
+        // 材質ごとに一回の描画
+        int size = mesh.getMaterialCount();
         for(int i=0; i<size; i++){
-        	if(hTextures[i] == -1)continue;
-        	// material
-        	Material material = model.getMaterialList().get(i);
-        	// texture
+        	if(hTextures[i] == TextureCache.NO_TEXTURE)continue;
             gl.glEnable(GL.GL_TEXTURE_2D | GL.GL_DEPTH_TEST);
             gl.glBindTexture(GL.GL_TEXTURE_2D, hTextures[i]);
-            gl.glBegin(GL.GL_TRIANGLES);
-        	
-        	//gl.glColor4d(i/size, 0.5, 0.5, 0);
-        	for(int j=0; j<material.getSurfaceList().size(); j++){
-	        	Surface surface = material.getSurfaceList().get(j);
-	        	Vertex[] vertexs = {surface.getVertex1(),surface.getVertex2(),surface.getVertex3()};
-	        	for(Vertex v : vertexs){
-	        		// 頂点の向きを指定
-	        		gl.glNormal3d(v.getNormal().getXVal(), 
-	        				v.getNormal().getYVal(), 
-	        				v.getNormal().getZVal());
-	        		// テクスチャの対応点
-	        		gl.glTexCoord2d(v.getUVPosition().getXPos(), 
-	        				v.getUVPosition().getYPos());
-	        		// 描画空間上の頂点位置
-	        		gl.glVertex3d(v.getPosition().getXPos(),
-	        				v.getPosition().getYPos(), 
-	        				v.getPosition().getZPos());
-	        	}
-        	}
-            gl.glEnd();
+            gl.glDrawElements(GL.GL_TRIANGLES, mesh.getIndexCount(i),
+                    indexType, (long)mesh.getIndexStart(i) * indexBytes);
             gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
             gl.glDisable(GL.GL_TEXTURE_2D);
         }
+
+        gl.glDisableClientState(GL.GL_TEXTURE_COORD_ARRAY);
+        gl.glDisableClientState(GL.GL_NORMAL_ARRAY);
+        gl.glDisableClientState(GL.GL_VERTEX_ARRAY);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+    }
+    private void initMesh(){
+        // 頂点とインデックスをバッファオブジェクトへ転送
+        hBuffers = new int[3];
+        gl.glGenBuffers(3, hBuffers, 0);
+
+        // 位置・法線は最初の描画でスキニング結果に書き換える
+        int vertexCount = mesh.getVertexCount();
+        vertexBuffer = ByteBuffer
+                .allocateDirect(vertexCount * skinning.getStride() * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, hBuffers[0]);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, vertexBuffer.capacity() * 4,
+                vertexBuffer, GL.GL_DYNAMIC_DRAW);
+
+        // UVは変形しないので一度だけ転送する
+        float[] vertexArray = mesh.getVertexArray();
+        FloatBuffer uvBuffer = ByteBuffer
+                .allocateDirect(vertexCount * 2 * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        for(int i=0; i<vertexCount; i++){
+            int vi = i * PmdMesh.STRIDE + PmdMesh.UV_OFFSET;
+            uvBuffer.put(vertexArray[vi]);
+            uvBuffer.put(vertexArray[vi + 1]);
+        }
+        uvBuffer.rewind();
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, hBuffers[2]);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, vertexCount * 2 * 4,
+                uvBuffer, GL.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, hBuffers[1]);
+        gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER,
+                mesh.getIndexCount() * mesh.getIndexBytes(),
+                mesh.getIndexBuffer(), GL.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
     }
     private void initTexture(){
     	int size = model.getMaterialList().size();
-    	hTextures = new int[size];
-    	
-    	// テクスチャを1枚生成する
-    	gl.glGenTextures(size, hTextures, 0);
-    	
-    	gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 4);
-    	
+    	File[] files = new File[size];
     	for(int i=0; i<size; i++){
-	    	try {
-	    		// material
-	    		Material m = model.getMaterialList().get(i);
-		    	// イメージの作成
-				System.out.println(m.getShadeInfo().getTextureFileName());
-				System.out.println(m.getShadeInfo().getToonFileName());
-				String filename = m.getShadeInfo().getTextureFileName();
-				if(m.getShadeInfo().getTextureFileName().equals(""))
-					filename = m.getShadeInfo().getToonFileName();
-		    	BufferedImage image;
-					image = ImageIO.read(new File(filedir + filename));
-				// ピクセルを入れる配列の初期化
-		    	int[] pixels;
-		    	if(image.getType() == BufferedImage.TYPE_3BYTE_BGR)
-		    		pixels = new int[image.getWidth()*image.getHeight()];
-		    	else
-		    		pixels = new int[image.getWidth()*image.getHeight()];
-		    	// ピクセルの取得
-		    	pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), pixels, 0, image.getWidth());
-		    	// RGBA byte配列に変換
-		    	byte[] rgba = new byte[image.getWidth()*image.getHeight()*4];
-		    	for(int j=0,count=0; j<pixels.length; j++){
-		    		rgba[count++] = (byte)((pixels[j] >> (8*2)) & 0xFF);
-		    		rgba[count++] = (byte)((pixels[j] >> (8*1)) & 0xFF);
-		    		rgba[count++] = (byte)((pixels[j] >> (8*0)) & 0xFF);
-		    		rgba[count++] = (byte)128;
-		    	}
-		    	// バッファの作成
-		    	ByteBuffer buffer = ByteBuffer.wrap(rgba); 
-		    	
-		    	// hTextures[i]の設定をここから行うという宣言
-		    	gl.glBindTexture(GL.GL_TEXTURE_2D, hTextures[i]);
-		    	
-		    	// ピクセル形式の指定
-		    	gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 4);
-
-		    	// VRAMにイメージを転送
-				gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA,
-						image.getWidth(), image.getHeight(), 0, GL.GL_RGBA,
-						GL.GL_UNSIGNED_BYTE, buffer);
-				
-				// テクスチャマッピング方式。とりあえず繰り返し
-				gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP);
-				gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP);
-				// 補完フィルタ設定
-				gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_NEAREST);
-				gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST);
-				// ポリゴンカラーとの混色設定
-				gl.glTexEnvi(GL.GL_TEXTURE_ENV, GL.GL_TEXTURE_ENV_MODE, GL.GL_MODULATE);
-				
-				// hTextureの設定終了
-				gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
-			} catch (IOException e) {
-				System.out.println("image cannot load!");
-				hTextures[i] = -1;
-			}
+    		// material
+    		Material m = model.getMaterialList().get(i);
+			String filename = m.getShadeInfo().getTextureFileName();
+			if(filename.equals(""))
+				filename = m.getShadeInfo().getToonFileName();
+			files[i] = new File(filedir + filename);
     	}
+    	// ミップマップを作り、使えるならDXTに圧縮する。変換結果は次回のために保存
+    	textureCache.setMipmap(true);
+    	textureCache.setCompress(
+    			gl.isExtensionAvailable("GL_EXT_texture_compression_s3tc"));
+    	textureCache.setFileCache(new TextureFileCache(new File(filedir, ".texcache")));
+    	// 同じ画像を使う材質はテクスチャを共有する
+    	// 読み込みは裏で行い、終わるまでは白いテクスチャで描く
+    	hTextures = textureCache.request(gl, files);
     }
 }
\ No newline at end of file
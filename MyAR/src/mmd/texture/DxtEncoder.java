@@ -0,0 +1,194 @@
+package mmd.texture;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * RGBAテクスチャをDXT1/DXT5(S3TC)に圧縮する。
+ * 4x4画素のブロック毎に、色の範囲の両端を代表色にとる簡易な方法で符号化する。
+ * 画質より速さを優先しているので、読み込み時に毎回行ってもよい。
+ */
+public class DxtEncoder {
+
+    private DxtEncoder() {
+    }
+
+    /**
+     * 全レベルを圧縮する。
+     * 不透明な画像はDXT1、アルファのある画像はDXT5になる。
+     * @param rgba RGBAテクスチャ
+     * @return 圧縮したテクスチャ
+     */
+    public static TextureData compress(TextureData rgba) {
+        if (rgba.isCompressed()) {
+            return rgba;
+        }
+        int format = isOpaque(rgba.getLevel(0))
+                ? TextureData.FORMAT_DXT1 : TextureData.FORMAT_DXT5;
+        return compress(rgba, format);
+    }
+
+    /**
+     * 全レベルを指定した形式で圧縮する。
+     * @param rgba RGBAテクスチャ
+     * @param format FORMAT_DXT1かFORMAT_DXT5
+     * @return 圧縮したテクスチャ
+     */
+    public static TextureData compress(TextureData rgba, int format) {
+        int count = rgba.getLevelCount();
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        ByteBuffer[] levels = new ByteBuffer[count];
+        for (int level = 0; level < count; level++) {
+            int w = rgba.getWidth(level);
+            int h = rgba.getHeight(level);
+            widths[level] = w;
+            heights[level] = h;
+            levels[level] = compressLevel(rgba.getLevel(level), w, h, format);
+        }
+        return new TextureData(format, widths, heights, levels);
+    }
+
+    private static boolean isOpaque(ByteBuffer pixels) {
+        for (int i = 3; i < pixels.limit(); i += 4) {
+            if (pixels.get(i) != (byte) 0xff) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer compressLevel(ByteBuffer pixels, int w, int h,
+            int format) {
+        int[] src = new int[w * h];
+        pixels.duplicate().order(ByteOrder.BIG_ENDIAN).asIntBuffer().get(src);
+
+        ByteBuffer out = ByteBuffer.allocateDirect(
+                TextureData.levelSize(format, w, h))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        int[] block = new int[16];
+        for (int by = 0; by < h; by += 4) {
+            for (int bx = 0; bx < w; bx += 4) {
+                // 端のブロックは最後の行と列を繰り返して埋める
+                for (int i = 0; i < 16; i++) {
+                    int x = Math.min(bx + (i & 3), w - 1);
+                    int y = Math.min(by + (i >> 2), h - 1);
+                    block[i] = src[y * w + x];
+                }
+                if (format == TextureData.FORMAT_DXT5) {
+                    encodeAlpha(block, out);
+                }
+                encodeColor(block, out);
+            }
+        }
+        out.rewind();
+        return out.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * 色ブロックを書く。常に4色モード(color0 > color1)で符号化する。
+     */
+    private static void encodeColor(int[] block, ByteBuffer out) {
+        int minR = 255, minG = 255, minB = 255;
+        int maxR = 0, maxG = 0, maxB = 0;
+        for (int p : block) {
+            int r = p >>> 24, g = (p >>> 16) & 0xff, b = (p >>> 8) & 0xff;
+            minR = Math.min(minR, r); maxR = Math.max(maxR, r);
+            minG = Math.min(minG, g); maxG = Math.max(maxG, g);
+            minB = Math.min(minB, b); maxB = Math.max(maxB, b);
+        }
+        // 両端を少し内側に寄せると誤差が減る
+        int insetR = (maxR - minR) >> 4;
+        int insetG = (maxG - minG) >> 4;
+        int insetB = (maxB - minB) >> 4;
+        int c0 = to565(maxR - insetR, maxG - insetG, maxB - insetB);
+        int c1 = to565(minR + insetR, minG + insetG, minB + insetB);
+        if (c0 < c1) {
+            int t = c0; c0 = c1; c1 = t;
+        }
+
+        int indices = 0;
+        if (c0 != c1) {
+            int[] palette = new int[12];
+            expand565(c0, palette, 0);
+            expand565(c1, palette, 3);
+            for (int k = 0; k < 3; k++) {
+                palette[6 + k] = (2 * palette[k] + palette[3 + k]) / 3;
+                palette[9 + k] = (palette[k] + 2 * palette[3 + k]) / 3;
+            }
+            for (int i = 0; i < 16; i++) {
+                int p = block[i];
+                int r = p >>> 24, g = (p >>> 16) & 0xff, b = (p >>> 8) & 0xff;
+                int best = 0;
+                int bestDist = Integer.MAX_VALUE;
+                for (int c = 0; c < 4; c++) {
+                    int dr = r - palette[c * 3];
+                    int dg = g - palette[c * 3 + 1];
+                    int db = b - palette[c * 3 + 2];
+                    int dist = dr * dr + dg * dg + db * db;
+                    if (dist < bestDist) {
+                        bestDist = dist;
+                        best = c;
+                    }
+                }
+                indices |= best << (2 * i);
+            }
+        }
+        out.putShort((short) c0);
+        out.putShort((short) c1);
+        out.putInt(indices);
+    }
+
+    /**
+     * DXT5のアルファブロックを書く。常に8段階モード(alpha0 > alpha1)で符号化する。
+     */
+    private static void encodeAlpha(int[] block, ByteBuffer out) {
+        int min = 255, max = 0;
+        for (int p : block) {
+            int a = p & 0xff;
+            min = Math.min(min, a);
+            max = Math.max(max, a);
+        }
+
+        long indices = 0;
+        if (max != min) {
+            int[] palette = new int[8];
+            palette[0] = max;
+            palette[1] = min;
+            for (int k = 2; k < 8; k++) {
+                palette[k] = ((8 - k) * max + (k - 1) * min) / 7;
+            }
+            for (int i = 0; i < 16; i++) {
+                int a = block[i] & 0xff;
+                int best = 0;
+                int bestDist = Integer.MAX_VALUE;
+                for (int c = 0; c < 8; c++) {
+                    int dist = Math.abs(a - palette[c]);
+                    if (dist < bestDist) {
+                        bestDist = dist;
+                        best = c;
+                    }
+                }
+                indices |= (long) best << (3 * i);
+            }
+        }
+        out.put((byte) max);
+        out.put((byte) min);
+        for (int i = 0; i < 6; i++) {
+            out.put((byte) (indices >>> (8 * i)));
+        }
+    }
+
+    private static int to565(int r, int g, int b) {
+        return ((r >> 3) << 11) | ((g >> 2) << 5) | (b >> 3);
+    }
+
+    private static void expand565(int c, int[] rgb, int offset) {
+        int r = (c >> 11) & 0x1f;
+        int g = (c >> 5) & 0x3f;
+        int b = c & 0x1f;
+        rgb[offset] = (r << 3) | (r >> 2);
+        rgb[offset + 1] = (g << 2) | (g >> 4);
+        rgb[offset + 2] = (b << 3) | (b >> 2);
+    }
+}
@@ -0,0 +1,161 @@
+package mmd.texture;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * RGBA画像からミップマップを作る。
+ * 画素はRGBAの順に詰めたintで扱い、2x2画素の箱フィルタで縮小する。
+ * 各レベルは行ごとに分けてスレッドプールで並列に計算できる。
+ */
+public class MipmapBuilder {
+
+    /** これより画素数の少ないレベルは分割せずに計算する。 */
+    private static final int PARALLEL_THRESHOLD = 128 * 128;
+
+    private MipmapBuilder() {
+    }
+
+    /**
+     * 1x1になるまでのミップマップを作る。
+     * @param image 元画像
+     * @return レベル0が元画像のRGBAテクスチャ
+     */
+    public static TextureData build(TextureImage image) {
+        return build(image, null, 1);
+    }
+
+    /**
+     * 1x1になるまでのミップマップを作る。
+     * 大きいレベルは行範囲を分割してスレッドプール上で計算する。
+     * プールのスレッドからは呼ばないこと。
+     * @param image 元画像
+     * @param pool スレッドプール。nullなら呼び出したスレッドで計算する
+     * @param partitions 分割数
+     * @return レベル0が元画像のRGBAテクスチャ
+     */
+    public static TextureData build(TextureImage image, ExecutorService pool,
+            int partitions) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int count = levelCount(w, h);
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        ByteBuffer[] levels = new ByteBuffer[count];
+
+        int[] src = new int[w * h];
+        image.getPixels().duplicate().order(ByteOrder.BIG_ENDIAN)
+                .asIntBuffer().get(src);
+        widths[0] = w;
+        heights[0] = h;
+        levels[0] = image.getPixels();
+
+        for (int level = 1; level < count; level++) {
+            int dw = Math.max(1, w >> 1);
+            int dh = Math.max(1, h >> 1);
+            int[] dst = new int[dw * dh];
+            if (pool == null || partitions <= 1 || dw * dh < PARALLEL_THRESHOLD) {
+                downsample(src, w, h, dst, dw, 0, dh);
+            } else {
+                downsampleParallel(src, w, h, dst, dw, dh, pool, partitions);
+            }
+            widths[level] = dw;
+            heights[level] = dh;
+            levels[level] = toBuffer(dst);
+            src = dst;
+            w = dw;
+            h = dh;
+        }
+        return new TextureData(TextureData.FORMAT_RGBA, widths, heights, levels);
+    }
+
+    /**
+     * 1x1までのレベル数を求める。
+     * @param width 幅
+     * @param height 高さ
+     * @return レベル数
+     */
+    public static int levelCount(int width, int height) {
+        int count = 1;
+        while (width > 1 || height > 1) {
+            width = Math.max(1, width >> 1);
+            height = Math.max(1, height >> 1);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 詰めたRGBAをバイト列に戻す。
+     * @param pixels 画素
+     * @return ネイティブオーダーのダイレクトバッファ
+     */
+    static ByteBuffer toBuffer(int[] pixels) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(pixels.length * 4);
+        // intはRGBAの順に並べたいのでビッグエンディアンで書く
+        buffer.asIntBuffer().put(pixels);
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
+    private static void downsampleParallel(final int[] src, final int w,
+            final int h, final int[] dst, final int dw, int dh,
+            ExecutorService pool, int partitions) {
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int part = 0; part < partitions; part++) {
+            final int from = (int) ((long) dh * part / partitions);
+            final int to = (int) ((long) dh * (part + 1) / partitions);
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    downsample(src, w, h, dst, dw, from, to);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Object> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 2x2画素を平均して縮小する。縮小先の行範囲だけを計算する。
+     * RとB、GとAをそれぞれ16bitずつの組にして同時に足し合わせる。
+     * 幅か高さが1のときは端の画素を重ねて使う。
+     */
+    private static void downsample(int[] src, int w, int h, int[] dst, int dw,
+            int fromRow, int toRow) {
+        for (int y = fromRow; y < toRow; y++) {
+            int row0 = Math.min(2 * y, h - 1) * w;
+            int row1 = Math.min(2 * y + 1, h - 1) * w;
+            int out = y * dw;
+            for (int x = 0; x < dw; x++) {
+                int x0 = Math.min(2 * x, w - 1);
+                int x1 = Math.min(2 * x + 1, w - 1);
+                int p0 = src[row0 + x0];
+                int p1 = src[row0 + x1];
+                int p2 = src[row1 + x0];
+                int p3 = src[row1 + x1];
+
+                int even = (p0 & 0x00ff00ff) + (p1 & 0x00ff00ff)
+                        + (p2 & 0x00ff00ff) + (p3 & 0x00ff00ff) + 0x00020002;
+                int odd = ((p0 >>> 8) & 0x00ff00ff) + ((p1 >>> 8) & 0x00ff00ff)
+                        + ((p2 >>> 8) & 0x00ff00ff) + ((p3 >>> 8) & 0x00ff00ff)
+                        + 0x00020002;
+                dst[out + x] = ((even >>> 2) & 0x00ff00ff)
+                        | (((odd >>> 2) & 0x00ff00ff) << 8);
+            }
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package mmd.texture;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.nio.ByteBuffer;
+
+import javax.media.opengl.GL;
+
+/**
+ * ファイルパスをキーにしたテクスチャのキャッシュ。
+ * 同じ画像を使う材質やモデルの間でGLのテクスチャ名を共有し、
+ * 参照数が0になったときに解放する。
+ * 画像のデコードはファイル単位で並列に行うが、
+ * GLを呼ぶメソッドはすべてGLスレッドから呼ばなければならない。
+ * requestで非同期に読み込む場合は、毎フレームuploadPendingを呼んで
+ * デコードの終わった画像を少しずつ転送する。
+ */
+public class TextureCache {
+
+    /** テクスチャが無いことを示すテクスチャ名。 */
+    public static final int NO_TEXTURE = 0;
+
+    /** 非同期読み込み中のテクスチャに貼っておく1x1の白。 */
+    private static final TextureData PLACEHOLDER = new TextureData(
+            new TextureImage(1, 1, (ByteBuffer) ByteBuffer.allocateDirect(4)
+                    .put(new byte[] { -1, -1, -1, -1 }).rewind()));
+
+    private static class Entry {
+        final String key;
+        final int name;
+        int refCount = 0;
+
+        Entry(String key, int name) {
+            this.key = key;
+            this.name = name;
+        }
+    }
+
+    private final Map<String, Entry> keyMap = new HashMap<String, Entry>();
+    private final Map<Integer, Entry> nameMap = new HashMap<Integer, Entry>();
+
+    /** ワーカーがデコードを終えた画像。GLスレッドが取り出して転送する。 */
+    private final Queue<Decoded> completed = new ConcurrentLinkedQueue<Decoded>();
+    private int loadingCount = 0;
+
+    private static class Decoded {
+        final Entry entry;
+        final TextureData image;
+
+        Decoded(Entry entry, TextureData image) {
+            this.entry = entry;
+            this.image = image;
+        }
+    }
+
+    private final ExecutorService decodePool;
+    private final boolean ownPool;
+
+    private boolean mipmap = true;
+    private boolean compress = false;
+    private TextureFileCache fileCache = null;
+
+    /**
+     * CPU数のスレッドでデコードするキャッシュを作る。
+     */
+    public TextureCache() {
+        this(Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors()), true);
+    }
+
+    /**
+     * 指定したスレッドプールでデコードするキャッシュを作る。
+     * @param pool デコードに使うスレッドプール。dispose()では停止されない
+     */
+    public TextureCache(ExecutorService pool) {
+        this(pool, false);
+    }
+
+    private TextureCache(ExecutorService pool, boolean own) {
+        decodePool = pool;
+        ownPool = own;
+    }
+
+    /**
+     * キャッシュのキーとなるパスを求める。
+     * @param file 画像ファイル
+     * @return 正規化したパス
+     */
+    public static String keyOf(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * 画像一枚のテクスチャを得る。参照数が1増える。
+     * @param gl GL
+     * @param file 画像ファイル
+     * @return テクスチャ名。読み込めなければNO_TEXTURE
+     */
+    public int acquire(GL gl, File file) {
+        return acquire(gl, new File[] { file })[0];
+    }
+
+    /**
+     * 複数の画像のテクスチャをまとめて得る。
+     * キャッシュに無い画像は重複を除いて並列にデコードされる。
+     * 得られたテクスチャ毎に参照数が1増える。
+     * @param gl GL
+     * @param files 画像ファイル。nullの要素はNO_TEXTUREになる
+     * @return ファイル毎のテクスチャ名。読み込めなかったものはNO_TEXTURE
+     */
+    public int[] acquire(GL gl, File[] files) {
+        String[] keys = new String[files.length];
+        Map<String, Future<TextureData>> pending =
+                new HashMap<String, Future<TextureData>>();
+
+        for (int i = 0; i < files.length; i++) {
+            if (files[i] == null) {
+                continue;
+            }
+            final File file = files[i];
+            keys[i] = keyOf(file);
+            if (keyMap.containsKey(keys[i]) || pending.containsKey(keys[i])) {
+                continue;
+            }
+            pending.put(keys[i], decodePool.submit(new Callable<TextureData>() {
+                public TextureData call() throws IOException {
+                    return load(file);
+                }
+            }));
+        }
+
+        // デコードが終わったものから転送する
+        for (Map.Entry<String, Future<TextureData>> item : pending.entrySet()) {
+            TextureData image;
+            try {
+                image = item.getValue().get();
+            } catch (ExecutionException e) {
+                System.err.println("image cannot load : " + item.getKey());
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            register(item.getKey(), upload(gl, image));
+        }
+
+        int[] result = new int[files.length];
+        for (int i = 0; i < files.length; i++) {
+            Entry entry = keys[i] == null ? null : keyMap.get(keys[i]);
+            if (entry == null) {
+                result[i] = NO_TEXTURE;
+                continue;
+            }
+            entry.refCount++;
+            result[i] = entry.name;
+        }
+        return result;
+    }
+
+    /**
+     * 複数の画像のテクスチャを非同期に得る。
+     * テクスチャ名はすぐに返るが、中身はデコードが終わるまで1x1の白になる。
+     * デコードはスレッドプールで行い、転送はuploadPendingで行う。
+     * 得られたテクスチャ毎に参照数が1増える。
+     * @param gl GL
+     * @param files 画像ファイル。nullの要素はNO_TEXTUREになる
+     * @return ファイル毎のテクスチャ名
+     */
+    public int[] request(GL gl, File[] files) {
+        int[] result = new int[files.length];
+        for (int i = 0; i < files.length; i++) {
+            if (files[i] == null) {
+                result[i] = NO_TEXTURE;
+                continue;
+            }
+            final File file = files[i];
+            String key = keyOf(file);
+            Entry entry = keyMap.get(key);
+            if (entry == null) {
+                entry = register(key, upload(gl, PLACEHOLDER));
+                loadingCount++;
+                final Entry target = entry;
+                decodePool.execute(new Runnable() {
+                    public void run() {
+                        // 失敗しても必ず完了を通知し、白のまま残す
+                        TextureData image = null;
+                        try {
+                            image = load(file);
+                        } catch (IOException e) {
+                            System.err.println("image cannot load : " + target.key);
+                        } catch (RuntimeException e) {
+                            System.err.println("image cannot decode : " + target.key);
+                            e.printStackTrace();
+                        } finally {
+                            completed.add(new Decoded(target, image));
+                        }
+                    }
+                });
+            }
+            entry.refCount++;
+            result[i] = entry.name;
+        }
+        return result;
+    }
+
+    /**
+     * デコードの終わった画像を転送する。GLスレッドから毎フレーム呼ぶ。
+     * 一度に転送する枚数を制限して、フレームが止まらないようにする。
+     * 読み込めなかった画像は白のまま残す。
+     * @param gl GL
+     * @param maxUploads 今回転送する最大枚数
+     * @return 転送した枚数
+     */
+    public int uploadPending(GL gl, int maxUploads) {
+        int count = 0;
+        while (count < maxUploads) {
+            Decoded done = completed.poll();
+            if (done == null) {
+                break;
+            }
+            loadingCount--;
+            // 読み込み中に解放されたものは捨てる
+            if (done.image == null || nameMap.get(done.entry.name) != done.entry) {
+                continue;
+            }
+            gl.glBindTexture(GL.GL_TEXTURE_2D, done.entry.name);
+            store(gl, done.image);
+            gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 非同期読み込みで転送待ちのものが残っているかを返す。
+     * @return デコード中か転送待ちの画像があればtrue
+     */
+    public boolean isLoading() {
+        return loadingCount > 0;
+    }
+
+    /**
+     * ミップマップを作るかどうかを設定する。これから読み込む画像に効く。
+     * 作る場合は縮小時の補間フィルタがトライリニアになる。
+     * @param mipmap 作るならtrue。初期値はtrue
+     */
+    public void setMipmap(boolean mipmap) {
+        this.mipmap = mipmap;
+    }
+
+    /**
+     * DXT1/DXT5に圧縮して転送するかどうかを設定する。これから読み込む画像に効く。
+     * GL_EXT_texture_compression_s3tcが使えるときだけtrueにすること。
+     * @param compress 圧縮するならtrue。初期値はfalse
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * 変換済みのテクスチャを保存しておくディレクトリを設定する。
+     * @param fileCache 保存先。nullなら保存しない
+     */
+    public void setFileCache(TextureFileCache fileCache) {
+        this.fileCache = fileCache;
+    }
+
+    /**
+     * 画像を読み込んで転送できる形に変換する。デコード用のスレッドから呼ばれる。
+     * 保存先に変換済みのものがあればそれを使い、無ければ変換して保存する。
+     * @param file 画像ファイル
+     * @return 変換結果
+     * @throws IOException 読み込めなかった
+     */
+    TextureData load(File file) throws IOException {
+        boolean useMipmap = mipmap;
+        boolean useCompress = compress;
+        int variant = (useMipmap ? 1 : 0) | (useCompress ? 2 : 0);
+        TextureFileCache saved = fileCache;
+        if (saved != null) {
+            TextureData data = saved.read(file, variant);
+            if (data != null) {
+                return data;
+            }
+        }
+
+        TextureImage image = TextureImage.read(file);
+        // ファイル毎にすでに並列なので、ここではレベルを分割しない
+        TextureData data = useMipmap ? MipmapBuilder.build(image)
+                                     : new TextureData(image);
+        if (useCompress) {
+            data = DxtEncoder.compress(data);
+        }
+        if (saved != null) {
+            try {
+                saved.write(file, variant, data);
+            } catch (IOException e) {
+                System.err.println("texture cannot save : " + file);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 転送済みのテクスチャをキャッシュに登録する。参照数は0のまま。
+     * @param key キー
+     * @param name テクスチャ名
+     * @return 登録したエントリ
+     */
+    private Entry register(String key, int name) {
+        Entry entry = new Entry(key, name);
+        keyMap.put(key, entry);
+        nameMap.put(name, entry);
+        return entry;
+    }
+
+    /**
+     * テクスチャの参照を一つ手放す。参照数が0になればGLからも削除する。
+     * @param gl GL
+     * @param name テクスチャ名
+     */
+    public void release(GL gl, int name) {
+        Entry entry = nameMap.get(name);
+        if (entry == null) {
+            return;
+        }
+        entry.refCount--;
+        if (entry.refCount > 0) {
+            return;
+        }
+        keyMap.remove(entry.key);
+        nameMap.remove(name);
+        gl.glDeleteTextures(1, new int[] { name }, 0);
+    }
+
+    /**
+     * 複数のテクスチャの参照を手放す。
+     * @param gl GL
+     * @param names テクスチャ名
+     */
+    public void release(GL gl, int[] names) {
+        for (int name : names) {
+            release(gl, name);
+        }
+    }
+
+    /**
+     * キャッシュしている画像の数を返す。
+     * @return 画像の数
+     */
+    public int size() {
+        return keyMap.size();
+    }
+
+    /**
+     * 全テクスチャを削除する。自前のスレッドプールは停止する。
+     * @param gl GL
+     */
+    public void dispose(GL gl) {
+        List<Integer> names = new ArrayList<Integer>(nameMap.keySet());
+        int[] array = new int[names.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = names.get(i);
+        }
+        if (array.length > 0) {
+            gl.glDeleteTextures(array.length, array, 0);
+        }
+        keyMap.clear();
+        nameMap.clear();
+        if (ownPool) {
+            decodePool.shutdown();
+        }
+    }
+
+    /**
+     * 画像をテクスチャとして転送する。
+     * @param gl GL
+     * @param image 画像
+     * @return テクスチャ名
+     */
+    static int upload(GL gl, TextureData image) {
+        int[] name = new int[1];
+        gl.glGenTextures(1, name, 0);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, name[0]);
+        store(gl, image);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP);
+        gl.glTexEnvi(GL.GL_TEXTURE_ENV, GL.GL_TEXTURE_ENV_MODE, GL.GL_MODULATE);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        return name[0];
+    }
+
+    /**
+     * バインド中のテクスチャに全レベルの画素を転送し、補間フィルタを合わせる。
+     * @param gl GL
+     * @param image 画像
+     */
+    static void store(GL gl, TextureData image) {
+        int count = image.getLevelCount();
+        gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 4);
+        for (int level = 0; level < count; level++) {
+            int w = image.getWidth(level);
+            int h = image.getHeight(level);
+            if (image.isCompressed()) {
+                int internal = image.getFormat() == TextureData.FORMAT_DXT1
+                        ? GL.GL_COMPRESSED_RGB_S3TC_DXT1_EXT
+                        : GL.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+                gl.glCompressedTexImage2D(GL.GL_TEXTURE_2D, level, internal,
+                        w, h, 0, TextureData.levelSize(image.getFormat(), w, h),
+                        image.getLevel(level));
+            } else {
+                gl.glTexImage2D(GL.GL_TEXTURE_2D, level, GL.GL_RGBA, w, h, 0,
+                        GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, image.getLevel(level));
+            }
+        }
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAX_LEVEL, count - 1);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER,
+                count > 1 ? GL.GL_LINEAR_MIPMAP_LINEAR : GL.GL_LINEAR);
+    }
+}
@@ -0,0 +1,93 @@
+package mmd.texture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * GLへ転送する一枚分のテクスチャ。ミップマップの各レベルを持つ。
+ * レベル0が元の大きさで、以降は幅と高さが半分ずつになる。
+ * 画素はRGBA各8bit、もしくはDXT1/DXT5で圧縮したブロックで入っている。
+ */
+public class TextureData {
+
+    /** RGBA各8bit。 */
+    public static final int FORMAT_RGBA = 0;
+    /** DXT1。アルファ無し、4x4画素で8バイト。 */
+    public static final int FORMAT_DXT1 = 1;
+    /** DXT5。補間アルファ付き、4x4画素で16バイト。 */
+    public static final int FORMAT_DXT5 = 2;
+
+    private final int format;
+    private final int[] widths;
+    private final int[] heights;
+    private final ByteBuffer[] levels;
+
+    /**
+     * コンストラクタ。
+     * @param format 画素形式
+     * @param widths レベル毎の幅
+     * @param heights レベル毎の高さ
+     * @param levels レベル毎の画素
+     */
+    public TextureData(int format, int[] widths, int[] heights,
+            ByteBuffer[] levels) {
+        this.format = format;
+        this.widths = widths;
+        this.heights = heights;
+        this.levels = levels;
+    }
+
+    /**
+     * ミップマップ無しのRGBA画像から作る。
+     * @param image 画像
+     */
+    public TextureData(TextureImage image) {
+        this(FORMAT_RGBA, new int[] { image.getWidth() },
+                new int[] { image.getHeight() },
+                new ByteBuffer[] { image.getPixels() });
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public boolean isCompressed() {
+        return format != FORMAT_RGBA;
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public int getWidth(int level) {
+        return widths[level];
+    }
+
+    public int getHeight(int level) {
+        return heights[level];
+    }
+
+    /**
+     * レベルの画素を返す。位置は0に戻してある。
+     * @param level レベル
+     * @return 画素バッファ
+     */
+    public ByteBuffer getLevel(int level) {
+        levels[level].rewind();
+        return levels[level];
+    }
+
+    /**
+     * 画素形式と大きさからレベルのバイト数を求める。
+     * @param format 画素形式
+     * @param width 幅
+     * @param height 高さ
+     * @return バイト数
+     */
+    public static int levelSize(int format, int width, int height) {
+        if (format == FORMAT_RGBA) {
+            return width * height * 4;
+        }
+        int blocks = ((width + 3) / 4) * ((height + 3) / 4);
+        return blocks * (format == FORMAT_DXT1 ? 8 : 16);
+    }
+}
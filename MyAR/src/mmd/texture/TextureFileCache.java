@@ -0,0 +1,147 @@
+package mmd.texture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 変換済みのテクスチャ(ミップマップや圧縮の結果)をディレクトリに保存しておく。
+ * 次回からは画像のデコードと変換をせずに、保存したレベルをそのまま転送できる。
+ * 元の画像の大きさか更新日時が変われば保存したものは使わない。
+ * 別々のファイルであればどのスレッドから呼んでもよい。
+ */
+public class TextureFileCache {
+
+    private static final int MAGIC = 0x4d544558; // "MTEX"
+    private static final int VERSION = 1;
+
+    private final File dir;
+
+    /**
+     * コンストラクタ。
+     * @param dir 保存先ディレクトリ。無ければ作る
+     */
+    public TextureFileCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * 保存したテクスチャを読む。
+     * @param source 元の画像ファイル
+     * @param variant 変換方法の区別。同じ画像でも変換方法毎に別に保存する
+     * @return 保存したテクスチャ。無いか古ければnull
+     */
+    public TextureData read(File source, int variant) {
+        String key = TextureCache.keyOf(source);
+        File file = fileOf(key, variant);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != source.length()
+                    || in.readLong() != source.lastModified()
+                    || in.readInt() != variant
+                    || !in.readUTF().equals(key)) {
+                return null;
+            }
+            int format = in.readInt();
+            int count = in.readInt();
+            int[] widths = new int[count];
+            int[] heights = new int[count];
+            ByteBuffer[] levels = new ByteBuffer[count];
+            for (int level = 0; level < count; level++) {
+                widths[level] = in.readInt();
+                heights[level] = in.readInt();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                levels[level] = ByteBuffer.allocateDirect(bytes.length)
+                        .order(ByteOrder.nativeOrder());
+                levels[level].put(bytes).rewind();
+            }
+            return new TextureData(format, widths, heights, levels);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * テクスチャを保存する。書き終えてから名前を変えるので、
+     * 途中で止まっても壊れたファイルは読まれない。
+     * @param source 元の画像ファイル
+     * @param variant 変換方法の区別
+     * @param data 保存するテクスチャ
+     * @throws IOException 書き込めなかった
+     */
+    public void write(File source, int variant, TextureData data)
+            throws IOException {
+        String key = TextureCache.keyOf(source);
+        File file = fileOf(key, variant);
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("cannot create directory : " + dir);
+        }
+        File temp = File.createTempFile("tex", ".tmp", dir);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            out.writeInt(variant);
+            out.writeUTF(key);
+            out.writeInt(data.getFormat());
+            out.writeInt(data.getLevelCount());
+            for (int level = 0; level < data.getLevelCount(); level++) {
+                ByteBuffer pixels = data.getLevel(level);
+                byte[] bytes = new byte[pixels.remaining()];
+                pixels.duplicate().get(bytes);
+                out.writeInt(data.getWidth(level));
+                out.writeInt(data.getHeight(level));
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.close();
+            out = null;
+            if (file.exists()) {
+                file.delete();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("cannot rename to : " + file);
+            }
+        } finally {
+            close(out);
+            temp.delete();
+        }
+    }
+
+    private File fileOf(String key, int variant) {
+        String name = Integer.toHexString(key.hashCode()) + "_" + variant + ".tex";
+        return new File(dir, name);
+    }
+
+    private static void close(Closeable stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // 読み書きは終わっているので無視する
+        }
+    }
+}
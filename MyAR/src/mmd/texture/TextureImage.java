@@ -0,0 +1,219 @@
+package mmd.texture;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.imageio.ImageIO;
+
+/**
+ * GLへ転送できる形に変換済みの画像。
+ * 画素はRGBA各8bitで、ネイティブバイトオーダーのダイレクトバッファに入っている。
+ */
+public class TextureImage {
+
+    private final int width;
+    private final int height;
+    private final ByteBuffer pixels;
+
+    /**
+     * コンストラクタ。
+     * @param width 幅
+     * @param height 高さ
+     * @param pixels RGBA画素
+     */
+    public TextureImage(int width, int height, ByteBuffer pixels) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * RGBA画素を返す。位置は0に戻してある。
+     * @return 画素バッファ
+     */
+    public ByteBuffer getPixels() {
+        pixels.rewind();
+        return pixels;
+    }
+
+    /**
+     * 画像ファイルを読み込んでRGBAへ変換する。
+     * どのスレッドから呼んでもよい。
+     * @param file 画像ファイル
+     * @return 変換結果
+     * @throws IOException 読み込めない、もしくは画像形式が分からない
+     */
+    public static TextureImage read(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("unknown image format : " + file);
+        }
+        return convert(image);
+    }
+
+    /**
+     * 画像をRGBAへ変換する。
+     * よく使われる形式はgetRGB()を使わずDataBufferから直接変換する。
+     * @param image 画像
+     * @return 変換結果
+     */
+    public static TextureImage convert(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        ByteBuffer out = ByteBuffer.allocateDirect(w * h * 4)
+                .order(ByteOrder.nativeOrder());
+
+        switch (image.getType()) {
+        case BufferedImage.TYPE_3BYTE_BGR:
+        case BufferedImage.TYPE_4BYTE_ABGR:
+            convertComponent(image.getRaster(), out);
+            break;
+        case BufferedImage.TYPE_INT_RGB:
+            convertPacked(image.getRaster(), false, out);
+            break;
+        case BufferedImage.TYPE_INT_ARGB:
+            convertPacked(image.getRaster(), true, out);
+            break;
+        case BufferedImage.TYPE_BYTE_INDEXED:
+            convertIndexed(image, out);
+            break;
+        default:
+            // その他の形式は一度4BYTE_ABGRに描き直す
+            BufferedImage abgr =
+                    new BufferedImage(w, h, BufferedImage.TYPE_4BYTE_ABGR);
+            Graphics2D g = abgr.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            convertComponent(abgr.getRaster(), out);
+            break;
+        }
+
+        out.rewind();
+        return new TextureImage(w, h, out);
+    }
+
+    /**
+     * バイト単位のRGB(A)形式を変換する。
+     * バンドはR,G,B(,A)の順に並んでいる前提。
+     */
+    private static void convertComponent(WritableRaster raster, ByteBuffer out) {
+        ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = buffer.getData();
+        int base = buffer.getOffset();
+
+        int w = raster.getWidth();
+        int h = raster.getHeight();
+        int pixelStride = model.getPixelStride();
+        int scanline = model.getScanlineStride();
+        int[] band = model.getBandOffsets();
+        int r = band[0], g = band[1], b = band[2];
+        boolean hasAlpha = band.length > 3;
+        int a = hasAlpha ? band[3] : 0;
+
+        byte[] row = new byte[w * 4];
+        for (int y = 0; y < h; y++) {
+            int src = base + y * scanline;
+            for (int x = 0, dst = 0; x < w; x++, src += pixelStride) {
+                row[dst++] = data[src + r];
+                row[dst++] = data[src + g];
+                row[dst++] = data[src + b];
+                row[dst++] = hasAlpha ? data[src + a] : (byte) 0xff;
+            }
+            out.put(row);
+        }
+    }
+
+    /**
+     * int単位のRGB/ARGB形式を変換する。
+     */
+    private static void convertPacked(WritableRaster raster, boolean hasAlpha,
+            ByteBuffer out) {
+        SinglePixelPackedSampleModel model =
+                (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        int[] data = buffer.getData();
+        int base = buffer.getOffset();
+
+        int w = raster.getWidth();
+        int h = raster.getHeight();
+        int scanline = model.getScanlineStride();
+
+        byte[] row = new byte[w * 4];
+        for (int y = 0; y < h; y++) {
+            int src = base + y * scanline;
+            for (int x = 0, dst = 0; x < w; x++) {
+                int argb = data[src + x];
+                row[dst++] = (byte) (argb >> 16);
+                row[dst++] = (byte) (argb >> 8);
+                row[dst++] = (byte) argb;
+                row[dst++] = hasAlpha ? (byte) (argb >>> 24) : (byte) 0xff;
+            }
+            out.put(row);
+        }
+    }
+
+    /**
+     * 8bitインデックスカラー形式を変換する。
+     * トゥーンテクスチャのBMPはたいていこの形式になる。
+     */
+    private static void convertIndexed(BufferedImage image, ByteBuffer out) {
+        WritableRaster raster = image.getRaster();
+        IndexColorModel palette = (IndexColorModel) image.getColorModel();
+        if (palette.getPixelSize() != 8
+                || !(raster.getSampleModel() instanceof ComponentSampleModel)) {
+            // 1,2,4bitなどは詰め方が違うので汎用の変換に任せる
+            BufferedImage abgr = new BufferedImage(image.getWidth(),
+                    image.getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
+            Graphics2D g = abgr.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            convertComponent(abgr.getRaster(), out);
+            return;
+        }
+
+        int[] lut = new int[256];
+        palette.getRGBs(lut);
+
+        ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = buffer.getData();
+        int base = buffer.getOffset();
+
+        int w = raster.getWidth();
+        int h = raster.getHeight();
+        int pixelStride = model.getPixelStride();
+        int scanline = model.getScanlineStride();
+
+        byte[] row = new byte[w * 4];
+        for (int y = 0; y < h; y++) {
+            int src = base + y * scanline;
+            for (int x = 0, dst = 0; x < w; x++, src += pixelStride) {
+                int argb = lut[data[src] & 0xff];
+                row[dst++] = (byte) (argb >> 16);
+                row[dst++] = (byte) (argb >> 8);
+                row[dst++] = (byte) argb;
+                row[dst++] = (byte) (argb >>> 24);
+            }
+            out.put(row);
+        }
+    }
+}
@@ -3118,6 +3118,9 @@ public class PApplet extends Applet
     // shut down renderer
     if (g != null) g.dispose();
     disposeMethods.handle();
+
+    // finish writing the frames from saveFrame()
+    PImageWriter.disposeShared();
   }
 
 
@@ -3207,7 +3210,7 @@ public class PApplet extends Applet
    */
   public void saveFrame() {
     try {
-      g.save(savePath("screen-" + nf(frameCount, 4) + ".tif"));
+      g.saveLater(savePath("screen-" + nf(frameCount, 4) + ".tif"));
     } catch (SecurityException se) {
       System.err.println("Can't use saveFrame() when running in a browser, " +
                          "unless using a signed applet.");
@@ -3242,6 +3245,10 @@ public class PApplet extends Applet
    * images without a background, use <b>createGraphics()</b>.
    *
    * ( end auto-generated )
+   * <h3>Advanced</h3>
+   * TIFF, TARGA and PNG frames are copied and written on a background 
+   * thread (see PImage.saveLater()), so draw() doesn't wait for the disk.
+   * dispose() waits for the frames that are still queued.
    * @webref output:image
    * @see PApplet#save(String)
    * @see PApplet#createGraphics(int, int, String, String)
@@ -3249,7 +3256,7 @@ public class PApplet extends Applet
    */
   public void saveFrame(String what) {
     try {
-      g.save(savePath(insertFrame(what)));
+      g.saveLater(savePath(insertFrame(what)));
     } catch (SecurityException se) {
       System.err.println("Can't use saveFrame() when running in a browser, " +
                          "unless using a signed applet.");
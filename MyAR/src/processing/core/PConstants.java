@@ -442,6 +442,15 @@ public interface PConstants {
   /** This constant identifies the linear/linear function to build mipmaps  */
   public static final int TRILINEAR = 4;
 
+  // PImage.resize(w, h, filter), which also accepts BILINEAR
+
+  /** Resize filter that averages the source pixels covered by each destination pixel */
+  public static final int AREA = 5;
+  /** Resize filter using the Catmull-Rom cubic */
+  public static final int BICUBIC = 6;
+  /** Resize filter using a three lobe Lanczos window */
+  public static final int LANCZOS = 7;
+
   /** This constant identifies the clamp-to-edge wrapping mode */
   public static final int CLAMP = 0;
   /** This constant identifies the repeat wrapping mode */
@@ -866,9 +866,13 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
       who.updatePixels();
     }
 
-    if (who.modified) {
+    if (who.modified || !cash.isEmpty()) {
+      if (cash.isEmpty()) {
+        // flagged through the field rather than updatePixels()
+        cash.add(0, 0, who.width, who.height, who.width, who.height);
+      }
       cash.update(tint, tintColor);
-      who.modified = false;
+      who.setModified(false);
     }
 
     g2.drawImage(((ImageCache) who.getCache(this)).image,
@@ -877,7 +881,11 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
   }
 
 
-  class ImageCache {
+  /**
+   * The image as a BufferedImage. As a DirtyRegion it collects the
+   * rectangles modified on the source, and update() only converts those.
+   */
+  class ImageCache extends DirtyRegion {
     PImage source;
     boolean tinted;
     int tintedColor;
@@ -899,7 +907,8 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
     /**
      * Update the pixels of the cache image. Already determined that the tint
      * has changed, or the pixels have changed, so should just go through
-     * with the update without further checks.
+     * with the update without further checks. Only the modified rectangles
+     * are converted, unless the image has to be created again.
      */
     public void update(boolean tint, int tintColor) {
       int bufferType = BufferedImage.TYPE_INT_ARGB;
@@ -910,15 +919,32 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
         }
       }
       boolean wrongType = (image != null) && (image.getType() != bufferType);
-      if ((image == null) || wrongType) {
+      boolean wrongSize = (image != null) &&
+        (image.getWidth() != source.width || image.getHeight() != source.height);
+      if ((image == null) || wrongType || wrongSize) {
         image = new BufferedImage(source.width, source.height, bufferType);
+        clear();
+        add(0, 0, source.width, source.height, source.width, source.height);
       }
 
       WritableRaster wr = image.getRaster();
+      if (tintedPixels == null || tintedPixels.length != source.width) {
+        tintedPixels = new int[source.width];
+      }
+      for (int i = 0; i < getCount(); i++) {
+        updateRect(wr, bufferType, tint, tintColor,
+                   getX1(i), getY1(i), getX2(i), getY2(i));
+      }
+      clear();
+      this.tinted = tint;
+      this.tintedColor = tintColor;
+    }
+
+    private void updateRect(WritableRaster wr, int bufferType,
+                            boolean tint, int tintColor,
+                            int x1, int y1, int x2, int y2) {
+      int w = x2 - x1;
       if (tint) {
-        if (tintedPixels == null || tintedPixels.length != source.width) {
-          tintedPixels = new int[source.width];
-        }
         int a2 = (tintColor >> 24) & 0xff;
         int r2 = (tintColor >> 16) & 0xff;
         int g2 = (tintColor >> 8) & 0xff;
@@ -926,9 +952,9 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
 
         if (bufferType == BufferedImage.TYPE_INT_RGB) {
           //int alpha = tintColor & 0xFF000000;
-          int index = 0;
-          for (int y = 0; y < source.height; y++) {
-            for (int x = 0; x < source.width; x++) {
+          for (int y = y1; y < y2; y++) {
+            int index = y*source.width + x1;
+            for (int x = 0; x < w; x++) {
               int argb1 = source.pixels[index++];
               int r1 = (argb1 >> 16) & 0xff;
               int g1 = (argb1 >> 8) & 0xff;
@@ -939,7 +965,7 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
                 ((g2 * g1) & 0xff00) |
                 (((b2 * b1) & 0xff00) >> 8);
             }
-            wr.setDataElements(0, y, source.width, 1, tintedPixels);
+            wr.setDataElements(x1, y, w, 1, tintedPixels);
           }
           // could this be any slower?
 //          float[] scales = { tintR, tintG, tintB };
@@ -948,11 +974,11 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
 //          op.filter(image, image);
 
         } else if (bufferType == BufferedImage.TYPE_INT_ARGB) {
-          int index = 0;
-          for (int y = 0; y < source.height; y++) {
+          for (int y = y1; y < y2; y++) {
+            int index = y*source.width + x1;
             if (source.format == RGB) {
               int alpha = tintColor & 0xFF000000;
-              for (int x = 0; x < source.width; x++) {
+              for (int x = 0; x < w; x++) {
                 int argb1 = source.pixels[index++];
                 int r1 = (argb1 >> 16) & 0xff;
                 int g1 = (argb1 >> 8) & 0xff;
@@ -963,7 +989,7 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
                   (((b2 * b1) & 0xff00) >> 8);
               }
             } else if (source.format == ARGB) {
-              for (int x = 0; x < source.width; x++) {
+              for (int x = 0; x < w; x++) {
                 int argb1 = source.pixels[index++];
                 int a1 = (argb1 >> 24) & 0xff;
                 int r1 = (argb1 >> 16) & 0xff;
@@ -977,13 +1003,13 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
               }
             } else if (source.format == ALPHA) {
               int lower = tintColor & 0xFFFFFF;
-              for (int x = 0; x < source.width; x++) {
+              for (int x = 0; x < w; x++) {
                 int a1 = source.pixels[index++];
                 tintedPixels[x] =
                   (((a2 * a1) & 0xff00) << 16) | lower;
               }
             }
-            wr.setDataElements(0, y, source.width, 1, tintedPixels);
+            wr.setDataElements(x1, y, w, 1, tintedPixels);
           }
           // Not sure why ARGB images take the scales in this order...
 //          float[] scales = { tintR, tintG, tintB, tintA };
@@ -991,11 +1017,15 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
 //          RescaleOp op = new RescaleOp(scales, offsets, null);
 //          op.filter(image, image);
         }
-      } else {
+      } else if (x1 == 0 && y1 == 0 && w == source.width && y2 == source.height) {
         wr.setDataElements(0, 0, source.width, source.height, source.pixels);
+      } else {
+        for (int y = y1; y < y2; y++) {
+          System.arraycopy(source.pixels, y*source.width + x1,
+                           tintedPixels, 0, w);
+          wr.setDataElements(x1, y, w, 1, tintedPixels);
+        }
       }
-      this.tinted = tint;
-      this.tintedColor = tintColor;
     }
   }
 
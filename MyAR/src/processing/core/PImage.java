@@ -27,8 +27,17 @@ package processing.core;
 import java.awt.image.*;
 import java.io.*;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.imageio.ImageIO;
 
@@ -136,6 +145,9 @@ public class PImage implements PConstants, Cloneable {
   protected boolean modified;
   protected int mx1, my1, mx2, my2;
 
+  /** modified rectangles since the last setModified(false) */
+  protected DirtyRegion dirty = new DirtyRegion();
+
 
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
@@ -159,6 +171,7 @@ public class PImage implements PConstants, Cloneable {
   private int blurKernelSize;
   private int[] blurKernel;
   private int[][] blurMult;
+  private int[] filterScratch;
 
 
   //////////////////////////////////////////////////////////////
@@ -420,12 +433,27 @@ public class PImage implements PConstants, Cloneable {
 
 
   public void setModified() {  // ignore
-    modified = true;
+    updatePixelsImpl(0, 0, width, height);
   }
 
 
   public void setModified(boolean m) {  // ignore
-    modified = m;
+    if (m) {
+      setModified();
+    } else {
+      modified = false;
+      dirty.clear();
+    }
+  }
+
+
+  /**
+   * The rectangles modified since the last setModified(false). Renderers
+   * that keep a copy of the image should rather use their own
+   * DirtyRegion as cache storage, see DirtyRegion.
+   */
+  public DirtyRegion getModifiedRegion() {  // ignore
+    return dirty;
   }
 
   
@@ -531,6 +559,16 @@ public class PImage implements PConstants, Cloneable {
     int x2 = x + w;
     int y2 = y + h;
 
+    dirty.add(x, y, x2, y2, width, height);
+    if (cacheMap != null) {
+      // renderer copies that track their own changes get the same rectangle
+      for (Object storage : cacheMap.values()) {
+        if (storage instanceof DirtyRegion) {
+          ((DirtyRegion) storage).add(x, y, x2, y2, width, height);
+        }
+      }
+    }
+
     if (!modified) {
       mx1 = x;
       mx2 = x2;
@@ -553,6 +591,114 @@ public class PImage implements PConstants, Cloneable {
 
 
 
+  /**
+   * A short list of rectangles (x1, y1 inclusive, x2, y2 exclusive) that
+   * together cover the modified pixels of an image. Overlapping or
+   * touching rectangles are merged, and when the list is full the new
+   * rectangle is merged into the one whose bounds grow the least, so the
+   * list stays small but never misses a pixel.
+   * <P>
+   * Renderers can store a subclass of this with setCache(). The image then
+   * adds every rectangle marked by updatePixels(), set(), copy(), blend()
+   * and filter() to it, and the renderer updates just those parts of its
+   * copy before calling clear().
+   */
+  static public class DirtyRegion {
+    static final int MAX_RECTS = 8;
+
+    protected int count;
+    protected int[] rects = new int[MAX_RECTS * 4];
+
+
+    public boolean isEmpty() {
+      return count == 0;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public int getX1(int i) { return rects[i*4]; }
+    public int getY1(int i) { return rects[i*4 + 1]; }
+    public int getX2(int i) { return rects[i*4 + 2]; }
+    public int getY2(int i) { return rects[i*4 + 3]; }
+
+
+    public void clear() {
+      count = 0;
+    }
+
+
+    /**
+     * Add a rectangle, clipped to an image of the given size.
+     */
+    public void add(int x1, int y1, int x2, int y2, int w, int h) {
+      if (x1 < 0) x1 = 0;
+      if (y1 < 0) y1 = 0;
+      if (x2 > w) x2 = w;
+      if (y2 > h) y2 = h;
+      if (x1 >= x2 || y1 >= y2) return;
+
+      // absorb every rectangle that overlaps or touches the new one;
+      // the union may now touch others, so repeat until nothing changes
+      boolean merged = true;
+      while (merged) {
+        merged = false;
+        for (int i = 0; i < count; i++) {
+          int o = i*4;
+          if (x1 <= rects[o+2] && rects[o] <= x2 &&
+              y1 <= rects[o+3] && rects[o+1] <= y2) {
+            x1 = Math.min(x1, rects[o]);
+            y1 = Math.min(y1, rects[o+1]);
+            x2 = Math.max(x2, rects[o+2]);
+            y2 = Math.max(y2, rects[o+3]);
+            remove(i);
+            merged = true;
+            break;
+          }
+        }
+      }
+
+      if (count == MAX_RECTS) {
+        int best = 0;
+        long bestGrowth = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+          int o = i*4;
+          long union = (long) (Math.max(x2, rects[o+2]) - Math.min(x1, rects[o])) *
+                       (Math.max(y2, rects[o+3]) - Math.min(y1, rects[o+1]));
+          long growth = union - (long) (rects[o+2] - rects[o]) * (rects[o+3] - rects[o+1]);
+          if (growth < bestGrowth) {
+            bestGrowth = growth;
+            best = i;
+          }
+        }
+        int o = best*4;
+        int ux1 = Math.min(x1, rects[o]);
+        int uy1 = Math.min(y1, rects[o+1]);
+        int ux2 = Math.max(x2, rects[o+2]);
+        int uy2 = Math.max(y2, rects[o+3]);
+        remove(best);
+        add(ux1, uy1, ux2, uy2, w, h);
+        return;
+      }
+
+      int o = count*4;
+      rects[o] = x1;
+      rects[o+1] = y1;
+      rects[o+2] = x2;
+      rects[o+3] = y2;
+      count++;
+    }
+
+
+    private void remove(int i) {
+      count--;
+      System.arraycopy(rects, (i+1)*4, rects, i*4, (count-i)*4);
+    }
+  }
+
+
+
   //////////////////////////////////////////////////////////////
 
   // COPYING IMAGE DATA
@@ -622,6 +768,260 @@ public class PImage implements PConstants, Cloneable {
   }
 
 
+  /**
+   * Resize with a choice of filter. BILINEAR is the same as resize(wide,
+   * high). AREA, BICUBIC and LANCZOS use a separable resampler: a
+   * horizontal pass and then a vertical pass over the packed pixels, each
+   * with a table of per-axis weights. When shrinking, the filters are
+   * widened to cover every source pixel, so large reductions don't alias.
+   * The weight tables are kept for reuse by later calls with the same
+   * geometry, and large images are resampled in row bands on the
+   * shared pool.
+   *
+   * @param wide the resized image width
+   * @param high the resized image height
+   * @param filter BILINEAR, AREA, BICUBIC or LANCZOS
+   */
+  public void resize(int wide, int high, int filter) {  // ignore
+    if (filter == BILINEAR || (wide <= 0 && high <= 0)) {
+      resize(wide, high);
+      return;
+    }
+    if (filter != AREA && filter != BICUBIC && filter != LANCZOS) {
+      throw new IllegalArgumentException("resize() filter must be " +
+                                         "BILINEAR, AREA, BICUBIC or LANCZOS");
+    }
+    loadPixels();
+
+    if (wide == 0) {  // Use height to determine relative size
+      float diff = (float) high / (float) height;
+      wide = (int) (width * diff);
+    } else if (high == 0) {  // Use the width to determine relative size
+      float diff = (float) wide / (float) width;
+      high = (int) (height * diff);
+    }
+    if (wide <= 0 || high <= 0) {
+      // the proportional size rounded down to nothing, no filter to run
+      resize(wide, high);
+      return;
+    }
+
+    final int sw = width;
+    final int sh = height;
+    final int[] src = pixels;
+    final int dw = wide;
+    final ResizeWeights wx = ResizeWeights.get(sw, dw, filter);
+    final ResizeWeights wy = ResizeWeights.get(sh, high, filter);
+    final int[] tmp = new int[dw * sh];
+    final int[] dst = new int[dw * high];
+
+    boolean parallel = Math.max(sw, dw) * sh >= parallelThreshold;
+    forRange(0, sh, Math.max(1, FILTER_CHUNK / dw), parallel, new RangeBody() {
+      public void run(int from, int to) {
+        for (int y = from; y < to; y++) {
+          wx.horizontal(src, y*sw, tmp, y*dw);
+        }
+      }
+    });
+    forRange(0, high, Math.max(1, FILTER_CHUNK / dw), parallel, new RangeBody() {
+      public void run(int from, int to) {
+        wy.vertical(tmp, dst, dw, from, to);
+      }
+    });
+
+    width = wide;
+    height = high;
+    pixels = dst;
+    updatePixels();
+  }
+
+
+  /**
+   * Per-axis resampling weights: for each destination pixel, the first
+   * source pixel, the number of source pixels and their weights in fixed
+   * point (ONE == 1.0, summing to exactly ONE). Samples that fall outside
+   * the source are folded onto the edge pixels.
+   */
+  static class ResizeWeights {
+    static final int BITS = 14;
+    static final int ONE = 1 << BITS;
+
+    // tables are shared by all images; bulk resizes repeat geometries
+    static private HashMap<String, ResizeWeights> cache =
+      new HashMap<String, ResizeWeights>();
+    static final int CACHE_MAX = 64;
+
+    final int[] first;
+    final int[] count;
+    final int[] weight;
+    final int[] offset;  // start of each destination pixel in weight[]
+
+
+    static ResizeWeights get(int srcSize, int dstSize, int filter) {
+      String key = srcSize + ":" + dstSize + ":" + filter;
+      synchronized (cache) {
+        ResizeWeights w = cache.get(key);
+        if (w == null) {
+          w = new ResizeWeights(srcSize, dstSize, filter);
+          if (cache.size() >= CACHE_MAX) {
+            cache.clear();
+          }
+          cache.put(key, w);
+        }
+        return w;
+      }
+    }
+
+
+    ResizeWeights(int srcSize, int dstSize, int filter) {
+      double scale = (double) dstSize / srcSize;
+      // widen the kernel when shrinking so that it covers every source pixel
+      double stretch = Math.min(scale, 1);
+      double support = ((filter == AREA) ? 0.5 :
+                        (filter == BICUBIC) ? 2 : 3) / stretch;
+
+      first = new int[dstSize];
+      count = new int[dstSize];
+      offset = new int[dstSize];
+      int[] all = new int[dstSize * ((int) Math.ceil(support * 2) + 2)];
+      double[] f = new double[(int) Math.ceil(support * 2) + 2];
+      int k = 0;
+
+      for (int i = 0; i < dstSize; i++) {
+        double center = (i + 0.5) / scale;  // in source pixel edges
+        int left = (int) Math.floor(center - support);
+        int right = (int) Math.ceil(center + support);
+        int lo = Math.max(left, 0);
+        int hi = Math.min(right, srcSize) - 1;
+        if (hi < lo) {  // degenerate: nearest pixel only
+          lo = hi = Math.min(Math.max((int) center, 0), srcSize - 1);
+        }
+        int n = hi - lo + 1;
+        Arrays.fill(f, 0, n, 0);
+
+        double total = 0;
+        for (int j = left; j < right; j++) {
+          double v;
+          if (filter == AREA) {
+            // overlap of source pixel [j, j+1) with the destination footprint
+            v = Math.min(j + 1, center + support) - Math.max(j, center - support);
+            if (v < 0) v = 0;
+          } else {
+            double x = (j + 0.5 - center) * stretch;
+            v = (filter == BICUBIC) ? cubic(x) : lanczos(x);
+          }
+          int jj = Math.min(Math.max(j, lo), hi);
+          f[jj - lo] += v;
+          total += v;
+        }
+        if (total == 0) {
+          f[Math.min(Math.max((int) center - lo, 0), n - 1)] = total = 1;
+        }
+
+        // round to fixed point and push the rounding error onto the
+        // largest weight, so that flat areas stay exactly flat
+        int sum = 0, biggest = 0;
+        for (int j = 0; j < n; j++) {
+          int q = (int) Math.round(f[j] / total * ONE);
+          all[k + j] = q;
+          sum += q;
+          if (q > all[k + biggest]) biggest = j;
+        }
+        all[k + biggest] += ONE - sum;
+
+        first[i] = lo;
+        count[i] = n;
+        offset[i] = k;
+        k += n;
+      }
+      weight = new int[k];
+      System.arraycopy(all, 0, weight, 0, k);
+    }
+
+
+    /** Horizontal pass over one row, starting at the given offsets. */
+    void horizontal(int[] src, int srcStart, int[] dst, int dstStart) {
+      int k = 0;
+      for (int i = 0; i < first.length; i++) {
+        int sa = 0, sr = 0, sg = 0, sb = 0;
+        int si = srcStart + first[i];
+        for (int n = count[i]; n > 0; n--, k++, si++) {
+          int c = src[si];
+          int f = weight[k];
+          sa += (c >>> 24) * f;
+          sr += ((c >> 16) & 0xff) * f;
+          sg += ((c >> 8) & 0xff) * f;
+          sb += (c & 0xff) * f;
+        }
+        dst[dstStart + i] = pack(sa, sr, sg, sb);
+      }
+    }
+
+
+    /**
+     * Vertical pass for destination rows [fromY, toY). Each output row is
+     * a weighted sum of whole source rows, so memory is read row by row.
+     */
+    void vertical(int[] src, int[] dst, int rowWidth, int fromY, int toY) {
+      int[] sa = new int[rowWidth];
+      int[] sr = new int[rowWidth];
+      int[] sg = new int[rowWidth];
+      int[] sb = new int[rowWidth];
+      for (int y = fromY; y < toY; y++) {
+        Arrays.fill(sa, 0);
+        Arrays.fill(sr, 0);
+        Arrays.fill(sg, 0);
+        Arrays.fill(sb, 0);
+        int k = offset[y];
+        for (int n = 0; n < count[y]; n++, k++) {
+          int f = weight[k];
+          int si = (first[y] + n) * rowWidth;
+          for (int x = 0; x < rowWidth; x++) {
+            int c = src[si + x];
+            sa[x] += (c >>> 24) * f;
+            sr[x] += ((c >> 16) & 0xff) * f;
+            sg[x] += ((c >> 8) & 0xff) * f;
+            sb[x] += (c & 0xff) * f;
+          }
+        }
+        int di = y * rowWidth;
+        for (int x = 0; x < rowWidth; x++) {
+          dst[di + x] = pack(sa[x], sr[x], sg[x], sb[x]);
+        }
+      }
+    }
+
+
+    /** Round fixed point channel sums and clamp the filter overshoot. */
+    static int pack(int a, int r, int g, int b) {
+      int half = ONE >> 1;
+      a = peg((a + half) >> BITS);
+      r = peg((r + half) >> BITS);
+      g = peg((g + half) >> BITS);
+      b = peg((b + half) >> BITS);
+      return a << 24 | r << 16 | g << 8 | b;
+    }
+
+
+    /** Catmull-Rom cubic (a = -0.5). */
+    static double cubic(double x) {
+      x = Math.abs(x);
+      if (x < 1) return (1.5*x - 2.5)*x*x + 1;
+      if (x < 2) return ((-0.5*x + 2.5)*x - 4)*x + 2;
+      return 0;
+    }
+
+
+    /** Lanczos window with three lobes. */
+    static double lanczos(double x) {
+      if (x == 0) return 1;
+      if (x <= -3 || x >= 3) return 0;
+      double px = Math.PI * x;
+      return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+    }
+  }
+
+
 
   //////////////////////////////////////////////////////////////
 
@@ -792,7 +1192,7 @@ public class PImage implements PConstants, Cloneable {
   public void set(int x, int y, int c) {
     if ((x < 0) || (y < 0) || (x >= width) || (y >= height)) return;
     pixels[y*width + x] = c;
-    updatePixelsImpl(x, y, x+1, y+1);  // slow?
+    updatePixelsImpl(x, y, 1, 1);  // slow?
   }
 
 
@@ -852,7 +1252,7 @@ public class PImage implements PConstants, Cloneable {
       srcOffset += src.width;
       dstOffset += width;
     }
-    updatePixelsImpl(sx, sy, sx+sw, sy+sh);
+    updatePixelsImpl(dx, dy, sw, sh);
   }
 
 
@@ -937,35 +1337,14 @@ public class PImage implements PConstants, Cloneable {
         break;
 
       case GRAY:
+        pointFilter(GRAY, 0);
         if (format == ALPHA) {
-          // for an alpha image, convert it to an opaque grayscale
-          for (int i = 0; i < pixels.length; i++) {
-            int col = 255 - pixels[i];
-            pixels[i] = 0xff000000 | (col << 16) | (col << 8) | col;
-          }
           format = RGB;
-
-        } else {
-          // Converts RGB image data into grayscale using
-          // weighted RGB components, and keeps alpha channel intact.
-          // [toxi 040115]
-          for (int i = 0; i < pixels.length; i++) {
-            int col = pixels[i];
-            // luminance = 0.3*red + 0.59*green + 0.11*blue
-            // 0.30 * 256 =  77
-            // 0.59 * 256 = 151
-            // 0.11 * 256 =  28
-            int lum = (77*(col>>16&0xff) + 151*(col>>8&0xff) + 28*(col&0xff))>>8;
-            pixels[i] = (col & ALPHA_MASK) | lum<<16 | lum<<8 | lum;
-          }
         }
         break;
 
       case INVERT:
-        for (int i = 0; i < pixels.length; i++) {
-          //pixels[i] = 0xff000000 |
-          pixels[i] ^= 0xffffff;
-        }
+        pointFilter(INVERT, 0);
         break;
 
       case POSTERIZE:
@@ -973,9 +1352,7 @@ public class PImage implements PConstants, Cloneable {
         "instead of filter(POSTERIZE)");
 
       case OPAQUE:
-        for (int i = 0; i < pixels.length; i++) {
-          pixels[i] |= 0xff000000;
-        }
+        pointFilter(OPAQUE, 0);
         format = RGB;
         break;
 
@@ -1054,7 +1431,9 @@ public class PImage implements PConstants, Cloneable {
 
     switch (kind) {
       case BLUR:
-        if (format == ALPHA)
+        if ((int) (param * 3.5f) >= boxBlurThreshold)
+          blurBox(param);
+        else if (format == ALPHA)
           blurAlpha(param);
         else if (format == ARGB)
           blurARGB(param);
@@ -1080,30 +1459,11 @@ public class PImage implements PConstants, Cloneable {
           throw new RuntimeException("Levels must be between 2 and 255 for " +
                                      "filter(POSTERIZE, levels)");
         }
-        int levels1 = levels - 1;
-        for (int i = 0; i < pixels.length; i++) {
-          int rlevel = (pixels[i] >> 16) & 0xff;
-          int glevel = (pixels[i] >> 8) & 0xff;
-          int blevel = pixels[i] & 0xff;
-          rlevel = (((rlevel * levels) >> 8) * 255) / levels1;
-          glevel = (((glevel * levels) >> 8) * 255) / levels1;
-          blevel = (((blevel * levels) >> 8) * 255) / levels1;
-          pixels[i] = ((0xff000000 & pixels[i]) |
-                       (rlevel << 16) |
-                       (glevel << 8) |
-                       blevel);
-        }
+        pointFilter(POSTERIZE, levels);
         break;
 
       case THRESHOLD:  // greater than or equal to the threshold
-        int thresh = (int) (param * 255);
-        for (int i = 0; i < pixels.length; i++) {
-          int max = Math.max((pixels[i] & RED_MASK) >> 16,
-                             Math.max((pixels[i] & GREEN_MASK) >> 8,
-                                      (pixels[i] & BLUE_MASK)));
-          pixels[i] = (pixels[i] & ALPHA_MASK) |
-            ((max < thresh) ? 0x000000 : 0xffffff);
-        }
+        pointFilter(THRESHOLD, (int) (param * 255));
         break;
 
         // [toxi20050728] added new filters
@@ -1152,185 +1512,379 @@ public class PImage implements PConstants, Cloneable {
   }
 
 
-  protected void blurAlpha(float r) {
-    int sum, cb;
-    int read, ri, ym, ymi, bk0;
-    int b2[] = new int[pixels.length];
-    int yi = 0;
+  /**
+   * Kernel radius (3.5 * the blur parameter) from which filter(BLUR)
+   * switches from the weighted kernel to blurBox(). Set it to
+   * Integer.MAX_VALUE to always use the kernel.
+   */
+  static public int boxBlurThreshold = 24;
 
-    buildBlurKernel(r);
 
+  /**
+   * Blur approximated by three successive box filters in each direction.
+   * The box widths are picked so that their combined variance matches
+   * the variance of the kernel built by buildBlurKernel(), and each box
+   * is a running sum, so the cost per pixel doesn't depend on the radius
+   * and no lookup table is needed. The radius is also not limited to 248.
+   * <P>
+   * Like the kernel blur, samples outside the image are left out of the
+   * average. Compared to the kernel blur, channels differ by less than
+   * 1 level on average and by at most 8 levels away from the borders.
+   * Within one radius of the border the two filters renormalize
+   * differently, and differences of up to about 20 levels can occur.
+   */
+  protected void blurBox(float r) {
+    int radius = Math.max(1, (int) (r * 3.5f));
+    int[] boxes = boxRadii(radius);
+    final int[] tmp = filterScratch();
+    // ALPHA images only keep their value in the low byte
+    final int mask = (format == ALPHA) ? 0xff : 0xffffffff;
+    for (int pass = 0; pass < boxes.length; pass++) {
+      final int k = boxes[pass];
+      final int srcMask = (pass == 0) ? mask : 0xffffffff;
+      forRows(new RangeBody() {
+        public void run(int from, int to) {
+          boxRows(pixels, tmp, k, srcMask, from, to);
+        }
+      });
+      forRange(0, width, BOX_COLUMNS, isParallel(), new RangeBody() {
+        public void run(int from, int to) {
+          boxColumns(tmp, pixels, k, from, to);
+        }
+      });
+    }
+    if (format == RGB) {
+      pointFilter(OPAQUE, 0);
+    }
+  }
+
+
+  /** Columns handled together by one vertical box pass task. */
+  static final int BOX_COLUMNS = 64;
+
+
+  /**
+   * Radii of the three boxes whose variance adds up to the variance of
+   * the (radius - |d|)^2 kernel used by buildBlurKernel().
+   */
+  static int[] boxRadii(int radius) {
+    double weight = 0, moment = 0;
+    for (int d = 1 - radius; d < radius; d++) {
+      double k = (double) (radius - Math.abs(d)) * (radius - Math.abs(d));
+      weight += k;
+      moment += k * d * d;
+    }
+    double var = moment / weight;
+
+    // widths wl (and wl + 2 for the rest) from "boxes for gauss"
+    int n = 3;
+    int wl = (int) Math.sqrt(12 * var / n + 1);
+    if (wl % 2 == 0) wl--;
+    int m = (int) Math.round((12*var - n*wl*wl - 4*n*wl - 3*n) / (-4*wl - 4));
+    int[] radii = new int[n];
+    for (int i = 0; i < n; i++) {
+      radii[i] = ((i < m) ? wl : wl + 2) / 2;
+    }
+    return radii;
+  }
+
+
+  /**
+   * Fixed point reciprocals for averaging up to max samples, so that
+   * (sum * recip[count]) >>> 32 is sum / count.
+   */
+  static long[] boxRecip(int max) {
+    long[] recip = new long[max + 1];
+    for (int count = 1; count <= max; count++) {
+      recip[count] = ((1L << 32) + count - 1) / count;
+    }
+    return recip;
+  }
+
+
+  /** Horizontal running-sum box of radius k over rows [fromY, toY). */
+  private void boxRows(int[] src, int[] dst, int k, int srcMask,
+                       int fromY, int toY) {
+    long[] recip = boxRecip(2*k + 1);
+    int last = width - 1;
+    for (int y = fromY, yi = fromY*width; y < toY; y++, yi += width) {
+      int sa = 0, sr = 0, sg = 0, sb = 0;
+      int end = Math.min(k, last);
+      for (int x = 0; x <= end; x++) {
+        int c = src[yi + x] & srcMask;
+        sa += c >>> 24;
+        sr += (c >> 16) & 0xff;
+        sg += (c >> 8) & 0xff;
+        sb += c & 0xff;
+      }
+      int count = end + 1;
+      for (int x = 0; x < width; x++) {
+        long rc = recip[count];
+        int half = count >> 1;
+        dst[yi + x] = (int) (((sa + half) * rc) >>> 32) << 24 |
+                      (int) (((sr + half) * rc) >>> 32) << 16 |
+                      (int) (((sg + half) * rc) >>> 32) << 8 |
+                      (int) (((sb + half) * rc) >>> 32);
+        int in = x + k + 1;
+        if (in <= last) {
+          int c = src[yi + in] & srcMask;
+          sa += c >>> 24;
+          sr += (c >> 16) & 0xff;
+          sg += (c >> 8) & 0xff;
+          sb += c & 0xff;
+          count++;
+        }
+        int out = x - k;
+        if (out >= 0) {
+          int c = src[yi + out] & srcMask;
+          sa -= c >>> 24;
+          sr -= (c >> 16) & 0xff;
+          sg -= (c >> 8) & 0xff;
+          sb -= c & 0xff;
+          count--;
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Vertical running-sum box of radius k over columns [fromX, toX).
+   * The columns advance together one row at a time, keeping the reads
+   * sequential within each row.
+   */
+  private void boxColumns(int[] src, int[] dst, int k, int fromX, int toX) {
+    long[] recip = boxRecip(2*k + 1);
+    int n = toX - fromX;
+    int[] sa = new int[n];
+    int[] sr = new int[n];
+    int[] sg = new int[n];
+    int[] sb = new int[n];
+    int last = height - 1;
+    int end = Math.min(k, last);
+    for (int y = 0; y <= end; y++) {
+      for (int j = 0, i = y*width + fromX; j < n; j++, i++) {
+        int c = src[i];
+        sa[j] += c >>> 24;
+        sr[j] += (c >> 16) & 0xff;
+        sg[j] += (c >> 8) & 0xff;
+        sb[j] += c & 0xff;
+      }
+    }
+    int count = end + 1;
     for (int y = 0; y < height; y++) {
+      long rc = recip[count];
+      int half = count >> 1;
+      for (int j = 0, i = y*width + fromX; j < n; j++, i++) {
+        dst[i] = (int) (((sa[j] + half) * rc) >>> 32) << 24 |
+                 (int) (((sr[j] + half) * rc) >>> 32) << 16 |
+                 (int) (((sg[j] + half) * rc) >>> 32) << 8 |
+                 (int) (((sb[j] + half) * rc) >>> 32);
+      }
+      int in = y + k + 1;
+      if (in <= last) {
+        for (int j = 0, i = in*width + fromX; j < n; j++, i++) {
+          int c = src[i];
+          sa[j] += c >>> 24;
+          sr[j] += (c >> 16) & 0xff;
+          sg[j] += (c >> 8) & 0xff;
+          sb[j] += c & 0xff;
+        }
+        count++;
+      }
+      int out = y - k;
+      if (out >= 0) {
+        for (int j = 0, i = out*width + fromX; j < n; j++, i++) {
+          int c = src[i];
+          sa[j] -= c >>> 24;
+          sr[j] -= (c >> 16) & 0xff;
+          sg[j] -= (c >> 8) & 0xff;
+          sb[j] -= c & 0xff;
+        }
+        count--;
+      }
+    }
+  }
+
+
+  protected void blurAlpha(float r) {
+    buildBlurKernel(r);
+    final int[] b2 = filterScratch();
+    forRows(new RangeBody() {
+      public void run(int from, int to) {
+        blurAlphaRows(b2, from, to);
+      }
+    });
+    forRows(new RangeBody() {
+      public void run(int from, int to) {
+        blurAlphaCols(b2, from, to);
+      }
+    });
+  }
+
+
+  private void blurAlphaRows(int[] b2, int fromY, int toY) {
+    for (int y = fromY, yi = fromY*width; y < toY; y++, yi += width) {
       for (int x = 0; x < width; x++) {
-        //cb = cg = cr = sum = 0;
-        cb = sum = 0;
-        read = x - blurRadius;
-        if (read<0) {
-          bk0=-read;
-          read=0;
-        } else {
-          if (read >= width)
-            break;
-          bk0=0;
+        int cb = 0, sum = 0;
+        int read = x - blurRadius;
+        int bk0 = 0;
+        if (read < 0) {
+          bk0 = -read;
+          read = 0;
         }
         for (int i = bk0; i < blurKernelSize; i++) {
           if (read >= width)
             break;
           int c = pixels[read + yi];
-          int[] bm=blurMult[i];
-          cb += bm[c & BLUE_MASK];
+          cb += blurMult[i][c & BLUE_MASK];
           sum += blurKernel[i];
           read++;
         }
-        ri = yi + x;
-        b2[ri] = cb / sum;
+        b2[yi + x] = cb / sum;
       }
-      yi += width;
     }
+  }
 
-    yi = 0;
-    ym=-blurRadius;
-    ymi=ym*width;
 
-    for (int y = 0; y < height; y++) {
+  private void blurAlphaCols(int[] b2, int fromY, int toY) {
+    for (int y = fromY, yi = fromY*width; y < toY; y++, yi += width) {
+      int ym = y - blurRadius;
       for (int x = 0; x < width; x++) {
-        //cb = cg = cr = sum = 0;
-        cb = sum = 0;
-        if (ym<0) {
+        int cb = 0, sum = 0;
+        int bk0, ri, read;
+        if (ym < 0) {
           bk0 = ri = -ym;
           read = x;
         } else {
-          if (ym >= height)
-            break;
           bk0 = 0;
           ri = ym;
-          read = x + ymi;
+          read = x + ym*width;
         }
         for (int i = bk0; i < blurKernelSize; i++) {
           if (ri >= height)
             break;
-          int[] bm=blurMult[i];
-          cb += bm[b2[read]];
+          cb += blurMult[i][b2[read]];
           sum += blurKernel[i];
           ri++;
           read += width;
         }
-        pixels[x+yi] = (cb/sum);
+        pixels[x + yi] = cb / sum;
       }
-      yi += width;
-      ymi += width;
-      ym++;
     }
   }
 
 
   protected void blurRGB(float r) {
-    int sum, cr, cg, cb; //, k;
-    int /*pixel,*/ read, ri, /*roff,*/ ym, ymi, /*riw,*/ bk0;
-    int r2[] = new int[pixels.length];
-    int g2[] = new int[pixels.length];
-    int b2[] = new int[pixels.length];
-    int yi = 0;
-
     buildBlurKernel(r);
+    final int[] rgb2 = filterScratch();
+    forRows(new RangeBody() {
+      public void run(int from, int to) {
+        blurRGBRows(rgb2, from, to);
+      }
+    });
+    forRows(new RangeBody() {
+      public void run(int from, int to) {
+        blurRGBCols(rgb2, from, to);
+      }
+    });
+  }
 
-    for (int y = 0; y < height; y++) {
+
+  /**
+   * Horizontal pass. The three averaged channels are packed back into
+   * one int per pixel so that a single scratch array is enough.
+   */
+  private void blurRGBRows(int[] rgb2, int fromY, int toY) {
+    for (int y = fromY, yi = fromY*width; y < toY; y++, yi += width) {
       for (int x = 0; x < width; x++) {
-        cb = cg = cr = sum = 0;
-        read = x - blurRadius;
-        if (read<0) {
-          bk0=-read;
-          read=0;
-        } else {
-          if (read >= width)
-            break;
-          bk0=0;
+        int cr = 0, cg = 0, cb = 0, sum = 0;
+        int read = x - blurRadius;
+        int bk0 = 0;
+        if (read < 0) {
+          bk0 = -read;
+          read = 0;
         }
         for (int i = bk0; i < blurKernelSize; i++) {
           if (read >= width)
             break;
           int c = pixels[read + yi];
-          int[] bm=blurMult[i];
+          int[] bm = blurMult[i];
           cr += bm[(c & RED_MASK) >> 16];
           cg += bm[(c & GREEN_MASK) >> 8];
           cb += bm[c & BLUE_MASK];
           sum += blurKernel[i];
           read++;
         }
-        ri = yi + x;
-        r2[ri] = cr / sum;
-        g2[ri] = cg / sum;
-        b2[ri] = cb / sum;
+        rgb2[yi + x] = (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
       }
-      yi += width;
     }
+  }
 
-    yi = 0;
-    ym=-blurRadius;
-    ymi=ym*width;
 
-    for (int y = 0; y < height; y++) {
+  private void blurRGBCols(int[] rgb2, int fromY, int toY) {
+    for (int y = fromY, yi = fromY*width; y < toY; y++, yi += width) {
+      int ym = y - blurRadius;
       for (int x = 0; x < width; x++) {
-        cb = cg = cr = sum = 0;
-        if (ym<0) {
+        int cr = 0, cg = 0, cb = 0, sum = 0;
+        int bk0, ri, read;
+        if (ym < 0) {
           bk0 = ri = -ym;
           read = x;
         } else {
-          if (ym >= height)
-            break;
           bk0 = 0;
           ri = ym;
-          read = x + ymi;
+          read = x + ym*width;
         }
         for (int i = bk0; i < blurKernelSize; i++) {
           if (ri >= height)
             break;
-          int[] bm=blurMult[i];
-          cr += bm[r2[read]];
-          cg += bm[g2[read]];
-          cb += bm[b2[read]];
+          int c = rgb2[read];
+          int[] bm = blurMult[i];
+          cr += bm[(c >> 16) & 0xff];
+          cg += bm[(c >> 8) & 0xff];
+          cb += bm[c & 0xff];
           sum += blurKernel[i];
           ri++;
           read += width;
         }
-        pixels[x+yi] = 0xff000000 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
+        pixels[x + yi] = 0xff000000 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
       }
-      yi += width;
-      ymi += width;
-      ym++;
     }
   }
 
 
   protected void blurARGB(float r) {
-    int sum, cr, cg, cb, ca;
-    int /*pixel,*/ read, ri, /*roff,*/ ym, ymi, /*riw,*/ bk0;
-    int wh = pixels.length;
-    int r2[] = new int[wh];
-    int g2[] = new int[wh];
-    int b2[] = new int[wh];
-    int a2[] = new int[wh];
-    int yi = 0;
-
     buildBlurKernel(r);
+    final int[] argb2 = filterScratch();
+    forRows(new RangeBody() {
+      public void run(int from, int to) {
+        blurARGBRows(argb2, from, to);
+      }
+    });
+    forRows(new RangeBody() {
+      public void run(int from, int to) {
+        blurARGBCols(argb2, from, to);
+      }
+    });
+  }
 
-    for (int y = 0; y < height; y++) {
+
+  private void blurARGBRows(int[] argb2, int fromY, int toY) {
+    for (int y = fromY, yi = fromY*width; y < toY; y++, yi += width) {
       for (int x = 0; x < width; x++) {
-        cb = cg = cr = ca = sum = 0;
-        read = x - blurRadius;
-        if (read<0) {
-          bk0=-read;
-          read=0;
-        } else {
-          if (read >= width)
-            break;
-          bk0=0;
+        int ca = 0, cr = 0, cg = 0, cb = 0, sum = 0;
+        int read = x - blurRadius;
+        int bk0 = 0;
+        if (read < 0) {
+          bk0 = -read;
+          read = 0;
         }
         for (int i = bk0; i < blurKernelSize; i++) {
           if (read >= width)
             break;
           int c = pixels[read + yi];
-          int[] bm=blurMult[i];
+          int[] bm = blurMult[i];
           ca += bm[(c & ALPHA_MASK) >>> 24];
           cr += bm[(c & RED_MASK) >> 16];
           cg += bm[(c & GREEN_MASK) >> 8];
@@ -1338,49 +1892,41 @@ public class PImage implements PConstants, Cloneable {
           sum += blurKernel[i];
           read++;
         }
-        ri = yi + x;
-        a2[ri] = ca / sum;
-        r2[ri] = cr / sum;
-        g2[ri] = cg / sum;
-        b2[ri] = cb / sum;
+        argb2[yi + x] = (ca/sum)<<24 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
       }
-      yi += width;
     }
+  }
 
-    yi = 0;
-    ym=-blurRadius;
-    ymi=ym*width;
 
-    for (int y = 0; y < height; y++) {
+  private void blurARGBCols(int[] argb2, int fromY, int toY) {
+    for (int y = fromY, yi = fromY*width; y < toY; y++, yi += width) {
+      int ym = y - blurRadius;
       for (int x = 0; x < width; x++) {
-        cb = cg = cr = ca = sum = 0;
-        if (ym<0) {
+        int ca = 0, cr = 0, cg = 0, cb = 0, sum = 0;
+        int bk0, ri, read;
+        if (ym < 0) {
           bk0 = ri = -ym;
           read = x;
         } else {
-          if (ym >= height)
-            break;
           bk0 = 0;
           ri = ym;
-          read = x + ymi;
+          read = x + ym*width;
         }
         for (int i = bk0; i < blurKernelSize; i++) {
           if (ri >= height)
             break;
-          int[] bm=blurMult[i];
-          ca += bm[a2[read]];
-          cr += bm[r2[read]];
-          cg += bm[g2[read]];
-          cb += bm[b2[read]];
+          int c = argb2[read];
+          int[] bm = blurMult[i];
+          ca += bm[c >>> 24];
+          cr += bm[(c >> 16) & 0xff];
+          cg += bm[(c >> 8) & 0xff];
+          cb += bm[c & 0xff];
           sum += blurKernel[i];
           ri++;
           read += width;
         }
-        pixels[x+yi] = (ca/sum)<<24 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
+        pixels[x + yi] = (ca/sum)<<24 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
       }
-      yi += width;
-      ymi += width;
-      ym++;
     }
   }
 
@@ -1389,127 +1935,301 @@ public class PImage implements PConstants, Cloneable {
    * Generic dilate/erode filter using luminance values
    * as decision factor. [toxi 050728]
    */
-  protected void dilate(boolean isInverted) {
-    int currIdx=0;
-    int maxIdx=pixels.length;
-    int[] out=new int[maxIdx];
-
-    if (!isInverted) {
-      // erosion (grow light areas)
-      while (currIdx<maxIdx) {
-        int currRowIdx=currIdx;
-        int maxRowIdx=currIdx+width;
-        while (currIdx<maxRowIdx) {
-          int colOrig,colOut;
-          colOrig=colOut=pixels[currIdx];
-          int idxLeft=currIdx-1;
-          int idxRight=currIdx+1;
-          int idxUp=currIdx-width;
-          int idxDown=currIdx+width;
-          if (idxLeft<currRowIdx)
-            idxLeft=currIdx;
-          if (idxRight>=maxRowIdx)
-            idxRight=currIdx;
-          if (idxUp<0)
-            idxUp=currIdx;
-          if (idxDown>=maxIdx)
-            idxDown=currIdx;
-
-          int colUp=pixels[idxUp];
-          int colLeft=pixels[idxLeft];
-          int colDown=pixels[idxDown];
-          int colRight=pixels[idxRight];
-
-          // compute luminance
-          int currLum =
-            77*(colOrig>>16&0xff) + 151*(colOrig>>8&0xff) + 28*(colOrig&0xff);
-          int lumLeft =
-            77*(colLeft>>16&0xff) + 151*(colLeft>>8&0xff) + 28*(colLeft&0xff);
-          int lumRight =
-            77*(colRight>>16&0xff) + 151*(colRight>>8&0xff) + 28*(colRight&0xff);
-          int lumUp =
-            77*(colUp>>16&0xff) + 151*(colUp>>8&0xff) + 28*(colUp&0xff);
-          int lumDown =
-            77*(colDown>>16&0xff) + 151*(colDown>>8&0xff) + 28*(colDown&0xff);
-
-          if (lumLeft>currLum) {
-            colOut=colLeft;
-            currLum=lumLeft;
-          }
-          if (lumRight>currLum) {
-            colOut=colRight;
-            currLum=lumRight;
-          }
-          if (lumUp>currLum) {
-            colOut=colUp;
-            currLum=lumUp;
+  protected void dilate(final boolean isInverted) {
+    final int[] out = filterScratch();
+    forRows(new RangeBody() {
+      public void run(int from, int to) {
+        dilateRows(out, isInverted, from, to);
+      }
+    });
+    System.arraycopy(out, 0, pixels, 0, pixels.length);
+  }
+
+
+  /**
+   * Picks the brightest (or, when inverted, the darkest) of each pixel and
+   * its four neighbours. Inverting negates the luminance so that both
+   * directions share one loop.
+   */
+  private void dilateRows(int[] out, boolean isInverted, int fromY, int toY) {
+    int sign = isInverted ? -1 : 1;
+    int maxIdx = pixels.length;
+    for (int y = fromY; y < toY; y++) {
+      int currRowIdx = y*width;
+      int maxRowIdx = currRowIdx + width;
+      for (int currIdx = currRowIdx; currIdx < maxRowIdx; currIdx++) {
+        int colOrig, colOut;
+        colOrig = colOut = pixels[currIdx];
+        int idxLeft = currIdx-1;
+        int idxRight = currIdx+1;
+        int idxUp = currIdx-width;
+        int idxDown = currIdx+width;
+        if (idxLeft < currRowIdx)
+          idxLeft = currIdx;
+        if (idxRight >= maxRowIdx)
+          idxRight = currIdx;
+        if (idxUp < 0)
+          idxUp = currIdx;
+        if (idxDown >= maxIdx)
+          idxDown = currIdx;
+
+        int colUp = pixels[idxUp];
+        int colLeft = pixels[idxLeft];
+        int colDown = pixels[idxDown];
+        int colRight = pixels[idxRight];
+
+        // compute luminance
+        int currLum = sign *
+          (77*(colOrig>>16&0xff) + 151*(colOrig>>8&0xff) + 28*(colOrig&0xff));
+        int lumLeft = sign *
+          (77*(colLeft>>16&0xff) + 151*(colLeft>>8&0xff) + 28*(colLeft&0xff));
+        int lumRight = sign *
+          (77*(colRight>>16&0xff) + 151*(colRight>>8&0xff) + 28*(colRight&0xff));
+        int lumUp = sign *
+          (77*(colUp>>16&0xff) + 151*(colUp>>8&0xff) + 28*(colUp&0xff));
+        int lumDown = sign *
+          (77*(colDown>>16&0xff) + 151*(colDown>>8&0xff) + 28*(colDown&0xff));
+
+        if (lumLeft > currLum) {
+          colOut = colLeft;
+          currLum = lumLeft;
+        }
+        if (lumRight > currLum) {
+          colOut = colRight;
+          currLum = lumRight;
+        }
+        if (lumUp > currLum) {
+          colOut = colUp;
+          currLum = lumUp;
+        }
+        if (lumDown > currLum) {
+          colOut = colDown;
+          currLum = lumDown;
+        }
+        out[currIdx] = colOut;
+      }
+    }
+  }
+
+
+  /**
+   * Per-pixel filters (GRAY, INVERT, OPAQUE, POSTERIZE, THRESHOLD).
+   * The pixels are handed out in FILTER_CHUNK sized pieces.
+   */
+  private void pointFilter(final int kind, final int arg) {
+    forRange(0, pixels.length, FILTER_CHUNK, isParallel(), new RangeBody() {
+      public void run(int from, int to) {
+        pointFilter(kind, arg, from, to);
+      }
+    });
+  }
+
+
+  private void pointFilter(int kind, int arg, int from, int to) {
+    int[] px = pixels;
+    switch (kind) {
+      case GRAY:
+        if (format == ALPHA) {
+          // for an alpha image, convert it to an opaque grayscale
+          for (int i = from; i < to; i++) {
+            int col = 255 - px[i];
+            px[i] = 0xff000000 | (col << 16) | (col << 8) | col;
           }
-          if (lumDown>currLum) {
-            colOut=colDown;
-            currLum=lumDown;
+        } else {
+          // Converts RGB image data into grayscale using
+          // weighted RGB components, and keeps alpha channel intact.
+          // [toxi 040115]
+          for (int i = from; i < to; i++) {
+            int col = px[i];
+            // luminance = 0.3*red + 0.59*green + 0.11*blue
+            // 0.30 * 256 =  77
+            // 0.59 * 256 = 151
+            // 0.11 * 256 =  28
+            int lum = (77*(col>>16&0xff) + 151*(col>>8&0xff) + 28*(col&0xff))>>8;
+            px[i] = (col & ALPHA_MASK) | lum<<16 | lum<<8 | lum;
           }
-          out[currIdx++]=colOut;
+        }
+        break;
+
+      case INVERT:
+        for (int i = from; i < to; i++) {
+          px[i] ^= 0xffffff;
+        }
+        break;
+
+      case OPAQUE:
+        for (int i = from; i < to; i++) {
+          px[i] |= 0xff000000;
+        }
+        break;
+
+      case POSTERIZE:
+        int levels = arg;
+        int levels1 = levels - 1;
+        for (int i = from; i < to; i++) {
+          int rlevel = (px[i] >> 16) & 0xff;
+          int glevel = (px[i] >> 8) & 0xff;
+          int blevel = px[i] & 0xff;
+          rlevel = (((rlevel * levels) >> 8) * 255) / levels1;
+          glevel = (((glevel * levels) >> 8) * 255) / levels1;
+          blevel = (((blevel * levels) >> 8) * 255) / levels1;
+          px[i] = ((0xff000000 & px[i]) |
+                   (rlevel << 16) |
+                   (glevel << 8) |
+                   blevel);
+        }
+        break;
+
+      case THRESHOLD:  // greater than or equal to the threshold
+        int thresh = arg;
+        for (int i = from; i < to; i++) {
+          int max = Math.max((px[i] & RED_MASK) >> 16,
+                             Math.max((px[i] & GREEN_MASK) >> 8,
+                                      (px[i] & BLUE_MASK)));
+          px[i] = (px[i] & ALPHA_MASK) |
+            ((max < thresh) ? 0x000000 : 0xffffff);
+        }
+        break;
+    }
+  }
+
+
+
+  //////////////////////////////////////////////////////////////
+
+  // PARALLEL EXECUTION
+
+
+  /**
+   * Images with at least this many pixels are filtered on the shared
+   * worker threads. Set it to Integer.MAX_VALUE to keep filter() on the
+   * calling thread.
+   */
+  static public int parallelThreshold = 256 * 256;
+
+  /** Pixels handled by one per-pixel filter task (64 KB of ints). */
+  static final int FILTER_CHUNK = 16 * 1024;
+
+
+  /** A piece of work over the index range [from, to). */
+  interface RangeBody {
+    public void run(int from, int to);
+  }
+
+
+  /** Threads of the shared pool, so that work started on them stays there. */
+  static final ThreadGroup POOL_GROUP = new ThreadGroup("PImage");
+
+  static private ExecutorService pool;
+
+
+  /**
+   * One daemon thread per processor, shared by everything in this package
+   * that splits its work. Started the first time it's needed.
+   */
+  static synchronized ExecutorService pool() {
+    if (pool == null) {
+      int count = Runtime.getRuntime().availableProcessors();
+      pool = Executors.newFixedThreadPool(count, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(POOL_GROUP, r, "PImage worker");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return pool;
+  }
+
+
+  /**
+   * Runs the tasks on the shared pool and returns their results in order.
+   * Called from one of the pool's own threads, the tasks are run right
+   * there instead, since waiting on a fixed pool from inside it can hang.
+   */
+  static <T> List<T> invokeAll(List<Callable<T>> tasks)
+    throws InterruptedException, ExecutionException {
+    List<T> results = new ArrayList<T>(tasks.size());
+    if (Thread.currentThread().getThreadGroup() == POOL_GROUP) {
+      for (Callable<T> task : tasks) {
+        try {
+          results.add(task.call());
+        } catch (Exception e) {
+          throw new ExecutionException(e);
         }
       }
     } else {
-      // dilate (grow dark areas)
-      while (currIdx<maxIdx) {
-        int currRowIdx=currIdx;
-        int maxRowIdx=currIdx+width;
-        while (currIdx<maxRowIdx) {
-          int colOrig,colOut;
-          colOrig=colOut=pixels[currIdx];
-          int idxLeft=currIdx-1;
-          int idxRight=currIdx+1;
-          int idxUp=currIdx-width;
-          int idxDown=currIdx+width;
-          if (idxLeft<currRowIdx)
-            idxLeft=currIdx;
-          if (idxRight>=maxRowIdx)
-            idxRight=currIdx;
-          if (idxUp<0)
-            idxUp=currIdx;
-          if (idxDown>=maxIdx)
-            idxDown=currIdx;
-
-          int colUp=pixels[idxUp];
-          int colLeft=pixels[idxLeft];
-          int colDown=pixels[idxDown];
-          int colRight=pixels[idxRight];
-
-          // compute luminance
-          int currLum =
-            77*(colOrig>>16&0xff) + 151*(colOrig>>8&0xff) + 28*(colOrig&0xff);
-          int lumLeft =
-            77*(colLeft>>16&0xff) + 151*(colLeft>>8&0xff) + 28*(colLeft&0xff);
-          int lumRight =
-            77*(colRight>>16&0xff) + 151*(colRight>>8&0xff) + 28*(colRight&0xff);
-          int lumUp =
-            77*(colUp>>16&0xff) + 151*(colUp>>8&0xff) + 28*(colUp&0xff);
-          int lumDown =
-            77*(colDown>>16&0xff) + 151*(colDown>>8&0xff) + 28*(colDown&0xff);
-
-          if (lumLeft<currLum) {
-            colOut=colLeft;
-            currLum=lumLeft;
-          }
-          if (lumRight<currLum) {
-            colOut=colRight;
-            currLum=lumRight;
-          }
-          if (lumUp<currLum) {
-            colOut=colUp;
-            currLum=lumUp;
-          }
-          if (lumDown<currLum) {
-            colOut=colDown;
-            currLum=lumDown;
-          }
-          out[currIdx++]=colOut;
+      for (Future<T> future : pool().invokeAll(tasks)) {
+        results.add(future.get());
+      }
+    }
+    return results;
+  }
+
+
+  /**
+   * Runs body over [from, to). When parallel is set and the range is longer
+   * than one grain, it's cut into bands of at least a grain each (a few per
+   * processor) that run on the shared pool.
+   */
+  static void forRange(int from, int to, int grain, boolean parallel,
+                       final RangeBody body) {
+    int count = (int) (((long) to - from + grain - 1) / grain);
+    if (!parallel || count <= 1) {
+      body.run(from, to);
+      return;
+    }
+    count = Math.min(count, 4 * Runtime.getRuntime().availableProcessors());
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(count);
+    for (int i = 0; i < count; i++) {
+      final int start = from + (int) ((long) (to - from) * i / count);
+      final int stop = from + (int) ((long) (to - from) * (i + 1) / count);
+      tasks.add(new Callable<Object>() {
+        public Object call() {
+          body.run(start, stop);
+          return null;
         }
+      });
+    }
+    try {
+      invokeAll(tasks);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
       }
+      throw new RuntimeException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
     }
-    System.arraycopy(out,0,pixels,0,maxIdx);
+  }
+
+
+  /** Runs body over all rows, in bands of about FILTER_CHUNK pixels. */
+  protected void forRows(RangeBody body) {
+    int grain = Math.max(1, FILTER_CHUNK / Math.max(1, width));
+    forRange(0, height, grain, isParallel(), body);
+  }
+
+
+  protected boolean isParallel() {
+    return pixels.length >= parallelThreshold;
+  }
+
+
+  /**
+   * Image-sized temporary for the blur and dilate passes. It is kept
+   * between calls so repeated filtering of video frames doesn't allocate.
+   */
+  private int[] filterScratch() {
+    if (filterScratch == null || filterScratch.length != pixels.length) {
+      filterScratch = new int[pixels.length];
+    }
+    return filterScratch;
   }
 
 
@@ -1791,7 +2511,7 @@ public class PImage implements PConstants, Cloneable {
                   pixels, width, height, dx, dy, dx2, dy2, mode);
       //src.updatePixels();
     }
-    updatePixels();
+    updatePixelsImpl(dx, dy, dw, dh);
   }
 
 
@@ -1867,6 +2587,9 @@ public class PImage implements PConstants, Cloneable {
       return;
     }
 
+    // no resampling needed, see blit_unscaled()
+    boolean unscaled = (srcW == destW && srcH == destH);
+
     int dx = (int) (srcW / (float) destW * PRECISIONF);
     int dy = (int) (srcH / (float) destH * PRECISIONF);
 
@@ -1888,6 +2611,15 @@ public class PImage implements PConstants, Cloneable {
     int destOffset = destY1 * screenW + destX1;
     srcBuffer = img.pixels;
 
+    if (unscaled) {
+      blit_unscaled(srcBuffer, img.width,
+                    (srcYOffset >> PRECISIONB) * img.width +
+                    (srcXOffset >> PRECISIONB),
+                    destPixels, screenW, destOffset, destW, destH,
+                    mode, img.format != RGB);
+      return;
+    }
+
     if (smooth) {
       // use bilinear filtering
       iw = img.width;
@@ -2328,6 +3060,202 @@ public class PImage implements PConstants, Cloneable {
   }
 
 
+  /**
+   * Same-size path of blit_resize(). There is no resampling, so REPLACE is
+   * a row by row System.arraycopy() and the other modes read the source
+   * pixels directly. The mode is picked once, each mode has its own loop,
+   * and large regions are split into row bands on the shared pool.
+   */
+  private void blit_unscaled(final int[] src, final int srcStride,
+                             final int srcOffset,
+                             final int[] dest, final int destStride,
+                             final int destOffset,
+                             final int w, int h,
+                             final int mode, final boolean srcAlpha) {
+    if (w <= 0 || h <= 0) {
+      return;
+    }
+    int grain = Math.max(1, FILTER_CHUNK / w);
+    forRange(0, h, grain, w * h >= parallelThreshold, new RangeBody() {
+      public void run(int from, int to) {
+        blit_unscaled_rows(src, srcStride, srcOffset, dest, destStride,
+                           destOffset, w, mode, srcAlpha, from, to);
+      }
+    });
+  }
+
+
+  private static void blit_unscaled_rows(int[] src, int srcStride,
+                                         int srcOffset,
+                                         int[] dest, int destStride,
+                                         int destOffset, int w,
+                                         int mode, boolean srcAlpha,
+                                         int fromY, int toY) {
+    switch (mode) {
+      case REPLACE:
+        for (int y = fromY; y < toY; y++) {
+          System.arraycopy(src, srcOffset + y*srcStride,
+                           dest, destOffset + y*destStride, w);
+        }
+        break;
+
+      case BLEND:
+        if (srcAlpha) {
+          // fully transparent source pixels leave the destination as is
+          for (int y = fromY; y < toY; y++) {
+            int si = srcOffset + y*srcStride;
+            int di = destOffset + y*destStride;
+            for (int end = di + w; di < end; di++, si++) {
+              int c = src[si];
+              if ((c & ALPHA_MASK) != 0) {
+                dest[di] = blend_blend(dest[di], c);
+              }
+            }
+          }
+        } else {
+          for (int y = fromY; y < toY; y++) {
+            int si = srcOffset + y*srcStride;
+            int di = destOffset + y*destStride;
+            for (int end = di + w; di < end; di++, si++) {
+              dest[di] = blend_blend(dest[di], src[si]);
+            }
+          }
+        }
+        break;
+
+      case ADD:
+        for (int y = fromY; y < toY; y++) {
+          int si = srcOffset + y*srcStride;
+          int di = destOffset + y*destStride;
+          for (int end = di + w; di < end; di++, si++) {
+            dest[di] = blend_add_pin(dest[di], src[si]);
+          }
+        }
+        break;
+
+      case SUBTRACT:
+        for (int y = fromY; y < toY; y++) {
+          int si = srcOffset + y*srcStride;
+          int di = destOffset + y*destStride;
+          for (int end = di + w; di < end; di++, si++) {
+            dest[di] = blend_sub_pin(dest[di], src[si]);
+          }
+        }
+        break;
+
+      case LIGHTEST:
+        for (int y = fromY; y < toY; y++) {
+          int si = srcOffset + y*srcStride;
+          int di = destOffset + y*destStride;
+          for (int end = di + w; di < end; di++, si++) {
+            dest[di] = blend_lightest(dest[di], src[si]);
+          }
+        }
+        break;
+
+      case DARKEST:
+        for (int y = fromY; y < toY; y++) {
+          int si = srcOffset + y*srcStride;
+          int di = destOffset + y*destStride;
+          for (int end = di + w; di < end; di++, si++) {
+            dest[di] = blend_darkest(dest[di], src[si]);
+          }
+        }
+        break;
+
+      case DIFFERENCE:
+        for (int y = fromY; y < toY; y++) {
+          int si = srcOffset + y*srcStride;
+          int di = destOffset + y*destStride;
+          for (int end = di + w; di < end; di++, si++) {
+            dest[di] = blend_difference(dest[di], src[si]);
+          }
+        }
+        break;
+
+      case EXCLUSION:
+        for (int y = fromY; y < toY; y++) {
+          int si = srcOffset + y*srcStride;
+          int di = destOffset + y*destStride;
+          for (int end = di + w; di < end; di++, si++) {
+            dest[di] = blend_exclusion(dest[di], src[si]);
+          }
+        }
+        break;
+
+      case MULTIPLY:
+        for (int y = fromY; y < toY; y++) {
+          int si = srcOffset + y*srcStride;
+          int di = destOffset + y*destStride;
+          for (int end = di + w; di < end; di++, si++) {
+            dest[di] = blend_multiply(dest[di], src[si]);
+          }
+        }
+        break;
+
+      case SCREEN:
+        for (int y = fromY; y < toY; y++) {
+          int si = srcOffset + y*srcStride;
+          int di = destOffset + y*destStride;
+          for (int end = di + w; di < end; di++, si++) {
+            dest[di] = blend_screen(dest[di], src[si]);
+          }
+        }
+        break;
+
+      case OVERLAY:
+        for (int y = fromY; y < toY; y++) {
+          int si = srcOffset + y*srcStride;
+          int di = destOffset + y*destStride;
+          for (int end = di + w; di < end; di++, si++) {
+            dest[di] = blend_overlay(dest[di], src[si]);
+          }
+        }
+        break;
+
+      case HARD_LIGHT:
+        for (int y = fromY; y < toY; y++) {
+          int si = srcOffset + y*srcStride;
+          int di = destOffset + y*destStride;
+          for (int end = di + w; di < end; di++, si++) {
+            dest[di] = blend_hard_light(dest[di], src[si]);
+          }
+        }
+        break;
+
+      case SOFT_LIGHT:
+        for (int y = fromY; y < toY; y++) {
+          int si = srcOffset + y*srcStride;
+          int di = destOffset + y*destStride;
+          for (int end = di + w; di < end; di++, si++) {
+            dest[di] = blend_soft_light(dest[di], src[si]);
+          }
+        }
+        break;
+
+      case DODGE:
+        for (int y = fromY; y < toY; y++) {
+          int si = srcOffset + y*srcStride;
+          int di = destOffset + y*destStride;
+          for (int end = di + w; di < end; di++, si++) {
+            dest[di] = blend_dodge(dest[di], src[si]);
+          }
+        }
+        break;
+
+      case BURN:
+        for (int y = fromY; y < toY; y++) {
+          int si = srcOffset + y*srcStride;
+          int di = destOffset + y*destStride;
+          for (int end = di + w; di < end; di++, si++) {
+            dest[di] = blend_burn(dest[di], src[si]);
+          }
+        }
+        break;
+    }
+  }
+
+
   private void filter_new_scanline() {
     sX = srcXOffset;
     fracV = srcYOffset & PREC_MAXVAL;
@@ -3006,6 +3934,12 @@ public class PImage implements PConstants, Cloneable {
 
   protected String[] saveImageFormats;
 
+
+  /** The shared writer, which keeps its buffers between saves. */
+  protected PImageWriter writer() {
+    return PImageWriter.shared();
+  }
+
   /**
    * ( begin auto-generated from PImage_save.xml )
    * 
@@ -3043,7 +3977,9 @@ public class PImage implements PConstants, Cloneable {
    * <p>
    * To use the original built-in image writers, use .tga or .tif as the
    * extension, or don't include an extension. When no extension is used,
-   * the extension .tif will be added to the file name.
+   * the extension .tif will be added to the file name. These and .png
+   * files are written by PImageWriter, which streams the rows straight
+   * from pixels[] instead of going through a BufferedImage.
    * <p>
    * The ImageIO API claims to support wbmp files, however they probably
    * require a black and white image. Basic testing produced a zero-length
@@ -3057,28 +3993,17 @@ public class PImage implements PConstants, Cloneable {
   public boolean save(String filename) {  // ignore
     boolean success = false;
 
-    if (parent != null) {
-      // use savePath(), so that the intermediate directories are created
-      filename = parent.savePath(filename);
-      
-    } else {
-      File file = new File(filename);
-      if (file.isAbsolute()) {
-        // make sure that the intermediate folders have been created
-        PApplet.createPath(file);
-      } else {
-        String msg = 
-          "PImage.save() requires an absolute path. " +
-          "Use createImage(), or pass savePath() to save().";
-        PGraphics.showException(msg);
-      }
-    }
+    filename = checkSavePath(filename);
 
     // Make sure the pixel data is ready to go
     loadPixels();
 
     try {
-      OutputStream os = null;
+      // tga, tif and png are streamed straight from pixels[]
+      if (PImageWriter.canSave(filename)) {
+        writer().save(this, filename);
+        return true;
+      }
 
       if (saveImageFormats == null) {
         saveImageFormats = javax.imageio.ImageIO.getWriterFormatNames();
@@ -3095,21 +4020,10 @@ public class PImage implements PConstants, Cloneable {
         }
       }
 
-      if (filename.toLowerCase().endsWith(".tga")) {
-        os = new BufferedOutputStream(new FileOutputStream(filename), 32768);
-        success = saveTGA(os); //, pixels, width, height, format);
-
-      } else {
-        if (!filename.toLowerCase().endsWith(".tif") &&
-            !filename.toLowerCase().endsWith(".tiff")) {
-          // if no .tif extension, add it..
-          filename += ".tif";
-        }
-        os = new BufferedOutputStream(new FileOutputStream(filename), 32768);
-        success = saveTIFF(os); //, pixels, width, height);
-      }
-      os.flush();
-      os.close();
+      // if no .tif extension, add it..
+      filename += ".tif";
+      writer().save(this, filename);
+      success = true;
 
     } catch (IOException e) {
       System.err.println("Error while saving image.");
@@ -3118,5 +4032,45 @@ public class PImage implements PConstants, Cloneable {
     }
     return success;
   }
-}
 
+
+  /**
+   * Same as save(), except that tga, tif and png files are written on a
+   * background thread from a copy of the pixels, so the image can be
+   * changed (or the next frame drawn) as soon as this returns. Other formats
+   * are saved before it returns. PApplet.dispose() waits for the files that
+   * are still queued.
+   * @param filename a sequence of letters and numbers
+   * @return false if the file was saved right away and that failed
+   */
+  public boolean saveLater(String filename) {  // ignore
+    String path = checkSavePath(filename);
+    if (PImageWriter.canSave(path)) {
+      writer().saveLater(this, path);
+      return true;
+    }
+    return save(filename);
+  }
+
+
+  /**
+   * Resolve the filename for save(), and make the folders it goes in.
+   */
+  protected String checkSavePath(String filename) {
+    if (parent != null) {
+      // use savePath(), so that the intermediate directories are created
+      return parent.savePath(filename);
+    }
+    File file = new File(filename);
+    if (file.isAbsolute()) {
+      // make sure that the intermediate folders have been created
+      PApplet.createPath(file);
+    } else {
+      String msg = 
+        "PImage.save() requires an absolute path. " +
+        "Use createImage(), or pass savePath() to save().";
+      PGraphics.showException(msg);
+    }
+    return filename;
+  }
+}
@@ -0,0 +1,712 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * Streaming writers for TGA, TIFF and PNG files. Rows are encoded straight
+ * from the pixels[] array into one direct buffer that is kept between
+ * calls and drained into a FileChannel, so saving a frame doesn't build a
+ * copy of the image or write to the stream a byte at a time.
+ * <p>
+ * The TGA and TIFF output is the same as PImage.saveTGA() and saveTIFF().
+ * PNG rows get the adaptive filter (the type with the smallest sum of
+ * absolute differences), computed in parallel for large images, and are
+ * compressed at the deflate level set with deflateLevel().
+ * <p>
+ * One writer is used from one thread at a time; the write methods are
+ * synchronized. saveLater() copies the pixels and writes the file on a
+ * background thread, for capturing frames without stalling draw().
+ * PImage.save() and PApplet.saveFrame() go through the shared() writer, so
+ * there is only one set of buffers and one native deflater however many
+ * images are saved.
+ */
+public class PImageWriter implements PConstants {
+
+  /** Size of the direct output buffer. */
+  static final int BUFFER_SIZE = 256 * 1024;
+
+  /** Bytes of filtered PNG rows handed to the deflater at once. */
+  static final int PNG_BAND = 1024 * 1024;
+
+  /** Bytes of filtered rows handled by one filter task. */
+  static final int PNG_GRAIN = 64 * 1024;
+
+  static final byte PNG_SIGNATURE[] = {
+    (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+  };
+
+  /**
+   * Frames waiting for the saveLater() thread. When the disk falls this
+   * far behind, saveLater() writes on the calling thread instead of
+   * queueing more copies of the image.
+   */
+  static public int maxPending = 8;
+
+  protected int deflateLevel = Deflater.BEST_SPEED;
+  protected boolean parallel = true;
+
+  protected ByteBuffer buffer;
+  protected byte[] deflated;
+  protected byte[] band;
+  protected Deflater deflater;
+  protected CRC32 crc = new CRC32();
+
+  protected ExecutorService background;
+
+  static private PImageWriter shared;
+
+
+  public PImageWriter() { }
+
+
+  /** The writer used by PImage, made the first time it's needed. */
+  static public synchronized PImageWriter shared() {
+    if (shared == null) {
+      shared = new PImageWriter();
+    }
+    return shared;
+  }
+
+
+  /**
+   * Finishes the frames queued on the shared writer and frees it. Called
+   * when a sketch is disposed, so that saveFrame() files are complete
+   * before the VM exits.
+   */
+  static public void disposeShared() {
+    PImageWriter writer;
+    synchronized (PImageWriter.class) {
+      writer = shared;
+      shared = null;
+    }
+    if (writer != null) {
+      writer.dispose();
+    }
+  }
+
+
+  /**
+   * Sets the PNG compression, from 0 (stored) to 9 (smallest). The default
+   * is 1, which is the fastest and still much smaller than TIFF.
+   */
+  public synchronized void deflateLevel(int level) {
+    if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("deflate level must be 0 to 9");
+    }
+    deflateLevel = level;
+  }
+
+
+  /**
+   * Filter PNG rows of large images on the shared pool. Images below
+   * PImage.parallelThreshold are always filtered on the calling thread.
+   */
+  public synchronized void parallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+
+  /**
+   * Returns true if the extension of path is one written here:
+   * tga, tif, tiff or png.
+   */
+  static public boolean canSave(String path) {
+    String lower = path.toLowerCase();
+    return (lower.endsWith(".tga") ||
+            lower.endsWith(".tif") || lower.endsWith(".tiff") ||
+            lower.endsWith(".png"));
+  }
+
+
+  /**
+   * Writes the image to path, choosing the format from the extension.
+   * The image's pixels[] must be loaded.
+   */
+  public synchronized void save(PImage image, String path) throws IOException {
+    String lower = path.toLowerCase();
+    if (lower.endsWith(".tga")) {
+      writeTGA(image, new File(path));
+    } else if (lower.endsWith(".tif") || lower.endsWith(".tiff")) {
+      writeTIFF(image, new File(path));
+    } else if (lower.endsWith(".png")) {
+      writePNG(image, new File(path));
+    } else {
+      throw new IOException("Unsupported image format: " + path);
+    }
+  }
+
+
+  /**
+   * Copies the pixels of the image and writes them to path on a background
+   * thread. The image can be changed as soon as this returns. The future
+   * holds false when the file could not be written.
+   */
+  public Future<Boolean> saveLater(PImage image, final String path) {
+    image.loadPixels();
+    final PImage copy = new PImage(image.width, image.height, image.format);
+    System.arraycopy(image.pixels, 0, copy.pixels, 0, copy.pixels.length);
+
+    Callable<Boolean> task = new Callable<Boolean>() {
+      public Boolean call() {
+        try {
+          save(copy, path);
+          return Boolean.TRUE;
+        } catch (IOException e) {
+          System.err.println("Error while saving image " + path);
+          e.printStackTrace();
+          return Boolean.FALSE;
+        }
+      }
+    };
+    return background().submit(task);
+  }
+
+
+  /**
+   * Waits for the frames queued with saveLater() to be written, stops the
+   * thread, and frees the buffers and the native deflater. The writer can
+   * still be used afterwards; they're made again when needed.
+   */
+  public void dispose() {
+    ExecutorService queue;
+    synchronized (this) {
+      queue = background;
+      background = null;
+    }
+    // not synchronized while waiting, the queued saves need the lock
+    if (queue != null) {
+      queue.shutdown();
+      try {
+        queue.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this) {
+      if (deflater != null) {
+        deflater.end();
+        deflater = null;
+      }
+      buffer = null;
+      band = null;
+      deflated = null;
+    }
+  }
+
+
+  protected synchronized ExecutorService background() {
+    if (background == null) {
+      background =
+        new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                               new ArrayBlockingQueue<Runnable>(Math.max(1, maxPending)),
+                               new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "PImageWriter");
+            thread.setDaemon(true);
+            return thread;
+          }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    return background;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////
+
+  // OUTPUT BUFFER
+
+
+  protected FileChannel open(File file) throws IOException {
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+    buffer.clear();
+    return new FileOutputStream(file).getChannel();
+  }
+
+
+  /** Makes room for count more bytes, draining the buffer if needed. */
+  protected void ensure(FileChannel channel, int count) throws IOException {
+    if (buffer.remaining() < count) {
+      drain(channel);
+    }
+  }
+
+
+  protected void drain(FileChannel channel) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+
+  protected void close(FileChannel channel, boolean success) throws IOException {
+    try {
+      if (success) {
+        drain(channel);
+      }
+    } finally {
+      buffer.clear();
+      channel.close();
+    }
+  }
+
+
+
+  //////////////////////////////////////////////////////////////
+
+  // TIFF
+
+
+  /**
+   * Uncompressed 24-bit TIFF, the same layout as PImage.saveTIFF().
+   */
+  public synchronized void writeTIFF(PImage image, File file) throws IOException {
+    int width = image.width;
+    int height = image.height;
+    int[] pixels = image.pixels;
+
+    byte tiff[] = new byte[768];
+    System.arraycopy(PImage.TIFF_HEADER, 0, tiff, 0, PImage.TIFF_HEADER.length);
+
+    tiff[30] = (byte) ((width >> 8) & 0xff);
+    tiff[31] = (byte) ((width) & 0xff);
+    tiff[42] = tiff[102] = (byte) ((height >> 8) & 0xff);
+    tiff[43] = tiff[103] = (byte) ((height) & 0xff);
+
+    int count = width*height*3;
+    tiff[114] = (byte) ((count >> 24) & 0xff);
+    tiff[115] = (byte) ((count >> 16) & 0xff);
+    tiff[116] = (byte) ((count >> 8) & 0xff);
+    tiff[117] = (byte) ((count) & 0xff);
+
+    FileChannel channel = open(file);
+    boolean success = false;
+    try {
+      buffer.put(tiff);
+      // a whole row at a time, unless a row is wider than the buffer
+      int rowBytes = Math.min(width * 3, BUFFER_SIZE - BUFFER_SIZE % 3);
+      int index = 0;
+      int end = width * height;
+      while (index < end) {
+        ensure(channel, rowBytes);
+        int stop = Math.min(end, index + rowBytes / 3);
+        for (; index < stop; index++) {
+          putRGB(pixels[index]);
+        }
+      }
+      success = true;
+    } finally {
+      close(channel, success);
+    }
+  }
+
+
+  private void putRGB(int argb) {
+    buffer.put((byte) (argb >> 16));
+    buffer.put((byte) (argb >> 8));
+    buffer.put((byte) argb);
+  }
+
+
+
+  //////////////////////////////////////////////////////////////
+
+  // TARGA
+
+
+  /**
+   * RLE compressed Targa with the top-left origin, the same output as
+   * PImage.saveTGA(): ALPHA images as 8-bit grayscale, RGB as 24 bits
+   * and ARGB as 32 bits.
+   */
+  public synchronized void writeTGA(PImage image, File file) throws IOException {
+    int width = image.width;
+    int height = image.height;
+    int format = image.format;
+    int[] pixels = image.pixels;
+
+    byte header[] = new byte[18];
+    if (format == ALPHA) {  // save ALPHA images as 8bit grayscale
+      header[2] = 0x0B;
+      header[16] = 0x08;
+      header[17] = 0x28;
+
+    } else if (format == RGB) {
+      header[2] = 0x0A;
+      header[16] = 24;
+      header[17] = 0x20;
+
+    } else if (format == ARGB) {
+      header[2] = 0x0A;
+      header[16] = 32;
+      header[17] = 0x28;
+
+    } else {
+      throw new RuntimeException("Image format not recognized inside save()");
+    }
+    // set image dimensions lo-hi byte order
+    header[12] = (byte) (width & 0xff);
+    header[13] = (byte) (width >> 8);
+    header[14] = (byte) (height & 0xff);
+    header[15] = (byte) (height >> 8);
+
+    FileChannel channel = open(file);
+    boolean success = false;
+    try {
+      buffer.put(header);
+      if (format == ALPHA) {
+        writeTGA8(channel, pixels, width * height);
+      } else {
+        writeTGA32(channel, pixels, width * height, format == ARGB);
+      }
+      success = true;
+    } finally {
+      close(channel, success);
+    }
+  }
+
+
+  private void writeTGA8(FileChannel channel,
+                         int[] pixels, int maxLen) throws IOException {
+    int index = 0;
+    while (index < maxLen) {
+      // longest packet is a header and 128 gray values
+      ensure(channel, 129);
+      int col = pixels[index] & 0xff;
+      int rle = 1;
+      boolean isRLE = false;
+      while (index + rle < maxLen) {
+        if (col != (pixels[index + rle] & 0xff) || rle == 128) {
+          isRLE = (rle > 1);
+          break;
+        }
+        rle++;
+      }
+      if (isRLE) {
+        buffer.put((byte) (0x80 | (rle - 1)));
+        buffer.put((byte) col);
+
+      } else {
+        rle = 1;
+        while (index + rle < maxLen) {
+          int cscan = pixels[index + rle] & 0xff;
+          if ((col != cscan && rle < 128) || rle < 3) {
+            col = cscan;
+          } else {
+            if (col == cscan) rle -= 2;
+            break;
+          }
+          rle++;
+        }
+        buffer.put((byte) (rle - 1));
+        for (int i = 0; i < rle; i++) {
+          buffer.put((byte) pixels[index + i]);
+        }
+      }
+      index += rle;
+    }
+  }
+
+
+  private void writeTGA32(FileChannel channel, int[] pixels, int maxLen,
+                          boolean alpha) throws IOException {
+    int index = 0;
+    while (index < maxLen) {
+      // longest packet is a header and 128 pixels of four bytes
+      ensure(channel, 513);
+      int col = pixels[index];
+      int rle = 1;
+      boolean isRLE = false;
+      // try to find repeating pixels (min. len = 2 pixels)
+      // maximum chunk size is 128 pixels
+      while (index + rle < maxLen) {
+        if (col != pixels[index + rle] || rle == 128) {
+          isRLE = (rle > 1);
+          break;
+        }
+        rle++;
+      }
+      if (isRLE) {
+        buffer.put((byte) (128 | (rle - 1)));
+        putBGR(col, alpha);
+
+      } else {
+        rle = 1;
+        while (index + rle < maxLen) {
+          if ((col != pixels[index + rle] && rle < 128) || rle < 3) {
+            col = pixels[index + rle];
+          } else {
+            // check if the exit condition was the start of
+            // a repeating colour
+            if (col == pixels[index + rle]) rle -= 2;
+            break;
+          }
+          rle++;
+        }
+        // raw packet, the pixels are still in place in pixels[]
+        buffer.put((byte) (rle - 1));
+        for (int i = 0; i < rle; i++) {
+          putBGR(pixels[index + i], alpha);
+        }
+      }
+      index += rle;
+    }
+  }
+
+
+  private void putBGR(int argb, boolean alpha) {
+    buffer.put((byte) argb);
+    buffer.put((byte) (argb >> 8));
+    buffer.put((byte) (argb >> 16));
+    if (alpha) buffer.put((byte) (argb >>> 24));
+  }
+
+
+
+  //////////////////////////////////////////////////////////////
+
+  // PNG
+
+
+  /**
+   * 8-bit PNG: RGBA for ARGB images, RGB for RGB images and grayscale for
+   * ALPHA images (like the TGA writer). Rows are filtered in bands, in
+   * parallel for large images, and each band is deflated as it's done.
+   */
+  public synchronized void writePNG(PImage image, File file) throws IOException {
+    final int width = image.width;
+    final int height = image.height;
+    final int format = image.format;
+    final int[] pixels = image.pixels;
+
+    final int bpp;
+    int colorType;
+    if (format == ALPHA) {
+      bpp = 1;
+      colorType = 0;
+    } else if (format == RGB) {
+      bpp = 3;
+      colorType = 2;
+    } else if (format == ARGB) {
+      bpp = 4;
+      colorType = 6;
+    } else {
+      throw new RuntimeException("Image format not recognized inside save()");
+    }
+    final int rowBytes = width * bpp;
+    final int lineBytes = rowBytes + 1;  // filter type and the row
+
+    int bandRows = Math.max(1, Math.min(height, PNG_BAND / lineBytes));
+    if (band == null || band.length < bandRows * lineBytes) {
+      band = new byte[bandRows * lineBytes];
+    }
+    if (deflated == null) {
+      deflated = new byte[32 * 1024];
+    }
+    if (deflater == null) {
+      deflater = new Deflater(deflateLevel);
+    } else {
+      deflater.reset();
+      deflater.setLevel(deflateLevel);
+    }
+    int grain = Math.max(1, PNG_GRAIN / lineBytes);
+    boolean split = parallel && pixels.length >= PImage.parallelThreshold;
+
+    FileChannel channel = open(file);
+    boolean success = false;
+    try {
+      buffer.put(PNG_SIGNATURE);
+
+      byte ihdr[] = new byte[13];
+      putInt(ihdr, 0, width);
+      putInt(ihdr, 4, height);
+      ihdr[8] = 8;  // bits per sample
+      ihdr[9] = (byte) colorType;
+      // compression, filter and interlace methods are all 0
+      writeChunk(channel, "IHDR", ihdr, ihdr.length);
+
+      final byte[] lines = band;
+      for (int top = 0; top < height; top += bandRows) {
+        final int first = top;
+        int last = Math.min(height, top + bandRows);
+        PImage.forRange(first, last, grain, split, new PImage.RangeBody() {
+          public void run(int from, int to) {
+            filterRows(pixels, width, format, bpp, from, to,
+                       lines, (from - first) * lineBytes);
+          }
+        });
+        deflater.setInput(lines, 0, (last - first) * lineBytes);
+        while (!deflater.needsInput()) {
+          deflate(channel);
+        }
+      }
+      deflater.finish();
+      while (!deflater.finished()) {
+        deflate(channel);
+      }
+      writeChunk(channel, "IEND", deflated, 0);
+      success = true;
+    } finally {
+      close(channel, success);
+    }
+  }
+
+
+  private void deflate(FileChannel channel) throws IOException {
+    int count = deflater.deflate(deflated);
+    if (count > 0) {
+      writeChunk(channel, "IDAT", deflated, count);
+    }
+  }
+
+
+  private void writeChunk(FileChannel channel, String type,
+                          byte[] data, int length) throws IOException {
+    ensure(channel, length + 12);
+    buffer.putInt(length);
+    crc.reset();
+    for (int i = 0; i < 4; i++) {
+      byte c = (byte) type.charAt(i);
+      buffer.put(c);
+      crc.update(c);
+    }
+    buffer.put(data, 0, length);
+    crc.update(data, 0, length);
+    buffer.putInt((int) crc.getValue());
+  }
+
+
+  static private void putInt(byte[] b, int offset, int value) {
+    b[offset]     = (byte) (value >>> 24);
+    b[offset + 1] = (byte) (value >>> 16);
+    b[offset + 2] = (byte) (value >>> 8);
+    b[offset + 3] = (byte) value;
+  }
+
+
+  /**
+   * Writes the filtered lines for rows [from, to) at offset. Each line is
+   * the filter type and then the row, filtered with whichever of the five
+   * PNG filters gives the smallest sum of absolute (signed) differences.
+   */
+  static void filterRows(int[] pixels, int width, int format, int bpp,
+                         int from, int to, byte[] out, int offset) {
+    int rowBytes = width * bpp;
+    byte[] prev = new byte[rowBytes];
+    byte[] curr = new byte[rowBytes];
+    if (from > 0) {
+      unpackRow(pixels, width, format, from - 1, prev);
+    }
+    for (int y = from; y < to; y++) {
+      unpackRow(pixels, width, format, y, curr);
+
+      int sumNone = 0, sumSub = 0, sumUp = 0, sumAvg = 0, sumPaeth = 0;
+      for (int i = 0; i < rowBytes; i++) {
+        int x = curr[i] & 0xff;
+        int a = (i >= bpp) ? (curr[i - bpp] & 0xff) : 0;
+        int b = prev[i] & 0xff;
+        int c = (i >= bpp) ? (prev[i - bpp] & 0xff) : 0;
+        sumNone  += Math.abs((byte) x);
+        sumSub   += Math.abs((byte) (x - a));
+        sumUp    += Math.abs((byte) (x - b));
+        sumAvg   += Math.abs((byte) (x - ((a + b) >> 1)));
+        sumPaeth += Math.abs((byte) (x - paeth(a, b, c)));
+      }
+      int type = 0;
+      int best = sumNone;
+      if (sumSub < best) { type = 1; best = sumSub; }
+      if (sumUp < best) { type = 2; best = sumUp; }
+      if (sumAvg < best) { type = 3; best = sumAvg; }
+      if (sumPaeth < best) { type = 4; }
+
+      out[offset++] = (byte) type;
+      for (int i = 0; i < rowBytes; i++) {
+        int x = curr[i] & 0xff;
+        int a = (i >= bpp) ? (curr[i - bpp] & 0xff) : 0;
+        int b = prev[i] & 0xff;
+        int c = (i >= bpp) ? (prev[i - bpp] & 0xff) : 0;
+        switch (type) {
+        case 0: break;
+        case 1: x -= a; break;
+        case 2: x -= b; break;
+        case 3: x -= (a + b) >> 1; break;
+        case 4: x -= paeth(a, b, c); break;
+        }
+        out[offset++] = (byte) x;
+      }
+      byte[] temp = prev;
+      prev = curr;
+      curr = temp;
+    }
+  }
+
+
+  static private int paeth(int a, int b, int c) {
+    int p = a + b - c;
+    int pa = Math.abs(p - a);
+    int pb = Math.abs(p - b);
+    int pc = Math.abs(p - c);
+    if (pa <= pb && pa <= pc) return a;
+    if (pb <= pc) return b;
+    return c;
+  }
+
+
+  /** Row y as PNG samples: gray, RGB or RGBA depending on the format. */
+  static private void unpackRow(int[] pixels, int width, int format,
+                                int y, byte[] row) {
+    int index = y * width;
+    int i = 0;
+    if (format == ALPHA) {
+      for (int x = 0; x < width; x++) {
+        row[i++] = (byte) pixels[index++];
+      }
+    } else if (format == RGB) {
+      for (int x = 0; x < width; x++) {
+        int argb = pixels[index++];
+        row[i++] = (byte) (argb >> 16);
+        row[i++] = (byte) (argb >> 8);
+        row[i++] = (byte) argb;
+      }
+    } else {
+      for (int x = 0; x < width; x++) {
+        int argb = pixels[index++];
+        row[i++] = (byte) (argb >> 16);
+        row[i++] = (byte) (argb >> 8);
+        row[i++] = (byte) argb;
+        row[i++] = (byte) (argb >>> 24);
+      }
+    }
+  }
+}
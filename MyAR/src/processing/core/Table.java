@@ -25,8 +25,23 @@ package processing.core;
 
 import java.io.*;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import processing.core.PApplet;
 
@@ -74,6 +89,19 @@ public class Table implements Iterable<Table.Row> {
   protected double missingDouble = Double.NaN;
   protected int missingCategory = -1;
 
+  /** Rows looked at by parseTyped() to decide the column types. */
+  protected int sampleRows = 1000;
+  /** Most characters read ahead for the sample (the reader's mark limit). */
+  static final int SAMPLE_LIMIT = 4 * 1024 * 1024;
+  /** Set while parsing typed columns, see widenColumn(). */
+  protected boolean widenColumns;
+  /** 
+   * Rows of each column that got the missing value while widenColumns was 
+   * set, and those of them that were empty rather than missingString. 
+   */
+  protected BitSet[] missingRows;
+  protected BitSet[] emptyRows;
+
   String[] columnTitles;
   HashMapBlows[] columnCategories; 
   HashMap<String, Integer> columnIndices;
@@ -148,6 +176,24 @@ public class Table implements Iterable<Table.Row> {
   }
   
   
+  /**
+   * Reads a TSV or CSV file into typed columns. The types are guessed from
+   * the first rows (see parseTyped()) and the rest of the file is parsed
+   * straight into the int, long, float or double arrays.
+   * @param reader source of the data
+   * @param header true if the first line holds the column titles
+   */
+  public Table(BufferedReader reader, boolean header) {
+    this();
+    try {
+      commaSeparatedValues = peekCSV(reader);
+      parseTyped(reader, header);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+
   public Table(ResultSet rs) {
     this();
     try {
@@ -290,11 +336,21 @@ public class Table implements Iterable<Table.Row> {
       setRowCount(10);
     }
     int prev = -1;
+    char[] c = new char[256];
     while ((line = reader.readLine()) != null) {
       if (row == getRowCount()) {
         setRowCount(row << 1);
       }
-      setRow(row, tsv ? PApplet.split(line, '\t') : splitLineCSV(line));
+      int length = line.length();
+      if (length > c.length) {
+        c = new char[Math.max(length, c.length << 1)];
+      }
+      line.getChars(0, length, c, 0);
+      if (tsv) {
+        setRowTSV(row, c, 0, length);
+      } else {
+        setRowCSV(row, c, 0, length);
+      }
       row++;
       
       if (row % 10000 == 0) {
@@ -305,11 +361,6 @@ public class Table implements Iterable<Table.Row> {
             prev = pct;
           }
         }
-        try {
-          Thread.sleep(5);
-        } catch (InterruptedException e) {
-          e.printStackTrace();
-        }
       }
     }
     // shorten or lengthen based on what's left
@@ -319,6 +370,509 @@ public class Table implements Iterable<Table.Row> {
   }
 
 
+  /**
+   * Parse with typed columns. Up to sampleRows lines (after the titles) are
+   * read ahead to pick a type for each column: int if every non-empty entry
+   * is a whole number that fits, then long, then float (or double when an
+   * entry has more digits than a float holds), otherwise String. The reader
+   * is reset and every line is then parsed straight into those arrays, 
+   * without a String[] per line or a String per number.
+   * <p>
+   * A later entry that doesn't fit its column's type widens the column 
+   * instead of being cut down or replaced with the missing value: int goes
+   * to long for bigger whole numbers, int and float go to double, and
+   * anything else that can't hold the entry exactly goes to String. Entries
+   * already parsed are converted, so empty ones in a number column come out
+   * as the missing value (0 or NaN by default) rather than "".
+   * <p>
+   * To set the types by hand instead, use setColumnType() and then parse().
+   * @param header true if the first line holds the column titles
+   */
+  public void parseTyped(BufferedReader reader, boolean header) throws IOException {
+    boolean tsv = !commaSeparatedValues;
+    if (header) {
+      String line = reader.readLine();
+      if (line == null) {
+        return;
+      }
+      String[] titles = tsv ? PApplet.split(line, '\t') : splitLineCSV(line);
+      setColumnCount(Math.max(getColumnCount(), titles.length));
+      for (int col = 0; col < titles.length; col++) {
+        setColumnTitle(col, titles[col]);
+      }
+    }
+    int[] types = inferColumnTypes(reader, tsv);
+    checkColumn(types.length - 1);
+    for (int col = 0; col < types.length; col++) {
+      setColumnType(col, types[col]);
+    }
+    widenColumns = true;
+    try {
+      parseBasic(reader, tsv);
+    } finally {
+      widenColumns = false;
+      missingRows = null;
+      emptyRows = null;
+    }
+  }
+
+
+  /**
+   * Guess the column types from up to sampleRows lines, then reset the
+   * reader to where it was.
+   */
+  protected int[] inferColumnTypes(BufferedReader reader, boolean tsv) throws IOException {
+    // bits for the types that every entry so far could be
+    final int CAN_INT = 1, CAN_LONG = 2, CAN_FLOAT = 4, CAN_DOUBLE = 8, SEEN = 16;
+    int[] possible = new int[0];
+
+    reader.mark(SAMPLE_LIMIT);
+    int read = 0;
+    String line = null;
+    for (int sample = 0; sample < sampleRows; sample++) {
+      line = reader.readLine();
+      if (line == null) {
+        break;
+      }
+      read += line.length() + 2;  // room for \r\n
+      if (read > SAMPLE_LIMIT) {
+        break;  // can't reset() past the mark limit
+      }
+      String[] pieces = tsv ? PApplet.split(line, '\t') : splitLineCSV(line);
+      if (pieces.length > possible.length) {
+        int old = possible.length;
+        possible = PApplet.expand(possible, pieces.length);
+        for (int col = old; col < possible.length; col++) {
+          possible[col] = CAN_INT | CAN_LONG | CAN_FLOAT | CAN_DOUBLE;
+        }
+      }
+      for (int col = 0; col < pieces.length; col++) {
+        String piece = pieces[col];
+        if (piece.length() == 0 || piece.equals(missingString)) {
+          continue;
+        }
+        possible[col] |= SEEN;
+        if ((possible[col] & (CAN_INT | CAN_LONG)) != 0) {
+          long value = parseDigits(piece.toCharArray(), 0, piece.length());
+          boolean whole = (value != NOT_DIGITS);
+          if (!whole) {
+            try {
+              value = Long.parseLong(piece);  // 19 digits may still fit
+              whole = true;
+            } catch (NumberFormatException nfe) { }
+          }
+          if (!whole) {
+            possible[col] &= ~(CAN_INT | CAN_LONG);
+          } else if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            possible[col] &= ~CAN_INT;
+          }
+        }
+        if ((possible[col] & CAN_DOUBLE) != 0) {
+          try {
+            Double.parseDouble(piece);
+            if (significantDigits(piece) > 7) {
+              possible[col] &= ~CAN_FLOAT;
+            }
+          } catch (NumberFormatException nfe) {
+            possible[col] &= ~(CAN_FLOAT | CAN_DOUBLE);
+          }
+        }
+      }
+    }
+    reader.reset();
+
+    int[] types = new int[possible.length];
+    for (int col = 0; col < possible.length; col++) {
+      int bits = possible[col];
+      if ((bits & SEEN) == 0) {
+        types[col] = STRING;  // nothing but empty entries
+      } else if ((bits & CAN_INT) != 0) {
+        types[col] = INT;
+      } else if ((bits & CAN_LONG) != 0) {
+        types[col] = LONG;
+      } else if ((bits & CAN_FLOAT) != 0) {
+        types[col] = FLOAT;
+      } else if ((bits & CAN_DOUBLE) != 0) {
+        types[col] = DOUBLE;
+      } else {
+        types[col] = STRING;
+      }
+    }
+    return types;
+  }
+
+
+  /** Digits in the mantissa of a number, not counting leading zeros. */
+  static private int significantDigits(String number) {
+    int count = 0;
+    for (int i = 0; i < number.length(); i++) {
+      char c = number.charAt(i);
+      if (c == 'e' || c == 'E') {
+        break;
+      }
+      if (c >= '1' && c <= '9' || (c == '0' && count > 0)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+
+  /**
+   * Reads a TSV or CSV file into typed columns using all the cores. The file
+   * is memory mapped and cut into chunks at record boundaries, the chunks
+   * are parsed in parallel into tables of their own, and those are copied
+   * together at the end. The column types are guessed from the first rows,
+   * like parseTyped().
+   * @param file TSV or CSV file in UTF-8
+   * @param header true if the first line holds the column titles
+   */
+  public Table(File file, boolean header) {
+    this();
+    try {
+      parseMapped(file, header);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+
+  /** Bytes of the file parsed by one task. */
+  static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+  /**
+   * Parallel version of parseTyped() for a file. Record boundaries are found
+   * without decoding the file: for CSV, the quotes in each chunk are counted
+   * in parallel, so the start of every chunk is known to be inside or
+   * outside a quoted entry, and a chunk starts after the first line break
+   * outside quotes. Unlike readLine(), a line break inside a quoted CSV 
+   * entry stays part of the entry. Files over 2 GB can't be mapped in one
+   * piece and are parsed with parseTyped() instead.
+   */
+  public void parseMapped(File file, boolean header) throws IOException {
+    FileInputStream input = new FileInputStream(file);
+    try {
+      FileChannel channel = input.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        input.close();
+        input = null;
+        BufferedReader reader = PApplet.createReader(file);
+        commaSeparatedValues = peekCSV(reader);
+        parseTyped(reader, header);
+        reader.close();
+        return;
+      }
+      MappedByteBuffer bytes = 
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      parseMapped(bytes, header);
+    } finally {
+      if (input != null) {
+        input.close();
+      }
+    }
+  }
+
+
+  protected void parseMapped(final ByteBuffer bytes, boolean header) throws IOException {
+    int length = bytes.limit();
+    int start = 0;
+    if (length >= 3 &&
+        bytes.get(0) == (byte) 0xEF && bytes.get(1) == (byte) 0xBB &&
+        bytes.get(2) == (byte) 0xBF) {
+      start = 3;  // skip the UTF-8 byte order mark
+    }
+    int commas = 0;
+    int tabs = 0;
+    for (int i = start; i < Math.min(length, start + 100); i++) {
+      byte b = bytes.get(i);
+      if (b == ',') commas++;
+      if (b == '\t') tabs++;
+    }
+    commaSeparatedValues = (commas > tabs);
+    final boolean tsv = !commaSeparatedValues;
+
+    if (header) {
+      int end = nextRecord(bytes, start, length, false, tsv);
+      char[] c = decode(bytes, start, end);
+      int stop = trimRecord(c, 0, c.length);
+      String line = new String(c, 0, stop);
+      String[] titles = tsv ? PApplet.split(line, '\t') : splitLineCSV(line);
+      setColumnCount(Math.max(getColumnCount(), titles.length));
+      for (int col = 0; col < titles.length; col++) {
+        setColumnTitle(col, titles[col]);
+      }
+      start = end;
+    }
+
+    // guess the types from the start of the data
+    int sampleEnd = Math.min(length, start + SAMPLE_LIMIT / 2);
+    if (sampleEnd < length) {
+      int cut = sampleEnd;
+      while (cut > start && bytes.get(cut - 1) != '\n') cut--;
+      if (cut > start) sampleEnd = cut;
+    }
+    String sample = new String(decode(bytes, start, sampleEnd));
+    int[] types = inferColumnTypes(new BufferedReader(new StringReader(sample)), tsv);
+    checkColumn(types.length - 1);
+    for (int col = 0; col < types.length; col++) {
+      setColumnType(col, types[col]);
+    }
+
+    // tentative chunk starts, then the quote state at each of them
+    int count = Math.max(1, (int) (((long) length - start + CHUNK_SIZE - 1) / CHUNK_SIZE));
+    final int[] bounds = new int[count + 1];
+    for (int i = 0; i < count; i++) {
+      bounds[i] = start + (int) ((long) (length - start) * i / count);
+    }
+    bounds[count] = length;
+    boolean[] inside = new boolean[count];
+    if (!tsv && count > 1) {
+      List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+      for (int i = 0; i < count; i++) {
+        final int from = bounds[i];
+        final int to = bounds[i + 1];
+        tasks.add(new Callable<Integer>() {
+          public Integer call() {
+            int quotes = 0;
+            for (int j = from; j < to; j++) {
+              if (bytes.get(j) == '\"') quotes++;
+            }
+            return quotes;
+          }
+        });
+      }
+      List<Integer> quotes = invokeAll(tasks);
+      boolean quote = false;
+      for (int i = 0; i < count; i++) {
+        inside[i] = quote;
+        quote ^= (quotes.get(i) & 1) == 1;
+      }
+    }
+    // move each start past the next line break outside quotes
+    for (int i = 1; i < count; i++) {
+      bounds[i] = nextRecord(bytes, bounds[i], length, inside[i], tsv);
+    }
+
+    // parse the chunks into tables of their own
+    List<Callable<Table>> tasks = new ArrayList<Callable<Table>>();
+    for (int i = 0; i < count; i++) {
+      final int from = bounds[i];
+      final int to = bounds[i + 1];
+      tasks.add(new Callable<Table>() {
+        public Table call() {
+          Table chunk = createChunk();
+          char[] c = decode(bytes, from, to);
+          chunk.parseRecords(c, 0, c.length, tsv);
+          return chunk;
+        }
+      });
+    }
+    List<Table> chunks = invokeAll(tasks);
+    append(chunks);
+  }
+
+
+  /**
+   * Index after the first line break at or after from that is outside of
+   * quotes, or the end of the data. A \r\n pair counts as one line break.
+   */
+  static int nextRecord(ByteBuffer bytes, int from, int length,
+                        boolean quote, boolean tsv) {
+    for (int i = from; i < length; i++) {
+      byte b = bytes.get(i);
+      if (b == '\"' && !tsv) {
+        quote = !quote;
+      } else if (!quote && (b == '\n' || b == '\r')) {
+        if (b == '\r' && i + 1 < length && bytes.get(i + 1) == '\n') {
+          i++;
+        }
+        return i + 1;
+      }
+    }
+    return length;
+  }
+
+
+  /** Position of the line break at the end of a record, if there is one. */
+  static int trimRecord(char[] c, int from, int to) {
+    while (to > from && (c[to - 1] == '\n' || c[to - 1] == '\r')) {
+      to--;
+    }
+    return to;
+  }
+
+
+  static char[] decode(ByteBuffer bytes, int from, int to) {
+    ByteBuffer slice = bytes.duplicate();
+    slice.limit(to);
+    slice.position(from);
+    CharsetDecoder decoder = UTF8.newDecoder();
+    decoder.onMalformedInput(CodingErrorAction.REPLACE);
+    decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+    try {
+      CharBuffer chars = decoder.decode(slice.slice());
+      if (chars.hasArray() && chars.arrayOffset() == 0 &&
+          chars.remaining() == chars.array().length) {
+        return chars.array();
+      }
+      char[] c = new char[chars.remaining()];
+      chars.get(c);
+      return c;
+    } catch (CharacterCodingException e) {
+      throw new RuntimeException(e);  // can't happen with REPLACE
+    }
+  }
+
+
+  /**
+   * An empty table with the column types of this one, to parse a chunk
+   * into. Categorical columns are read as Strings, and given their index
+   * when the chunks are put together, so that the indices stay in order. 
+   */
+  protected Table createChunk() {
+    Table chunk = new Table();
+    chunk.missingString = missingString;
+    chunk.missingInt = missingInt;
+    chunk.missingLong = missingLong;
+    chunk.missingFloat = missingFloat;
+    chunk.missingDouble = missingDouble;
+    chunk.widenColumns = true;
+    chunk.setColumnCount(columns.length);
+    for (int col = 0; col < columns.length; col++) {
+      if (columnTypes[col] != CATEGORICAL) {
+        chunk.setColumnType(col, columnTypes[col]);
+      }
+    }
+    return chunk;
+  }
+
+
+  /**
+   * Add a row for each record in c[from..to). Records end at line breaks
+   * (\n, \r or \r\n), except inside quotes for CSV.
+   */
+  protected void parseRecords(char[] c, int from, int to, boolean tsv) {
+    // count them first so that the columns are only allocated once
+    int count = 0;
+    boolean quote = false;
+    int start = from;
+    for (int i = from; i < to; i++) {
+      char ch = c[i];
+      if (ch == '\"' && !tsv) {
+        quote = !quote;
+      } else if (!quote && (ch == '\n' || ch == '\r')) {
+        if (ch == '\r' && i + 1 < to && c[i + 1] == '\n') {
+          i++;
+        }
+        count++;
+        start = i + 1;
+      }
+    }
+    if (start < to) {
+      count++;
+    }
+
+    int row = rowCount;
+    setRowCount(rowCount + count);
+    quote = false;
+    start = from;
+    for (int i = from; i < to; i++) {
+      char ch = c[i];
+      if (ch == '\"' && !tsv) {
+        quote = !quote;
+      } else if (!quote && (ch == '\n' || ch == '\r')) {
+        setRecord(row++, c, start, i, tsv);
+        if (ch == '\r' && i + 1 < to && c[i + 1] == '\n') {
+          i++;
+        }
+        start = i + 1;
+      }
+    }
+    if (start < to) {
+      setRecord(row, c, start, to, tsv);
+    }
+  }
+
+
+  private void setRecord(int row, char[] c, int from, int to, boolean tsv) {
+    if (tsv) {
+      setRowTSV(row, c, from, to);
+    } else {
+      setRowCSV(row, c, from, to);
+    }
+  }
+
+
+  /**
+   * Copy the rows of the chunks, in order, to the end of this table. A 
+   * column that was widened in some of the chunks is widened everywhere.
+   */
+  protected void append(List<Table> chunks) {
+    int total = rowCount;
+    for (Table chunk : chunks) {
+      checkColumn(chunk.getColumnCount() - 1);
+      total += chunk.getRowCount();
+    }
+    for (int col = 0; col < columns.length; col++) {
+      if (columnTypes[col] != CATEGORICAL) {
+        int type = columnTypes[col];
+        for (Table chunk : chunks) {
+          if (col < chunk.getColumnCount()) {
+            type = widerType(type, chunk.columnTypes[col]);
+          }
+        }
+        if (type != columnTypes[col]) {
+          convertColumn(col, type);
+        }
+      }
+    }
+    int row = rowCount;
+    setRowCount(total);
+    for (Table chunk : chunks) {
+      int count = chunk.getRowCount();
+      for (int col = 0; col < chunk.getColumnCount(); col++) {
+        if (columnTypes[col] != CATEGORICAL &&
+            chunk.columnTypes[col] != columnTypes[col]) {
+          chunk.convertColumn(col, columnTypes[col]);
+        }
+        if (columnTypes[col] == CATEGORICAL) {
+          String[] stringData = (String[]) chunk.columns[col];
+          int[] indexData = (int[]) columns[col];
+          for (int i = 0; i < count; i++) {
+            indexData[row + i] = columnCategories[col].index(stringData[i]);
+          }
+        } else {
+          System.arraycopy(chunk.columns[col], 0, columns[col], row, count);
+        }
+        chunk.columns[col] = null;  // let it go as soon as possible
+      }
+      row += count;
+    }
+    staleIndexes(-1);  // the rows were copied in without the setters
+  }
+
+
+  /** Run the tasks on the pool shared with PImage and collect the results. */
+  static <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+    try {
+      return PImage.invokeAll(tasks);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+
   public void convertTSV(BufferedReader reader, File outputFile) throws IOException {
     convertBasic(reader, true, outputFile);
   }
@@ -398,55 +952,405 @@ public class Table implements Iterable<Table.Row> {
   }
   
   
-  public void parseAwfulCSV(BufferedReader reader) throws IOException {
-    char[] c = new char[100];
-    int count = 0;
-    boolean insideQuote = false;
-    int row = 0;
-    int col = 0;
-    int ch;
-    while ((ch = reader.read()) != -1) {
-      if (insideQuote) {
-        if (ch == '\"') {
-          // this is either the end of a quoted entry, or a quote character
-          reader.mark(1);
-          if (reader.read() == '\"') {
-            // it's "", which means a quote character 
-            if (count == c.length) {
-              c = PApplet.expand(c);
+  static final int BINARY_MAGIC = 0x4C425450;  // "PTBL" when read as bytes
+  static final int BINARY_VERSION = 1;
+
+  /**
+   * Column blocks of a table opened with mapBinary() that haven't been
+   * copied into arrays yet. Null once all the columns are loaded.
+   */
+  protected ByteBuffer[] mappedColumns;
+
+
+  /**
+   * Write the table in a binary columnar form that mapBinary() opens 
+   * without parsing anything. All numbers are little-endian. The header has
+   * the row and column counts, the titles, the column types, the entries of
+   * categorical columns, and the position and length of each column block.
+   * Int, long, float, double and categorical columns are stored as one
+   * contiguous array each, starting on a multiple of 8 bytes. String
+   * columns hold the length of each entry in UTF-8 bytes (-1 for null)
+   * followed by the bytes.
+   */
+  public void writeBinary(File file) throws IOException {
+    loadColumns();
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    writeInt(header, BINARY_MAGIC);
+    writeInt(header, BINARY_VERSION);
+    writeInt(header, 0);  // header length, filled in below
+    writeInt(header, rowCount);
+    writeInt(header, columns.length);
+    header.write(columnTitles != null ? 1 : 0);
+    if (columnTitles != null) {
+      for (int col = 0; col < columns.length; col++) {
+        writeText(header, columnTitles[col]);
+      }
+    }
+    for (int col = 0; col < columns.length; col++) {
+      writeInt(header, columnTypes[col]);
+    }
+    for (int col = 0; col < columns.length; col++) {
+      HashMapBlows categories = columnCategories[col];
+      if (columnTypes[col] == CATEGORICAL && categories != null) {
+        writeInt(header, categories.size());
+        for (String key : categories.indexToData) {
+          writeText(header, key);
+        }
+      } else {
+        writeInt(header, 0);
+      }
+    }
+    int tocStart = header.size();
+    int headerLength = tocStart + 16 * columns.length;
+    byte[] headerBytes = PApplet.expand(header.toByteArray(), headerLength);
+    ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN).putInt(8, headerLength);
+
+    ByteBuffer toc = ByteBuffer.allocate(16 * columns.length);
+    toc.order(ByteOrder.LITTLE_ENDIAN);
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      FileChannel channel = output.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      buffer.put(headerBytes);
+      long position = headerLength;
+      for (int col = 0; col < columns.length; col++) {
+        // start each block on a multiple of 8
+        while (position % 8 != 0) {
+          position += putBytes(channel, buffer, new byte[1], 1);
+        }
+        long start = position;
+        Object data = columns[col];
+        switch (columnTypes[col]) {
+          case INT:
+          case CATEGORICAL: {
+            int[] intData = (int[]) data;
+            for (int row = 0; row < rowCount; ) {
+              drainIfFull(channel, buffer, 4);
+              int count = Math.min(rowCount - row, buffer.remaining() / 4);
+              buffer.asIntBuffer().put(intData, row, count);
+              buffer.position(buffer.position() + count * 4);
+              row += count;
             }
-            c[count++] = '\"';
-          } else {
-            // nope, just the end of a quoted csv entry 
-            reader.reset();
-            insideQuote = false;
-            // TODO nothing here that prevents bad csv data from showing up 
-            // after the quote and before the comma...
-//            setString(row, col, new String(c, 0, count));
-//            count = 0;
-//            col++;
-//            insideQuote = false;
+            position += 4L * rowCount;
+            break;
           }
-        } else {  // inside a quote, but the character isn't a quote
-          if (count == c.length) {
-            c = PApplet.expand(c);
+          case LONG: {
+            long[] longData = (long[]) data;
+            for (int row = 0; row < rowCount; ) {
+              drainIfFull(channel, buffer, 8);
+              int count = Math.min(rowCount - row, buffer.remaining() / 8);
+              buffer.asLongBuffer().put(longData, row, count);
+              buffer.position(buffer.position() + count * 8);
+              row += count;
+            }
+            position += 8L * rowCount;
+            break;
           }
-          c[count++] = (char) ch;
-        }        
-      } else {  // not inside a quote
-        if (ch == '\"') {
-          insideQuote = true;
-
-        } else if (ch == '\r') {
-          // check to see if next is a '\n'
-          reader.mark(1);
-          if (reader.read() != '\n') {
-            reader.reset();
+          case FLOAT: {
+            float[] floatData = (float[]) data;
+            for (int row = 0; row < rowCount; ) {
+              drainIfFull(channel, buffer, 4);
+              int count = Math.min(rowCount - row, buffer.remaining() / 4);
+              buffer.asFloatBuffer().put(floatData, row, count);
+              buffer.position(buffer.position() + count * 4);
+              row += count;
+            }
+            position += 4L * rowCount;
+            break;
           }
-          setString(row, col, new String(c, 0, count));
-          count = 0;
-          row++;
-          col = 0;
+          case DOUBLE: {
+            double[] doubleData = (double[]) data;
+            for (int row = 0; row < rowCount; ) {
+              drainIfFull(channel, buffer, 8);
+              int count = Math.min(rowCount - row, buffer.remaining() / 8);
+              buffer.asDoubleBuffer().put(doubleData, row, count);
+              buffer.position(buffer.position() + count * 8);
+              row += count;
+            }
+            position += 8L * rowCount;
+            break;
+          }
+          case STRING: {
+            String[] stringData = (String[]) data;
+            for (int row = 0; row < rowCount; row++) {
+              drainIfFull(channel, buffer, 4);
+              if (stringData[row] == null) {
+                buffer.putInt(-1);
+                position += 4;
+              } else {
+                byte[] bytes = stringData[row].getBytes(UTF8);
+                buffer.putInt(bytes.length);
+                position += 4 + putBytes(channel, buffer, bytes, bytes.length);
+              }
+            }
+            break;
+          }
+        }
+        toc.putLong(start);
+        toc.putLong(position - start);
+      }
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      toc.flip();
+      channel.write(toc, tocStart);
+    } finally {
+      output.close();
+    }
+  }
+
+
+  /**
+   * Open a file from writeBinary(). Nothing is parsed or copied up front: 
+   * the column blocks are memory mapped, get*ColumnView() reads them 
+   * directly, and a column is only copied into an array the first time an
+   * entry of it is used. Changing the table loads all the columns.
+   */
+  static public Table mapBinary(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      ByteBuffer start = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+      while (start.hasRemaining()) {
+        if (channel.read(start, start.position()) == -1) {
+          throw new EOFException(file + " is not a binary table.");
+        }
+      }
+      if (start.getInt(0) != BINARY_MAGIC) {
+        throw new IOException(file + " is not a binary table.");
+      }
+      if (start.getInt(4) != BINARY_VERSION) {
+        throw new IOException(file + " is a binary table of an unknown version.");
+      }
+      int headerLength = start.getInt(8);
+      ByteBuffer header =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, headerLength);
+      header.order(ByteOrder.LITTLE_ENDIAN);
+      header.position(12);
+
+      Table table = new Table();
+      table.rowCount = header.getInt();
+      int columnCount = header.getInt();
+      if (header.get() != 0) {
+        table.columnTitles = new String[columnCount];
+        for (int col = 0; col < columnCount; col++) {
+          table.columnTitles[col] = readText(header);
+        }
+      }
+      table.columnTypes = new int[columnCount];
+      for (int col = 0; col < columnCount; col++) {
+        table.columnTypes[col] = header.getInt();
+      }
+      table.columnCategories = new HashMapBlows[columnCount];
+      for (int col = 0; col < columnCount; col++) {
+        int count = header.getInt();
+        if (table.columnTypes[col] == CATEGORICAL) {
+          HashMapBlows categories = table.new HashMapBlows();
+          for (int i = 0; i < count; i++) {
+            categories.index(readText(header));
+          }
+          table.columnCategories[col] = categories;
+        }
+      }
+      table.columns = new Object[columnCount];
+      table.mappedColumns = new ByteBuffer[columnCount];
+      for (int col = 0; col < columnCount; col++) {
+        long offset = header.getLong();
+        long length = header.getLong();
+        if (length > Integer.MAX_VALUE) {
+          throw new IOException("Column " + col + " is too large to map.");
+        }
+        table.mappedColumns[col] = 
+          channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+      }
+      return table;
+    } finally {
+      raf.close();  // the mappings stay valid
+    }
+  }
+
+
+  /** Copy a mapped column into an array, if it hasn't been already. */
+  protected void loadColumn(int col) {
+    if (mappedColumns == null || mappedColumns[col] == null) {
+      return;
+    }
+    ByteBuffer block = mappedColumns[col].duplicate();
+    block.order(ByteOrder.LITTLE_ENDIAN);
+    switch (columnTypes[col]) {
+      case INT:
+      case CATEGORICAL: {
+        int[] intData = new int[rowCount];
+        block.asIntBuffer().get(intData);
+        columns[col] = intData;
+        break;
+      }
+      case LONG: {
+        long[] longData = new long[rowCount];
+        block.asLongBuffer().get(longData);
+        columns[col] = longData;
+        break;
+      }
+      case FLOAT: {
+        float[] floatData = new float[rowCount];
+        block.asFloatBuffer().get(floatData);
+        columns[col] = floatData;
+        break;
+      }
+      case DOUBLE: {
+        double[] doubleData = new double[rowCount];
+        block.asDoubleBuffer().get(doubleData);
+        columns[col] = doubleData;
+        break;
+      }
+      case STRING: {
+        String[] stringData = new String[rowCount];
+        byte[] bytes = new byte[256];
+        for (int row = 0; row < rowCount; row++) {
+          int length = block.getInt();
+          if (length != -1) {
+            if (length > bytes.length) {
+              bytes = new byte[Math.max(length, bytes.length << 1)];
+            }
+            block.get(bytes, 0, length);
+            stringData[row] = new String(bytes, 0, length, UTF8);
+          }
+        }
+        columns[col] = stringData;
+        break;
+      }
+    }
+    mappedColumns[col] = null;
+  }
+
+
+  /** Copy all the mapped columns into arrays, before the table changes. */
+  protected void loadColumns() {
+    if (mappedColumns != null) {
+      for (int col = 0; col < mappedColumns.length; col++) {
+        loadColumn(col);
+      }
+      mappedColumns = null;
+    }
+  }
+
+
+  /** The mapped block of a column that isn't loaded, otherwise null. */
+  protected ByteBuffer mappedColumn(int col) {
+    if (mappedColumns == null || mappedColumns[col] == null) {
+      return null;
+    }
+    ByteBuffer block = mappedColumns[col].duplicate();
+    return block.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+
+  static private void writeInt(OutputStream output, int value) throws IOException {
+    output.write(value);
+    output.write(value >>> 8);
+    output.write(value >>> 16);
+    output.write(value >>> 24);
+  }
+
+
+  static private void writeText(OutputStream output, String text) throws IOException {
+    if (text == null) {
+      writeInt(output, -1);
+    } else {
+      byte[] bytes = text.getBytes(UTF8);
+      writeInt(output, bytes.length);
+      output.write(bytes);
+    }
+  }
+
+
+  static private String readText(ByteBuffer input) {
+    int length = input.getInt();
+    if (length == -1) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    input.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+
+  static private void drainIfFull(FileChannel channel, ByteBuffer buffer,
+                                  int needed) throws IOException {
+    if (buffer.remaining() < needed) {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+
+
+  static private int putBytes(FileChannel channel, ByteBuffer buffer,
+                              byte[] bytes, int length) throws IOException {
+    int offset = 0;
+    while (offset < length) {
+      drainIfFull(channel, buffer, 1);
+      int count = Math.min(length - offset, buffer.remaining());
+      buffer.put(bytes, offset, count);
+      offset += count;
+    }
+    return length;
+  }
+
+
+  public void parseAwfulCSV(BufferedReader reader) throws IOException {
+    char[] c = new char[100];
+    int count = 0;
+    boolean insideQuote = false;
+    int row = 0;
+    int col = 0;
+    int ch;
+    while ((ch = reader.read()) != -1) {
+      if (insideQuote) {
+        if (ch == '\"') {
+          // this is either the end of a quoted entry, or a quote character
+          reader.mark(1);
+          if (reader.read() == '\"') {
+            // it's "", which means a quote character 
+            if (count == c.length) {
+              c = PApplet.expand(c);
+            }
+            c[count++] = '\"';
+          } else {
+            // nope, just the end of a quoted csv entry 
+            reader.reset();
+            insideQuote = false;
+            // TODO nothing here that prevents bad csv data from showing up 
+            // after the quote and before the comma...
+//            setString(row, col, new String(c, 0, count));
+//            count = 0;
+//            col++;
+//            insideQuote = false;
+          }
+        } else {  // inside a quote, but the character isn't a quote
+          if (count == c.length) {
+            c = PApplet.expand(c);
+          }
+          c[count++] = (char) ch;
+        }        
+      } else {  // not inside a quote
+        if (ch == '\"') {
+          insideQuote = true;
+
+        } else if (ch == '\r') {
+          // check to see if next is a '\n'
+          reader.mark(1);
+          if (reader.read() != '\n') {
+            reader.reset();
+          }
+          setString(row, col, new String(c, 0, count));
+          count = 0;
+          row++;
+          col = 0;
 
         } else if (ch == '\n') {
           setString(row, col, new String(c, 0, count));
@@ -515,6 +1419,7 @@ public class Table implements Iterable<Table.Row> {
       while (i < stop) {
         if (c[i] == '\"') {
           i++;  // skip over pairs of double quotes become one
+          if (i == stop) break;  // unless it's a stray quote at the end
         }
         if (i != ii) {
           c[ii] = c[i];
@@ -535,15 +1440,20 @@ public class Table implements Iterable<Table.Row> {
   
   
   static int nextComma(char[] c, int index) {
+    return nextComma(c, index, c.length);
+  }
+
+
+  static int nextComma(char[] c, int index, int length) {
     boolean quote = false;
-    for (int i = index; i < c.length; i++) {
+    for (int i = index; i < length; i++) {
       if (!quote && (c[i] == ',')) {
         return i;
       } else if (c[i] == '\"') {
         quote = !quote;
       }
     }
-    return c.length;
+    return length;
   }
 
 
@@ -736,6 +1646,7 @@ public class Table implements Iterable<Table.Row> {
 
 
   public void insertColumn(int index, String title, int type) {
+    loadColumns();
     if (title != null && columnTitles == null) {
       columnTitles = new String[columns.length];
     }
@@ -769,6 +1680,7 @@ public class Table implements Iterable<Table.Row> {
 
 
   public void removeColumn(int index) {
+    loadColumns();
     Object[] temp = new Object[columns.length + 1];
     System.arraycopy(columns, 0, temp, 0, index);
     System.arraycopy(columns, index+1, temp, index, (columns.length - index) + 1);
@@ -788,6 +1700,7 @@ public class Table implements Iterable<Table.Row> {
    * @param newCount
    */
   public void setColumnCount(int newCount) {
+    loadColumns();
     int oldCount = columns.length;
     if (oldCount != newCount) {
       columns = (Object[]) PApplet.expand(columns, newCount);
@@ -802,6 +1715,12 @@ public class Table implements Iterable<Table.Row> {
       columnTypes = PApplet.expand(columnTypes, newCount);
       columnCategories = (HashMapBlows[])
         PApplet.expand(columnCategories, newCount);
+      if (hashIndexes != null) {
+        hashIndexes = (HashIndex[]) PApplet.expand(hashIndexes, newCount);
+      }
+      if (sortIndexes != null) {
+        sortIndexes = (SortIndex[]) PApplet.expand(sortIndexes, newCount);
+      }
     }
   }
 
@@ -849,6 +1768,7 @@ public class Table implements Iterable<Table.Row> {
    * @param newType something fresh, maybe try an int or a float for size?
    */
   protected void setColumnType(int column, int newType) {
+    loadColumns();
     switch (newType) {
       case INT: {
         int[] intData = new int[rowCount];
@@ -921,6 +1841,13 @@ public class Table implements Iterable<Table.Row> {
     }
 //    System.out.println("new type is " + newType);
     columnTypes[column] = newType;
+    if (newType != INT && newType != LONG && newType != STRING) {
+      if (hashIndexes != null) hashIndexes[column] = null;
+    }
+    if (newType != INT && newType != LONG && newType != FLOAT && newType != DOUBLE) {
+      if (sortIndexes != null) sortIndexes[column] = null;
+    }
+    staleIndexes(column);
   }
   
   
@@ -1054,6 +1981,7 @@ public class Table implements Iterable<Table.Row> {
 
 
   public void setRowCount(int newCount) {
+    loadColumns();
     if (newCount != rowCount) {
       if (newCount > 1000000) {
         System.out.println("setting row count to " + PApplet.nfc(newCount));
@@ -1068,20 +1996,17 @@ public class Table implements Iterable<Table.Row> {
           case STRING: columns[col] = PApplet.expand((String[]) columns[col], newCount); break;
           case CATEGORICAL: columns[col] = PApplet.expand((int[]) columns[col], newCount); break;
         }
-        if (newCount > 1000000) {
-          try {
-            Thread.sleep(10);  // gc time!
-          } catch (InterruptedException e) {
-            e.printStackTrace();
-          }
-        }
       }
       if (newCount > 1000000) {
         int ms = (int) (System.currentTimeMillis() - t);
         System.out.println("  resize took " + PApplet.nfc(ms) + " ms");
       }
     }
+    int oldCount = rowCount;
     rowCount = newCount;
+    if (hashIndexes != null || sortIndexes != null) {
+      resizeIndexes(oldCount, newCount);
+    }
   }
 
 
@@ -1096,6 +2021,8 @@ public class Table implements Iterable<Table.Row> {
 
 
   public void insertRow(int insert, String[] data) {
+    loadColumns();
+    staleIndexes(-1);  // every row after this one moves
     for (int col = 0; col < columns.length; col++) {
       switch (columnTypes[col]) {
         case CATEGORICAL:
@@ -1142,6 +2069,10 @@ public class Table implements Iterable<Table.Row> {
 
 
   public void removeRow(int dead) {
+    loadColumns();
+    if (hashIndexes != null || sortIndexes != null) {
+      removeIndexedRow(dead);
+    }
     for (int col = 0; col < columns.length; col++) {
       switch (columnTypes[col]) {
         case CATEGORICAL:
@@ -1199,14 +2130,19 @@ public class Table implements Iterable<Table.Row> {
 
   public void setRow(int row, String[] pieces) {
     checkSize(row, pieces.length - 1);
+    unindexRow(row);
     // pieces.length may be less than columns.length, so loop over pieces
     for (int col = 0; col < pieces.length; col++) {
       setRowCol(row, col, pieces[col]);
     }
+    reindexRow(row);
   }
   
   
   protected void setRowCol(int row, int col, String piece) {
+    if (widenColumns) {
+      noteMissing(row, col, piece);
+    }
     switch (columnTypes[col]) {
       case STRING:
         String[] stringData = (String[]) columns[col];
@@ -1214,6 +2150,16 @@ public class Table implements Iterable<Table.Row> {
         break;
       case INT:
         int[] intData = (int[]) columns[col];
+        if (widenColumns && piece != null && piece.length() != 0) {
+          try {
+            intData[row] = Integer.parseInt(piece);
+            break;
+          } catch (NumberFormatException nfe) { }
+          if (widenColumn(col, piece)) {
+            setRowCol(row, col, piece);
+            break;
+          }
+        }
         intData[row] = PApplet.parseInt(piece, missingInt);
         break;
       case LONG:
@@ -1221,11 +2167,28 @@ public class Table implements Iterable<Table.Row> {
         try {
           longData[row] = Long.parseLong(piece);
         } catch (NumberFormatException nfe) {
-          longData[row] = missingLong;
+          if (widenColumns && widenColumn(col, piece)) {
+            setRowCol(row, col, piece);
+          } else {
+            longData[row] = missingLong;
+          }
         }
         break;
       case FLOAT:
         float[] floatData = (float[]) columns[col];
+        if (widenColumns && piece != null && piece.length() != 0) {
+          try {
+            float value = Float.parseFloat(piece);
+            if (significantDigits(piece) <= 7) {
+              floatData[row] = value;
+              break;
+            }
+          } catch (NumberFormatException nfe) { }
+          if (widenColumn(col, piece)) {
+            setRowCol(row, col, piece);
+            break;
+          }
+        }
         floatData[row] = PApplet.parseFloat(piece, missingFloat);
         break;
       case DOUBLE:
@@ -1233,7 +2196,11 @@ public class Table implements Iterable<Table.Row> {
         try {
           doubleData[row] = Double.parseDouble(piece);
         } catch (NumberFormatException nfe) {
-          doubleData[row] = missingDouble;
+          if (widenColumns && widenColumn(col, piece)) {
+            setRowCol(row, col, piece);
+          } else {
+            doubleData[row] = missingDouble;
+          }
         }
         break;
       case CATEGORICAL:
@@ -1246,52 +2213,313 @@ public class Table implements Iterable<Table.Row> {
   }
   
   
-  public void convertRow(DataOutputStream output, String[] pieces) throws IOException {
-    if (pieces.length > getColumnCount()) {
-      throw new IllegalArgumentException("Row with too many columns: " + 
-                                         PApplet.join(pieces, ","));
+  /**
+   * Same as setRow(row, PApplet.split(line, '\t')), but parses the entries
+   * straight from the characters of the line, c[from..to).
+   */
+  protected void setRowTSV(int row, char[] c, int from, int to) {
+    int count = 1;
+    for (int i = from; i < to; i++) {
+      if (c[i] == '\t') count++;
     }
-    // pieces.length may be less than columns.length, so loop over pieces
-    for (int col = 0; col < pieces.length; col++) {
-      switch (columnTypes[col]) {
-      case STRING:
-        output.writeUTF(pieces[col]);
-        break;
-      case INT:
-        output.writeInt(PApplet.parseInt(pieces[col], missingInt));
-        break;
-      case LONG:
-        try {
-          output.writeLong(Long.parseLong(pieces[col]));
-        } catch (NumberFormatException nfe) {
-          output.writeLong(missingLong);
+    checkSize(row, count - 1);
+    unindexRow(row);
+    int col = 0;
+    int start = from;
+    for (int i = from; i < to; i++) {
+      if (c[i] == '\t') {
+        setRowCol(row, col++, c, start, i);
+        start = i + 1;
+      }
+    }
+    setRowCol(row, col, c, start, to);
+    reindexRow(row);
+  }
+
+
+  /**
+   * Same as setRow(row, splitLineCSV(line)), but parses the entries
+   * straight from the characters of the line, c[from..to). Quoted entries
+   * are unescaped in place, so c is modified.
+   */
+  protected void setRowCSV(int row, char[] c, int from, int to) {
+    int rough = 1;  // at least one
+    boolean quote = false;
+    for (int i = from; i < to; i++) {
+      if (!quote && (c[i] == ',')) {
+        rough++;
+      } else if (c[i] == '\"') {
+        quote = !quote;
+      }
+    }
+    checkSize(row, rough - 1);
+    unindexRow(row);
+    int col = 0;
+    int offset = from;
+    while (offset < to) {
+      int start = offset;
+      int stop = nextComma(c, offset, to);
+      offset = stop + 1;  // next time around, need to step over the comma
+      if (c[start] == '\"' && c[stop-1] == '\"') {
+        start++;
+        stop--;
+      }
+      int i = start;
+      int ii = start;
+      while (i < stop) {
+        if (c[i] == '\"') {
+          i++;  // skip over pairs of double quotes become one
+          if (i == stop) break;  // unless it's a stray quote at the end
         }
-        break;
-      case FLOAT:
-        output.writeFloat(PApplet.parseFloat(pieces[col], missingFloat));
-        break;
-      case DOUBLE:
-        try {
-          output.writeDouble(Double.parseDouble(pieces[col]));
-        } catch (NumberFormatException nfe) {
-          output.writeDouble(missingDouble);
+        if (i != ii) {
+          c[ii] = c[i];
         }
-        break;
-      case CATEGORICAL:
-        output.writeInt(columnCategories[col].index(pieces[col]));
-        break;
+        i++;
+        ii++;
       }
+      setRowCol(row, col++, c, start, ii);
     }
-    for (int col = pieces.length; col < getColumnCount(); col++) {
-      switch (columnTypes[col]) {
-      case STRING:
-        output.writeUTF("");
+    // make any remaining entries blanks instead of nulls
+    for (; col < rough; col++) {
+      setRowCol(row, col, "");
+    }
+    reindexRow(row);
+  }
+
+
+  /**
+   * Set an entry from the characters c[start..stop). Whole numbers going to
+   * int and long columns are parsed without making a String; anything else
+   * is handed to setRowCol(row, col, String) so the result is the same.
+   */
+  protected void setRowCol(int row, int col, char[] c, int start, int stop) {
+    switch (columnTypes[col]) {
+      case INT: {
+        long value = parseDigits(c, start, stop);
+        if (value != NOT_DIGITS &&
+            value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+          int[] intData = (int[]) columns[col];
+          intData[row] = (int) value;
+          return;
+        }
         break;
-      case INT:
-        output.writeInt(missingInt);
+      }
+      case LONG: {
+        long value = parseDigits(c, start, stop);
+        if (value != NOT_DIGITS) {
+          long[] longData = (long[]) columns[col];
+          longData[row] = value;
+          return;
+        }
         break;
-      case LONG:
-        output.writeLong(missingLong);
+      }
+    }
+    setRowCol(row, col, new String(c, start, stop - start));
+  }
+
+
+  /**
+   * Change a column to a type that holds both its entries and this one,
+   * when parsing typed columns. Returns false if the entry is empty (or the
+   * missing String), which is left to the column's missing value.
+   */
+  protected boolean widenColumn(int col, String piece) {
+    if (piece == null || piece.length() == 0 || piece.equals(missingString)) {
+      return false;
+    }
+    int type = widerType(columnTypes[col], entryType(piece));
+    if (type == columnTypes[col]) {
+      return false;
+    }
+    convertColumn(col, type);
+    return true;
+  }
+
+
+  /**
+   * Record whether an entry going into a number column while widenColumns 
+   * is set will be stored as the missing value.
+   */
+  protected void noteMissing(int row, int col, String piece) {
+    int type = columnTypes[col];
+    if (type == STRING || type == CATEGORICAL) {
+      return;
+    }
+    boolean empty = (piece != null && piece.length() == 0);
+    boolean missing = empty || piece == null || piece.equals(missingString);
+    if (missingRows == null || missingRows.length <= col) {
+      if (!missing) {
+        return;
+      }
+      int count = Math.max(col + 1, columns.length);
+      BitSet[] missingTemp = new BitSet[count];
+      BitSet[] emptyTemp = new BitSet[count];
+      if (missingRows != null) {
+        System.arraycopy(missingRows, 0, missingTemp, 0, missingRows.length);
+        System.arraycopy(emptyRows, 0, emptyTemp, 0, emptyRows.length);
+      }
+      missingRows = missingTemp;
+      emptyRows = emptyTemp;
+    }
+    if (missingRows[col] == null) {
+      if (!missing) {
+        return;
+      }
+      missingRows[col] = new BitSet();
+      emptyRows[col] = new BitSet();
+    }
+    missingRows[col].set(row, missing);
+    emptyRows[col].set(row, empty);
+  }
+
+
+  /**
+   * Change the type of a column while parsing typed columns. Entries that 
+   * were missing get the missing value of the new type (or stay empty), 
+   * rather than the conversion of the old missing value, so that it doesn't
+   * matter how far into the data the column was widened.
+   */
+  protected void convertColumn(int col, int type) {
+    setColumnType(col, type);
+    if (missingRows == null || col >= missingRows.length || missingRows[col] == null) {
+      return;
+    }
+    BitSet missing = missingRows[col];
+    BitSet empty = emptyRows[col];
+    for (int row = missing.nextSetBit(0); row >= 0 && row < rowCount; 
+         row = missing.nextSetBit(row + 1)) {
+      switch (type) {
+        case STRING:
+          ((String[]) columns[col])[row] = empty.get(row) ? "" : missingString;
+          break;
+        case LONG:
+          ((long[]) columns[col])[row] = missingLong;
+          break;
+        case FLOAT:
+          ((float[]) columns[col])[row] = missingFloat;
+          break;
+        case DOUBLE:
+          ((double[]) columns[col])[row] = missingDouble;
+          break;
+      }
+    }
+    if (type == STRING) {
+      missingRows[col] = null;  // entries are kept as they are from now on
+      emptyRows[col] = null;
+    }
+    staleIndexes(col);
+  }
+
+
+  /** The narrowest column type that holds this entry exactly. */
+  static int entryType(String piece) {
+    try {
+      long value = Long.parseLong(piece);
+      return (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) ? LONG : INT;
+    } catch (NumberFormatException nfe) { }
+    try {
+      Double.parseDouble(piece);
+      return (significantDigits(piece) > 7) ? DOUBLE : FLOAT;
+    } catch (NumberFormatException nfe) { }
+    return STRING;
+  }
+
+
+  /**
+   * The narrowest column type that holds every entry of either type exactly.
+   * A double can hold any int or float, but not every long.
+   */
+  static int widerType(int a, int b) {
+    if (a == b) {
+      return a;
+    }
+    int lo = Math.min(a, b);
+    int hi = Math.max(a, b);
+    if (lo == INT && hi == LONG) {
+      return LONG;
+    }
+    if ((lo == INT || lo == FLOAT) && (hi == FLOAT || hi == DOUBLE)) {
+      return DOUBLE;
+    }
+    return STRING;
+  }
+
+
+  static final long NOT_DIGITS = Long.MIN_VALUE;
+
+  /**
+   * Parse an optional sign and 1 to 18 ASCII digits, which always fit in a
+   * long. Returns NOT_DIGITS for anything else, including longer numbers,
+   * which are left to Long.parseLong().
+   */
+  static long parseDigits(char[] c, int start, int stop) {
+    int i = start;
+    boolean negative = false;
+    if (i < stop && (c[i] == '-' || c[i] == '+')) {
+      negative = (c[i] == '-');
+      i++;
+    }
+    if (i == stop || stop - i > 18) {
+      return NOT_DIGITS;
+    }
+    long value = 0;
+    for (; i < stop; i++) {
+      int digit = c[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return NOT_DIGITS;
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+
+  public void convertRow(DataOutputStream output, String[] pieces) throws IOException {
+    if (pieces.length > getColumnCount()) {
+      throw new IllegalArgumentException("Row with too many columns: " + 
+                                         PApplet.join(pieces, ","));
+    }
+    // pieces.length may be less than columns.length, so loop over pieces
+    for (int col = 0; col < pieces.length; col++) {
+      switch (columnTypes[col]) {
+      case STRING:
+        output.writeUTF(pieces[col]);
+        break;
+      case INT:
+        output.writeInt(PApplet.parseInt(pieces[col], missingInt));
+        break;
+      case LONG:
+        try {
+          output.writeLong(Long.parseLong(pieces[col]));
+        } catch (NumberFormatException nfe) {
+          output.writeLong(missingLong);
+        }
+        break;
+      case FLOAT:
+        output.writeFloat(PApplet.parseFloat(pieces[col], missingFloat));
+        break;
+      case DOUBLE:
+        try {
+          output.writeDouble(Double.parseDouble(pieces[col]));
+        } catch (NumberFormatException nfe) {
+          output.writeDouble(missingDouble);
+        }
+        break;
+      case CATEGORICAL:
+        output.writeInt(columnCategories[col].index(pieces[col]));
+        break;
+      }
+    }
+    for (int col = pieces.length; col < getColumnCount(); col++) {
+      switch (columnTypes[col]) {
+      case STRING:
+        output.writeUTF("");
+        break;
+      case INT:
+        output.writeInt(missingInt);
+        break;
+      case LONG:
+        output.writeLong(missingLong);
         break;
       case FLOAT:
         output.writeFloat(missingFloat);
@@ -1603,8 +2831,10 @@ public class Table implements Iterable<Table.Row> {
       if (columnTypes[column] != INT) {
         throw new IllegalArgumentException("Column " + column + " is not an int column.");
       }
+      unindex(row, column);
       int[] intData = (int[]) columns[column];
       intData[row] = what;
+      reindex(row, column);
     }
   }
 
@@ -1617,6 +2847,11 @@ public class Table implements Iterable<Table.Row> {
 
   public int[] getIntColumn(int col) {
     int[] outgoing = new int[rowCount];
+    if (columnTypes[col] == INT) {
+      loadColumn(col);
+      System.arraycopy(columns[col], 0, outgoing, 0, rowCount);
+      return outgoing;
+    }
     for (int row = 0; row < rowCount; row++) {
       outgoing[row] = getInt(row, col);
     }
@@ -1624,6 +2859,30 @@ public class Table implements Iterable<Table.Row> {
   }
   
   
+  public IntBuffer getIntColumnView(String name) {
+    int col = getColumnIndex(name);
+    return (col == -1) ? null : getIntColumnView(col);
+  }
+
+
+  /**
+   * Read-only view of an int column, without copying it. The view reflects
+   * later changes to the entries, but not to the row count: get a new one
+   * after adding or removing rows. For a table from mapBinary(), the view
+   * reads the file directly until the table is changed.
+   */
+  public IntBuffer getIntColumnView(int col) {
+    if (columnTypes[col] != INT) {
+      throw new IllegalArgumentException("Column " + col + " is not an int column.");
+    }
+    ByteBuffer mapped = mappedColumn(col);
+    if (mapped != null) {
+      return mapped.asIntBuffer().asReadOnlyBuffer();
+    }
+    return IntBuffer.wrap((int[]) columns[col], 0, rowCount).slice().asReadOnlyBuffer();
+  }
+
+
   public int[] getIntRow(int row) {
     int[] outgoing = new int[columns.length];
     for (int col = 0; col < columns.length; col++) {
@@ -1673,8 +2932,10 @@ public class Table implements Iterable<Table.Row> {
       if (columnTypes[column] != LONG) {
         throw new IllegalArgumentException("Column " + column + " is not a 'long' column.");
       }
+      unindex(row, column);
       long[] longData = (long[]) columns[column];
       longData[row] = what;
+      reindex(row, column);
     }
   }
 
@@ -1687,6 +2948,11 @@ public class Table implements Iterable<Table.Row> {
 
   public long[] getLongColumn(int col) {
     long[] outgoing = new long[rowCount];
+    if (columnTypes[col] == LONG) {
+      loadColumn(col);
+      System.arraycopy(columns[col], 0, outgoing, 0, rowCount);
+      return outgoing;
+    }
     for (int row = 0; row < rowCount; row++) {
       outgoing[row] = getLong(row, col);
     }
@@ -1694,6 +2960,30 @@ public class Table implements Iterable<Table.Row> {
   }
   
   
+  public LongBuffer getLongColumnView(String name) {
+    int col = getColumnIndex(name);
+    return (col == -1) ? null : getLongColumnView(col);
+  }
+
+
+  /**
+   * Read-only view of a 'long' column, without copying it. The view reflects
+   * later changes to the entries, but not to the row count: get a new one
+   * after adding or removing rows. For a table from mapBinary(), the view
+   * reads the file directly until the table is changed.
+   */
+  public LongBuffer getLongColumnView(int col) {
+    if (columnTypes[col] != LONG) {
+      throw new IllegalArgumentException("Column " + col + " is not a 'long' column.");
+    }
+    ByteBuffer mapped = mappedColumn(col);
+    if (mapped != null) {
+      return mapped.asLongBuffer().asReadOnlyBuffer();
+    }
+    return LongBuffer.wrap((long[]) columns[col], 0, rowCount).slice().asReadOnlyBuffer();
+  }
+
+
   public long[] getLongRow(int row) {
     long[] outgoing = new long[columns.length];
     for (int col = 0; col < columns.length; col++) {
@@ -1744,8 +3034,10 @@ public class Table implements Iterable<Table.Row> {
       if (columnTypes[column] != FLOAT) {
         throw new IllegalArgumentException("Column " + column + " is not a float column.");
       }
+      unindex(row, column);
       float[] longData = (float[]) columns[column];
       longData[row] = what;
+      reindex(row, column);
     }
   }
 
@@ -1758,6 +3050,11 @@ public class Table implements Iterable<Table.Row> {
   
   public float[] getFloatColumn(int col) {
     float[] outgoing = new float[rowCount];
+    if (columnTypes[col] == FLOAT) {
+      loadColumn(col);
+      System.arraycopy(columns[col], 0, outgoing, 0, rowCount);
+      return outgoing;
+    }
     for (int row = 0; row < rowCount; row++) {
       outgoing[row] = getFloat(row, col);
     }
@@ -1765,6 +3062,30 @@ public class Table implements Iterable<Table.Row> {
   }
   
   
+  public FloatBuffer getFloatColumnView(String name) {
+    int col = getColumnIndex(name);
+    return (col == -1) ? null : getFloatColumnView(col);
+  }
+
+
+  /**
+   * Read-only view of a float column, without copying it. The view reflects
+   * later changes to the entries, but not to the row count: get a new one
+   * after adding or removing rows. For a table from mapBinary(), the view
+   * reads the file directly until the table is changed.
+   */
+  public FloatBuffer getFloatColumnView(int col) {
+    if (columnTypes[col] != FLOAT) {
+      throw new IllegalArgumentException("Column " + col + " is not a float column.");
+    }
+    ByteBuffer mapped = mappedColumn(col);
+    if (mapped != null) {
+      return mapped.asFloatBuffer().asReadOnlyBuffer();
+    }
+    return FloatBuffer.wrap((float[]) columns[col], 0, rowCount).slice().asReadOnlyBuffer();
+  }
+
+
   public float[] getFloatRow(int row) {
     float[] outgoing = new float[columns.length];
     for (int col = 0; col < columns.length; col++) {
@@ -1814,8 +3135,10 @@ public class Table implements Iterable<Table.Row> {
       if (columnTypes[column] != DOUBLE) {
         throw new IllegalArgumentException("Column " + column + " is not a 'double' column.");
       }
+      unindex(row, column);
       double[] doubleData = (double[]) columns[column];
       doubleData[row] = what;
+      reindex(row, column);
     }
   }
   
@@ -1828,6 +3151,11 @@ public class Table implements Iterable<Table.Row> {
   
   public double[] getDoubleColumn(int col) {
     double[] outgoing = new double[rowCount];
+    if (columnTypes[col] == DOUBLE) {
+      loadColumn(col);
+      System.arraycopy(columns[col], 0, outgoing, 0, rowCount);
+      return outgoing;
+    }
     for (int row = 0; row < rowCount; row++) {
       outgoing[row] = getDouble(row, col);
     }
@@ -1835,6 +3163,30 @@ public class Table implements Iterable<Table.Row> {
   }
 
 
+  public DoubleBuffer getDoubleColumnView(String name) {
+    int col = getColumnIndex(name);
+    return (col == -1) ? null : getDoubleColumnView(col);
+  }
+
+
+  /**
+   * Read-only view of a 'double' column, without copying it. The view reflects
+   * later changes to the entries, but not to the row count: get a new one
+   * after adding or removing rows. For a table from mapBinary(), the view
+   * reads the file directly until the table is changed.
+   */
+  public DoubleBuffer getDoubleColumnView(int col) {
+    if (columnTypes[col] != DOUBLE) {
+      throw new IllegalArgumentException("Column " + col + " is not a 'double' column.");
+    }
+    ByteBuffer mapped = mappedColumn(col);
+    if (mapped != null) {
+      return mapped.asDoubleBuffer().asReadOnlyBuffer();
+    }
+    return DoubleBuffer.wrap((double[]) columns[col], 0, rowCount).slice().asReadOnlyBuffer();
+  }
+
+
   public double[] getDoubleRow(int row) {
     double[] outgoing = new double[columns.length];
     for (int col = 0; col < columns.length; col++) {
@@ -1938,8 +3290,10 @@ public class Table implements Iterable<Table.Row> {
     if (columnTypes[column] != STRING) {
       throw new IllegalArgumentException("Column " + column + " is not a String column.");
     }
+    unindex(row, column);
     String[] stringData = (String[]) columns[column];
     stringData[row] = what;
+    reindex(row, column);
   }
 
 
@@ -1981,6 +3335,7 @@ public class Table implements Iterable<Table.Row> {
    * If columns are typed, then this will only apply to String columns.
    */
   public void makeNullEmpty() {
+    loadColumns();
     for (int col = 0; col < columns.length; col++) {
       if (columnTypes[col] == STRING) {
         String[] stringData = (String[]) columns[col];
@@ -1989,6 +3344,7 @@ public class Table implements Iterable<Table.Row> {
             stringData[row] = "";
           }
         }
+        staleIndexes(col);
       }
     }
   }
@@ -1999,6 +3355,7 @@ public class Table implements Iterable<Table.Row> {
    * If columns are typed, then this will only apply to String columns.
    */
   public void makeEmptyNull() {
+    loadColumns();
     for (int col = 0; col < columns.length; col++) {
       if (columnTypes[col] == STRING) {
         String[] stringData = (String[]) columns[col];
@@ -2007,6 +3364,7 @@ public class Table implements Iterable<Table.Row> {
             stringData[row] = null;
           }
         }
+        staleIndexes(col);
       }
     }
   }
@@ -2102,9 +3460,21 @@ public class Table implements Iterable<Table.Row> {
    * @param column the column to search
    */
   public int findRow(String what, int column) {
-    checkBounds(-1, column);
+    checkColumnBounds(column);
     if (columnTypes[column] == STRING) {
       String[] stringData = (String[]) columns[column];
+      HashIndex index = hashIndex(column);
+      if (index != null) {
+        int found = -1;
+        int hash = mix(what == null ? 0 : what.hashCode());
+        for (int row = index.first(hash); row != -1; row = index.next[row]) {
+          if ((what == null ? stringData[row] == null : what.equals(stringData[row])) &&
+              (found == -1 || row < found)) {
+            found = row;
+          }
+        }
+        return found;
+      }
       if (what == null) {
         for (int row = 0; row < rowCount; row++) {
           if (stringData[row] == null) return row;
@@ -2149,10 +3519,13 @@ public class Table implements Iterable<Table.Row> {
    * @param column the column to search
    */
   public int[] findRows(String what, int column) {
+    checkColumnBounds(column);
+    if (columnTypes[column] == STRING && hashIndex(column) != null) {
+      return findIndexedRows(what, column);
+    }
     int[] outgoing = new int[rowCount];
     int count = 0;
     
-    checkBounds(-1, column);
     if (columnTypes[column] == STRING) {
       String[] stringData = (String[]) columns[column];
       if (what == null) {
@@ -2193,7 +3566,679 @@ public class Table implements Iterable<Table.Row> {
   public int[] findRows(String what, String columnName) {
     return findRows(what, getColumnIndex(columnName));
   }
-  
+
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  HashIndex[] hashIndexes;  // [column], null until an index is added
+  SortIndex[] sortIndexes;
+
+
+  /**
+   * Keep a hash index on an int, long or String column, so that findRow()
+   * and findRows() look up a value instead of scanning the column. The index follows the table as
+   * entries are set and rows are added or removed.
+   * @param column the column to index
+   */
+  public void addHashIndex(int column) {
+    checkColumnBounds(column);
+    int type = columnTypes[column];
+    if (type != INT && type != LONG && type != STRING) {
+      throw new IllegalArgumentException("Column " + column + " is not an int, long or String column.");
+    }
+    loadColumns();
+    if (hashIndexes == null) {
+      hashIndexes = new HashIndex[columns.length];
+    }
+    hashIndexes[column] = new HashIndex(column);
+  }
+
+
+  public void addHashIndex(String columnName) {
+    addHashIndex(getColumnIndex(columnName));
+  }
+
+
+  /**
+   * Keep the rows of a numeric column sorted by value, so that 
+   * findRowsBetween() can use a binary search. The order is updated as
+   * entries are set and rows are added or removed.
+   * @param column the int, long, float or double column to index
+   */
+  public void addSortIndex(int column) {
+    checkColumnBounds(column);
+    checkNumeric(column);
+    loadColumns();
+    if (sortIndexes == null) {
+      sortIndexes = new SortIndex[columns.length];
+    }
+    sortIndexes[column] = new SortIndex(column);
+  }
+
+
+  public void addSortIndex(String columnName) {
+    addSortIndex(getColumnIndex(columnName));
+  }
+
+
+  /** Drop the hash and sort indexes of a column. */
+  public void removeIndexes(int column) {
+    if (hashIndexes != null && column < hashIndexes.length) {
+      hashIndexes[column] = null;
+    }
+    if (sortIndexes != null && column < sortIndexes.length) {
+      sortIndexes[column] = null;
+    }
+  }
+
+
+  /**
+   * Return the first row with this value, or -1. Compares numerically in
+   * int and long columns, and uses the hash index if there is one.
+   */
+  public int findRow(int what, int column) {
+    checkColumnBounds(column);
+    HashIndex index = hashIndex(column);
+    if (index != null && (columnTypes[column] == INT || columnTypes[column] == LONG)) {
+      int found = -1;
+      for (int row = index.first(hashValue(what, column)); row != -1; row = index.next[row]) {
+        if (sameValue(row, column, what) && (found == -1 || row < found)) {
+          found = row;
+        }
+      }
+      return found;
+    }
+    for (int row = 0; row < rowCount; row++) {
+      if (sameValue(row, column, what)) {
+        return row;
+      }
+    }
+    return -1;
+  }
+
+
+  public int findRow(int what, String columnName) {
+    return findRow(what, getColumnIndex(columnName));
+  }
+
+
+  /**
+   * Return the rows with this value, in order. If there are no matches, a 
+   * zero length array is returned. Uses the hash index if there is one.
+   */
+  public int[] findRows(int what, int column) {
+    checkColumnBounds(column);
+    HashIndex index = hashIndex(column);
+    if (index != null && (columnTypes[column] == INT || columnTypes[column] == LONG)) {
+      int[] outgoing = new int[16];
+      int count = 0;
+      for (int row = index.first(hashValue(what, column)); row != -1; row = index.next[row]) {
+        if (sameValue(row, column, what)) {
+          if (count == outgoing.length) {
+            outgoing = PApplet.expand(outgoing);
+          }
+          outgoing[count++] = row;
+        }
+      }
+      outgoing = PApplet.subset(outgoing, 0, count);
+      Arrays.sort(outgoing);
+      return outgoing;
+    }
+    int[] outgoing = new int[rowCount];
+    int count = 0;
+    for (int row = 0; row < rowCount; row++) {
+      if (sameValue(row, column, what)) {
+        outgoing[count++] = row;
+      }
+    }
+    return PApplet.subset(outgoing, 0, count);
+  }
+
+
+  public int[] findRows(int what, String columnName) {
+    return findRows(what, getColumnIndex(columnName));
+  }
+
+
+  /**
+   * Return the rows whose value is between low and high (inclusive), in
+   * order. Uses the sort index if there is one, otherwise scans the column.
+   * @param column an int, long, float or double column
+   */
+  public int[] findRowsBetween(double low, double high, int column) {
+    checkColumnBounds(column);
+    checkNumeric(column);
+    SortIndex index = sortIndex(column);
+    if (index != null) {
+      int start = index.lowerBound(low);
+      int stop = index.upperBound(high);
+      if (stop <= start) {
+        return new int[0];
+      }
+      int[] outgoing = new int[stop - start];
+      System.arraycopy(index.order, start, outgoing, 0, outgoing.length);
+      Arrays.sort(outgoing);
+      return outgoing;
+    }
+    int[] outgoing = new int[rowCount];
+    int count = 0;
+    for (int row = 0; row < rowCount; row++) {
+      double value = numericValue(row, column);
+      if (value >= low && value <= high) {
+        outgoing[count++] = row;
+      }
+    }
+    return PApplet.subset(outgoing, 0, count);
+  }
+
+
+  public int[] findRowsBetween(double low, double high, String columnName) {
+    return findRowsBetween(low, high, getColumnIndex(columnName));
+  }
+
+
+  private int[] findIndexedRows(String what, int column) {
+    String[] stringData = (String[]) columns[column];
+    HashIndex index = hashIndex(column);
+    int[] outgoing = new int[16];
+    int count = 0;
+    int hash = mix(what == null ? 0 : what.hashCode());
+    for (int row = index.first(hash); row != -1; row = index.next[row]) {
+      if (what == null ? stringData[row] == null : what.equals(stringData[row])) {
+        if (count == outgoing.length) {
+          outgoing = PApplet.expand(outgoing);
+        }
+        outgoing[count++] = row;
+      }
+    }
+    outgoing = PApplet.subset(outgoing, 0, count);
+    Arrays.sort(outgoing);
+    return outgoing;
+  }
+
+
+  protected void checkColumnBounds(int column) {
+    if (column < 0 || column >= columns.length) {
+      throw new ArrayIndexOutOfBoundsException("Column " + column + " does not exist.");
+    }
+    loadColumn(column);
+  }
+
+
+  protected void checkNumeric(int column) {
+    int type = columnTypes[column];
+    if (type != INT && type != LONG && type != FLOAT && type != DOUBLE) {
+      throw new IllegalArgumentException("Column " + column + " is not a numeric column.");
+    }
+  }
+
+
+  protected HashIndex hashIndex(int column) {
+    if (hashIndexes == null || hashIndexes[column] == null) {
+      return null;
+    }
+    HashIndex index = hashIndexes[column];
+    if (index.stale) {
+      index.rebuild();
+    }
+    return index;
+  }
+
+
+  protected SortIndex sortIndex(int column) {
+    if (sortIndexes == null || sortIndexes[column] == null) {
+      return null;
+    }
+    SortIndex index = sortIndexes[column];
+    if (index.stale) {
+      index.rebuild();
+    }
+    return index;
+  }
+
+
+  private boolean sameValue(int row, int column, int what) {
+    switch (columnTypes[column]) {
+      case LONG: return ((long[]) columns[column])[row] == what;
+      case FLOAT: return ((float[]) columns[column])[row] == what;
+      case DOUBLE: return ((double[]) columns[column])[row] == what;
+      case STRING: return String.valueOf(what).equals(((String[]) columns[column])[row]);
+      default: return getInt(row, column) == what;
+    }
+  }
+
+
+  private double numericValue(int row, int column) {
+    switch (columnTypes[column]) {
+      case INT: return ((int[]) columns[column])[row];
+      case LONG: return ((long[]) columns[column])[row];
+      case FLOAT: return ((float[]) columns[column])[row];
+      default: return ((double[]) columns[column])[row];
+    }
+  }
+
+
+  /** Hash of an entry. Equal entries always have the same hash. */
+  protected int entryHash(int row, int column) {
+    Object data = columns[column];
+    switch (columnTypes[column]) {
+      case INT: return mix(((int[]) data)[row]);
+      case LONG: return hashLong(((long[]) data)[row]);
+      default: {
+        String str = ((String[]) data)[row];
+        return mix(str == null ? 0 : str.hashCode());
+      }
+    }
+  }
+
+
+  /** Hash that an int or long entry equal to what would have. */
+  private int hashValue(int what, int column) {
+    return (columnTypes[column] == LONG) ? hashLong(what) : mix(what);
+  }
+
+
+  static private int hashLong(long value) {
+    return mix((int) (value ^ (value >>> 32)));
+  }
+
+
+  static private int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return h;
+  }
+
+
+  /** Compare two entries of a column, ordering equal ones by row. */
+  protected int compareEntries(int a, int b, int column) {
+    Object data = columns[column];
+    int result;
+    switch (columnTypes[column]) {
+      case INT: {
+        int[] intData = (int[]) data;
+        result = (intData[a] < intData[b]) ? -1 : ((intData[a] == intData[b]) ? 0 : 1);
+        break;
+      }
+      case LONG: {
+        long[] longData = (long[]) data;
+        result = (longData[a] < longData[b]) ? -1 : ((longData[a] == longData[b]) ? 0 : 1);
+        break;
+      }
+      case FLOAT: {
+        float[] floatData = (float[]) data;
+        result = Float.compare(floatData[a], floatData[b]);
+        break;
+      }
+      default: {
+        double[] doubleData = (double[]) data;
+        result = Double.compare(doubleData[a], doubleData[b]);
+      }
+    }
+    return (result != 0) ? result : ((a < b) ? -1 : ((a == b) ? 0 : 1));
+  }
+
+
+  /** Take an entry out of the column's indexes before it changes. */
+  protected void unindex(int row, int column) {
+    if (hashIndexes != null && hashIndexes[column] != null) {
+      hashIndexes[column].unlink(row);
+    }
+    if (sortIndexes != null && sortIndexes[column] != null) {
+      sortIndexes[column].unlink(row);
+    }
+  }
+
+
+  /** Put an entry back into the column's indexes after it changed. */
+  protected void reindex(int row, int column) {
+    if (hashIndexes != null && hashIndexes[column] != null) {
+      hashIndexes[column].link(row);
+    }
+    if (sortIndexes != null && sortIndexes[column] != null) {
+      sortIndexes[column].link(row);
+    }
+  }
+
+
+  protected void unindexRow(int row) {
+    if (hashIndexes != null || sortIndexes != null) {
+      for (int col = 0; col < columns.length; col++) {
+        unindex(row, col);
+      }
+    }
+  }
+
+
+  protected void reindexRow(int row) {
+    if (hashIndexes != null || sortIndexes != null) {
+      for (int col = 0; col < columns.length; col++) {
+        reindex(row, col);
+      }
+    }
+  }
+
+
+  /** Called by setRowCount() once the columns have the new length. */
+  protected void resizeIndexes(int oldCount, int newCount) {
+    for (int col = 0; col < columns.length; col++) {
+      if (hashIndexes != null && col < hashIndexes.length && hashIndexes[col] != null) {
+        hashIndexes[col].resize(oldCount, newCount);
+      }
+      if (sortIndexes != null && col < sortIndexes.length && sortIndexes[col] != null) {
+        sortIndexes[col].resize(oldCount, newCount);
+      }
+    }
+  }
+
+
+  /** Called by removeRow() before the row is taken out of the columns. */
+  protected void removeIndexedRow(int dead) {
+    for (int col = 0; col < columns.length; col++) {
+      if (hashIndexes != null && col < hashIndexes.length && hashIndexes[col] != null) {
+        hashIndexes[col].removeRow(dead);
+      }
+      if (sortIndexes != null && col < sortIndexes.length && sortIndexes[col] != null) {
+        sortIndexes[col].removeRow(dead);
+      }
+    }
+  }
+
+
+  /** Rebuild the indexes of a column (or all, for -1) on the next lookup. */
+  protected void staleIndexes(int column) {
+    for (int col = 0; col < columns.length; col++) {
+      if (column == -1 || column == col) {
+        if (hashIndexes != null && col < hashIndexes.length && hashIndexes[col] != null) {
+          hashIndexes[col].stale = true;
+        }
+        if (sortIndexes != null && col < sortIndexes.length && sortIndexes[col] != null) {
+          sortIndexes[col].stale = true;
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Rows chained by the hash of their entry. Every bucket is a doubly 
+   * linked list through the next[] and prev[] arrays, so a row can be
+   * unlinked and linked again in constant time when its entry changes.
+   */
+  class HashIndex {
+    static final int UNLINKED = -2;
+
+    int column;
+    int[] heads;   // [bucket] first row, or -1
+    int[] next;    // [row] next row in the bucket, or -1
+    int[] prev;    // [row] previous row in the bucket, -1 at the head, UNLINKED
+    int[] hashes;  // [row] hash of the entry when it was linked
+    int mask;
+    boolean stale;
+
+    HashIndex(int column) {
+      this.column = column;
+      rebuild();
+    }
+
+    void rebuild() {
+      int size = 16;
+      while (size < rowCount * 2) {
+        size <<= 1;
+      }
+      heads = new int[size];
+      Arrays.fill(heads, -1);
+      mask = size - 1;
+      int capacity = Math.max(16, rowCount);
+      next = new int[capacity];
+      prev = new int[capacity];
+      hashes = new int[capacity];
+      Arrays.fill(prev, UNLINKED);
+      stale = false;  // so that link() takes the rows
+      for (int row = 0; row < rowCount; row++) {
+        link(row);
+      }
+    }
+
+    int first(int hash) {
+      return heads[hash & mask];
+    }
+
+    void link(int row) {
+      if (stale || prev[row] != UNLINKED) {
+        return;
+      }
+      int hash = entryHash(row, column);
+      int bucket = hash & mask;
+      hashes[row] = hash;
+      next[row] = heads[bucket];
+      prev[row] = -1;
+      if (heads[bucket] != -1) {
+        prev[heads[bucket]] = row;
+      }
+      heads[bucket] = row;
+    }
+
+    void unlink(int row) {
+      if (stale || row >= prev.length || prev[row] == UNLINKED) {
+        return;
+      }
+      if (prev[row] == -1) {
+        heads[hashes[row] & mask] = next[row];
+      } else {
+        next[prev[row]] = next[row];
+      }
+      if (next[row] != -1) {
+        prev[next[row]] = prev[row];
+      }
+      prev[row] = UNLINKED;
+    }
+
+    void resize(int oldCount, int newCount) {
+      if (stale) {
+        return;
+      }
+      if (newCount > oldCount) {
+        if (newCount * 2 > heads.length) {
+          rebuild();  // too full, hash everything again
+          return;
+        }
+        if (newCount > next.length) {
+          int capacity = Math.max(newCount, next.length << 1);
+          next = PApplet.expand(next, capacity);
+          hashes = PApplet.expand(hashes, capacity);
+          int old = prev.length;
+          prev = PApplet.expand(prev, capacity);
+          Arrays.fill(prev, old, capacity, UNLINKED);
+        }
+        for (int row = oldCount; row < newCount; row++) {
+          link(row);
+        }
+      } else {
+        for (int row = newCount; row < oldCount; row++) {
+          unlink(row);
+        }
+      }
+    }
+
+    /** Remove a row, moving the ones after it up by one. */
+    void removeRow(int dead) {
+      if (stale) {
+        return;
+      }
+      unlink(dead);
+      int count = rowCount;
+      System.arraycopy(next, dead + 1, next, dead, count - dead - 1);
+      System.arraycopy(prev, dead + 1, prev, dead, count - dead - 1);
+      System.arraycopy(hashes, dead + 1, hashes, dead, count - dead - 1);
+      prev[count - 1] = UNLINKED;
+      for (int i = 0; i < heads.length; i++) {
+        if (heads[i] > dead) heads[i]--;
+      }
+      for (int row = 0; row < count - 1; row++) {
+        if (next[row] > dead) next[row]--;
+        if (prev[row] > dead) prev[row]--;
+      }
+    }
+  }
+
+
+  /**
+   * The rows of a numeric column in order of their entries (equal entries
+   * by row), for range lookups. A changed entry is found by binary search
+   * and moved with an array copy.
+   */
+  class SortIndex {
+    int column;
+    int[] order;
+    int count;
+    boolean stale;
+
+    SortIndex(int column) {
+      this.column = column;
+      rebuild();
+    }
+
+    void rebuild() {
+      count = rowCount;
+      order = new int[Math.max(16, count)];
+      for (int row = 0; row < count; row++) {
+        order[row] = row;
+      }
+      // bottom-up merge sort, since the comparison needs the table
+      int[] temp = new int[order.length];
+      for (int width = 1; width < count; width <<= 1) {
+        for (int lo = 0; lo < count - width; lo += width << 1) {
+          int mid = lo + width;
+          int hi = Math.min(lo + (width << 1), count);
+          if (compareEntries(order[mid - 1], order[mid], column) <= 0) {
+            continue;  // already in order
+          }
+          System.arraycopy(order, lo, temp, lo, hi - lo);
+          int i = lo, j = mid, k = lo;
+          while (i < mid && j < hi) {
+            order[k++] = (compareEntries(temp[i], temp[j], column) <= 0) ? temp[i++] : temp[j++];
+          }
+          while (i < mid) order[k++] = temp[i++];
+          while (j < hi) order[k++] = temp[j++];
+        }
+      }
+      stale = false;
+    }
+
+    /** Position of the row in order[], or -(insertion point) - 1. */
+    int search(int row) {
+      int lo = 0;
+      int hi = count - 1;
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        int c = compareEntries(order[mid], row, column);
+        if (c < 0) {
+          lo = mid + 1;
+        } else if (c > 0) {
+          hi = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -(lo + 1);
+    }
+
+    /** First position whose entry is >= value. */
+    int lowerBound(double value) {
+      int lo = 0;
+      int hi = count;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (numericValue(order[mid], column) < value) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+
+    /** First position whose entry is > value. */
+    int upperBound(double value) {
+      int lo = 0;
+      int hi = count;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (numericValue(order[mid], column) <= value) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+
+    void link(int row) {
+      if (stale) {
+        return;
+      }
+      int pos = search(row);
+      if (pos >= 0) {
+        return;  // already there
+      }
+      pos = -(pos + 1);
+      if (count == order.length) {
+        order = PApplet.expand(order, order.length << 1);
+      }
+      System.arraycopy(order, pos, order, pos + 1, count - pos);
+      order[pos] = row;
+      count++;
+    }
+
+    void unlink(int row) {
+      if (stale) {
+        return;
+      }
+      int pos = search(row);
+      if (pos >= 0) {
+        System.arraycopy(order, pos + 1, order, pos, count - pos - 1);
+        count--;
+      }
+    }
+
+    void resize(int oldCount, int newCount) {
+      if (stale) {
+        return;
+      }
+      if (Math.abs(newCount - oldCount) > 64) {
+        rebuild();  // cheaper than moving the array for each row
+      } else if (newCount > oldCount) {
+        for (int row = oldCount; row < newCount; row++) {
+          link(row);
+        }
+      } else {
+        // rows at the end are gone from the columns, so find them by number
+        int k = 0;
+        for (int i = 0; i < count; i++) {
+          if (order[i] < newCount) {
+            order[k++] = order[i];
+          }
+        }
+        count = k;
+      }
+    }
+
+    /** Remove a row, moving the ones after it up by one. */
+    void removeRow(int dead) {
+      if (stale) {
+        return;
+      }
+      unlink(dead);
+      for (int i = 0; i < count; i++) {
+        if (order[i] > dead) order[i]--;
+      }
+    }
+  }
+
 
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
@@ -2297,6 +4342,7 @@ public class Table implements Iterable<Table.Row> {
           stringData[row] = stringData[row].replaceAll(regex, replacement);
         }
       }
+      staleIndexes(column);
     } else {
       throw new IllegalArgumentException("replaceAll() can only be used on String columns");
     }
@@ -2332,6 +4378,7 @@ public class Table implements Iterable<Table.Row> {
   
   
   protected void checkSize(int row, int col) {
+    loadColumns();  // about to change entries
     checkRow(row);
     checkColumn(col);
   }
@@ -2344,6 +4391,9 @@ public class Table implements Iterable<Table.Row> {
     if (column < 0 || column >= columns.length) {
       throw new ArrayIndexOutOfBoundsException("Column " + column + " does not exist.");
     }
+    if (mappedColumns != null) {
+      loadColumn(column);
+    }
   }
 
   
@@ -2608,6 +4658,7 @@ public class Table implements Iterable<Table.Row> {
 
 
   public void trim() {
+    loadColumns();
     for (int col = 0; col < columns.length; col++) {
       String[] stringData = (String[]) columns[col];
       for (int row = 0; row < rowCount; row++) {
@@ -2616,5 +4667,6 @@ public class Table implements Iterable<Table.Row> {
         }
       }
     }
+    staleIndexes(-1);
   }
 }